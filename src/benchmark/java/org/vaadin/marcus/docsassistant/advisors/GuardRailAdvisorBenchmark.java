@@ -0,0 +1,67 @@
+package org.vaadin.marcus.docsassistant.advisors;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.Message;
+import org.vaadin.marcus.docsassistant.benchmark.BenchmarkCorpus;
+import org.vaadin.marcus.docsassistant.benchmark.StubChatModel;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of the guardrail around its model call: formatting the conversation history, and a
+ * whole evaluation against a model that answers instantly, which adds rendering the prompt, the
+ * chat client round trip and parsing the decision.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GuardRailAdvisorBenchmark {
+
+    @Param({"0", "10", "50"})
+    int historyMessages;
+
+    private GuardRailAdvisor advisor;
+    private List<Message> history;
+    private String question;
+
+    @Setup
+    public void setUp() {
+        var chatModel = StubChatModel.builder()
+            .defaultReply("The question is about building views with Vaadin.\nDECISION: ACCEPTABLE")
+            .build();
+        // No verdict cache and no pre-classifier, so every evaluation reaches the model
+        advisor = GuardRailAdvisor.builder()
+            .chatClientBuilder(ChatClient.builder(chatModel))
+            .acceptanceCriteria("Questions should be related to Vaadin, Java or web development.")
+            .meterRegistry(new SimpleMeterRegistry())
+            .build();
+        history = BenchmarkCorpus.conversation(historyMessages);
+        question = BenchmarkCorpus.questions(1).get(0);
+    }
+
+    @Benchmark
+    public String formatConversationHistory() {
+        return advisor.formatConversationHistory(history);
+    }
+
+    @Benchmark
+    public Boolean evaluate() {
+        return advisor.evaluate(question, history).block();
+    }
+}
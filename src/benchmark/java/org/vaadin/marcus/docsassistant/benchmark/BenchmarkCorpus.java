@@ -0,0 +1,100 @@
+package org.vaadin.marcus.docsassistant.benchmark;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates the documents, questions and conversations benchmarks run on. Everything is derived
+ * from a fixed seed, so results of different commits are measured on the same data.
+ */
+public final class BenchmarkCorpus {
+
+    public static final long SEED = 42;
+
+    private static final String[] FRAMEWORKS = {"flow", "hilla", ""};
+
+    private static final String[] WORDS = {
+        "Grid", "setItems", "DataProvider", "lazy", "loading", "column", "renderer", "sorting", "filter",
+        "Binder", "validation", "converter", "bean", "field", "TextField", "ComboBox", "DatePicker", "Dialog",
+        "Notification", "Button", "click", "listener", "layout", "VerticalLayout", "HorizontalLayout",
+        "FormLayout", "route", "@Route", "navigation", "RouterLink", "BeforeEnterEvent", "parameter",
+        "@BrowserCallable", "endpoint", "React", "hook", "useSignal", "signal", "form", "useForm", "TypeScript",
+        "component", "theme", "Lumo", "CSS", "styling", "shadow", "DOM", "push", "@Push", "UI.access",
+        "session", "Spring", "Security", "login", "authentication", "role", "@RolesAllowed", "@AnonymousAllowed",
+        "production", "build", "bundle", "frontend", "npm", "Vite", "hot", "reload", "deployment", "Docker",
+        "server", "client", "state", "event", "bus", "upload", "download", "file", "image", "chart", "map",
+        "the", "a", "to", "in", "with", "and", "how", "when", "use", "can", "you", "your", "application", "view",
+        "data", "user", "value", "change", "update", "show", "create", "add", "remove", "configure", "example"
+    };
+
+    // Half of the words of a text come from the slice of its topic, so texts cluster by topic
+    private static final int TOPIC_SIZE = 10;
+    private static final int TOPICS = 8;
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * Creates documents of about 80 words, spread over the flow, hilla and general partitions.
+     * Four consecutive chunks share a {@code source} page.
+     */
+    public static List<Document> documents(int count) {
+        Random random = new Random(SEED);
+        List<Document> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            documents.add(Document.builder()
+                .id("doc-" + i)
+                .text(sentence(random, random.nextInt(TOPICS), 80))
+                .metadata(Map.of("framework", FRAMEWORKS[i % FRAMEWORKS.length], "source", "docs/page-" + i / 4))
+                .build());
+        }
+        return documents;
+    }
+
+    /**
+     * Creates questions of about 10 words.
+     */
+    public static List<String> questions(int count) {
+        Random random = new Random(SEED + 1);
+        List<String> questions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            questions.add("How do I " + sentence(random, random.nextInt(TOPICS), 8) + "?");
+        }
+        return questions;
+    }
+
+    /**
+     * Creates a conversation of alternating user questions and assistant answers of about 120 words.
+     */
+    public static List<Message> conversation(int messages) {
+        Random random = new Random(SEED + 2);
+        List<Message> conversation = new ArrayList<>(messages);
+        int topic = random.nextInt(TOPICS);
+        for (int i = 0; i < messages; i++) {
+            conversation.add(i % 2 == 0
+                ? new UserMessage("How do I " + sentence(random, topic, 8) + "?")
+                : new AssistantMessage(sentence(random, topic, 120)));
+        }
+        return conversation;
+    }
+
+    private static String sentence(Random random, int topic, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(random.nextBoolean()
+                ? WORDS[topic * TOPIC_SIZE + random.nextInt(TOPIC_SIZE)]
+                : WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.toString();
+    }
+}
@@ -0,0 +1,162 @@
+package org.vaadin.marcus.docsassistant.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.util.FileSystemUtils;
+import org.vaadin.marcus.docsassistant.DocsAssistantProperties;
+import org.vaadin.marcus.docsassistant.benchmark.BenchmarkCorpus;
+import org.vaadin.marcus.docsassistant.benchmark.HashingEmbeddingModel;
+import org.vaadin.marcus.docsassistant.benchmark.StubChatModel;
+import org.vaadin.marcus.docsassistant.memory.BoundedChatMemory;
+import org.vaadin.marcus.docsassistant.vectorstore.HnswVectorStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole {@link DocsAssistantService#stream} request against stand-ins for the model and the
+ * vector store: chat memory, history window, guardrail, query rewrite, retrieval, context packing
+ * and streaming the answer. With the default zero model latency this is the overhead the
+ * application adds to every request; run with {@code -prof gc} for the allocations per request.
+ *
+ * <p>Rewritten queries are memoized as in production, so after warmup the rewrite is a cache hit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DocsAssistantServiceBenchmark {
+
+    private static final int DIMENSIONS = 256;
+    private static final int FOLLOW_UP_CONVERSATIONS = 16;
+
+    private static final String ANSWER = """
+        Use `grid.setItems(query -> service.list(query.getOffset(), query.getLimit()))` to load items \
+        lazily. The grid only fetches the rows that are visible, so large data sets stay fast.""";
+
+    /**
+     * {@code simple} is Spring AI's in-memory store with vector-only retrieval, {@code hnsw} the
+     * replica with hybrid retrieval.
+     */
+    @Param({"simple", "hnsw"})
+    String vectorStore;
+
+    @Param({"2000"})
+    int documents;
+
+    @Param({"0"})
+    long tokenIntervalMicros;
+
+    private DocsAssistantService service;
+    private BoundedChatMemory chatMemory;
+    private VectorStore store;
+    private Path directory;
+    private List<String> questions;
+    private DocsAssistantService.ChatOptions options;
+    private long requests;
+
+    @Setup
+    public void setUp() throws Exception {
+        var chatModel = StubChatModel.builder()
+            .reply("DECISION: ACCEPTABLE", "The question is about Vaadin.\nDECISION: ACCEPTABLE")
+            .reply("rewrite", "grid lazy loading setItems DataProvider")
+            .defaultReply(ANSWER)
+            .tokenInterval(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(tokenIntervalMicros)))
+            .build();
+        var embeddingModel = new HashingEmbeddingModel(DIMENSIONS);
+        var meterRegistry = new SimpleMeterRegistry();
+
+        // Every guardrail evaluation goes to the model, as for new questions in production
+        DocsAssistantProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+            "docs-assistant.guardrail.cache.enabled", "false",
+            "docs-assistant.guardrail.pre-classifier.enabled", "false")))
+            .bindOrCreate("docs-assistant", DocsAssistantProperties.class);
+
+        store = switch (vectorStore) {
+            case "simple" -> SimpleVectorStore.builder(embeddingModel).build();
+            case "hnsw" -> {
+                directory = Files.createTempDirectory("service-benchmark");
+                yield new HnswVectorStore(embeddingModel, directory, DIMENSIONS, "framework", 16, 100, 64,
+                    meterRegistry);
+            }
+            default -> throw new IllegalArgumentException("Unknown vector store: " + vectorStore);
+        };
+        List<Document> corpus = BenchmarkCorpus.documents(documents);
+        for (int i = 0; i < corpus.size(); i += 1000) {
+            store.add(corpus.subList(i, Math.min(corpus.size(), i + 1000)));
+        }
+
+        var memory = properties.memory();
+        chatMemory = new BoundedChatMemory(memory.maxMessagesPerConversation(), memory.maxConversations(),
+            memory.maxSize().toBytes(), memory.idleTimeout(), (int) memory.compressionThreshold().toBytes(),
+            meterRegistry);
+        for (int i = 0; i < FOLLOW_UP_CONVERSATIONS; i++) {
+            chatMemory.add(followUpId(i), BenchmarkCorpus.conversation(20));
+        }
+
+        service = new DocsAssistantService(ChatClient.builder(chatModel), store, chatMemory, embeddingModel, null,
+            null, null, properties, meterRegistry);
+        questions = BenchmarkCorpus.questions(64);
+        options = new DocsAssistantService.ChatOptions("flow");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        service.shutdown();
+        chatMemory.close();
+        if (store instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+        if (directory != null) {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    @Benchmark
+    public List<String> firstTurn() {
+        long request = requests++;
+        String chatId = "first-turn-" + request;
+        List<String> tokens = service.stream(chatId, question(request), options).collectList().block();
+        service.closeChat(chatId);
+        return tokens;
+    }
+
+    @Benchmark
+    public List<String> followUp() {
+        long request = requests++;
+        return service.stream(followUpId((int) (request % FOLLOW_UP_CONVERSATIONS)), question(request), options)
+            .collectList()
+            .block();
+    }
+
+    private String question(long request) {
+        return questions.get((int) (request % questions.size()));
+    }
+
+    private static String followUpId(int i) {
+        return "follow-up-" + i;
+    }
+}
@@ -0,0 +1,158 @@
+package org.vaadin.marcus.docsassistant.ingestion;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.util.FileSystemUtils;
+import org.vaadin.marcus.docsassistant.benchmark.BenchmarkCorpus;
+import org.vaadin.marcus.docsassistant.benchmark.HashingEmbeddingModel;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of ingesting a generated docs checkout into an in-memory vector store: from scratch, and
+ * again after a small share of the pages changed, which only embeds the changed chunks and deletes
+ * the ones they replace. The chunks per second of the last run are printed after each iteration.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DocsIngestionBenchmark {
+
+    private static final int DIMENSIONS = 256;
+    private static final String[] DIRECTORIES = {"flow", "hilla", "components"};
+    private static final int SECTIONS = 4;
+
+    @Param({"1000"})
+    int pages;
+
+    @Param({"0.01"})
+    double changedShare;
+
+    @Param({"1", "4"})
+    int parallelism;
+
+    private Path directory;
+    private Path docs;
+    private Path checkpoint;
+    private DocsIngestionPipeline pipeline;
+    private DocsIngestionPipeline.Result last;
+    private int revision;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("ingestion-benchmark");
+        docs = directory.resolve("articles");
+        checkpoint = directory.resolve("checkpoint");
+        List<Document> paragraphs = BenchmarkCorpus.documents(pages * SECTIONS * 2);
+        for (int page = 0; page < pages; page++) {
+            StringBuilder text = new StringBuilder("---\ntitle: Topic " + page + "\n---\n\n= Topic " + page + "\n\n");
+            for (int section = 0; section < SECTIONS; section++) {
+                int paragraph = (page * SECTIONS + section) * 2;
+                text.append("== Section ").append(section).append("\n\n")
+                    .append(paragraphs.get(paragraph).getText()).append("\n\n")
+                    .append("[source,java]\n----\n// Example ").append(section).append("\nvar grid = new Grid<>();\n----\n\n")
+                    .append(paragraphs.get(paragraph + 1).getText()).append("\n\n");
+            }
+            Path file = page(page);
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, text);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileSystemUtils.deleteRecursively(directory.toFile());
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        if (last != null) {
+            System.out.printf("%n%d chunks, %d embedded, %d deleted, %.0f chunks/s%n", last.chunks(), last.embedded(),
+                last.deleted(), last.chunksPerSecond());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class FromScratch {
+
+        @Setup(Level.Iteration)
+        public void setUp(DocsIngestionBenchmark benchmark) throws IOException {
+            Files.deleteIfExists(benchmark.checkpoint);
+            benchmark.pipeline = benchmark.pipeline();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Incremental {
+
+        @Setup(Level.Trial)
+        public void setUp(DocsIngestionBenchmark benchmark) throws IOException {
+            Files.deleteIfExists(benchmark.checkpoint);
+            benchmark.pipeline = benchmark.pipeline();
+            benchmark.pipeline.ingest(benchmark.docs);
+        }
+
+        @Setup(Level.Iteration)
+        public void change(DocsIngestionBenchmark benchmark) throws IOException {
+            benchmark.revision++;
+            int changed = Math.max(1, (int) (benchmark.pages * benchmark.changedShare));
+            for (int i = 0; i < changed; i++) {
+                int page = (benchmark.revision * changed + i) % benchmark.pages;
+                Files.writeString(benchmark.page(page), "Updated in revision " + benchmark.revision + ".\n",
+                    StandardOpenOption.APPEND);
+            }
+        }
+    }
+
+    @Benchmark
+    public DocsIngestionPipeline.Result fromScratch(FromScratch state) throws IOException {
+        last = pipeline.ingest(docs);
+        return last;
+    }
+
+    @Benchmark
+    public DocsIngestionPipeline.Result incremental(Incremental state) throws IOException {
+        last = pipeline.ingest(docs);
+        return last;
+    }
+
+    private DocsIngestionPipeline pipeline() {
+        return DocsIngestionPipeline.builder()
+            .vectorStore(SimpleVectorStore.builder(new HashingEmbeddingModel(DIMENSIONS)).build())
+            .chunker(new DocsChunker(1500, List.of("flow", "hilla")))
+            .checkpointFile(checkpoint)
+            .batchSize(100)
+            .parallelism(parallelism)
+            .requestsPerSecond(0)
+            .checkpointInterval(Duration.ofSeconds(10))
+            .meterRegistry(new SimpleMeterRegistry())
+            .build();
+    }
+
+    private Path page(int page) {
+        return docs.resolve(DIRECTORIES[page % DIRECTORIES.length]).resolve("topic-" + page).resolve("index.adoc");
+    }
+}
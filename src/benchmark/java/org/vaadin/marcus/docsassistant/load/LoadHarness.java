@@ -0,0 +1,493 @@
+package org.vaadin.marcus.docsassistant.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.lang.Nullable;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+import org.vaadin.marcus.docsassistant.DocsAssistantApplication;
+import org.vaadin.marcus.docsassistant.benchmark.BenchmarkCorpus;
+import org.vaadin.marcus.docsassistant.benchmark.HashingEmbeddingModel;
+import org.vaadin.marcus.docsassistant.client.DocsAssistantService;
+import org.vaadin.marcus.docsassistant.vectorstore.HnswVectorStore;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Replays multi-turn conversations against {@link DocsAssistantService} to find how many concurrent
+ * chats one instance sustains before time to first token degrades.
+ *
+ * <p>The application runs in this JVM with its real configuration, except that the OpenAI API is a
+ * {@link StubOpenAiServer} with realistic latency and token rate, and retrieval is served from an
+ * HNSW replica seeded with a generated corpus, so neither a model nor Pinecone is called. The web
+ * layer is not started: turns call the service bean that Hilla exposes, and the JVM's heap and
+ * thread usage is that of the application plus the virtual threads of the load.
+ *
+ * <p>In the closed-loop mode a fixed number of users each play one conversation after another. In
+ * the open-loop mode conversations arrive at a fixed mean rate with exponential gaps, whether or not
+ * earlier ones have finished, which shows how the instance behaves past saturation.
+ *
+ * <p>Options are given as {@code --name=value}:
+ * <ul>
+ * <li>{@code mode}: {@code closed} (default) or {@code open};</li>
+ * <li>{@code users}: concurrent users of the closed loop, 20 by default;</li>
+ * <li>{@code rate}: conversations per second of the open loop, 2 by default;</li>
+ * <li>{@code duration} and {@code warmup}: of the measured run and the discarded warmup before it,
+ * {@code PT1M} and {@code PT15S} by default;</li>
+ * <li>{@code think-time}: between the turns of a conversation, {@code PT1S} by default;</li>
+ * <li>{@code cancel}: the fraction of turns after which the user leaves at a random moment while the
+ * answer is on its way, 0 by default;</li>
+ * <li>{@code supersede}: the fraction of turns after which the user sends the next message at a
+ * random moment while the answer is on its way, 0 by default;</li>
+ * <li>{@code conversations}: a file of recorded conversations, one JSON object per line such as
+ * {@code {"framework": "flow", "turns": ["How do I ...?", "And ...?"]}}; generated if unset;</li>
+ * <li>{@code first-token-latency}, {@code token-interval}, {@code answer-tokens} and
+ * {@code embedding-latency}: the behavior of the stub model, {@code PT0.5S}, {@code PT0.02S}, 250
+ * and {@code PT0.05S} by default;</li>
+ * <li>{@code first-token-tail} and {@code first-token-tail-latency}: the share of chat completions the
+ * stub model starts answering only after the longer tail latency, 0 and {@code PT5S} by default;</li>
+ * <li>{@code fallback}: whether to start a second stub model and enable hedging, which sends hedged
+ * model requests to it, false by default;</li>
+ * <li>{@code attachments} and {@code attachment-size}: the share of conversations that attach a log
+ * file before their first turn, and its size, 0 and {@code 64KB} by default;</li>
+ * <li>{@code model-concurrency}: the chat completions the stub model serves at once, answering
+ * the others with HTTP 429 like a rate-limited account, unlimited by default;</li>
+ * <li>{@code documents}: the size of the seeded corpus, 5000 by default;</li>
+ * <li>{@code report-interval}: {@code PT10S} by default.</li>
+ * </ul>
+ * Any other option is passed to the application as a property, for example
+ * {@code --docs-assistant.answer-cache.enabled=false}.
+ *
+ * <p>After the run, the requests the stub model completed, the requests the application aborted and
+ * those still running are reported: with cancelled or superseded turns, the aborted requests show
+ * that interrupted chats stop their model calls, and none should be left running. The admission
+ * limit the application ended with and the answers it sent the busy response instead are reported too,
+ * as are the model requests that were hedged and which request won, and how fast attachments were ingested.
+ */
+public class LoadHarness {
+
+    private static final int DIMENSIONS = 1536;
+    private static final Duration TURN_TIMEOUT = Duration.ofMinutes(2);
+    private static final List<String> HARNESS_OPTIONS = List.of("mode", "users", "rate", "duration", "warmup",
+        "think-time", "conversations", "first-token-latency", "token-interval", "answer-tokens", "embedding-latency",
+        "documents", "report-interval", "cancel", "supersede", "model-concurrency", "first-token-tail",
+        "first-token-tail-latency", "fallback", "attachments", "attachment-size");
+    private static final Duration STUB_DRAIN_TIMEOUT = Duration.ofSeconds(10);
+
+    record Conversation(String framework, List<String> turns) {
+    }
+
+    private final Map<String, String> options;
+    private final StubOpenAiServer stub;
+    @Nullable
+    private final StubOpenAiServer fallback;
+    private final DocsAssistantService service;
+    private final MeterRegistry meterRegistry;
+    private final List<Conversation> conversations;
+    private final AtomicLong nextConversation = new AtomicLong();
+    private final AtomicReference<byte[]> attachment = new AtomicReference<>();
+
+    private LoadHarness(Map<String, String> options, StubOpenAiServer stub, @Nullable StubOpenAiServer fallback,
+                        DocsAssistantService service, MeterRegistry meterRegistry, List<Conversation> conversations) {
+        this.options = options;
+        this.stub = stub;
+        this.fallback = fallback;
+        this.service = service;
+        this.meterRegistry = meterRegistry;
+        this.conversations = conversations;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        Map<String, String> properties = new LinkedHashMap<>();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            String value = option.length > 1 ? option[1] : "true";
+            if (HARNESS_OPTIONS.contains(option[0])) {
+                options.put(option[0], value);
+            } else {
+                properties.put(option[0], value);
+            }
+        }
+
+        Path directory = Files.createTempDirectory("docs-assistant-load");
+        seedReplica(directory.resolve("vector-index"), Integer.parseInt(options.getOrDefault("documents", "5000")));
+
+        Map<String, String> replies = new LinkedHashMap<>();
+        replies.put("DECISION: ACCEPTABLE", "The question is about Vaadin development.\nDECISION: ACCEPTABLE");
+        replies.put("running summary", "The user is building a Vaadin application and asked about the grid.");
+        replies.put("rewrite", "grid lazy loading setItems DataProvider");
+
+        try (var stub = stub(options, replies);
+             var fallback = Boolean.parseBoolean(options.getOrDefault("fallback", "false"))
+                 ? stub(options, replies)
+                 : null) {
+
+            properties.putIfAbsent("spring.ai.openai.api-key", "stub");
+            properties.put("spring.ai.openai.base-url", stub.baseUrl());
+            if (fallback != null) {
+                properties.putIfAbsent("docs-assistant.hedging.enabled", "true");
+                properties.put("docs-assistant.hedging.fallback.base-url", fallback.baseUrl());
+            }
+            properties.put("spring.autoconfigure.exclude",
+                "org.springframework.ai.autoconfigure.vectorstore.pinecone.PineconeVectorStoreAutoConfiguration");
+            // The replica is seeded above instead of by docs ingestion
+            properties.put("docs-assistant.replica.enabled", "true");
+            properties.put("docs-assistant.replica.directory", directory.resolve("vector-index").toString());
+            properties.put("docs-assistant.embedding-cache.file", directory.resolve("embedding-cache.bin").toString());
+            properties.put("docs-assistant.memory.log.directory", directory.resolve("chat-log").toString());
+            // The web layer is started like in production, but not driven, so no frontend is needed
+            properties.putIfAbsent("server.port", "0");
+            properties.putIfAbsent("management.server.port", "0");
+            properties.putIfAbsent("vaadin.productionMode", "true");
+            properties.putIfAbsent("spring.main.banner-mode", "off");
+            properties.putIfAbsent("logging.level.root", "WARN");
+
+            // As command line arguments, the properties take precedence over application.properties
+            String[] applicationArgs = properties.entrySet().stream()
+                .map(property -> "--" + property.getKey() + "=" + property.getValue())
+                .toArray(String[]::new);
+            try (ConfigurableApplicationContext context = new SpringApplicationBuilder(DocsAssistantApplication.class)
+                .run(applicationArgs)) {
+                var harness = new LoadHarness(options, stub, fallback, context.getBean(DocsAssistantService.class),
+                    context.getBean(MeterRegistry.class), conversations(options));
+                harness.run();
+            }
+        } finally {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    private void run() throws InterruptedException {
+        String mode = options.getOrDefault("mode", "closed");
+        Duration warmup = duration(options, "warmup", "PT15S");
+        Duration duration = duration(options, "duration", "PT1M");
+        System.out.printf("Load test in %s-loop mode, %s warmup and %s measured%n", mode, warmup, duration);
+
+        if (!warmup.isZero()) {
+            phase(mode, warmup, new LoadStatistics(), false);
+        }
+        LoadStatistics statistics = new LoadStatistics();
+        phase(mode, duration, statistics, true);
+        System.out.println();
+        System.out.println(statistics.summary());
+
+        // Only background work, such as conversation summaries, may still be calling the model
+        long drained = System.nanoTime() + STUB_DRAIN_TIMEOUT.toNanos();
+        while ((stub.running() > 0 || fallback != null && fallback.running() > 0) && System.nanoTime() < drained) {
+            Thread.sleep(100);
+        }
+        System.out.printf("model requests      %s completed, %s aborted, %s rate limited, %d still running%n",
+            stub.completed(), stub.aborted(), stub.rateLimited(), stub.running());
+        if (fallback != null) {
+            System.out.printf("fallback requests   %s completed, %s aborted, %s rate limited, %d still running%n",
+                fallback.completed(), fallback.aborted(), fallback.rateLimited(), fallback.running());
+        }
+
+        Map<String, Long> rejected = new TreeMap<>();
+        meterRegistry.find("docs.assistant.chat.admission.rejected").counters().forEach(counter ->
+            rejected.put(counter.getId().getTag("reason"), (long) counter.count()));
+        Gauge limit = meterRegistry.find("docs.assistant.chat.admission.limit").gauge();
+        if (limit != null) {
+            System.out.printf("admission           limit %d, busy responses %s%n", (long) limit.value(), rejected);
+        }
+
+        Timer ingestion = meterRegistry.find("docs.assistant.attachments.ingestion").tag("outcome", "ingested").timer();
+        DistributionSummary ingestionRate = meterRegistry.find("docs.assistant.attachments.ingestion.rate").summary();
+        if (ingestion != null && ingestion.count() > 0 && ingestionRate != null) {
+            Map<String, Long> rejectedAttachments = new TreeMap<>();
+            meterRegistry.find("docs.assistant.attachments.rejected").counters().forEach(counter ->
+                rejectedAttachments.put(counter.getId().getTag("reason"), (long) counter.count()));
+            System.out.printf("attachments         %d ingested in %.1fms on average at %.0f KB/s, rejected %s%n",
+                ingestion.count(), ingestion.mean(TimeUnit.MILLISECONDS), ingestionRate.mean() / 1024,
+                rejectedAttachments);
+        }
+
+        Map<String, Long> hedges = new TreeMap<>();
+        meterRegistry.find("docs.assistant.model.hedges").counters().forEach(counter ->
+            hedges.merge(counter.getId().getTag("outcome"), (long) counter.count(), Long::sum));
+        if (!hedges.isEmpty()) {
+            System.out.printf("hedged requests     %s%n", hedges);
+        }
+    }
+
+    private void phase(String mode, Duration duration, LoadStatistics statistics, boolean report)
+        throws InterruptedException {
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "load-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(statistics::sampleJvm, 0, 1, TimeUnit.SECONDS);
+        if (report) {
+            long interval = duration(options, "report-interval", "PT10S").toMillis();
+            reporter.scheduleAtFixedRate(() -> System.out.println(statistics.interval()), interval, interval,
+                TimeUnit.MILLISECONDS);
+        }
+
+        long end = System.nanoTime() + duration.toNanos();
+        try (ExecutorService users = Executors.newVirtualThreadPerTaskExecutor()) {
+            switch (mode) {
+                case "closed" -> {
+                    int count = Integer.parseInt(options.getOrDefault("users", "20"));
+                    for (int i = 0; i < count; i++) {
+                        users.submit(() -> {
+                            while (System.nanoTime() < end) {
+                                play(nextConversation(), statistics, end);
+                            }
+                        });
+                    }
+                }
+                case "open" -> {
+                    double rate = Double.parseDouble(options.getOrDefault("rate", "2"));
+                    Random random = new Random(BenchmarkCorpus.SEED);
+                    long next = System.nanoTime();
+                    while (next < end) {
+                        TimeUnit.NANOSECONDS.sleep(Math.max(0, next - System.nanoTime()));
+                        Conversation conversation = nextConversation();
+                        users.submit(() -> play(conversation, statistics, Long.MAX_VALUE));
+                        next += (long) (-Math.log(1 - random.nextDouble()) / rate * 1e9);
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unknown mode: " + mode);
+            }
+            // Closing the executor waits for the conversations in flight
+        } finally {
+            reporter.shutdownNow();
+        }
+    }
+
+    /**
+     * Plays the turns of a conversation in a new chat, stopping early after the turn that reaches the
+     * end of the phase, after a failed turn or when the user leaves.
+     */
+    private void play(Conversation conversation, LoadStatistics statistics, long end) {
+        String chatId = UUID.randomUUID().toString();
+        var chatOptions = new DocsAssistantService.ChatOptions(conversation.framework());
+        Duration thinkTime = duration(options, "think-time", "PT1S");
+        double cancel = Double.parseDouble(options.getOrDefault("cancel", "0"));
+        double supersede = Double.parseDouble(options.getOrDefault("supersede", "0"));
+        Random random = ThreadLocalRandom.current();
+        // The answer still streaming when the current message was sent
+        CompletableFuture<Void> superseded = null;
+        try {
+            if (random.nextDouble() < Double.parseDouble(options.getOrDefault("attachments", "0"))) {
+                attach(chatId);
+            }
+            for (int i = 0; i < conversation.turns().size(); i++) {
+                if (i > 0 && superseded == null) {
+                    Thread.sleep(thinkTime);
+                }
+                if (System.nanoTime() >= end) {
+                    return;
+                }
+                LoadStatistics.Turn turn = statistics.startTurn();
+                Flux<String> answer = service.stream(chatId, conversation.turns().get(i), chatOptions)
+                    .doOnNext(token -> turn.token());
+                double interruption = random.nextDouble();
+
+                if (interruption < supersede && i + 1 < conversation.turns().size()) {
+                    // The next message is sent while this answer streams, which ends it early
+                    AtomicBoolean interrupted = new AtomicBoolean();
+                    CompletableFuture<Void> streaming = new CompletableFuture<>();
+                    answer.subscribe(null, e -> {
+                        turn.failed();
+                        streaming.complete(null);
+                    }, () -> {
+                        if (interrupted.get()) {
+                            turn.superseded();
+                        } else {
+                            turn.completed();
+                        }
+                        streaming.complete(null);
+                    });
+                    Thread.sleep(interruptionDelay(random));
+                    interrupted.set(true);
+                    awaitSuperseded(superseded);
+                    superseded = streaming;
+                    continue;
+                }
+
+                try {
+                    if (interruption < supersede + cancel) {
+                        // The user closes the tab while the answer is on its way
+                        AtomicBoolean complete = new AtomicBoolean();
+                        answer.doOnComplete(() -> complete.set(true))
+                            .take(interruptionDelay(random))
+                            .blockLast(TURN_TIMEOUT);
+                        if (!complete.get()) {
+                            turn.cancelled();
+                            return;
+                        }
+                    } else {
+                        answer.blockLast(TURN_TIMEOUT);
+                    }
+                    turn.completed();
+                } catch (RuntimeException e) {
+                    turn.failed();
+                    return;
+                } finally {
+                    awaitSuperseded(superseded);
+                    superseded = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            service.closeChat(chatId);
+        }
+    }
+
+    /**
+     * Attaches a log file to a chat, as a user pasting the log of a failing application would. A
+     * rejected attachment does not stop the conversation.
+     */
+    private void attach(String chatId) {
+        var file = new MockMultipartFile("file", "application.log", "text/plain", attachment());
+        try {
+            service.uploadAttachment(chatId, file);
+        } catch (RuntimeException e) {
+            // Counted by the application as a rejected attachment
+        }
+    }
+
+    private byte[] attachment() {
+        return attachment.updateAndGet(existing -> existing != null ? existing
+            : log(DataSize.parse(options.getOrDefault("attachment-size", "64KB")).toBytes()));
+    }
+
+    private static byte[] log(long size) {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; log.length() < size; i++) {
+            log.append("2025-03-18T10:40:").append(String.format("%02d", i % 60))
+                .append(".123Z ERROR 4711 --- [nio-8080-exec-").append(i % 10)
+                .append("] c.e.application.views.GridView : Could not fetch items for the grid\n")
+                .append("java.lang.IllegalStateException: The data provider returned ").append(i)
+                .append(" items, but the query asked for 50\n")
+                .append("\tat com.vaadin.flow.data.provider.DataCommunicator.getJavaScriptRange(DataCommunicator.java:")
+                .append(900 + i % 100).append(")\n")
+                .append("\tat com.example.application.views.GridView.lambda$new$1(GridView.java:42)\n");
+        }
+        return log.substring(0, (int) size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a random moment of a turn, from its start until the stub model's answer would be complete.
+     */
+    private Duration interruptionDelay(Random random) {
+        Duration answer = duration(options, "first-token-latency", "PT0.5S").plus(
+            duration(options, "token-interval", "PT0.02S").multipliedBy(
+                Long.parseLong(options.getOrDefault("answer-tokens", "250"))));
+        return Duration.ofNanos((long) (random.nextDouble() * answer.toNanos()));
+    }
+
+    /**
+     * Waits for a superseded answer to end, which it should as soon as the next message was sent.
+     */
+    private static void awaitSuperseded(CompletableFuture<Void> superseded) throws InterruptedException {
+        if (superseded == null) {
+            return;
+        }
+        try {
+            superseded.get(TURN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("A superseded answer did not end: " + e);
+        }
+    }
+
+    private Conversation nextConversation() {
+        return conversations.get((int) (nextConversation.getAndIncrement() % conversations.size()));
+    }
+
+    private static List<Conversation> conversations(Map<String, String> options) throws IOException {
+        String file = options.get("conversations");
+        if (file != null) {
+            ObjectMapper objectMapper = new ObjectMapper();
+            List<Conversation> conversations = new ArrayList<>();
+            for (String line : Files.readAllLines(Path.of(file))) {
+                if (!line.isBlank()) {
+                    conversations.add(objectMapper.readValue(line, Conversation.class));
+                }
+            }
+            return conversations;
+        }
+
+        // Unique questions, so the answer and retrieval caches only help as much as in production
+        String[] frameworks = {"flow", "hilla", ""};
+        List<String> questions = BenchmarkCorpus.questions(3000);
+        List<Conversation> conversations = new ArrayList<>();
+        for (int i = 0; i < questions.size(); i += 3) {
+            conversations.add(new Conversation(frameworks[conversations.size() % frameworks.length],
+                questions.subList(i, i + 3)));
+        }
+        return conversations;
+    }
+
+    private static void seedReplica(Path directory, int documents) throws IOException {
+        try (var replica = new HnswVectorStore(new HashingEmbeddingModel(DIMENSIONS), directory, DIMENSIONS,
+            "framework", 16, 100, 64, new SimpleMeterRegistry())) {
+            List<Document> corpus = BenchmarkCorpus.documents(documents);
+            for (int i = 0; i < corpus.size(); i += 1000) {
+                replica.add(corpus.subList(i, Math.min(corpus.size(), i + 1000)));
+            }
+            replica.snapshot();
+        }
+    }
+
+    private static StubOpenAiServer stub(Map<String, String> options, Map<String, String> replies)
+        throws IOException {
+        return new StubOpenAiServer(replies,
+            answer(Integer.parseInt(options.getOrDefault("answer-tokens", "250"))),
+            duration(options, "first-token-latency", "PT0.5S"),
+            Double.parseDouble(options.getOrDefault("first-token-tail", "0")),
+            duration(options, "first-token-tail-latency", "PT5S"),
+            duration(options, "token-interval", "PT0.02S"),
+            duration(options, "embedding-latency", "PT0.05S"),
+            Integer.parseInt(options.getOrDefault("model-concurrency", "0")),
+            DIMENSIONS);
+    }
+
+    private static String answer(int tokens) {
+        StringBuilder answer = new StringBuilder();
+        for (Document document : BenchmarkCorpus.documents(1 + tokens / 80)) {
+            answer.append(document.getText()).append(' ');
+        }
+        String[] words = answer.toString().split(" ");
+        return String.join(" ", List.of(words).subList(0, Math.min(tokens, words.length)));
+    }
+
+    private static Duration duration(Map<String, String> options, String name, String defaultValue) {
+        return Duration.parse(options.getOrDefault(name, defaultValue));
+    }
+}
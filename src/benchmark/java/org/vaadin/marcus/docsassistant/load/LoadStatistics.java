@@ -0,0 +1,191 @@
+package org.vaadin.marcus.docsassistant.load;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Client-side measurements of a load run: time to first token, inter-token latency and duration of
+ * each chat turn, throughput, errors, interrupted turns and the heap and thread usage of the JVM.
+ * Latencies are kept in HDR histograms in microseconds, so percentiles are exact to three
+ * significant digits.
+ *
+ * <p>{@link #interval()} reports and resets the numbers since the previous interval; {@link #summary()}
+ * reports the whole run.
+ */
+class LoadStatistics {
+
+    private static final long MAX_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final Recorder timeToFirstToken = new Recorder(MAX_MICROS, 3);
+    private final Recorder interTokenLatency = new Recorder(MAX_MICROS, 3);
+    private final Recorder turnDuration = new Recorder(MAX_MICROS, 3);
+    private final Histogram totalTimeToFirstToken = new Histogram(MAX_MICROS, 3);
+    private final Histogram totalInterTokenLatency = new Histogram(MAX_MICROS, 3);
+    private final Histogram totalTurnDuration = new Histogram(MAX_MICROS, 3);
+    private Histogram intervalTimeToFirstToken;
+    private Histogram intervalInterTokenLatency;
+    private Histogram intervalTurnDuration;
+
+    private final AtomicLong turns = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+    private final AtomicLong tokens = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAccumulator peakInFlight = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator peakHeapUsed = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator peakThreads = new LongAccumulator(Math::max, 0);
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final long start = System.nanoTime();
+    private long intervalStart = start;
+    private long intervalTurns;
+    private long intervalErrors;
+
+    /**
+     * Tracks a single chat turn. Not thread-safe, a turn is consumed by one thread.
+     */
+    class Turn {
+
+        private final long started = System.nanoTime();
+        private long previousToken;
+
+        private Turn() {
+            inFlight.incrementAndGet();
+            peakInFlight.accumulate(inFlight.get());
+        }
+
+        void token() {
+            long now = System.nanoTime();
+            if (previousToken == 0) {
+                timeToFirstToken.recordValue(micros(now - started));
+            } else {
+                interTokenLatency.recordValue(micros(now - previousToken));
+            }
+            previousToken = now;
+            tokens.incrementAndGet();
+        }
+
+        void completed() {
+            inFlight.decrementAndGet();
+            turnDuration.recordValue(micros(System.nanoTime() - started));
+            turns.incrementAndGet();
+        }
+
+        void failed() {
+            inFlight.decrementAndGet();
+            errors.incrementAndGet();
+        }
+
+        /**
+         * The user left before the answer was complete.
+         */
+        void cancelled() {
+            inFlight.decrementAndGet();
+            cancelled.incrementAndGet();
+        }
+
+        /**
+         * The user sent the next message before the answer was complete.
+         */
+        void superseded() {
+            inFlight.decrementAndGet();
+            superseded.incrementAndGet();
+        }
+    }
+
+    Turn startTurn() {
+        return new Turn();
+    }
+
+    /**
+     * Samples the heap and thread usage, called periodically during the run.
+     */
+    void sampleJvm() {
+        peakHeapUsed.accumulate(memory.getHeapMemoryUsage().getUsed());
+        peakThreads.accumulate(threads.getThreadCount());
+    }
+
+    /**
+     * Returns a one-line report of the interval since the previous call.
+     */
+    synchronized String interval() {
+        intervalTimeToFirstToken = timeToFirstToken.getIntervalHistogram(intervalTimeToFirstToken);
+        intervalInterTokenLatency = interTokenLatency.getIntervalHistogram(intervalInterTokenLatency);
+        intervalTurnDuration = turnDuration.getIntervalHistogram(intervalTurnDuration);
+        totalTimeToFirstToken.add(intervalTimeToFirstToken);
+        totalInterTokenLatency.add(intervalInterTokenLatency);
+        totalTurnDuration.add(intervalTurnDuration);
+
+        long now = System.nanoTime();
+        double seconds = (now - intervalStart) / 1e9;
+        long completed = turns.get() - intervalTurns;
+        long failed = errors.get() - intervalErrors;
+        intervalStart = now;
+        intervalTurns = turns.get();
+        intervalErrors = errors.get();
+
+        return String.format(Locale.ROOT,
+            "%6.0fs  %7.1f turns/s  %5d in flight  %4d errors  ttft p50 %s p99 %s  itl p99 %s  heap %d MB  threads %d",
+            (now - start) / 1e9, completed / seconds, inFlight.get(), failed,
+            millis(intervalTimeToFirstToken.getValueAtPercentile(50)),
+            millis(intervalTimeToFirstToken.getValueAtPercentile(99)),
+            millis(intervalInterTokenLatency.getValueAtPercentile(99)),
+            memory.getHeapMemoryUsage().getUsed() / (1024 * 1024), threads.getThreadCount());
+    }
+
+    /**
+     * Returns a report of the whole run.
+     */
+    synchronized String summary() {
+        interval();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long attempted = turns.get() + errors.get();
+        return String.format(Locale.ROOT, """
+                duration            %s
+                turns               %d completed, %d failed (%.2f%% errors), %d cancelled, %d superseded
+                throughput          %.2f turns/s, %.1f tokens/s
+                peak in flight      %d
+                time to first token %s
+                inter-token latency %s
+                turn duration       %s
+                peak heap used      %d MB of %d MB max
+                peak live threads   %d, %d at the end""",
+            Duration.ofMillis(Math.round(seconds * 1000)), turns.get(), errors.get(),
+            attempted == 0 ? 0 : 100.0 * errors.get() / attempted, cancelled.get(), superseded.get(),
+            turns.get() / seconds, tokens.get() / seconds,
+            peakInFlight.get(), percentiles(totalTimeToFirstToken), percentiles(totalInterTokenLatency),
+            percentiles(totalTurnDuration), peakHeapUsed.get() / (1024 * 1024),
+            memory.getHeapMemoryUsage().getMax() / (1024 * 1024), peakThreads.get(), threads.getThreadCount());
+    }
+
+    private static String percentiles(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return "-";
+        }
+        return "p50 %s  p90 %s  p99 %s  p99.9 %s  max %s".formatted(
+            millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+            millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+            millis(histogram.getMaxValue()));
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.ROOT, "%.1fms", micros / 1000.0);
+    }
+
+    private static long micros(long nanos) {
+        return Math.min(MAX_MICROS, TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+}
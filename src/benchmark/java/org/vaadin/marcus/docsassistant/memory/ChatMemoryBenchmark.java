@@ -0,0 +1,124 @@
+package org.vaadin.marcus.docsassistant.memory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.util.FileSystemUtils;
+import org.vaadin.marcus.docsassistant.benchmark.BenchmarkCorpus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the chat memories under contention: appending a message, reading the tail of a
+ * conversation, and both at once with more readers than writers, as every request reads the
+ * history but only a finished answer is appended.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ChatMemoryBenchmark {
+
+    @Param({"in-memory", "segment-log"})
+    String store;
+
+    @Param({"1000"})
+    int conversations;
+
+    @Param({"50"})
+    int lastN;
+
+    private ChatMemory memory;
+    private Path directory;
+    private List<Message> messages;
+
+    @Setup
+    public void setUp() throws IOException {
+        memory = switch (store) {
+            case "in-memory" -> new BoundedChatMemory(100, 10_000, 256L * 1024 * 1024, Duration.ofHours(2), 1024,
+                new SimpleMeterRegistry());
+            case "segment-log" -> {
+                directory = Files.createTempDirectory("chat-memory-benchmark");
+                yield new SegmentLogChatMemory(directory, 100, 16L * 1024 * 1024, Duration.ofMillis(200),
+                    Duration.ofSeconds(5), Duration.ofDays(7), new SimpleMeterRegistry());
+            }
+            default -> throw new IllegalArgumentException("Unknown store: " + store);
+        };
+
+        messages = BenchmarkCorpus.conversation(64);
+        for (int i = 0; i < conversations; i++) {
+            memory.add(conversationId(i), messages.subList(0, 20));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (memory instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+        if (directory != null) {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    @Benchmark
+    public void add() {
+        append();
+    }
+
+    @Benchmark
+    public List<Message> get() {
+        return tail();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void mixedAdd() {
+        append();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public List<Message> mixedGet() {
+        return tail();
+    }
+
+    private void append() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        memory.add(conversationId(random.nextInt(conversations)), messages.get(random.nextInt(messages.size())));
+    }
+
+    private List<Message> tail() {
+        return memory.get(conversationId(ThreadLocalRandom.current().nextInt(conversations)), lastN);
+    }
+
+    private static String conversationId(int i) {
+        return "chat-" + i;
+    }
+}
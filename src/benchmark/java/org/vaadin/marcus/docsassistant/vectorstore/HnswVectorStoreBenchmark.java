@@ -0,0 +1,126 @@
+package org.vaadin.marcus.docsassistant.vectorstore;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.util.FileSystemUtils;
+import org.vaadin.marcus.docsassistant.benchmark.BenchmarkCorpus;
+import org.vaadin.marcus.docsassistant.benchmark.HashingEmbeddingModel;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search latency of the HNSW replica against an exact scan of the same vectors, and of keyword
+ * search. The recall@10 of the graph search against the exact scan is printed during setup, as it
+ * depends on {@code efSearch} just like the latency.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HnswVectorStoreBenchmark {
+
+    private static final int DIMENSIONS = 256;
+    private static final int TOP_K = 10;
+
+    @Param({"20000"})
+    int documents;
+
+    @Param({"32", "64", "128"})
+    int efSearch;
+
+    private Path directory;
+    private HnswVectorStore store;
+    private List<String> queries;
+    private Filter.Expression partitionFilter;
+    private Filter.Expression scanFilter;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("hnsw-benchmark");
+        store = new HnswVectorStore(new HashingEmbeddingModel(DIMENSIONS), directory, DIMENSIONS, "framework", 16, 100,
+            efSearch, new SimpleMeterRegistry());
+        List<Document> corpus = BenchmarkCorpus.documents(documents);
+        for (int i = 0; i < corpus.size(); i += 1000) {
+            store.add(corpus.subList(i, Math.min(corpus.size(), i + 1000)));
+        }
+
+        var b = new FilterExpressionBuilder();
+        partitionFilter = b.in("framework", "flow", "").build();
+        // Not a plain partition filter, so the store scans all vectors of the matching documents
+        scanFilter = b.and(b.in("framework", "flow", ""), b.ne("framework", "none")).build();
+        queries = BenchmarkCorpus.questions(200);
+
+        double recall = 0;
+        for (String query : queries) {
+            Set<String> found = new HashSet<>();
+            search(query, partitionFilter).forEach(document -> found.add(document.getId()));
+            List<Document> exact = search(query, scanFilter);
+            recall += exact.isEmpty() ? 1 : exact.stream().filter(document -> found.contains(document.getId())).count()
+                / (double) exact.size();
+        }
+        System.out.printf("%nrecall@%d with efSearch %d: %.3f%n", TOP_K, efSearch, recall / queries.size());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public List<Document> graphSearch() {
+        return search(nextQuery(), partitionFilter);
+    }
+
+    @Benchmark
+    public List<Document> exactScan() {
+        return search(nextQuery(), scanFilter);
+    }
+
+    @Benchmark
+    public List<Document> keywordSearch() {
+        return store.keywordSearch(SearchRequest.builder()
+            .query(nextQuery())
+            .topK(TOP_K)
+            .filterExpression(partitionFilter)
+            .build());
+    }
+
+    private List<Document> search(String query, Filter.Expression filter) {
+        return store.similaritySearch(SearchRequest.builder()
+            .query(query)
+            .topK(TOP_K)
+            .similarityThresholdAll()
+            .filterExpression(filter)
+            .build());
+    }
+
+    private String nextQuery() {
+        next = (next + 1) % queries.size();
+        return queries.get(next);
+    }
+}
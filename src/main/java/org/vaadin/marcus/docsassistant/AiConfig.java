@@ -1,16 +1,183 @@
 package org.vaadin.marcus.docsassistant;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
 import org.springframework.ai.chat.memory.ChatMemory;
-import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.vaadin.marcus.docsassistant.attachments.ChatAttachments;
+import org.vaadin.marcus.docsassistant.cache.CachingEmbeddingModel;
+import org.vaadin.marcus.docsassistant.cache.DocsIndexVersion;
+import org.vaadin.marcus.docsassistant.cache.MappedEmbeddingStore;
+import org.vaadin.marcus.docsassistant.cache.RetrievalCache;
+import org.vaadin.marcus.docsassistant.cache.SemanticAnswerCache;
+import org.vaadin.marcus.docsassistant.chat.HedgingChatModel;
+import org.vaadin.marcus.docsassistant.memory.BoundedChatMemory;
+import org.vaadin.marcus.docsassistant.memory.SegmentLogChatMemory;
+import org.vaadin.marcus.docsassistant.vectorstore.HnswVectorStore;
+import org.vaadin.marcus.docsassistant.vectorstore.VectorStoreReplicator;
+
+import java.io.IOException;
 
 @Configuration
+@EnableConfigurationProperties(DocsAssistantProperties.class)
 public class AiConfig {
 
     @Bean
-    public ChatMemory chatMemory() {
-        return new InMemoryChatMemory();
+    public ChatMemory chatMemory(DocsAssistantProperties properties, MeterRegistry meterRegistry) throws IOException {
+        var memory = properties.memory();
+        return switch (memory.store()) {
+            case IN_MEMORY -> new BoundedChatMemory(memory.maxMessagesPerConversation(), memory.maxConversations(),
+                memory.maxSize().toBytes(), memory.idleTimeout(), (int) memory.compressionThreshold().toBytes(),
+                meterRegistry);
+            case SEGMENT_LOG -> new SegmentLogChatMemory(memory.log().directory(),
+                memory.maxMessagesPerConversation(), memory.log().segmentSize().toBytes(),
+                memory.log().fsyncInterval(), memory.log().compactionInterval(), memory.log().retention(),
+                meterRegistry);
+        };
+    }
+
+    @Bean
+    @Primary
+    @ConditionalOnProperty(value = "docs-assistant.embedding-cache.enabled", matchIfMissing = true)
+    public CachingEmbeddingModel cachingEmbeddingModel(
+        OpenAiEmbeddingModel openAiEmbeddingModel,
+        @Value("${spring.ai.openai.embedding.options.model}") String model,
+        DocsAssistantProperties properties,
+        MeterRegistry meterRegistry) throws IOException {
+        var embeddingCache = properties.embeddingCache();
+        var store = new MappedEmbeddingStore(embeddingCache.file(), openAiEmbeddingModel.dimensions(),
+            embeddingCache.maxEntries());
+        return new CachingEmbeddingModel(openAiEmbeddingModel, model, store, meterRegistry);
+    }
+
+    @Bean(destroyMethod = "close")
+    @Primary
+    @ConditionalOnProperty("docs-assistant.hedging.enabled")
+    public HedgingChatModel hedgingChatModel(
+        OpenAiChatModel openAiChatModel,
+        @Value("${spring.ai.openai.api-key}") String apiKey,
+        ObjectProvider<RestClient.Builder> restClientBuilder,
+        ObjectProvider<WebClient.Builder> webClientBuilder,
+        ToolCallingManager toolCallingManager,
+        RetryTemplate retryTemplate,
+        ResponseErrorHandler responseErrorHandler,
+        ObjectProvider<ObservationRegistry> observationRegistry,
+        DocsAssistantProperties properties,
+        MeterRegistry meterRegistry) {
+        var hedging = properties.hedging();
+        var fallback = hedging.fallback();
+        OpenAiChatModel fallbackModel = null;
+        if (fallback.baseUrl() != null) {
+            var openAiApi = OpenAiApi.builder()
+                .baseUrl(fallback.baseUrl())
+                .apiKey(fallback.apiKey() != null ? fallback.apiKey() : apiKey)
+                .restClientBuilder(restClientBuilder.getIfAvailable(RestClient::builder))
+                .webClientBuilder(webClientBuilder.getIfAvailable(WebClient::builder))
+                .responseErrorHandler(responseErrorHandler)
+                .build();
+            fallbackModel = OpenAiChatModel.builder()
+                .openAiApi(openAiApi)
+                .defaultOptions(OpenAiChatOptions.fromOptions((OpenAiChatOptions) openAiChatModel.getDefaultOptions()))
+                .toolCallingManager(toolCallingManager)
+                .retryTemplate(retryTemplate)
+                .observationRegistry(observationRegistry.getIfUnique(() -> ObservationRegistry.NOOP))
+                .build();
+        }
+        return HedgingChatModel.builder()
+            .primary(openAiChatModel)
+            .fallback(fallbackModel)
+            .fallbackModel(fallback.model())
+            .percentile(hedging.percentile())
+            .minDelay(hedging.minDelay())
+            .maxDelay(hedging.maxDelay())
+            .budget(hedging.budget())
+            .meterRegistry(meterRegistry)
+            .build();
+    }
+
+    @Bean
+    @ConditionalOnProperty(value = "docs-assistant.attachments.enabled", matchIfMissing = true)
+    public ChatAttachments chatAttachments(OpenAiEmbeddingModel openAiEmbeddingModel,
+                                           DocsAssistantProperties properties, MeterRegistry meterRegistry) {
+        // Attachment chunks bypass the embedding cache, which would keep user content on disk
+        var attachments = properties.attachments();
+        return ChatAttachments.builder()
+            .embeddingModel(openAiEmbeddingModel)
+            .maxFileSize(attachments.maxFileSize().toBytes())
+            .maxChatSize(attachments.maxChatSize().toBytes())
+            .maxMemory(attachments.maxMemory().toBytes())
+            .idleTimeout(properties.memory().idleTimeout())
+            .chunkSize(attachments.chunkSize())
+            .chunkOverlap(attachments.chunkOverlap())
+            .batchSize(attachments.batchSize())
+            .maxConcurrentIngestions(attachments.maxConcurrentIngestions())
+            .maxWait(attachments.maxWait())
+            .topK(attachments.topK())
+            .similarityThreshold(attachments.similarityThreshold())
+            .sourceKey(properties.retrieval().packing().sourceKey())
+            .meterRegistry(meterRegistry)
+            .build();
+    }
+
+    @Bean
+    public DocsIndexVersion docsIndexVersion(DocsAssistantProperties properties) {
+        return new DocsIndexVersion(properties.indexVersion());
+    }
+
+    @Bean(initMethod = "load", destroyMethod = "save")
+    @ConditionalOnProperty(value = "docs-assistant.answer-cache.enabled", matchIfMissing = true)
+    public SemanticAnswerCache semanticAnswerCache(EmbeddingModel embeddingModel, DocsIndexVersion indexVersion,
+                                                   DocsAssistantProperties properties, MeterRegistry meterRegistry) {
+        var answerCache = properties.answerCache();
+        return new SemanticAnswerCache(embeddingModel, indexVersion, answerCache.similarityThreshold(),
+            answerCache.maxEntriesPerFramework(), answerCache.timeToLive(), answerCache.replayChunkDelay(),
+            answerCache.persistenceFile(), meterRegistry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(value = "docs-assistant.retrieval.cache.enabled", matchIfMissing = true)
+    public RetrievalCache retrievalCache(DocsIndexVersion indexVersion, DocsAssistantProperties properties,
+                                         MeterRegistry meterRegistry) {
+        var cache = properties.retrieval().cache();
+        return new RetrievalCache(indexVersion, cache.maximumSize(), cache.timeToLive(), meterRegistry);
+    }
+
+    @Bean(destroyMethod = "close")
+    @Primary
+    @ConditionalOnProperty("docs-assistant.replica.enabled")
+    public HnswVectorStore hnswVectorStore(EmbeddingModel embeddingModel, DocsAssistantProperties properties,
+                                           MeterRegistry meterRegistry) throws IOException {
+        var replica = properties.replica();
+        if (properties.ingestion().docsDirectory() == null) {
+            throw new IllegalStateException("The vector store replica is filled by docs ingestion, so it needs "
+                + "docs-assistant.ingestion.docs-directory to be set");
+        }
+        return new HnswVectorStore(embeddingModel, replica.directory(), embeddingModel.dimensions(),
+            replica.partitionKey(), replica.maxConnections(), replica.efConstruction(), replica.efSearch(),
+            meterRegistry);
+    }
+
+    @Bean
+    @ConditionalOnProperty("docs-assistant.replica.enabled")
+    public VectorStoreReplicator vectorStoreReplicator(HnswVectorStore hnswVectorStore,
+                                                       DocsAssistantProperties properties) {
+        return new VectorStoreReplicator(hnswVectorStore, properties.ingestion().batchSize());
     }
 
 }
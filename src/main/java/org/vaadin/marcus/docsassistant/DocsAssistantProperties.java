@@ -0,0 +1,406 @@
+package org.vaadin.marcus.docsassistant;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.lang.Nullable;
+import org.springframework.util.unit.DataSize;
+import org.vaadin.marcus.docsassistant.advisors.GuardRailAdvisor;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Tuning knobs for the assistant pipeline, bound from {@code docs-assistant.*} properties.
+ *
+ * @param indexVersion the version of the docs index, change it after a reindex to invalidate caches
+ */
+@ConfigurationProperties("docs-assistant")
+public record DocsAssistantProperties(
+    @DefaultValue("1") String indexVersion,
+    @DefaultValue Guardrail guardrail,
+    @DefaultValue AnswerCache answerCache,
+    @DefaultValue EmbeddingCache embeddingCache,
+    @DefaultValue QueryTransformation queryTransformation,
+    @DefaultValue Memory memory,
+    @DefaultValue History history,
+    @DefaultValue Replica replica,
+    @DefaultValue Retrieval retrieval,
+    @DefaultValue SingleFlight singleFlight,
+    @DefaultValue Streaming streaming,
+    @DefaultValue Admission admission,
+    @DefaultValue Hedging hedging,
+    @DefaultValue Attachments attachments,
+    @DefaultValue Ingestion ingestion
+) {
+
+    /**
+     * @param speculative   start retrieval and generation while the guardrail is still deciding,
+     *                      holding back the answer until the verdict arrives
+     * @param timeout       how long to wait for the guardrail verdict
+     * @param fallback      the verdict to use when the guardrail fails, times out or does not decide
+     * @param cache         the verdict cache for first-turn questions
+     * @param preClassifier the local tier that accepts clearly relevant questions without the LLM
+     */
+    public record Guardrail(
+        @DefaultValue("false") boolean speculative,
+        @DefaultValue("10s") Duration timeout,
+        @DefaultValue("accept") GuardRailAdvisor.FallbackPolicy fallback,
+        @DefaultValue VerdictCache cache,
+        @DefaultValue PreClassifier preClassifier
+    ) {
+    }
+
+    /**
+     * @param enabled            whether guardrail verdicts are cached
+     * @param maximumSize        the maximum number of cached verdicts
+     * @param timeToLive         how long a cached verdict is reused
+     * @param maxHistoryMessages the longest conversation history for which a verdict is cached
+     */
+    public record VerdictCache(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("10000") long maximumSize,
+        @DefaultValue("6h") Duration timeToLive,
+        @DefaultValue("0") int maxHistoryMessages
+    ) {
+    }
+
+    /**
+     * @param enabled             whether clearly relevant questions skip the LLM guardrail
+     * @param acceptThreshold     the keyword score at or above which a question is accepted, a keyword adds at most half
+     * @param exampleQuestions    known-good questions for the embedding similarity tier, empty to disable it
+     * @param similarityThreshold the similarity to an example at or above which a question is accepted
+     * @param evaluationFile      a labelled question file to replay against the pre-classifier and the LLM on startup
+     */
+    public record PreClassifier(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("1.5") double acceptThreshold,
+        @DefaultValue List<String> exampleQuestions,
+        @DefaultValue("0.85") double similarityThreshold,
+        @Nullable Path evaluationFile
+    ) {
+    }
+
+    /**
+     * @param enabled                whether first-turn answers are served from the semantic cache
+     * @param similarityThreshold    the cosine similarity between questions at or above which an answer is reused
+     * @param maxEntriesPerFramework the maximum number of answers kept per framework
+     * @param timeToLive             how long a cached answer is served
+     * @param replayChunkDelay       the delay between chunks when streaming a cached answer
+     * @param persistenceFile        a local file to keep the cache in across restarts, unset to keep it in memory
+     */
+    public record AnswerCache(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("0.95") double similarityThreshold,
+        @DefaultValue("1000") int maxEntriesPerFramework,
+        @DefaultValue("24h") Duration timeToLive,
+        @DefaultValue("2ms") Duration replayChunkDelay,
+        @Nullable Path persistenceFile
+    ) {
+    }
+
+    /**
+     * @param enabled    whether query embeddings are cached in a memory-mapped file
+     * @param file       the file backing the cache, kept across restarts
+     * @param maxEntries the maximum number of cached embeddings
+     */
+    public record EmbeddingCache(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("data/embedding-cache.bin") Path file,
+        @DefaultValue("16384") int maxEntries
+    ) {
+    }
+
+    /**
+     * @param mode        how follow-up queries are turned into standalone search queries
+     * @param maximumSize the maximum number of memoized single-call transformations, 0 to disable memoization
+     * @param timeToLive  how long a memoized transformation is reused
+     */
+    public record QueryTransformation(
+        @DefaultValue("single-call") Mode mode,
+        @DefaultValue("1000") long maximumSize,
+        @DefaultValue("1h") Duration timeToLive
+    ) {
+
+        public enum Mode {
+            /**
+             * Rewrite only on the first turn, compress and rewrite in one model call afterwards.
+             */
+            SINGLE_CALL,
+            /**
+             * Compress, then rewrite, with one model call each.
+             */
+            CHAINED
+        }
+    }
+
+    /**
+     * @param store                      where conversations are kept
+     * @param maxMessagesPerConversation the maximum number of messages kept per conversation
+     * @param maxConversations           the maximum number of conversations kept in memory
+     * @param maxSize                    the approximate maximum size of all conversations kept in memory
+     * @param idleTimeout                how long a conversation is kept in memory after it was last used
+     * @param compressionThreshold       the message size from which message text is kept deflated in memory
+     * @param log                        the settings of the durable segment log
+     */
+    public record Memory(
+        @DefaultValue("in-memory") Store store,
+        @DefaultValue("100") int maxMessagesPerConversation,
+        @DefaultValue("10000") int maxConversations,
+        @DefaultValue("64MB") DataSize maxSize,
+        @DefaultValue("2h") Duration idleTimeout,
+        @DefaultValue("1KB") DataSize compressionThreshold,
+        @DefaultValue Log log
+    ) {
+
+        public enum Store {
+            /**
+             * Bounded, on the heap, lost on restart.
+             */
+            IN_MEMORY,
+            /**
+             * Durable, in an append-only log on the local disk.
+             */
+            SEGMENT_LOG
+        }
+
+        /**
+         * @param directory          the directory holding the log segments
+         * @param segmentSize        the size after which a new segment is started
+         * @param fsyncInterval      how often appended messages are flushed to disk
+         * @param compactionInterval how often mostly dead segments are compacted
+         * @param retention          how long a conversation is kept after its last message
+         */
+        public record Log(
+            @DefaultValue("data/chat-log") Path directory,
+            @DefaultValue("16MB") DataSize segmentSize,
+            @DefaultValue("200ms") Duration fsyncInterval,
+            @DefaultValue("10m") Duration compactionInterval,
+            @DefaultValue("7d") Duration retention
+        ) {
+        }
+    }
+
+    /**
+     * @param retrieveSize    the number of most recent messages read from chat memory for a request
+     * @param windowed        whether the history is fitted into a token budget with a rolling summary kept in chat memory
+     * @param tokenBudget     the maximum estimated number of history tokens sent with a request
+     * @param maxSummaryWords the length the rolling summary of older messages is asked to stay within
+     */
+    public record History(
+        @DefaultValue("50") int retrieveSize,
+        @DefaultValue("true") boolean windowed,
+        @DefaultValue("2000") int tokenBudget,
+        @DefaultValue("200") int maxSummaryWords
+    ) {
+    }
+
+    /**
+     * @param enabled        whether retrieval is served from an in-process HNSW replica of the vector store,
+     *                       which is filled by docs ingestion and needs its docs directory
+     * @param directory      the directory holding the replica's vectors and snapshot
+     * @param partitionKey   the metadata key documents are partitioned by, one graph per value
+     * @param maxConnections the number of graph neighbors per node, twice that on the bottom layer
+     * @param efConstruction the beam width used while inserting documents
+     * @param efSearch       the minimum beam width used while searching
+     */
+    public record Replica(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("data/vector-index") Path directory,
+        @DefaultValue("framework") String partitionKey,
+        @DefaultValue("16") int maxConnections,
+        @DefaultValue("100") int efConstruction,
+        @DefaultValue("64") int efSearch
+    ) {
+    }
+
+    /**
+     * @param hybrid              whether vector retrieval is combined with BM25 keyword retrieval, which only
+     *                            takes effect when the replica is enabled and otherwise falls back to vector retrieval
+     * @param similarityThreshold the minimum similarity of documents found by vector retrieval
+     * @param candidates          the number of documents each retriever contributes to fusion
+     * @param topK                the number of documents sent to the model as context
+     * @param rrfK                the rank offset of reciprocal-rank fusion
+     * @param reranker            how the fused candidates are reordered before the topK cut
+     * @param rerankExcerptLength the number of characters of each candidate shown to a chat model reranker
+     * @param cache               the cache of retrieval results for repeated queries
+     * @param packing             how retrieved documents are packed into the context
+     * @param evaluationFile      a question file with expected documents to benchmark retrieval with on startup
+     */
+    public record Retrieval(
+        @DefaultValue("true") boolean hybrid,
+        @DefaultValue("0.6") double similarityThreshold,
+        @DefaultValue("30") int candidates,
+        @DefaultValue("10") int topK,
+        @DefaultValue("60") int rrfK,
+        @DefaultValue("none") Reranker reranker,
+        @DefaultValue("800") int rerankExcerptLength,
+        @DefaultValue ResultCache cache,
+        @DefaultValue ContextPacking packing,
+        @Nullable Path evaluationFile
+    ) {
+
+        /**
+         * @param enabled            whether near-duplicate chunks are dropped, chunks of a page merged and the
+         *                           context fitted into a token budget
+         * @param tokenBudget        the maximum estimated number of context tokens
+         * @param duplicateThreshold the estimated shingle similarity at or above which chunks are near-duplicates
+         * @param sourceKey          the metadata key identifying the page a chunk was cut from
+         */
+        public record ContextPacking(
+            @DefaultValue("true") boolean enabled,
+            @DefaultValue("3000") int tokenBudget,
+            @DefaultValue("0.8") double duplicateThreshold,
+            @DefaultValue("source") String sourceKey
+        ) {
+        }
+
+        /**
+         * @param enabled     whether retrieval results are cached by rewritten query and framework
+         * @param maximumSize the maximum number of cached results
+         * @param timeToLive  how long a cached result is served
+         */
+        public record ResultCache(
+            @DefaultValue("true") boolean enabled,
+            @DefaultValue("2000") long maximumSize,
+            @DefaultValue("1h") Duration timeToLive
+        ) {
+        }
+
+        public enum Reranker {
+            /**
+             * Keep the order of reciprocal-rank fusion.
+             */
+            NONE,
+            /**
+             * Let the chat model order the candidates in one listwise call.
+             */
+            CHAT_MODEL
+        }
+    }
+
+    /**
+     * @param enabled whether concurrent first-turn requests with the same question share one answer
+     */
+    public record SingleFlight(
+        @DefaultValue("true") boolean enabled
+    ) {
+    }
+
+    /**
+     * @param coalesce    whether streamed tokens are batched into fewer messages to the browser
+     * @param window      the maximum time a token waits for more tokens to join its message
+     * @param frameSize   the size at which a message is sent without waiting for the window
+     * @param maxHoldSize the size up to which a code or Mermaid block is held back to end messages on
+     *                    rendering boundaries
+     */
+    public record Streaming(
+        @DefaultValue("true") boolean coalesce,
+        @DefaultValue("30ms") Duration window,
+        @DefaultValue("256B") DataSize frameSize,
+        @DefaultValue("8KB") DataSize maxHoldSize
+    ) {
+    }
+
+    /**
+     * @param enabled          whether the number of answers generated at once is limited
+     * @param initialLimit     the number of answers generated at once, before it adapts
+     * @param minLimit         the lowest the limit adapts to
+     * @param maxLimit         the highest the limit adapts to
+     * @param queueSize        the maximum number of answers waiting beyond the limit
+     * @param maxWait          the maximum time an answer waits before the busy response is sent instead
+     * @param adaptive         whether the limit adapts to rate limiting, overload and slow first tokens
+     * @param latencyThreshold the time to first token above which the model counts as overloaded
+     */
+    public record Admission(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("32") int initialLimit,
+        @DefaultValue("4") int minLimit,
+        @DefaultValue("128") int maxLimit,
+        @DefaultValue("256") int queueSize,
+        @DefaultValue("10s") Duration maxWait,
+        @DefaultValue("true") boolean adaptive,
+        @DefaultValue("5s") Duration latencyThreshold
+    ) {
+    }
+
+    /**
+     * @param enabled    whether slow model requests are hedged with a second request
+     * @param percentile the percentile of recent model latencies after which the second request is sent
+     * @param minDelay   the shortest delay before the second request
+     * @param maxDelay   the longest delay before the second request, also used until enough latencies are known
+     * @param budget     the maximum fraction of extra model requests that hedging may add
+     * @param fallback   where second requests go, the primary model if no base URL or model is set
+     */
+    public record Hedging(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("0.95") double percentile,
+        @DefaultValue("250ms") Duration minDelay,
+        @DefaultValue("5s") Duration maxDelay,
+        @DefaultValue("0.05") double budget,
+        @DefaultValue Fallback fallback
+    ) {
+
+        /**
+         * @param baseUrl the base URL of an OpenAI-compatible endpoint for second requests, the primary endpoint if unset
+         * @param apiKey  the API key of that endpoint, the primary API key if unset
+         * @param model   the model that second requests ask for, the primary model if unset
+         */
+        public record Fallback(
+            @Nullable String baseUrl,
+            @Nullable String apiKey,
+            @Nullable String model
+        ) {
+        }
+    }
+
+    /**
+     * @param enabled                 whether users can attach text files to a chat for answers to draw on
+     * @param maxFileSize             the largest attachment
+     * @param maxChatSize             the most attachment content per chat
+     * @param maxMemory               the approximate heap of all attachment indexes, beyond which rarely used ones are dropped
+     * @param chunkSize               the length in characters of the chunks attachments are cut into
+     * @param chunkOverlap            the characters a chunk repeats from the end of the previous one
+     * @param batchSize               the number of chunks embedded in one request
+     * @param maxConcurrentIngestions the number of attachments ingested at once
+     * @param maxWait                 how long an attachment waits for its turn before it is rejected
+     * @param topK                    the number of attachment chunks retrieved for a question
+     * @param similarityThreshold     the similarity to the question at or above which a chunk is retrieved
+     */
+    public record Attachments(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("1MB") DataSize maxFileSize,
+        @DefaultValue("4MB") DataSize maxChatSize,
+        @DefaultValue("256MB") DataSize maxMemory,
+        @DefaultValue("1500") int chunkSize,
+        @DefaultValue("200") int chunkOverlap,
+        @DefaultValue("64") int batchSize,
+        @DefaultValue("4") int maxConcurrentIngestions,
+        @DefaultValue("10s") Duration maxWait,
+        @DefaultValue("4") int topK,
+        @DefaultValue("0.3") double similarityThreshold
+    ) {
+    }
+
+    /**
+     * @param docsDirectory      a docs checkout to ingest into the primary vector store on startup
+     * @param checkpointFile     the file recording the ingested chunks, so that only changed chunks are embedded
+     * @param frameworks         the directory names that mark the docs of a framework, others apply to all
+     * @param chunkSize          the maximum length in characters of a chunk
+     * @param batchSize          the number of chunks embedded and upserted in one request
+     * @param parallelism        the number of batch requests in flight at once
+     * @param requestsPerSecond  the most batch requests started per second, 0 for no limit
+     * @param checkpointInterval how often progress is saved to the checkpoint during a run
+     */
+    public record Ingestion(
+        @Nullable Path docsDirectory,
+        @DefaultValue("data/ingestion-checkpoint") Path checkpointFile,
+        @DefaultValue({"flow", "hilla"}) List<String> frameworks,
+        @DefaultValue("1500") int chunkSize,
+        @DefaultValue("100") int batchSize,
+        @DefaultValue("4") int parallelism,
+        @DefaultValue("5") double requestsPerSecond,
+        @DefaultValue("10s") Duration checkpointInterval
+    ) {
+    }
+}
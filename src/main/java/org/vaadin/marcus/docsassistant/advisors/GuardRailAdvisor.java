@@ -1,5 +1,10 @@
 package org.vaadin.marcus.docsassistant.advisors;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
@@ -11,12 +16,25 @@ import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
 import org.springframework.core.Ordered;
+import org.springframework.lang.Nullable;
 import org.springframework.util.Assert;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -26,6 +44,17 @@ import java.util.stream.Collectors;
  * <p>This advisor takes a simple description of what types of questions are acceptable,
  * then uses a built-in template to evaluate each user question against those criteria.
  * It also considers conversation history to avoid unnecessarily flagging follow-up questions.
+ *
+ * <p>In speculative mode the streaming path does not wait for the verdict before calling the rest
+ * of the chain. Retrieval and generation run alongside the guardrail check, the generated tokens
+ * are buffered until the verdict arrives and passed through as they come after that, and the
+ * upstream call is cancelled if the question is rejected.
+ *
+ * <p>The streaming path never blocks: the guardrail model is called through the streaming client
+ * and its reply is folded into a verdict. Errors, timeouts and undecidable replies are resolved
+ * with the configured {@link FallbackPolicy}. Verdicts for first-turn questions can be reused
+ * through a {@link GuardrailVerdictCache}, and a {@link GuardrailPreClassifier} can accept clearly
+ * relevant questions before the guardrail model is involved.
  */
 public class GuardRailAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
 
@@ -33,6 +62,12 @@ public class GuardRailAdvisor implements CallAroundAdvisor, StreamAroundAdvisor
 
     public static final int DEFAULT_ORDER = Ordered.HIGHEST_PRECEDENCE + 2000; // Chat history is + 1000, ensure this runs after we have the history available
 
+    /**
+     * The advise context key the failure response is marked with, so outer advisors can tell a
+     * rejected question from an answer.
+     */
+    public static final String VERDICT_CONTEXT_KEY = "guardrail_verdict";
+
     private static final String DEFAULT_ACCEPTANCE_CRITERIA = """
         - Questions should not request illegal activities or advice
         - Questions should not contain hate speech, discriminatory content, or harassment
@@ -73,11 +108,35 @@ public class GuardRailAdvisor implements CallAroundAdvisor, StreamAroundAdvisor
 
     private static final String DEFAULT_FAILURE_RESPONSE = "I'm sorry, but your question doesn't follow our guidelines. Please rephrase your question and try again.";
 
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * What to do when the guardrail cannot reach a verdict, because the model call failed,
+     * timed out, or did not contain a decision.
+     */
+    public enum FallbackPolicy {
+        ACCEPT, REJECT
+    }
+
     private final ChatClient guardrailClient;
     private final PromptTemplate internalTemplate;
     private final String failureResponse;
     private final int order;
     private final String acceptanceCriteria;
+    private final boolean speculative;
+    private final Duration timeout;
+    private final FallbackPolicy fallbackPolicy;
+    @Nullable
+    private final GuardrailVerdictCache verdictCache;
+    @Nullable
+    private final GuardrailPreClassifier preClassifier;
+    private final String criteriaFingerprint;
+
+    private final MeterRegistry meterRegistry;
+    private final Timer speculativeTimeSaved;
+    private final Counter speculativeRejections;
+    private final DistributionSummary speculativeWastedTokens;
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
 
     /**
      * Creates a new GuardRailAdvisor.
@@ -86,18 +145,48 @@ public class GuardRailAdvisor implements CallAroundAdvisor, StreamAroundAdvisor
      * @param acceptanceCriteria description of what makes a question acceptable
      * @param failureResponse    the response to return if the guardrail check fails
      * @param order              the order of this advisor in the chain
+     * @param speculative        whether to start the rest of the chain before the verdict arrives
+     * @param timeout            the maximum time to wait for the guardrail verdict
+     * @param fallbackPolicy     the verdict to use when the guardrail cannot decide
+     * @param verdictCache       the cache for verdicts of context-free questions, or null to disable caching
+     * @param preClassifier      the local first tier that accepts clearly relevant questions, or null
+     * @param meterRegistry      the registry for the guardrail metrics
      */
     public GuardRailAdvisor(ChatClient.Builder chatClientBuilder, String acceptanceCriteria,
-                            String failureResponse, int order) {
+                            String failureResponse, int order, boolean speculative,
+                            Duration timeout, FallbackPolicy fallbackPolicy,
+                            @Nullable GuardrailVerdictCache verdictCache,
+                            @Nullable GuardrailPreClassifier preClassifier, MeterRegistry meterRegistry) {
         Assert.notNull(chatClientBuilder, "ChatClient.Builder must not be null!");
         Assert.notNull(acceptanceCriteria, "Acceptance criteria must not be null!");
         Assert.notNull(failureResponse, "Failure response must not be null!");
+        Assert.notNull(timeout, "Timeout must not be null!");
+        Assert.notNull(fallbackPolicy, "Fallback policy must not be null!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
 
         this.guardrailClient = chatClientBuilder.build();
         this.internalTemplate = new PromptTemplate(DEFAULT_GUARDRAIL_TEMPLATE);
         this.failureResponse = failureResponse;
         this.order = order;
         this.acceptanceCriteria = acceptanceCriteria;
+        this.speculative = speculative;
+        this.timeout = timeout;
+        this.fallbackPolicy = fallbackPolicy;
+        this.verdictCache = verdictCache;
+        this.preClassifier = preClassifier;
+        this.criteriaFingerprint = GuardrailVerdictCache.fingerprint(acceptanceCriteria);
+
+        this.meterRegistry = meterRegistry;
+        this.speculativeTimeSaved = Timer.builder("docs.assistant.guardrail.speculative.ttft.saved")
+            .description("Time-to-first-token saved by generating while the guardrail decides")
+            .register(meterRegistry);
+        this.speculativeRejections = Counter.builder("docs.assistant.guardrail.speculative.rejected")
+            .description("Speculatively generated answers discarded because the question was rejected")
+            .register(meterRegistry);
+        this.speculativeWastedTokens = DistributionSummary.builder("docs.assistant.guardrail.speculative.wasted.tokens")
+            .description("Estimated tokens generated for questions the guardrail rejected")
+            .baseUnit("tokens")
+            .register(meterRegistry);
     }
 
     public static Builder builder() {
@@ -123,7 +212,7 @@ public class GuardRailAdvisor implements CallAroundAdvisor, StreamAroundAdvisor
             return chain.nextAroundCall(advisedRequest);
         }
 
-        boolean isAcceptable = checkAcceptability(userQuestion, advisedRequest.messages());
+        boolean isAcceptable = Boolean.TRUE.equals(timedEvaluate(advisedRequest, userQuestion).block());
 
         if (!isAcceptable) {
             logger.debug("Question '{}' failed guardrail check", userQuestion);
@@ -143,15 +232,100 @@ public class GuardRailAdvisor implements CallAroundAdvisor, StreamAroundAdvisor
             return chain.nextAroundStream(advisedRequest);
         }
 
-        boolean isAcceptable = checkAcceptability(userQuestion, advisedRequest.messages());
-
-        if (!isAcceptable) {
-            logger.debug("Question '{}' failed guardrail check", userQuestion);
-            return Flux.just(createFailureResponse(advisedRequest));
+        if (this.speculative) {
+            return speculativeStream(advisedRequest, chain, userQuestion);
         }
 
-        logger.debug("Question '{}' passed guardrail check", userQuestion);
-        return chain.nextAroundStream(advisedRequest);
+        return timedEvaluate(advisedRequest, userQuestion)
+            .flatMapMany(isAcceptable -> {
+                if (!isAcceptable) {
+                    logger.debug("Question '{}' failed guardrail check", userQuestion);
+                    return Flux.just(createFailureResponse(advisedRequest));
+                }
+
+                logger.debug("Question '{}' passed guardrail check", userQuestion);
+                return chain.nextAroundStream(advisedRequest);
+            });
+    }
+
+    /**
+     * Runs the guardrail check and the rest of the chain concurrently. Responses from the chain are
+     * buffered until the verdict; once the question has been accepted the buffer is drained to the
+     * subscriber and later responses pass straight through. On rejection the upstream subscription is
+     * disposed and the failure response is emitted instead.
+     *
+     * @param advisedRequest the advised request
+     * @param chain          the advisor chain
+     * @param userQuestion   the question being evaluated
+     * @return the guarded response stream
+     */
+    private Flux<AdvisedResponse> speculativeStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain,
+                                                    String userQuestion) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicLong firstResponseAt = new AtomicLong();
+            AtomicBoolean decided = new AtomicBoolean();
+            // Only the text generated before the verdict is kept, to estimate what a rejection wasted
+            StringBuilder speculativeText = new StringBuilder();
+
+            // A unicast sink holds the responses until the subscriber arrives after an accepting
+            // verdict, and only the ones it has not received yet after that
+            Sinks.Many<AdvisedResponse> generation = Sinks.many().unicast().onBackpressureBuffer();
+            Disposable upstream = chain.nextAroundStream(advisedRequest)
+                .doOnNext(response -> {
+                    firstResponseAt.compareAndSet(0, System.nanoTime());
+                    if (!decided.get()) {
+                        synchronized (speculativeText) {
+                            speculativeText.append(content(response));
+                        }
+                    }
+                })
+                .subscribe(generation::tryEmitNext, generation::tryEmitError, generation::tryEmitComplete);
+
+            return timedEvaluate(advisedRequest, userQuestion)
+                .flatMapMany(isAcceptable -> {
+                    long verdictAt = System.nanoTime();
+                    decided.set(true);
+
+                    if (!isAcceptable) {
+                        upstream.dispose();
+                        int wastedTokens;
+                        synchronized (speculativeText) {
+                            wastedTokens = speculativeText.isEmpty()
+                                ? 0 : this.tokenCountEstimator.estimate(speculativeText.toString());
+                        }
+                        logger.debug("Question '{}' failed guardrail check, discarded about {} speculative tokens",
+                            userQuestion, wastedTokens);
+                        this.speculativeRejections.increment();
+                        this.speculativeWastedTokens.record(wastedTokens);
+                        return Flux.just(createFailureResponse(advisedRequest));
+                    }
+
+                    logger.debug("Question '{}' passed guardrail check", userQuestion);
+                    synchronized (speculativeText) {
+                        speculativeText.setLength(0);
+                    }
+                    AtomicBoolean first = new AtomicBoolean(true);
+                    return generation.asFlux().doOnNext(response -> {
+                        if (first.compareAndSet(true, false)) {
+                            // Without speculation the first token would have arrived after both the
+                            // verdict and the generation latency, so we saved the smaller of the two.
+                            long saved = Math.min(verdictAt, firstResponseAt.get()) - start;
+                            this.speculativeTimeSaved.record(saved, TimeUnit.NANOSECONDS);
+                        }
+                    });
+                })
+                .doOnCancel(upstream::dispose);
+        });
+    }
+
+    private static String content(AdvisedResponse advisedResponse) {
+        ChatResponse response = advisedResponse.response();
+        if (response == null || response.getResult() == null || response.getResult().getOutput() == null) {
+            return "";
+        }
+        String text = response.getResult().getOutput().getText();
+        return text == null ? "" : text;
     }
 
     /**
@@ -170,7 +344,7 @@ public class GuardRailAdvisor implements CallAroundAdvisor, StreamAroundAdvisor
      * @param messages the list of messages in the conversation
      * @return a formatted string of the conversation history
      */
-    private String formatConversationHistory(List<Message> messages) {
+    String formatConversationHistory(List<Message> messages) {
         if (messages == null || messages.isEmpty()) {
             return "No previous conversation.";
         }
@@ -183,51 +357,130 @@ public class GuardRailAdvisor implements CallAroundAdvisor, StreamAroundAdvisor
     }
 
     /**
-     * Checks if a question is acceptable according to the guardrail.
+     * Evaluates whether a question is acceptable according to the guardrail. Clearly relevant
+     * questions are accepted by the pre-classifier and known questions are answered from the verdict
+     * cache; everything else goes to the guardrail model.
      *
      * @param question the question to check
      * @param messages the conversation history
-     * @return true if the question is acceptable, false otherwise
+     * @return a mono emitting true if the question is acceptable, false otherwise
      */
-    private boolean checkAcceptability(String question, List<Message> messages) {
-        try {
-            String history = formatConversationHistory(messages);
-
-            Map<String, Object> parameters = Map.of(
-                "acceptanceCriteria", this.acceptanceCriteria,
-                "history", history,
-                "question", question
-            );
+    public Mono<Boolean> evaluate(String question, List<Message> messages) {
+        if (this.preClassifier != null && this.preClassifier.acceptsLexically(question)) {
+            logger.debug("Question '{}' accepted by the keyword pre-classifier", question);
+            countDecision("lexical");
+            return Mono.just(true);
+        }
 
-            String promptText = internalTemplate.render(parameters);
+        boolean cacheable = this.verdictCache != null && this.verdictCache.isCacheable(messages);
+        if (cacheable) {
+            Boolean cached = this.verdictCache.get(this.criteriaFingerprint, question);
+            if (cached != null) {
+                logger.debug("Using cached guardrail verdict for question '{}'", question);
+                countDecision("cache");
+                return Mono.just(cached);
+            }
+        }
 
-            String responseContent = guardrailClient.prompt()
-                .user(promptText)
-                .options(ChatOptions.builder().temperature(0.0).build())
-                .call()
-                .content();
+        if (this.preClassifier == null) {
+            return evaluateWithModel(question, messages, cacheable);
+        }
 
-            logger.debug("Guardrail evaluation response: {}", responseContent);
+        return this.preClassifier.acceptsSemantically(question)
+            .flatMap(accepted -> {
+                if (accepted) {
+                    logger.debug("Question '{}' accepted by the similarity pre-classifier", question);
+                    countDecision("semantic");
+                    return Mono.just(true);
+                }
+                return evaluateWithModel(question, messages, cacheable);
+            });
+    }
 
-            // Parse the decision from the response content
+    /**
+     * Evaluates the question of a request and times the decision as
+     * {@code docs.assistant.guardrail.duration}, tagged by framework and outcome.
+     *
+     * @param advisedRequest the advised request
+     * @param question       the question to check
+     * @return a mono emitting true if the question is acceptable, false otherwise
+     */
+    private Mono<Boolean> timedEvaluate(AdvisedRequest advisedRequest, String question) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return evaluate(question, advisedRequest.messages())
+                .doOnNext(isAcceptable -> Timer.builder("docs.assistant.guardrail.duration")
+                    .description("Time until the guardrail decided on a question")
+                    .tag("framework", PipelineMetricsAdvisor.framework(advisedRequest))
+                    .tag("outcome", isAcceptable ? "accepted" : "rejected")
+                    .publishPercentileHistogram()
+                    .register(this.meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
 
-            return parseAcceptabilityDecision(responseContent);
-        } catch (Exception e) {
-            logger.error("Error during guardrail check", e);
-            return true; // Default to allowing in case of errors
-        }
+    /**
+     * Asks the guardrail model for a verdict. The reply is streamed and folded into a verdict, so no
+     * thread is held while waiting for the model.
+     *
+     * @param question  the question to check
+     * @param messages  the conversation history
+     * @param cacheable whether the verdict may be stored in the verdict cache
+     * @return a mono emitting true if the question is acceptable, false otherwise
+     */
+    private Mono<Boolean> evaluateWithModel(String question, List<Message> messages, boolean cacheable) {
+        return Mono.defer(() -> {
+                String history = formatConversationHistory(messages);
+
+                Map<String, Object> parameters = Map.of(
+                    "acceptanceCriteria", this.acceptanceCriteria,
+                    "history", history,
+                    "question", question
+                );
+
+                String promptText = internalTemplate.render(parameters);
+
+                return guardrailClient.prompt()
+                    .user(promptText)
+                    .options(ChatOptions.builder().temperature(0.0).build())
+                    .stream()
+                    .content()
+                    .collect(Collectors.joining());
+            })
+            .timeout(this.timeout)
+            .doOnNext(responseContent -> logger.debug("Guardrail evaluation response: {}", responseContent))
+            .mapNotNull(this::parseAcceptabilityDecision)
+            .doOnNext(isAcceptable -> {
+                countDecision("model");
+                // Only decided verdicts are cached, fallbacks are retried on the next request
+                if (cacheable) {
+                    this.verdictCache.put(this.criteriaFingerprint, question, isAcceptable);
+                }
+            })
+            .switchIfEmpty(Mono.fromSupplier(() -> fallback("undecided")))
+            .onErrorResume(e -> {
+                if (e instanceof TimeoutException) {
+                    logger.warn("Guardrail check timed out after {}, applying fallback policy {}",
+                        this.timeout, this.fallbackPolicy);
+                    return Mono.just(fallback("timeout"));
+                }
+                logger.error("Error during guardrail check, applying fallback policy {}", this.fallbackPolicy, e);
+                return Mono.just(fallback("error"));
+            });
     }
 
     /**
      * Parses the acceptability decision from the AI response content.
      *
      * @param responseContent the response content from the AI
-     * @return true if the response indicates the question is acceptable, false otherwise
+     * @return true if the response indicates the question is acceptable, false if it is not,
+     * or null if the response contains no decision
      */
-    private boolean parseAcceptabilityDecision(String responseContent) {
+    @Nullable
+    private Boolean parseAcceptabilityDecision(String responseContent) {
         if (responseContent == null || responseContent.isEmpty()) {
-            logger.warn("Empty response from guardrail check, defaulting to acceptable");
-            return true;
+            logger.warn("Empty response from guardrail check, applying fallback policy {}", this.fallbackPolicy);
+            return null;
         }
 
         // Check if the response contains the unacceptable decision phrase
@@ -235,13 +488,28 @@ public class GuardRailAdvisor implements CallAroundAdvisor, StreamAroundAdvisor
             return false;
         }
 
-        // If it contains the acceptable phrase or no decision phrase at all,
-        // default to acceptable (with a warning in the latter case)
-        if (!responseContent.contains("DECISION: ACCEPTABLE")) {
-            logger.warn("No decision found in guardrail response, defaulting to acceptable");
+        if (responseContent.contains("DECISION: ACCEPTABLE")) {
+            return true;
         }
 
-        return true;
+        logger.warn("No decision found in guardrail response, applying fallback policy {}", this.fallbackPolicy);
+        return null;
+    }
+
+    private void countDecision(String tier) {
+        this.meterRegistry.counter("docs.assistant.guardrail.decisions", "tier", tier).increment();
+    }
+
+    /**
+     * Resolves a verdict with the fallback policy and counts why it was needed.
+     *
+     * @param reason why the guardrail could not decide
+     * @return the fallback verdict
+     */
+    private boolean fallback(String reason) {
+        this.meterRegistry.counter("docs.assistant.guardrail.fallback",
+            "reason", reason, "policy", this.fallbackPolicy.name().toLowerCase()).increment();
+        return this.fallbackPolicy == FallbackPolicy.ACCEPT;
     }
 
     /**
@@ -255,10 +523,16 @@ public class GuardRailAdvisor implements CallAroundAdvisor, StreamAroundAdvisor
             ChatResponse.builder()
                 .generations(List.of(new Generation(new AssistantMessage(this.failureResponse))))
                 .build(),
-            advisedRequest.adviseContext()
+            withVerdict(advisedRequest.adviseContext())
         );
     }
 
+    private static Map<String, Object> withVerdict(Map<String, Object> adviseContext) {
+        Map<String, Object> context = new HashMap<>(adviseContext);
+        context.put(VERDICT_CONTEXT_KEY, "rejected");
+        return Collections.unmodifiableMap(context);
+    }
+
     /**
      * Builder for creating GuardRailAdvisor instances.
      */
@@ -267,6 +541,12 @@ public class GuardRailAdvisor implements CallAroundAdvisor, StreamAroundAdvisor
         private String acceptanceCriteria = DEFAULT_ACCEPTANCE_CRITERIA;
         private String failureResponse = DEFAULT_FAILURE_RESPONSE;
         private int order = DEFAULT_ORDER;
+        private boolean speculative = false;
+        private Duration timeout = DEFAULT_TIMEOUT;
+        private FallbackPolicy fallbackPolicy = FallbackPolicy.ACCEPT;
+        private GuardrailVerdictCache verdictCache;
+        private GuardrailPreClassifier preClassifier;
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
 
         private Builder() {
         }
@@ -291,10 +571,41 @@ public class GuardRailAdvisor implements CallAroundAdvisor, StreamAroundAdvisor
             return this;
         }
 
+        public Builder speculative(boolean speculative) {
+            this.speculative = speculative;
+            return this;
+        }
+
+        public Builder timeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public Builder fallbackPolicy(FallbackPolicy fallbackPolicy) {
+            this.fallbackPolicy = fallbackPolicy;
+            return this;
+        }
+
+        public Builder verdictCache(GuardrailVerdictCache verdictCache) {
+            this.verdictCache = verdictCache;
+            return this;
+        }
+
+        public Builder preClassifier(GuardrailPreClassifier preClassifier) {
+            this.preClassifier = preClassifier;
+            return this;
+        }
+
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
         public GuardRailAdvisor build() {
             Assert.notNull(chatClientBuilder, "ChatClient.Builder must not be null!");
             return new GuardRailAdvisor(this.chatClientBuilder, this.acceptanceCriteria,
-                this.failureResponse, this.order);
+                this.failureResponse, this.order, this.speculative, this.timeout, this.fallbackPolicy,
+                this.verdictCache, this.preClassifier, this.meterRegistry);
         }
     }
 }
\ No newline at end of file
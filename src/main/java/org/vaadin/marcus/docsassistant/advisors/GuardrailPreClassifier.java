@@ -0,0 +1,287 @@
+package org.vaadin.marcus.docsassistant.advisors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A cheap local first tier in front of the LLM guardrail.
+ *
+ * <p>Questions that clearly mention the topics the assistant covers are accepted by a keyword scorer
+ * in microseconds. A single keyword counts for at most half the accept threshold, so a question needs
+ * at least two independent signals: mentioning Vaadin alone does not get an off-topic request past
+ * the guardrail model. At the default threshold, the name of a Vaadin component counts as much as
+ * Vaadin itself, so a question about a component in Vaadin is accepted, while generic terms such as
+ * Java or Spring count for less. The default weights are calibrated against the labelled questions in
+ * {@code src/test/resources/guardrail-questions.tsv}.
+ *
+ * <p>If an {@link EmbeddingModel} and a set of known-good example questions are configured,
+ * questions the keyword scorer is unsure about are compared to the examples by cosine similarity.
+ * The pre-classifier never rejects: anything it cannot accept confidently is left for the LLM
+ * guardrail, as is anything containing a term associated with abuse.
+ */
+public class GuardrailPreClassifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(GuardrailPreClassifier.class);
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}@#+]+");
+
+    public static final Map<String, Double> DEFAULT_KEYWORDS = Map.ofEntries(
+        Map.entry("vaadin", 1.0),
+        Map.entry("hilla", 1.0),
+        Map.entry("binder", 1.0),
+        Map.entry("grid", 0.75),
+        Map.entry("@browsercallable", 1.0),
+        Map.entry("@route", 1.0),
+        Map.entry("flow", 0.3),
+        Map.entry("spring", 0.6),
+        Map.entry("react", 0.5),
+        Map.entry("java", 0.6),
+        Map.entry("component", 0.3),
+        Map.entry("components", 0.3),
+        Map.entry("view", 0.2),
+        Map.entry("layout", 0.3),
+        Map.entry("combobox", 0.75),
+        Map.entry("textfield", 0.75),
+        Map.entry("datepicker", 0.75),
+        Map.entry("formlayout", 0.75),
+        Map.entry("verticallayout", 0.75),
+        Map.entry("horizontallayout", 0.75),
+        Map.entry("applayout", 0.75),
+        Map.entry("dataprovider", 1.0),
+        Map.entry("lit", 0.3),
+        Map.entry("typescript", 0.4),
+        Map.entry("endpoint", 0.3),
+        Map.entry("maven", 0.5),
+        Map.entry("gradle", 0.5)
+    );
+
+    public static final Set<String> DEFAULT_DENY_TERMS = Set.of(
+        "malware", "exploit", "hack", "hacking", "phishing", "ransomware", "keylogger", "ddos",
+        "password", "passwords", "jailbreak", "ignore", "bypass", "weapon", "drugs"
+    );
+
+    private final Map<String, Double> keywords;
+    private final Set<String> denyTerms;
+    private final double acceptThreshold;
+    @Nullable
+    private final EmbeddingModel embeddingModel;
+    private final List<String> exampleQuestions;
+    private final double similarityThreshold;
+
+    private volatile List<float[]> exampleEmbeddings;
+
+    /**
+     * Creates a new GuardrailPreClassifier.
+     *
+     * @param keywords            term weights for the keyword scorer, keyed by lower-case term
+     * @param denyTerms           terms that always defer the decision to the LLM guardrail
+     * @param acceptThreshold     the keyword score at or above which a question is accepted, which takes
+     *                            at least two keywords as each counts for at most half of it
+     * @param embeddingModel      the model for the similarity tier, or null to disable it
+     * @param exampleQuestions    known-good questions for the similarity tier
+     * @param similarityThreshold the cosine similarity at or above which a question is accepted
+     */
+    public GuardrailPreClassifier(Map<String, Double> keywords, Set<String> denyTerms, double acceptThreshold,
+                                  @Nullable EmbeddingModel embeddingModel, List<String> exampleQuestions,
+                                  double similarityThreshold) {
+        Assert.notNull(keywords, "Keywords must not be null!");
+        Assert.notNull(denyTerms, "Deny terms must not be null!");
+        Assert.isTrue(acceptThreshold > 0, "Accept threshold must be positive!");
+        Assert.notNull(exampleQuestions, "Example questions must not be null!");
+
+        this.keywords = keywords;
+        this.denyTerms = denyTerms;
+        this.acceptThreshold = acceptThreshold;
+        this.embeddingModel = embeddingModel;
+        this.exampleQuestions = exampleQuestions;
+        this.similarityThreshold = similarityThreshold;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Scores a question by the summed weights of the keywords it contains. Each keyword counts once,
+     * and for at most half the accept threshold.
+     *
+     * @param question the question
+     * @return the keyword score, or a negative value if the question contains a deny term
+     */
+    public double score(String question) {
+        double score = 0;
+        for (String token : TOKEN_SEPARATOR.split(question.toLowerCase(Locale.ROOT))) {
+            if (this.denyTerms.contains(token)) {
+                return -1;
+            }
+        }
+        for (var keyword : this.keywords.entrySet()) {
+            if (containsToken(question, keyword.getKey())) {
+                score += Math.min(keyword.getValue(), this.acceptThreshold / 2);
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Whether the keyword scorer alone is confident the question is on topic.
+     *
+     * @param question the question
+     * @return true if the question can be accepted without asking the LLM
+     */
+    public boolean acceptsLexically(String question) {
+        return score(question) >= this.acceptThreshold;
+    }
+
+    /**
+     * Whether the question is similar enough to one of the known-good example questions. Emits false
+     * without calling the embedding model when the similarity tier is not configured or the question
+     * contains a deny term.
+     *
+     * @param question the question
+     * @return a mono emitting true if the question can be accepted without asking the LLM
+     */
+    public Mono<Boolean> acceptsSemantically(String question) {
+        if (this.embeddingModel == null || this.exampleQuestions.isEmpty() || score(question) < 0) {
+            return Mono.just(false);
+        }
+        return Mono.fromCallable(() -> maxSimilarity(question) >= this.similarityThreshold)
+            .subscribeOn(Schedulers.boundedElastic())
+            .onErrorResume(e -> {
+                logger.warn("Similarity pre-classification failed, deferring to the guardrail model", e);
+                return Mono.just(false);
+            });
+    }
+
+    /**
+     * Computes the highest cosine similarity between the question and the example questions.
+     *
+     * @param question the question
+     * @return the highest similarity, or 0 if the similarity tier is not configured
+     */
+    public double maxSimilarity(String question) {
+        if (this.embeddingModel == null || this.exampleQuestions.isEmpty()) {
+            return 0;
+        }
+        float[] embedding = this.embeddingModel.embed(question);
+        double max = 0;
+        for (float[] example : exampleEmbeddings()) {
+            max = Math.max(max, cosineSimilarity(embedding, example));
+        }
+        return max;
+    }
+
+    private List<float[]> exampleEmbeddings() {
+        List<float[]> embeddings = this.exampleEmbeddings;
+        if (embeddings == null) {
+            synchronized (this) {
+                embeddings = this.exampleEmbeddings;
+                if (embeddings == null) {
+                    embeddings = this.embeddingModel.embed(this.exampleQuestions);
+                    this.exampleEmbeddings = embeddings;
+                }
+            }
+        }
+        return embeddings;
+    }
+
+    private static boolean containsToken(String question, String keyword) {
+        int from = 0;
+        int length = keyword.length();
+        while (true) {
+            int index = indexOfIgnoreCase(question, keyword, from);
+            if (index < 0) {
+                return false;
+            }
+            int end = index + length;
+            boolean startsWord = index == 0 || !Character.isLetterOrDigit(question.charAt(index - 1));
+            boolean endsWord = end == question.length() || !Character.isLetterOrDigit(question.charAt(end));
+            if (startsWord && endsWord) {
+                return true;
+            }
+            from = index + 1;
+        }
+    }
+
+    private static int indexOfIgnoreCase(String text, String term, int from) {
+        for (int i = from; i <= text.length() - term.length(); i++) {
+            if (text.regionMatches(true, i, term, 0, term.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static double cosineSimilarity(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return normA == 0 || normB == 0 ? 0 : dot / Math.sqrt(normA * normB);
+    }
+
+    /**
+     * Builder for creating GuardrailPreClassifier instances.
+     */
+    public static final class Builder {
+        private Map<String, Double> keywords = DEFAULT_KEYWORDS;
+        private Set<String> denyTerms = DEFAULT_DENY_TERMS;
+        private double acceptThreshold = 1.5;
+        private EmbeddingModel embeddingModel;
+        private List<String> exampleQuestions = List.of();
+        private double similarityThreshold = 0.85;
+
+        private Builder() {
+        }
+
+        public Builder keywords(Map<String, Double> keywords) {
+            this.keywords = keywords;
+            return this;
+        }
+
+        public Builder denyTerms(Set<String> denyTerms) {
+            this.denyTerms = denyTerms;
+            return this;
+        }
+
+        public Builder acceptThreshold(double acceptThreshold) {
+            this.acceptThreshold = acceptThreshold;
+            return this;
+        }
+
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        public Builder exampleQuestions(List<String> exampleQuestions) {
+            this.exampleQuestions = exampleQuestions;
+            return this;
+        }
+
+        public Builder similarityThreshold(double similarityThreshold) {
+            this.similarityThreshold = similarityThreshold;
+            return this;
+        }
+
+        public GuardrailPreClassifier build() {
+            return new GuardrailPreClassifier(this.keywords, this.denyTerms, this.acceptThreshold,
+                this.embeddingModel, this.exampleQuestions, this.similarityThreshold);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.vaadin.marcus.docsassistant.advisors;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded cache of guardrail verdicts for popular questions.
+ *
+ * <p>Entries are keyed on a normalized form of the question and a fingerprint of the acceptance
+ * criteria, so rewording the criteria never reuses an old verdict. Only questions asked with no or
+ * trivially short conversation history are cached, since the verdict for a follow-up question
+ * depends on what came before it.
+ */
+public class GuardrailVerdictCache {
+
+    // Only punctuation ending the question is dropped, since it is part of names such as C++ or C#
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[.?!]+$");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final Cache<String, Boolean> verdicts;
+    private final int maxHistoryMessages;
+
+    /**
+     * Creates a new GuardrailVerdictCache.
+     *
+     * @param maximumSize        the maximum number of verdicts to keep
+     * @param timeToLive         how long a verdict stays valid after it was computed
+     * @param maxHistoryMessages the longest conversation history for which verdicts are cached
+     * @param meterRegistry      the registry to publish hit and miss counts to
+     */
+    public GuardrailVerdictCache(long maximumSize, Duration timeToLive, int maxHistoryMessages,
+                                 MeterRegistry meterRegistry) {
+        Assert.isTrue(maximumSize > 0, "Maximum size must be positive!");
+        Assert.notNull(timeToLive, "Time to live must not be null!");
+        Assert.isTrue(maxHistoryMessages >= 0, "Max history messages must not be negative!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.verdicts = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive)
+            .recordStats()
+            .build();
+        this.maxHistoryMessages = maxHistoryMessages;
+
+        CaffeineCacheMetrics.monitor(meterRegistry, this.verdicts, "docs.assistant.guardrail.verdicts");
+    }
+
+    /**
+     * Whether a verdict for a question asked with the given history may be cached.
+     *
+     * @param history the conversation history preceding the question
+     * @return true if the history is short enough for the verdict to be context-free
+     */
+    public boolean isCacheable(@Nullable List<Message> history) {
+        if (history == null) {
+            return true;
+        }
+        long conversational = history.stream()
+            .filter(message -> message.getMessageType() == MessageType.USER
+                || message.getMessageType() == MessageType.ASSISTANT)
+            .count();
+        return conversational <= this.maxHistoryMessages;
+    }
+
+    /**
+     * Looks up a cached verdict.
+     *
+     * @param criteriaFingerprint the fingerprint of the acceptance criteria
+     * @param question            the question
+     * @return the cached verdict, or null if there is none
+     */
+    @Nullable
+    public Boolean get(String criteriaFingerprint, String question) {
+        return this.verdicts.getIfPresent(key(criteriaFingerprint, question));
+    }
+
+    /**
+     * Stores a verdict.
+     *
+     * @param criteriaFingerprint the fingerprint of the acceptance criteria
+     * @param question            the question
+     * @param acceptable          the verdict
+     */
+    public void put(String criteriaFingerprint, String question, boolean acceptable) {
+        this.verdicts.put(key(criteriaFingerprint, question), acceptable);
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of this cache.
+     *
+     * @return the cache statistics
+     */
+    public CacheStats stats() {
+        return this.verdicts.stats();
+    }
+
+    /**
+     * Computes a short, stable fingerprint of the acceptance criteria.
+     *
+     * @param criteria the acceptance criteria
+     * @return a hex fingerprint of the criteria
+     */
+    public static String fingerprint(String criteria) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(criteria.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Normalizes a question so that trivially different phrasings share a cache entry: case,
+     * whitespace and the punctuation ending the question are ignored.
+     *
+     * @param question the question
+     * @return the normalized question
+     */
+    public static String normalize(String question) {
+        String normalized = Normalizer.normalize(question, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        normalized = WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+        return TRAILING_PUNCTUATION.matcher(normalized).replaceAll("").stripTrailing();
+    }
+
+    private static String key(String criteriaFingerprint, String question) {
+        return criteriaFingerprint + ':' + normalize(question);
+    }
+}
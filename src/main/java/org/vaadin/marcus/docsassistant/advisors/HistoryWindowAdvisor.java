@@ -0,0 +1,343 @@
+package org.vaadin.marcus.docsassistant.advisors;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.core.Ordered;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
+
+/**
+ * A {@link CallAroundAdvisor} and {@link StreamAroundAdvisor} that fits the conversation history
+ * retrieved by the chat memory advisor into a token budget.
+ *
+ * <p>Messages are kept from the newest backwards for as long as their estimated token count fits
+ * the budget. Older messages are folded into a rolling summary of the conversation, which is sent
+ * along as a system message in their place. The summary is updated incrementally in the background
+ * with only the messages that dropped out of the window since the last update, so requests never
+ * wait for it; a request may use a summary that is one update behind.
+ *
+ * <p>The summary is stored in the chat memory next to the conversation, under its own conversation
+ * id (see {@link #summaryConversationId(String)}), so it survives restarts of a durable memory but
+ * does not take up the message cap of the conversation or slots of the retrieved history. It is
+ * cleared together with the conversation when the chat is closed.
+ *
+ * <p>Runs after the chat memory advisor and before the guardrail, so the guardrail and query
+ * transformation also only see the windowed history.
+ */
+public class HistoryWindowAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistoryWindowAdvisor.class);
+
+    public static final int DEFAULT_ORDER = Ordered.HIGHEST_PRECEDENCE + 1500; // After chat history (+ 1000), before the guardrail (+ 2000)
+
+    private static final String SUMMARY_PREFIX = "Summary of the earlier conversation:\n";
+
+    private static final String SUMMARY_CONVERSATION_SUFFIX = "#summary";
+
+    private static final String SUMMARY_TEMPLATE = """
+        You maintain a running summary of a conversation between a user and an assistant
+        specialized in Vaadin development.
+        Update the current summary with the new messages below. Keep the facts, decisions, code
+        identifiers and open questions the user may refer back to, and drop small talk.
+        Keep the summary under {maxWords} words. Reply with the updated summary only.
+
+        CURRENT SUMMARY:
+        {summary}
+
+        NEW MESSAGES:
+        {messages}
+        """;
+
+    private record Summary(String text, String lastFoldedKey) {
+
+        private static final Summary NONE = new Summary("", null);
+
+        // Stored as the key of the last folded message, a line break and the summary text
+        Message toMessage() {
+            return new SystemMessage(this.lastFoldedKey + '\n' + this.text);
+        }
+
+        static Summary from(List<Message> stored) {
+            String text = stored.isEmpty() ? null : stored.getLast().getText();
+            int lineBreak = text == null ? -1 : text.indexOf('\n');
+            if (lineBreak < 0) {
+                return NONE;
+            }
+            return new Summary(text.substring(lineBreak + 1), text.substring(0, lineBreak));
+        }
+    }
+
+    private final ChatClient summaryClient;
+    private final ChatMemory chatMemory;
+    private final int tokenBudget;
+    private final int maxSummaryWords;
+    private final int order;
+    private final TokenCountEstimator tokenCountEstimator;
+    // Conversations whose summary is being updated
+    private final Set<String> updating = ConcurrentHashMap.newKeySet();
+
+    private final DistributionSummary historyTokens;
+    private final DistributionSummary tokensSaved;
+    private final Timer summaryUpdates;
+
+    /**
+     * Creates a new HistoryWindowAdvisor.
+     *
+     * @param chatClientBuilder the builder for the client used to update summaries
+     * @param chatMemory        the chat memory the history is retrieved from, which summaries are stored in
+     * @param tokenBudget       the maximum estimated number of history tokens sent with a request
+     * @param maxSummaryWords   the length the summary is asked to stay within
+     * @param order             the order of this advisor in the chain
+     * @param meterRegistry     the registry to publish token and summary metrics to
+     */
+    public HistoryWindowAdvisor(ChatClient.Builder chatClientBuilder, ChatMemory chatMemory, int tokenBudget,
+                                int maxSummaryWords, int order, MeterRegistry meterRegistry) {
+        Assert.notNull(chatClientBuilder, "ChatClient.Builder must not be null!");
+        Assert.notNull(chatMemory, "ChatMemory must not be null!");
+        Assert.isTrue(tokenBudget > 0, "Token budget must be positive!");
+        Assert.isTrue(maxSummaryWords > 0, "Max summary words must be positive!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.summaryClient = chatClientBuilder.build();
+        this.chatMemory = chatMemory;
+        this.tokenBudget = tokenBudget;
+        this.maxSummaryWords = maxSummaryWords;
+        this.order = order;
+        this.tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+        this.historyTokens = DistributionSummary.builder("docs.assistant.history.tokens")
+            .description("Estimated history tokens sent with a request, including the summary")
+            .baseUnit("tokens")
+            .register(meterRegistry);
+        this.tokensSaved = DistributionSummary.builder("docs.assistant.history.tokens.saved")
+            .description("Estimated history tokens left out of a request by windowing and summarization")
+            .baseUnit("tokens")
+            .register(meterRegistry);
+        this.summaryUpdates = Timer.builder("docs.assistant.history.summary.updates")
+            .description("Background updates of rolling conversation summaries")
+            .register(meterRegistry);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the id under which the summary of a conversation is stored in the chat memory.
+     *
+     * @param conversationId the id of the conversation
+     * @return the id of the conversation holding its summary
+     */
+    public static String summaryConversationId(String conversationId) {
+        return conversationId + SUMMARY_CONVERSATION_SUFFIX;
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        return chain.nextAroundCall(window(advisedRequest));
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        return Flux.defer(() -> chain.nextAroundStream(window(advisedRequest)));
+    }
+
+    private AdvisedRequest window(AdvisedRequest request) {
+        Object conversationId = request.adviseContext().get(CHAT_MEMORY_CONVERSATION_ID_KEY);
+        List<Message> history = request.messages();
+        if (conversationId == null || history == null || history.isEmpty()) {
+            return request;
+        }
+        Summary summary = Summary.from(this.chatMemory.get(summaryConversationId(conversationId.toString()), 1));
+
+        int[] tokens = new int[history.size()];
+        int total = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = estimate(history.get(i));
+            total += tokens[i];
+        }
+
+        // Keep the newest messages that fit the budget, the rest is left to the summary
+        int used = 0;
+        int cut = history.size();
+        while (cut > 0 && used + tokens[cut - 1] <= this.tokenBudget) {
+            used += tokens[--cut];
+        }
+
+        if (cut > 0) {
+            fold(conversationId.toString(), summary, history.subList(0, cut));
+        }
+
+        List<Message> windowed = new ArrayList<>(history.size() - cut + 1);
+        int summaryTokens = 0;
+        if (StringUtils.hasText(summary.text())) {
+            String text = SUMMARY_PREFIX + summary.text();
+            summaryTokens = this.tokenCountEstimator.estimate(text);
+            windowed.add(new SystemMessage(text));
+        }
+        windowed.addAll(history.subList(cut, history.size()));
+
+        this.historyTokens.record(used + summaryTokens);
+        this.tokensSaved.record(Math.max(0, total - used - summaryTokens));
+        if (cut == 0 && summaryTokens == 0) {
+            return request;
+        }
+        return AdvisedRequest.from(request).messages(windowed).build();
+    }
+
+    /**
+     * Starts a background update of the summary with the dropped messages it does not cover yet,
+     * unless an update of this conversation is already running.
+     */
+    private void fold(String conversationId, Summary summary, List<Message> dropped) {
+        int from = 0;
+        String lastFoldedKey = summary.lastFoldedKey();
+        if (lastFoldedKey != null) {
+            for (int i = dropped.size() - 1; i >= 0; i--) {
+                if (lastFoldedKey.equals(key(dropped, i))
+                    // The predecessor of the first message has already scrolled out of memory
+                    || (i == 0 && lastFoldedKey.endsWith('|' + key(dropped.get(0))))) {
+                    from = i + 1;
+                    break;
+                }
+            }
+        }
+        if (from >= dropped.size() || !this.updating.add(conversationId)) {
+            return;
+        }
+
+        List<Message> newMessages = List.copyOf(dropped.subList(from, dropped.size()));
+        String foldedKey = key(dropped, dropped.size() - 1);
+        Mono.fromRunnable(() -> this.summaryUpdates.record(() -> update(conversationId, summary, newMessages, foldedKey)))
+            .subscribeOn(Schedulers.boundedElastic())
+            .doFinally(signal -> this.updating.remove(conversationId))
+            .subscribe(null, e -> logger.warn("Could not update conversation summary", e));
+    }
+
+    private void update(String conversationId, Summary summary, List<Message> newMessages, String foldedKey) {
+        String messages = newMessages.stream()
+            .map(message -> "%s: %s".formatted(message.getMessageType(), message.getText()))
+            .collect(Collectors.joining("\n"));
+        String updated = this.summaryClient.prompt()
+            .user(user -> user.text(SUMMARY_TEMPLATE)
+                .param("maxWords", this.maxSummaryWords)
+                .param("summary", summary.text().isEmpty() ? "None yet." : summary.text())
+                .param("messages", messages))
+            .options(ChatOptions.builder().temperature(0.0).build())
+            .call()
+            .content();
+        // A conversation closed in the meantime is not brought back by its summary
+        if (StringUtils.hasText(updated) && !this.chatMemory.get(conversationId, 1).isEmpty()) {
+            // Only the latest summary is kept
+            String summaryConversationId = summaryConversationId(conversationId);
+            this.chatMemory.clear(summaryConversationId);
+            this.chatMemory.add(summaryConversationId, new Summary(updated.strip(), foldedKey).toMessage());
+            logger.debug("Folded {} messages into the conversation summary", newMessages.size());
+        }
+    }
+
+    private int estimate(Message message) {
+        if (message.getMessageType() != MessageType.USER && message.getMessageType() != MessageType.ASSISTANT
+            && message.getMessageType() != MessageType.SYSTEM) {
+            return 0;
+        }
+        return message.getText() == null ? 0 : this.tokenCountEstimator.estimate(message.getText());
+    }
+
+    /**
+     * Identifies a message by its content and that of its predecessor, so repeated messages such as
+     * identical cached answers are told apart.
+     */
+    private static String key(List<Message> messages, int index) {
+        return (index > 0 ? key(messages.get(index - 1)) : "") + '|' + key(messages.get(index));
+    }
+
+    private static String key(Message message) {
+        String text = message.getText() == null ? "" : message.getText();
+        return message.getMessageType().getValue() + ':' + text.length() + ':' + text.hashCode();
+    }
+
+    /**
+     * Builder for creating HistoryWindowAdvisor instances.
+     */
+    public static final class Builder {
+        private ChatClient.Builder chatClientBuilder;
+        private ChatMemory chatMemory;
+        private int tokenBudget = 2000;
+        private int maxSummaryWords = 200;
+        private int order = DEFAULT_ORDER;
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Builder() {
+        }
+
+        public Builder chatClientBuilder(ChatClient.Builder chatClientBuilder) {
+            this.chatClientBuilder = chatClientBuilder;
+            return this;
+        }
+
+        public Builder chatMemory(ChatMemory chatMemory) {
+            this.chatMemory = chatMemory;
+            return this;
+        }
+
+        public Builder tokenBudget(int tokenBudget) {
+            this.tokenBudget = tokenBudget;
+            return this;
+        }
+
+        public Builder maxSummaryWords(int maxSummaryWords) {
+            this.maxSummaryWords = maxSummaryWords;
+            return this;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public HistoryWindowAdvisor build() {
+            return new HistoryWindowAdvisor(this.chatClientBuilder, this.chatMemory, this.tokenBudget,
+                this.maxSummaryWords, this.order, this.meterRegistry);
+        }
+    }
+}
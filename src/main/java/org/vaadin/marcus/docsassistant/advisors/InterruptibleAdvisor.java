@@ -0,0 +1,77 @@
+package org.vaadin.marcus.docsassistant.advisors;
+
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.BaseAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams a {@link BaseAdvisor}, such as the retrieval augmentation advisor, so that its blocking
+ * {@link BaseAdvisor#before} step can be cancelled cleanly.
+ *
+ * <p>The before step runs on the advisor's scheduler, and cancelling the stream interrupts it, which
+ * aborts the model calls of query transformation while they wait for a response. The interrupted
+ * step then fails. The base implementation passes that failure on to the cancelled
+ * subscribers, where it is logged as an aggregation error; here it is dropped, since nobody is
+ * listening anymore.
+ */
+public class InterruptibleAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    private final BaseAdvisor delegate;
+
+    /**
+     * Creates a new InterruptibleAdvisor.
+     *
+     * @param delegate the advisor to stream
+     */
+    public InterruptibleAdvisor(BaseAdvisor delegate) {
+        Assert.notNull(delegate, "Delegate must not be null!");
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getName() {
+        return this.delegate.getName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.delegate.getOrder();
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        return this.delegate.aroundCall(advisedRequest, chain);
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        return Flux.defer(() -> {
+            AtomicBoolean cancelled = new AtomicBoolean();
+            return Mono.fromCallable(() -> this.delegate.before(advisedRequest))
+                .subscribeOn(this.delegate.getScheduler())
+                .onErrorResume(e -> cancelled.get() ? Mono.never() : Mono.error(e))
+                .flatMapMany(chain::nextAroundStream)
+                .map(response -> finished(response) ? this.delegate.after(response) : response)
+                // Flagged before the cancellation travels upstream and interrupts the before step
+                .doOnCancel(() -> cancelled.set(true));
+        });
+    }
+
+    private static boolean finished(AdvisedResponse advisedResponse) {
+        ChatResponse response = advisedResponse.response();
+        return response != null && response.getResults() != null && response.getResults().stream()
+            .anyMatch(result -> result != null && result.getMetadata() != null
+                && StringUtils.hasText(result.getMetadata().getFinishReason()));
+    }
+}
@@ -0,0 +1,235 @@
+package org.vaadin.marcus.docsassistant.advisors;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.core.Ordered;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link CallAroundAdvisor} and {@link StreamAroundAdvisor} that records end-to-end metrics of
+ * each chat request. It runs first in the chain, so the timings include chat memory, the guardrail,
+ * query transformation, retrieval and generation.
+ *
+ * <p>Records, tagged by {@code framework} and {@code outcome} ({@code accepted}, {@code rejected},
+ * {@code error} or {@code cancelled}):
+ * <ul>
+ * <li>{@code docs.assistant.chat.duration}: the time until the response completed;</li>
+ * <li>{@code docs.assistant.chat.ttft}: the time until the first content arrived;</li>
+ * <li>{@code docs.assistant.chat.tokens} with a {@code type} of {@code prompt} or {@code completion}:
+ * the token usage reported by the model, or an estimate of the completion if it reports none;</li>
+ * <li>{@code docs.assistant.chat.tokens.rate}: completion tokens per second after the first token;</li>
+ * <li>{@code docs.assistant.chat.cancelled.tokens.saved}, tagged by {@code framework} and the {@code stage}
+ * that was cancelled ({@code pipeline} before the first token, {@code generation} after it): an
+ * estimate of the completion tokens that cancelled requests did not generate, based on the mean
+ * completion of accepted requests.</li>
+ * </ul>
+ *
+ * <p>A request counts as rejected when the {@link GuardRailAdvisor} answered it with its failure
+ * response, which it marks with {@link GuardRailAdvisor#VERDICT_CONTEXT_KEY}.
+ */
+public class PipelineMetricsAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    public static final int DEFAULT_ORDER = Ordered.HIGHEST_PRECEDENCE + 500; // Before chat history (+ 1000)
+
+    private static final String FRAMEWORK_PARAM = "framework";
+    private static final Set<String> FRAMEWORK_TAGS = Set.of("flow", "hilla");
+
+    private final int order;
+    private final MeterRegistry meterRegistry;
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    /**
+     * Creates a new PipelineMetricsAdvisor.
+     *
+     * @param order         the order of this advisor in the chain
+     * @param meterRegistry the registry to publish request metrics to
+     */
+    public PipelineMetricsAdvisor(int order, MeterRegistry meterRegistry) {
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+        this.order = order;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public PipelineMetricsAdvisor(MeterRegistry meterRegistry) {
+        this(DEFAULT_ORDER, meterRegistry);
+    }
+
+    public PipelineMetricsAdvisor() {
+        this(Metrics.globalRegistry);
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        long start = System.nanoTime();
+        String framework = framework(advisedRequest);
+        AdvisedResponse response;
+        try {
+            response = chain.nextAroundCall(advisedRequest);
+        } catch (RuntimeException e) {
+            record(framework, "error", start, 0, null, "");
+            throw e;
+        }
+        String text = content(response.response());
+        record(framework, outcome(response), start, 0, usage(response.response()), text);
+        return response;
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            String framework = framework(advisedRequest);
+            AtomicLong firstContentAt = new AtomicLong();
+            AtomicBoolean rejected = new AtomicBoolean();
+            AtomicReference<Usage> usage = new AtomicReference<>();
+            StringBuilder completion = new StringBuilder();
+
+            return chain.nextAroundStream(advisedRequest)
+                .doOnNext(response -> {
+                    if (response.adviseContext().containsKey(GuardRailAdvisor.VERDICT_CONTEXT_KEY)) {
+                        rejected.set(true);
+                    }
+                    String text = content(response.response());
+                    if (!text.isEmpty()) {
+                        firstContentAt.compareAndSet(0, System.nanoTime());
+                        completion.append(text);
+                    }
+                    Usage reported = usage(response.response());
+                    if (reported != null) {
+                        usage.set(reported);
+                    }
+                })
+                .doFinally(signal -> {
+                    String outcome = switch (signal) {
+                        case ON_ERROR -> "error";
+                        case CANCEL -> "cancelled";
+                        default -> rejected.get() ? "rejected" : "accepted";
+                    };
+                    record(framework, outcome, start, firstContentAt.get(), usage.get(), completion.toString());
+                    if (signal == SignalType.CANCEL) {
+                        recordCancellation(framework, firstContentAt.get() != 0, completion.toString());
+                    }
+                });
+        });
+    }
+
+    /**
+     * Returns the framework tag of a request: the framework the system prompt was rendered for,
+     * {@code none} for general questions, or {@code other} for any unknown value, so the number of
+     * tag values stays fixed whatever a client sends.
+     */
+    static String framework(AdvisedRequest advisedRequest) {
+        Object framework = advisedRequest.systemParams().get(FRAMEWORK_PARAM);
+        if (framework == null || framework.toString().isBlank()) {
+            return "none";
+        }
+        return FRAMEWORK_TAGS.contains(framework.toString()) ? framework.toString() : "other";
+    }
+
+    private void record(String framework, String outcome, long start, long firstContentAt, Usage usage,
+                        String completion) {
+        long end = System.nanoTime();
+        Tags tags = Tags.of("framework", framework, "outcome", outcome);
+
+        Timer.builder("docs.assistant.chat.duration")
+            .description("Time until the chat response completed")
+            .tags(tags)
+            .publishPercentileHistogram()
+            .register(this.meterRegistry)
+            .record(end - start, TimeUnit.NANOSECONDS);
+        if (firstContentAt != 0) {
+            Timer.builder("docs.assistant.chat.ttft")
+                .description("Time until the first content of the chat response arrived")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(this.meterRegistry)
+                .record(firstContentAt - start, TimeUnit.NANOSECONDS);
+        }
+
+        Integer promptTokens = usage != null ? usage.getPromptTokens() : null;
+        Integer completionTokens = usage != null && usage.getCompletionTokens() != null
+            ? usage.getCompletionTokens()
+            : completion.isEmpty() ? null : this.tokenCountEstimator.estimate(completion);
+        if (promptTokens != null) {
+            tokens("prompt", tags).record(promptTokens);
+        }
+        if (completionTokens != null) {
+            tokens("completion", tags).record(completionTokens);
+            double seconds = (end - firstContentAt) / 1e9;
+            if (firstContentAt != 0 && seconds > 0) {
+                DistributionSummary.builder("docs.assistant.chat.tokens.rate")
+                    .description("Completion tokens per second after the first token")
+                    .baseUnit("tokens/s")
+                    .tags(tags)
+                    .register(this.meterRegistry)
+                    .record(completionTokens / seconds);
+            }
+        }
+    }
+
+    private void recordCancellation(String framework, boolean generating, String completion) {
+        double expected = tokens("completion", Tags.of("framework", framework, "outcome", "accepted")).mean();
+        int generated = completion.isEmpty() ? 0 : this.tokenCountEstimator.estimate(completion);
+        Counter.builder("docs.assistant.chat.cancelled.tokens.saved")
+            .description("Estimated completion tokens not generated because the request was cancelled")
+            .baseUnit("tokens")
+            .tags("framework", framework, "stage", generating ? "generation" : "pipeline")
+            .register(this.meterRegistry)
+            .increment(Math.max(0, expected - generated));
+    }
+
+    private DistributionSummary tokens(String type, Tags tags) {
+        return DistributionSummary.builder("docs.assistant.chat.tokens")
+            .description("Prompt and completion tokens of a chat request")
+            .baseUnit("tokens")
+            .tags(tags.and("type", type))
+            .register(this.meterRegistry);
+    }
+
+    private static String outcome(AdvisedResponse response) {
+        return response.adviseContext().containsKey(GuardRailAdvisor.VERDICT_CONTEXT_KEY) ? "rejected" : "accepted";
+    }
+
+    private static String content(ChatResponse response) {
+        if (response == null || response.getResult() == null || response.getResult().getOutput() == null) {
+            return "";
+        }
+        String text = response.getResult().getOutput().getText();
+        return text == null ? "" : text;
+    }
+
+    private static Usage usage(ChatResponse response) {
+        if (response == null || response.getMetadata() == null) {
+            return null;
+        }
+        Usage usage = response.getMetadata().getUsage();
+        return usage != null && usage.getTotalTokens() != null && usage.getTotalTokens() > 0 ? usage : null;
+    }
+}
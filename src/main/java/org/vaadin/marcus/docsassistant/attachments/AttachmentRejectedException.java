@@ -0,0 +1,28 @@
+package org.vaadin.marcus.docsassistant.attachments;
+
+/**
+ * Thrown when an attachment is not added to a chat, with a message that can be shown to the user.
+ */
+public class AttachmentRejectedException extends RuntimeException {
+
+    private final String reason;
+
+    /**
+     * Creates a new AttachmentRejectedException.
+     *
+     * @param reason  why the attachment was rejected, as a metric tag such as {@code too-large}
+     * @param message the message to show to the user
+     */
+    public AttachmentRejectedException(String reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    /**
+     * Returns why the attachment was rejected: {@code too-large}, {@code chat-full}, {@code not-text}
+     * or {@code busy}.
+     */
+    public String reason() {
+        return this.reason;
+    }
+}
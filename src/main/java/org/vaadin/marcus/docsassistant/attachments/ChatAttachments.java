@@ -0,0 +1,593 @@
+package org.vaadin.marcus.docsassistant.attachments;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.util.Assert;
+import org.springframework.util.unit.DataSize;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The files users attach to their chats, such as stack traces, logs and source files, kept as a small
+ * vector index per chat so that answers can draw on them as well as on the docs.
+ *
+ * <p>An attachment is ingested while it is read: its text is cut into chunks, at a line break where
+ * possible, and the chunks are embedded in batches. Besides the chunks, at most one batch of text is
+ * held at a time, so an upload is never buffered as a whole. Reading waits while a batch is embedded,
+ * and only a limited number of attachments are ingested at once; further uploads wait for their turn
+ * for a while and are then rejected.
+ *
+ * <p>Chunks are embedded by a model that should bypass the embedding cache, which would otherwise
+ * keep user content on disk. The indexes only live on the heap. A chat's index is dropped when the
+ * chat is closed or has been idle for as long as chat memory keeps it, and the indexes of rarely
+ * used chats are dropped when all indexes together exceed a memory budget.
+ *
+ * <p>Attachments must be UTF-8 text and are limited in size, per attachment and per chat. Those that
+ * are not added throw an {@link AttachmentRejectedException}.
+ *
+ * <p>Records {@code docs.assistant.attachments.ingestion}, the time to ingest an attachment, tagged by
+ * {@code outcome} ({@code ingested}, {@code rejected} or {@code error}); the size of ingested
+ * attachments as {@code docs.assistant.attachments.size}, their ingestion throughput as
+ * {@code docs.assistant.attachments.ingestion.rate} and their chunks as
+ * {@code docs.assistant.attachments.chunks}; rejected attachments as
+ * {@code docs.assistant.attachments.rejected}, tagged by {@code reason}; and the estimated heap used
+ * by all indexes as {@code docs.assistant.attachments.memory}.
+ */
+public class ChatAttachments {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    // A chunk's document, embedding and the index entry around them
+    private static final int CHUNK_OVERHEAD = 256;
+
+    private record Chunk(Document document, float[] embedding, double norm) {
+    }
+
+    private record Attachment(String id, String fileName, long size, List<Chunk> chunks) {
+    }
+
+    /**
+     * The attachments of one chat. Indexes are immutable, so a search sees either all of an
+     * attachment or none of it, and the cache weighs every new version.
+     */
+    private record Index(Map<String, Attachment> attachments) {
+
+        private static final Index EMPTY = new Index(Map.of());
+
+        long size() {
+            return this.attachments.values().stream().mapToLong(Attachment::size).sum();
+        }
+
+        int weight() {
+            long weight = 0;
+            for (Attachment attachment : this.attachments.values()) {
+                for (Chunk chunk : attachment.chunks()) {
+                    weight += CHUNK_OVERHEAD + 2L * chunk.document().getText().length() + 4L * chunk.embedding().length;
+                }
+            }
+            return (int) Math.min(Integer.MAX_VALUE, weight);
+        }
+
+        Index with(Attachment attachment) {
+            Map<String, Attachment> attachments = new LinkedHashMap<>(this.attachments);
+            attachments.put(attachment.id(), attachment);
+            return new Index(attachments);
+        }
+
+        Index without(String attachmentId) {
+            Map<String, Attachment> attachments = new LinkedHashMap<>(this.attachments);
+            attachments.remove(attachmentId);
+            return new Index(attachments);
+        }
+    }
+
+    private final EmbeddingModel embeddingModel;
+    private final long maxFileSize;
+    private final long maxChatSize;
+    private final int chunkSize;
+    private final int chunkOverlap;
+    private final int batchSize;
+    private final Duration maxWait;
+    private final int topK;
+    private final double similarityThreshold;
+    private final String sourceKey;
+    private final Semaphore ingestions;
+    private final Cache<String, Index> indexes;
+
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary sizes;
+    private final DistributionSummary rates;
+    private final Counter chunks;
+
+    /**
+     * Creates a new ChatAttachments.
+     *
+     * @param embeddingModel          the model to embed attachment chunks with
+     * @param maxFileSize             the largest attachment in bytes
+     * @param maxChatSize             the most attachment content per chat in bytes
+     * @param maxMemory               the approximate heap all indexes may use in bytes
+     * @param idleTimeout             how long the index of a chat is kept after it was last used
+     * @param chunkSize               the length in characters of the chunks attachments are cut into
+     * @param chunkOverlap            the characters a chunk repeats from the end of the previous one
+     * @param batchSize               the number of chunks embedded in one request
+     * @param maxConcurrentIngestions the number of attachments ingested at once
+     * @param maxWait                 how long an attachment waits for its turn before it is rejected
+     * @param topK                    the number of chunks a search returns
+     * @param similarityThreshold     the similarity to the query at or above which a chunk is returned
+     * @param sourceKey               the metadata key that names the attachment a chunk was cut from
+     * @param meterRegistry           the registry to publish ingestion metrics to
+     */
+    public ChatAttachments(EmbeddingModel embeddingModel, long maxFileSize, long maxChatSize, long maxMemory,
+                           Duration idleTimeout, int chunkSize, int chunkOverlap, int batchSize,
+                           int maxConcurrentIngestions, Duration maxWait, int topK, double similarityThreshold,
+                           String sourceKey, MeterRegistry meterRegistry) {
+        Assert.notNull(embeddingModel, "EmbeddingModel must not be null!");
+        Assert.isTrue(maxFileSize > 0, "Max file size must be positive!");
+        Assert.isTrue(maxChatSize >= maxFileSize, "Max chat size must not be smaller than the max file size!");
+        Assert.isTrue(maxMemory > 0, "Max memory must be positive!");
+        Assert.notNull(idleTimeout, "Idle timeout must not be null!");
+        Assert.isTrue(chunkSize > 0, "Chunk size must be positive!");
+        Assert.isTrue(chunkOverlap >= 0 && chunkOverlap < chunkSize / 2,
+            "Chunk overlap must not be negative or half the chunk size or more!");
+        Assert.isTrue(batchSize > 0, "Batch size must be positive!");
+        Assert.isTrue(maxConcurrentIngestions > 0, "Max concurrent ingestions must be positive!");
+        Assert.notNull(maxWait, "Max wait must not be null!");
+        Assert.isTrue(topK > 0, "TopK must be positive!");
+        Assert.hasText(sourceKey, "Source key must not be empty!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.embeddingModel = embeddingModel;
+        this.maxFileSize = maxFileSize;
+        this.maxChatSize = maxChatSize;
+        this.chunkSize = chunkSize;
+        this.chunkOverlap = chunkOverlap;
+        this.batchSize = batchSize;
+        this.maxWait = maxWait;
+        this.topK = topK;
+        this.similarityThreshold = similarityThreshold;
+        this.sourceKey = sourceKey;
+        this.ingestions = new Semaphore(maxConcurrentIngestions, true);
+        this.indexes = Caffeine.newBuilder()
+            .maximumWeight(maxMemory)
+            .<String, Index>weigher((chatId, index) -> index.weight())
+            .expireAfterAccess(idleTimeout)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, this.indexes, "docs.assistant.attachments.indexes");
+
+        this.meterRegistry = meterRegistry;
+        this.sizes = DistributionSummary.builder("docs.assistant.attachments.size")
+            .description("Size of ingested attachments")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        this.rates = DistributionSummary.builder("docs.assistant.attachments.ingestion.rate")
+            .description("Bytes per second at which attachments were ingested")
+            .baseUnit("bytes/s")
+            .register(meterRegistry);
+        this.chunks = Counter.builder("docs.assistant.attachments.chunks")
+            .description("Chunks cut from ingested attachments")
+            .register(meterRegistry);
+        Gauge.builder("docs.assistant.attachments.memory", this.indexes,
+                indexes -> indexes.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L))
+            .description("Estimated heap used by the attachment indexes of all chats")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Ingests an attachment into the index of a chat.
+     *
+     * @param chatId   the chat the attachment belongs to
+     * @param fileName the name of the attached file
+     * @param size     the size of the attachment in bytes, or -1 if unknown
+     * @param content  the content of the attachment, which is read but not closed
+     * @return the id of the attachment
+     * @throws AttachmentRejectedException if the attachment is too large, not text, or has waited too long
+     * @throws IOException                 if the content cannot be read
+     */
+    public String add(String chatId, String fileName, long size, InputStream content) throws IOException {
+        Assert.hasText(chatId, "Chat id must not be empty!");
+        Assert.notNull(fileName, "File name must not be null!");
+        Assert.notNull(content, "Content must not be null!");
+
+        long start = System.nanoTime();
+        try {
+            if (size > this.maxFileSize) {
+                throw tooLarge();
+            }
+            if (size > 0 && chatSize(chatId) + size > this.maxChatSize) {
+                throw chatFull();
+            }
+            acquire();
+            Attachment attachment;
+            try {
+                attachment = ingest(fileName, content);
+            } finally {
+                this.ingestions.release();
+            }
+
+            // Concurrent uploads to the same chat are only checked against each other here
+            this.indexes.asMap().compute(chatId, (id, index) -> {
+                Index current = index != null ? index : Index.EMPTY;
+                if (current.size() + attachment.size() > this.maxChatSize) {
+                    throw chatFull();
+                }
+                return current.with(attachment);
+            });
+
+            long elapsed = System.nanoTime() - start;
+            timer("ingested").record(elapsed, TimeUnit.NANOSECONDS);
+            this.sizes.record(attachment.size());
+            if (elapsed > 0) {
+                this.rates.record(attachment.size() / (elapsed / 1e9));
+            }
+            return attachment.id();
+        } catch (AttachmentRejectedException e) {
+            timer("rejected").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            Counter.builder("docs.assistant.attachments.rejected")
+                .description("Attachments that were not added to a chat")
+                .tag("reason", e.reason())
+                .register(this.meterRegistry)
+                .increment();
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            timer("error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+    }
+
+    /**
+     * Removes an attachment from the index of a chat. Unknown attachments are ignored.
+     */
+    public void remove(String chatId, String attachmentId) {
+        this.indexes.asMap().computeIfPresent(chatId, (id, index) -> {
+            Index rest = index.without(attachmentId);
+            return rest.attachments().isEmpty() ? null : rest;
+        });
+    }
+
+    /**
+     * Drops the index of a chat, for example when the chat is closed.
+     */
+    public void clear(String chatId) {
+        this.indexes.invalidate(chatId);
+    }
+
+    /**
+     * Returns whether a chat has attachments.
+     */
+    public boolean contains(String chatId) {
+        return this.indexes.getIfPresent(chatId) != null;
+    }
+
+    /**
+     * Returns the attachment chunks of a chat most similar to a query, best first, with their
+     * similarity as the score.
+     *
+     * @param chatId    the chat to search the attachments of
+     * @param embedding the embedding of the query, by the same model as the chunks
+     * @return the chunks at or above the similarity threshold, at most topK
+     */
+    public List<Document> search(String chatId, float[] embedding) {
+        Index index = this.indexes.getIfPresent(chatId);
+        if (index == null) {
+            return List.of();
+        }
+
+        double norm = norm(embedding);
+        record Match(Chunk chunk, double similarity) {
+        }
+        List<Match> matches = new ArrayList<>();
+        for (Attachment attachment : index.attachments().values()) {
+            for (Chunk chunk : attachment.chunks()) {
+                double similarity = dot(embedding, chunk.embedding()) / (norm * chunk.norm());
+                if (similarity >= this.similarityThreshold) {
+                    matches.add(new Match(chunk, similarity));
+                }
+            }
+        }
+        return matches.stream()
+            .sorted(Comparator.comparingDouble(Match::similarity).reversed())
+            .limit(this.topK)
+            .map(match -> match.chunk().document().mutate().score(match.similarity()).build())
+            .toList();
+    }
+
+    private Attachment ingest(String fileName, InputStream content) throws IOException {
+        String id = UUID.randomUUID().toString();
+        List<Chunk> chunks = new ArrayList<>();
+        List<String> batch = new ArrayList<>(this.batchSize);
+        LimitedInputStream limited = new LimitedInputStream(content, this.maxFileSize);
+        Reader reader = new InputStreamReader(limited, StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT));
+
+        char[] buffer = new char[READ_BUFFER_SIZE];
+        StringBuilder chunk = new StringBuilder(this.chunkSize);
+        try {
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == 0) {
+                        throw notText();
+                    }
+                    chunk.append(buffer[i]);
+                    if (chunk.length() >= this.chunkSize) {
+                        batch.add(cut(chunk));
+                        if (batch.size() == this.batchSize) {
+                            embed(id, fileName, batch, chunks);
+                        }
+                    }
+                }
+            }
+        } catch (CharacterCodingException e) {
+            throw notText();
+        }
+        if (!chunk.isEmpty() && !chunk.toString().isBlank()) {
+            batch.add(chunk.toString());
+        }
+        embed(id, fileName, batch, chunks);
+        return new Attachment(id, fileName, limited.count(), List.copyOf(chunks));
+    }
+
+    /**
+     * Cuts a full chunk at its last line break in the second half, or at its end, and leaves the
+     * overlap and the rest in the builder to start the next chunk.
+     */
+    private String cut(StringBuilder chunk) {
+        int lineBreak = chunk.lastIndexOf("\n");
+        int end = lineBreak >= this.chunkSize / 2 ? lineBreak + 1 : chunk.length();
+        String text = chunk.substring(0, end);
+
+        // The overlap starts at a line if it contains one, so the next chunk does not start mid-line
+        int overlapStart = text.length() - this.chunkOverlap;
+        int overlapLine = text.indexOf('\n', overlapStart);
+        if (overlapLine >= 0 && overlapLine + 1 < text.length()) {
+            overlapStart = overlapLine + 1;
+        }
+        chunk.replace(0, end, text.substring(overlapStart));
+        return text;
+    }
+
+    private void embed(String attachmentId, String fileName, List<String> batch, List<Chunk> chunks) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<float[]> embeddings = this.embeddingModel.embed(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            Document document = Document.builder()
+                .id(attachmentId + "-" + chunks.size())
+                .text(batch.get(i))
+                .metadata(this.sourceKey, "attachment:" + attachmentId)
+                .metadata("attachment", fileName)
+                .build();
+            chunks.add(new Chunk(document, embeddings.get(i), norm(embeddings.get(i))));
+        }
+        this.chunks.increment(batch.size());
+        batch.clear();
+    }
+
+    private void acquire() throws InterruptedIOException {
+        try {
+            if (!this.ingestions.tryAcquire(this.maxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new AttachmentRejectedException("busy",
+                    "A lot of files are being attached right now. Please try again in a moment.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to ingest an attachment");
+        }
+    }
+
+    private long chatSize(String chatId) {
+        Index index = this.indexes.getIfPresent(chatId);
+        return index != null ? index.size() : 0;
+    }
+
+    private Timer timer(String outcome) {
+        return Timer.builder("docs.assistant.attachments.ingestion")
+            .description("Time to ingest an attachment")
+            .tag("outcome", outcome)
+            .register(this.meterRegistry);
+    }
+
+    private AttachmentRejectedException tooLarge() {
+        return new AttachmentRejectedException("too-large",
+            "The file is larger than " + DataSize.ofBytes(this.maxFileSize).toKilobytes() + " KB.");
+    }
+
+    private AttachmentRejectedException chatFull() {
+        return new AttachmentRejectedException("chat-full",
+            "The files attached to this chat would be larger than "
+                + DataSize.ofBytes(this.maxChatSize).toKilobytes() + " KB.");
+    }
+
+    private static AttachmentRejectedException notText() {
+        return new AttachmentRejectedException("not-text", "Only text files can be attached.");
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double dot = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot;
+    }
+
+    private static double norm(float[] vector) {
+        double norm = Math.sqrt(dot(vector, vector));
+        return norm > 0 ? norm : 1;
+    }
+
+    /**
+     * Counts the bytes read and rejects the attachment as soon as it exceeds the limit, whatever
+     * size the upload declared.
+     */
+    private final class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count;
+
+        private LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        long count() {
+            return this.count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                counted(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                counted(read);
+            }
+            return read;
+        }
+
+        private void counted(int bytes) {
+            this.count += bytes;
+            if (this.count > this.limit) {
+                throw tooLarge();
+            }
+        }
+    }
+
+    /**
+     * Builder for creating ChatAttachments instances.
+     */
+    public static final class Builder {
+        private EmbeddingModel embeddingModel;
+        private long maxFileSize = DataSize.ofMegabytes(1).toBytes();
+        private long maxChatSize = DataSize.ofMegabytes(4).toBytes();
+        private long maxMemory = DataSize.ofMegabytes(256).toBytes();
+        private Duration idleTimeout = Duration.ofHours(2);
+        private int chunkSize = 1500;
+        private int chunkOverlap = 200;
+        private int batchSize = 64;
+        private int maxConcurrentIngestions = 4;
+        private Duration maxWait = Duration.ofSeconds(10);
+        private int topK = 4;
+        private double similarityThreshold = 0.3;
+        private String sourceKey = "source";
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Builder() {
+        }
+
+        public Builder embeddingModel(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+            return this;
+        }
+
+        public Builder maxFileSize(long maxFileSize) {
+            this.maxFileSize = maxFileSize;
+            return this;
+        }
+
+        public Builder maxChatSize(long maxChatSize) {
+            this.maxChatSize = maxChatSize;
+            return this;
+        }
+
+        public Builder maxMemory(long maxMemory) {
+            this.maxMemory = maxMemory;
+            return this;
+        }
+
+        public Builder idleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public Builder chunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        public Builder chunkOverlap(int chunkOverlap) {
+            this.chunkOverlap = chunkOverlap;
+            return this;
+        }
+
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder maxConcurrentIngestions(int maxConcurrentIngestions) {
+            this.maxConcurrentIngestions = maxConcurrentIngestions;
+            return this;
+        }
+
+        public Builder maxWait(Duration maxWait) {
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        public Builder topK(int topK) {
+            this.topK = topK;
+            return this;
+        }
+
+        public Builder similarityThreshold(double similarityThreshold) {
+            this.similarityThreshold = similarityThreshold;
+            return this;
+        }
+
+        public Builder sourceKey(String sourceKey) {
+            this.sourceKey = sourceKey;
+            return this;
+        }
+
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public ChatAttachments build() {
+            return new ChatAttachments(this.embeddingModel, this.maxFileSize, this.maxChatSize, this.maxMemory,
+                this.idleTimeout, this.chunkSize, this.chunkOverlap, this.batchSize, this.maxConcurrentIngestions,
+                this.maxWait, this.topK, this.similarityThreshold, this.sourceKey, this.meterRegistry);
+        }
+    }
+}
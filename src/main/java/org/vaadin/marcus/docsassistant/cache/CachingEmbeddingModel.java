@@ -0,0 +1,147 @@
+package org.vaadin.marcus.docsassistant.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link EmbeddingModel} decorator that remembers embeddings in a {@link MappedEmbeddingStore}.
+ *
+ * <p>Only single-text requests are cached, which is how queries are embedded. Requests with several
+ * texts are documents being added to a vector store, by a replica sync or a docs ingestion run, and
+ * go straight to the delegate, so that thousands of doc chunks never evict the hot queries from the
+ * store. Single documents embedded through {@link #embed(Document)} bypass the cache as well, since
+ * their formatted content depends on the delegate's metadata mode.
+ *
+ * <p>Texts are keyed by a 128-bit hash of the model name and the text, so the same text embedded
+ * by different models never shares an entry.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel, AutoCloseable {
+
+    private final EmbeddingModel delegate;
+    private final String defaultModel;
+    private final MappedEmbeddingStore store;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer embeddings;
+
+    /**
+     * Creates a new CachingEmbeddingModel.
+     *
+     * @param delegate      the model to compute embeddings that are not cached
+     * @param defaultModel  the model name used in cache keys when a request does not specify one
+     * @param store         the store to keep embeddings in
+     * @param meterRegistry the registry to publish hit and miss counts and embedding timings to
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate, String defaultModel, MappedEmbeddingStore store,
+                                 MeterRegistry meterRegistry) {
+        Assert.notNull(delegate, "Delegate must not be null!");
+        Assert.hasText(defaultModel, "Default model must not be empty!");
+        Assert.notNull(store, "Store must not be null!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.delegate = delegate;
+        this.defaultModel = defaultModel;
+        this.store = store;
+
+        this.hits = meterRegistry.counter("docs.assistant.embedding.cache", "result", "hit");
+        this.misses = meterRegistry.counter("docs.assistant.embedding.cache", "result", "miss");
+        this.embeddings = Timer.builder("docs.assistant.embedding.duration")
+            .description("Time spent embedding the texts that were not cached or not cacheable")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        String model = request.getOptions() != null && request.getOptions().getModel() != null
+            ? request.getOptions().getModel()
+            : this.defaultModel;
+        List<String> texts = request.getInstructions();
+        if (texts.size() > 1) {
+            return this.embeddings.record(() -> this.delegate.call(request));
+        }
+
+        float[][] vectors = new float[texts.size()][];
+        long[] keys = new long[texts.size() * 2];
+        List<Integer> missing = new ArrayList<>();
+        List<String> missingTexts = new ArrayList<>();
+
+        for (int i = 0; i < texts.size(); i++) {
+            keys[2 * i] = hash(model, texts.get(i), 0xcbf29ce484222325L, 0x100000001b3L);
+            keys[2 * i + 1] = hash(model, texts.get(i), 0x84222325cbf29ce4L, 0x9e3779b97f4a7c15L) | 1;
+            vectors[i] = this.store.get(keys[2 * i], keys[2 * i + 1]);
+            if (vectors[i] == null) {
+                missing.add(i);
+                missingTexts.add(texts.get(i));
+            }
+        }
+
+        this.hits.increment(texts.size() - missing.size());
+        this.misses.increment(missing.size());
+
+        if (!missing.isEmpty()) {
+            EmbeddingResponse response = this.embeddings.record(
+                () -> this.delegate.call(new EmbeddingRequest(missingTexts, request.getOptions())));
+            List<Embedding> results = response.getResults();
+            for (int j = 0; j < results.size(); j++) {
+                int i = missing.get(j);
+                vectors[i] = results.get(j).getOutput();
+                this.store.put(keys[2 * i], keys[2 * i + 1], vectors[i]);
+            }
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            embeddings.add(new Embedding(vectors[i], i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return this.delegate.embed(document);
+    }
+
+    @Override
+    public int dimensions() {
+        return this.store.dimensions();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.store.close();
+    }
+
+    /**
+     * FNV-1a over the model name and the text, finished with the MurmurHash3 avalanche step. Hashes
+     * the characters directly to avoid encoding the text into a byte array.
+     */
+    private static long hash(String model, String text, long seed, long prime) {
+        long h = seed;
+        for (int i = 0; i < model.length(); i++) {
+            h = (h ^ model.charAt(i)) * prime;
+        }
+        h = (h ^ 0xFFFF) * prime;
+        for (int i = 0; i < text.length(); i++) {
+            h = (h ^ text.charAt(i)) * prime;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
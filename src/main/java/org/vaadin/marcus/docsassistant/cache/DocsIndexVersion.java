@@ -0,0 +1,42 @@
+package org.vaadin.marcus.docsassistant.cache;
+
+import org.springframework.util.Assert;
+
+/**
+ * The version of the documentation index that answers and retrieval results are derived from.
+ * Caches tag their entries with the version they were computed against and ignore entries from
+ * other versions, so a docs reindex invalidates them without having to clear them explicitly.
+ */
+public class DocsIndexVersion {
+
+    private volatile String current;
+
+    /**
+     * Creates a new DocsIndexVersion.
+     *
+     * @param initial the version of the index at startup
+     */
+    public DocsIndexVersion(String initial) {
+        Assert.hasText(initial, "Index version must not be empty!");
+        this.current = initial;
+    }
+
+    /**
+     * Returns the current index version.
+     *
+     * @return the current version
+     */
+    public String current() {
+        return this.current;
+    }
+
+    /**
+     * Moves to a new index version, typically after the docs have been reindexed.
+     *
+     * @param version the new version
+     */
+    public void update(String version) {
+        Assert.hasText(version, "Index version must not be empty!");
+        this.current = version;
+    }
+}
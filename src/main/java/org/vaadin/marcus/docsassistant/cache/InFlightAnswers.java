@@ -0,0 +1,149 @@
+package org.vaadin.marcus.docsassistant.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.util.Assert;
+import org.vaadin.marcus.docsassistant.advisors.GuardrailVerdictCache;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent requests for the same first-turn question share a single answer.
+ *
+ * <p>Questions are keyed by framework and the question normalized like
+ * {@link GuardrailVerdictCache#normalize(String)}. The first request for a key becomes the leader:
+ * its answer runs the whole pipeline. Requests for the same key that arrive while the answer is
+ * still streaming become followers: they subscribe to the leader's answer and are sent the tokens
+ * streamed so far before the live ones. The shared answer keeps running as long as any request is
+ * subscribed, and is cancelled once the last one has gone.
+ *
+ * <p>Requests are counted as {@code docs.assistant.chat.single.flight} with a {@code role} tag of
+ * {@code leader} or {@code follower}.
+ */
+public class InFlightAnswers {
+
+    private record Key(String framework, String question) {
+    }
+
+    private final ConcurrentMap<Key, Flight> flights = new ConcurrentHashMap<>();
+
+    private final Counter leaders;
+    private final Counter followers;
+
+    /**
+     * Creates a new InFlightAnswers.
+     *
+     * @param meterRegistry the registry to publish leader and follower counts to
+     */
+    public InFlightAnswers(MeterRegistry meterRegistry) {
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.leaders = Counter.builder("docs.assistant.chat.single.flight")
+            .description("First-turn requests that ran the pipeline or joined an identical one in flight")
+            .tag("role", "leader")
+            .register(meterRegistry);
+        this.followers = Counter.builder("docs.assistant.chat.single.flight")
+            .description("First-turn requests that ran the pipeline or joined an identical one in flight")
+            .tag("role", "follower")
+            .register(meterRegistry);
+        meterRegistry.gauge("docs.assistant.chat.single.flight.active", this.flights, ConcurrentMap::size);
+    }
+
+    /**
+     * Streams the answer to a question, shared with concurrent requests for the same question.
+     * Nothing happens until the returned stream is subscribed to.
+     *
+     * @param framework the framework the question is about
+     * @param question  the question
+     * @param leader    creates the answer, called only if no identical question is in flight
+     * @param follower  adapts the shared answer for a request that joined one in flight, for example to
+     *                  remember it in the request's own conversation
+     * @return the answer tokens
+     */
+    public Flux<String> share(String framework, String question, Supplier<Flux<String>> leader,
+                              Function<Flux<String>, Flux<String>> follower) {
+        Assert.notNull(framework, "Framework must not be null!");
+        Assert.notNull(question, "Question must not be null!");
+        Assert.notNull(leader, "Leader must not be null!");
+        Assert.notNull(follower, "Follower must not be null!");
+
+        Key key = new Key(framework, GuardrailVerdictCache.normalize(question));
+        return Flux.defer(() -> {
+            Flight[] created = new Flight[1];
+            // Joining and leaving happen under the map's lock, so nobody joins a flight being cancelled
+            Flight flight = this.flights.compute(key, (k, existing) -> {
+                if (existing != null) {
+                    existing.subscribers++;
+                    return existing;
+                }
+                created[0] = new Flight(k, leader.get());
+                return created[0];
+            });
+
+            if (created[0] != null) {
+                this.leaders.increment();
+                return flight.answer();
+            }
+            this.followers.increment();
+            return follower.apply(flight.answer());
+        });
+    }
+
+    /**
+     * Returns the number of distinct questions currently being answered.
+     *
+     * @return the number of answers in flight
+     */
+    public int size() {
+        return this.flights.size();
+    }
+
+    /**
+     * One shared answer and the number of requests subscribed to it.
+     */
+    private final class Flight {
+
+        private final Key key;
+        private final Flux<String> answer;
+        private volatile Disposable connection;
+        // Guarded by the map's lock on the key
+        private int subscribers = 1;
+
+        private Flight(Key key, Flux<String> upstream) {
+            this.key = key;
+            // Connected by the leader; the tokens are kept so that followers can catch up. The flight is
+            // removed before the subscribers see the end, so the last one leaving does not cancel it
+            this.answer = upstream
+                .doOnTerminate(() -> flights.remove(key, this))
+                .replay()
+                .autoConnect(1, connection -> this.connection = connection);
+        }
+
+        private Flux<String> answer() {
+            return this.answer.doFinally(signal -> leave());
+        }
+
+        private void leave() {
+            boolean[] abandoned = new boolean[1];
+            flights.computeIfPresent(this.key, (k, current) -> {
+                if (current != this || --this.subscribers > 0) {
+                    return current;
+                }
+                abandoned[0] = true;
+                return null;
+            });
+
+            // The last request has gone before the answer was complete; cancelled outside the lock,
+            // as cancelling removes the flight from the map again
+            Disposable connection = this.connection;
+            if (abandoned[0] && connection != null) {
+                connection.dispose();
+            }
+        }
+    }
+}
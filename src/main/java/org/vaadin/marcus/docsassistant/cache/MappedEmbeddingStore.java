@@ -0,0 +1,199 @@
+package org.vaadin.marcus.docsassistant.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A fixed-size, memory-mapped store of embedding vectors.
+ *
+ * <p>The file is organized as a set-associative hash table: a 128-bit content hash selects a bucket
+ * of {@value #WAYS} slots, and a full bucket evicts its least recently used slot. Vectors live
+ * off-heap in the mapped file, so the store survives restarts and does not add to heap usage, and
+ * its size never grows beyond the number of slots it was created with.
+ *
+ * <p>Slot layout: 16-byte key, 4-byte last-used timestamp, 4 reserved bytes, then the vector.
+ * An all-zero key marks an empty slot.
+ */
+public class MappedEmbeddingStore implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedEmbeddingStore.class);
+
+    private static final int MAGIC = 0x454D4231; // "EMB1"
+    private static final int HEADER_BYTES = 64;
+    private static final int SLOT_HEADER_BYTES = 24;
+    private static final int WAYS = 8;
+    private static final int LOCK_STRIPES = 64;
+    private static final long EPOCH_SECONDS = 1_700_000_000L;
+
+    private final int dimensions;
+    private final int buckets;
+    private final int slotBytes;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final FloatBuffer floats;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * Opens or creates a store. An existing file with different dimensions or capacity is discarded.
+     *
+     * @param file       the backing file
+     * @param dimensions the number of dimensions of the stored vectors
+     * @param maxEntries the maximum number of vectors to keep, rounded up to a multiple of {@value #WAYS}
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public MappedEmbeddingStore(Path file, int dimensions, int maxEntries) throws IOException {
+        Assert.notNull(file, "File must not be null!");
+        Assert.isTrue(dimensions > 0, "Dimensions must be positive!");
+        Assert.isTrue(maxEntries > 0, "Max entries must be positive!");
+
+        this.dimensions = dimensions;
+        this.buckets = (maxEntries + WAYS - 1) / WAYS;
+        this.slotBytes = SLOT_HEADER_BYTES + dimensions * Float.BYTES;
+        long size = HEADER_BYTES + (long) this.buckets * WAYS * this.slotBytes;
+        Assert.isTrue(size <= Integer.MAX_VALUE, "Embedding store of " + size + " bytes exceeds the 2 GB mapping limit");
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new Object();
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean compatible = this.channel.size() == size;
+        if (this.channel.size() > size) {
+            this.channel.truncate(size);
+        }
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (compatible) {
+            compatible = this.buffer.getInt(0) == MAGIC
+                && this.buffer.getInt(4) == dimensions
+                && this.buffer.getInt(8) == this.buckets;
+        }
+        if (!compatible) {
+            logger.info("Initializing embedding store {} with {} slots of {} dimensions", file, this.buckets * WAYS, dimensions);
+            for (int bucket = 0; bucket < this.buckets; bucket++) {
+                for (int way = 0; way < WAYS; way++) {
+                    int slot = slotOffset(bucket, way);
+                    this.buffer.putLong(slot, 0);
+                    this.buffer.putLong(slot + 8, 0);
+                }
+            }
+            this.buffer.putInt(0, MAGIC);
+            this.buffer.putInt(4, dimensions);
+            this.buffer.putInt(8, this.buckets);
+        }
+        this.floats = this.buffer.asFloatBuffer();
+    }
+
+    /**
+     * Returns the number of dimensions of the stored vectors.
+     *
+     * @return the number of dimensions
+     */
+    public int dimensions() {
+        return this.dimensions;
+    }
+
+    /**
+     * Looks up a vector by key.
+     *
+     * @param keyHigh the high 64 bits of the key
+     * @param keyLow  the low 64 bits of the key
+     * @return a copy of the stored vector, or null if it is not in the store
+     */
+    @Nullable
+    public float[] get(long keyHigh, long keyLow) {
+        int bucket = bucket(keyHigh);
+        synchronized (lock(bucket)) {
+            for (int way = 0; way < WAYS; way++) {
+                int slot = slotOffset(bucket, way);
+                if (this.buffer.getLong(slot) == keyHigh && this.buffer.getLong(slot + 8) == keyLow) {
+                    this.buffer.putInt(slot + 16, now());
+                    float[] vector = new float[this.dimensions];
+                    this.floats.get((slot + SLOT_HEADER_BYTES) / Float.BYTES, vector);
+                    return vector;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores a vector, evicting the least recently used vector of its bucket if the bucket is full.
+     *
+     * @param keyHigh the high 64 bits of the key
+     * @param keyLow  the low 64 bits of the key
+     * @param vector  the vector to store
+     */
+    public void put(long keyHigh, long keyLow, float[] vector) {
+        if (vector.length != this.dimensions) {
+            logger.warn("Not caching embedding with {} dimensions in a store of {} dimensions", vector.length, this.dimensions);
+            return;
+        }
+        int bucket = bucket(keyHigh);
+        synchronized (lock(bucket)) {
+            int target = -1;
+            int oldest = Integer.MAX_VALUE;
+            for (int way = 0; way < WAYS; way++) {
+                int slot = slotOffset(bucket, way);
+                long high = this.buffer.getLong(slot);
+                long low = this.buffer.getLong(slot + 8);
+                if ((high == keyHigh && low == keyLow) || (high == 0 && low == 0)) {
+                    target = slot;
+                    break;
+                }
+                int lastUsed = this.buffer.getInt(slot + 16);
+                if (lastUsed < oldest) {
+                    oldest = lastUsed;
+                    target = slot;
+                }
+            }
+            // Write the vector before the key, so a torn write after a crash never exposes a wrong vector
+            this.buffer.putLong(target, 0);
+            this.buffer.putLong(target + 8, 0);
+            this.floats.put((target + SLOT_HEADER_BYTES) / Float.BYTES, vector);
+            this.buffer.putInt(target + 16, now());
+            this.buffer.putLong(target + 8, keyLow);
+            this.buffer.putLong(target, keyHigh);
+        }
+    }
+
+    /**
+     * Flushes the mapped file to disk.
+     */
+    public void flush() {
+        this.buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        this.channel.close();
+    }
+
+    private int bucket(long keyHigh) {
+        return (int) Long.remainderUnsigned(keyHigh, this.buckets);
+    }
+
+    private int slotOffset(int bucket, int way) {
+        return HEADER_BYTES + (bucket * WAYS + way) * this.slotBytes;
+    }
+
+    private Object lock(int bucket) {
+        return this.locks[bucket % LOCK_STRIPES];
+    }
+
+    private static int now() {
+        return (int) (System.currentTimeMillis() / 1000 - EPOCH_SECONDS);
+    }
+}
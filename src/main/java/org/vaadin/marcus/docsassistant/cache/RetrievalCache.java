@@ -0,0 +1,136 @@
+package org.vaadin.marcus.docsassistant.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Pattern;
+
+/**
+ * A cache of document retrieval results, shared by the retrievers of all frameworks.
+ *
+ * <p>Entries are keyed by the normalized query text, the framework, topK, the similarity threshold
+ * and the {@link DocsIndexVersion}, so a reindex makes old entries unreachable and they age out.
+ * Concurrent lookups of the same key share a single retrieval: the first caller retrieves on its own
+ * thread and the others wait for its result. Failed retrievals are not cached.
+ *
+ * <p>Lookups are counted as {@code docs.assistant.rag.retrieval.cache} with a {@code result} tag of
+ * {@code hit}, {@code miss} or {@code coalesced}; the retrieval time that hits and coalesced lookups
+ * did not spend is counted as {@code docs.assistant.rag.retrieval.cache.saved}.
+ */
+public class RetrievalCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private record Key(String indexVersion, String framework, int topK, double similarityThreshold, String query) {
+    }
+
+    private record Entry(List<Document> documents, long retrievalNanos) {
+    }
+
+    private final DocsIndexVersion indexVersion;
+    private final AsyncCache<Key, Entry> entries;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter coalesced;
+    private final Counter savedSeconds;
+
+    /**
+     * Creates a new RetrievalCache.
+     *
+     * @param indexVersion  the index version entries are tagged with
+     * @param maximumSize   the maximum number of cached results
+     * @param timeToLive    how long a result is served after it was retrieved
+     * @param meterRegistry the registry to publish lookup and saved-time metrics to
+     */
+    public RetrievalCache(DocsIndexVersion indexVersion, long maximumSize, Duration timeToLive,
+                          MeterRegistry meterRegistry) {
+        Assert.notNull(indexVersion, "DocsIndexVersion must not be null!");
+        Assert.isTrue(maximumSize > 0, "Maximum size must be positive!");
+        Assert.notNull(timeToLive, "Time to live must not be null!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.indexVersion = indexVersion;
+        this.entries = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive)
+            .recordStats()
+            .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, this.entries.synchronous(), "docs.assistant.rag.retrieval.results");
+
+        this.hits = meterRegistry.counter("docs.assistant.rag.retrieval.cache", "result", "hit");
+        this.misses = meterRegistry.counter("docs.assistant.rag.retrieval.cache", "result", "miss");
+        this.coalesced = meterRegistry.counter("docs.assistant.rag.retrieval.cache", "result", "coalesced");
+        this.savedSeconds = Counter.builder("docs.assistant.rag.retrieval.cache.saved")
+            .description("Retrieval time saved by cached and shared results")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Wraps a retriever so its results are served from this cache.
+     *
+     * @param delegate            the retriever to call on a miss
+     * @param framework           the framework the retriever filters on
+     * @param topK                the number of documents the retriever returns
+     * @param similarityThreshold the similarity threshold of the retriever
+     * @return the caching retriever
+     */
+    public DocumentRetriever wrap(DocumentRetriever delegate, String framework, int topK,
+                                  double similarityThreshold) {
+        Assert.notNull(delegate, "Delegate must not be null!");
+        return query -> retrieve(delegate,
+            new Key(this.indexVersion.current(), framework, topK, similarityThreshold, normalize(query)), query);
+    }
+
+    /**
+     * Forgets all cached results.
+     */
+    public void clear() {
+        this.entries.synchronous().invalidateAll();
+    }
+
+    private List<Document> retrieve(DocumentRetriever delegate, Key key, Query query) {
+        CompletableFuture<Entry> pending = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = this.entries.asMap().putIfAbsent(key, pending);
+        if (existing != null) {
+            (existing.isDone() ? this.hits : this.coalesced).increment();
+            Entry entry;
+            try {
+                entry = existing.join();
+            } catch (CompletionException e) {
+                // The shared retrieval failed and is not cached, so try once on our own
+                return delegate.retrieve(query);
+            }
+            this.savedSeconds.increment(entry.retrievalNanos() / 1e9);
+            return entry.documents();
+        }
+
+        this.misses.increment();
+        long start = System.nanoTime();
+        try {
+            List<Document> documents = List.copyOf(delegate.retrieve(query));
+            pending.complete(new Entry(documents, System.nanoTime() - start));
+            return documents;
+        } catch (RuntimeException e) {
+            pending.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static String normalize(Query query) {
+        return WHITESPACE.matcher(query.text().strip()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+}
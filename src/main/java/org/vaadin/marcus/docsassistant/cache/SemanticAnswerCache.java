@@ -0,0 +1,379 @@
+package org.vaadin.marcus.docsassistant.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A semantic cache of complete answers to first-turn questions.
+ *
+ * <p>Entries are keyed by the embedding of the question and partitioned by framework, so a Flow
+ * answer is never served for a Hilla question. A lookup returns the answer of the most similar
+ * cached question if its cosine similarity reaches the configured threshold. Each partition is
+ * bounded and evicts the least recently used entry; entries also expire after a time to live and
+ * are ignored once the docs index version changes.
+ *
+ * <p>Lookups scan an immutable snapshot of a partition without holding its lock, so concurrent first
+ * turns do not queue behind each other's scans; the lock is only taken to mark a hit as recently used
+ * and to add or drop entries, which replaces the snapshot.
+ *
+ * <p>Hits are replayed as a stream of word-sized chunks, so clients render them the same way as a
+ * freshly generated answer.
+ */
+public class SemanticAnswerCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SemanticAnswerCache.class);
+
+    private static final int FILE_MAGIC = 0x53414331; // "SAC1"
+
+    /**
+     * The result of a lookup. The embedding is kept so that a miss can be stored without embedding
+     * the question again.
+     *
+     * @param embedding the normalized question embedding, or null if the question could not be embedded
+     * @param answer    the cached answer, or null on a miss
+     */
+    public record Lookup(@Nullable float[] embedding, @Nullable String answer) {
+
+        public boolean hit() {
+            return answer != null;
+        }
+    }
+
+    private record Entry(float[] embedding, String answer, String indexVersion, long createdAt) {
+    }
+
+    private record Candidate(long id, Entry entry) {
+    }
+
+    /**
+     * The entries of one framework in least recently used order, plus a copy-on-write snapshot of
+     * them for lock-free scans.
+     */
+    private final class Partition {
+
+        private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxEntriesPerFramework;
+            }
+        };
+        private volatile List<Candidate> candidates = List.of();
+
+        List<Candidate> candidates() {
+            return this.candidates;
+        }
+
+        synchronized void put(long id, Entry entry) {
+            this.entries.put(id, entry);
+            refresh();
+        }
+
+        synchronized void remove(List<Long> ids) {
+            ids.forEach(this.entries::remove);
+            refresh();
+        }
+
+        /**
+         * Marks an entry as recently used, which does not change the snapshot.
+         */
+        synchronized void touch(long id) {
+            this.entries.get(id);
+        }
+
+        private void refresh() {
+            List<Candidate> candidates = new ArrayList<>(this.entries.size());
+            this.entries.forEach((id, entry) -> candidates.add(new Candidate(id, entry)));
+            this.candidates = List.copyOf(candidates);
+        }
+    }
+
+    private final EmbeddingModel embeddingModel;
+    private final DocsIndexVersion indexVersion;
+    private final double similarityThreshold;
+    private final int maxEntriesPerFramework;
+    private final Duration timeToLive;
+    private final Duration replayChunkDelay;
+    @Nullable
+    private final Path persistenceFile;
+    private final Clock clock;
+
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    private final Counter hits;
+    private final Counter misses;
+
+    /**
+     * Creates a new SemanticAnswerCache.
+     *
+     * @param embeddingModel         the model used to embed questions
+     * @param indexVersion           the current docs index version
+     * @param similarityThreshold    the minimum cosine similarity for a hit
+     * @param maxEntriesPerFramework the maximum number of answers kept per framework
+     * @param timeToLive             how long an answer is served after it was generated
+     * @param replayChunkDelay       the delay between chunks when replaying a hit
+     * @param persistenceFile        the file to load the cache from and save it to, or null to keep it in memory only
+     * @param meterRegistry          the registry to publish hit and miss counts to
+     */
+    public SemanticAnswerCache(EmbeddingModel embeddingModel, DocsIndexVersion indexVersion,
+                               double similarityThreshold, int maxEntriesPerFramework, Duration timeToLive,
+                               Duration replayChunkDelay, @Nullable Path persistenceFile,
+                               MeterRegistry meterRegistry) {
+        Assert.notNull(embeddingModel, "EmbeddingModel must not be null!");
+        Assert.notNull(indexVersion, "DocsIndexVersion must not be null!");
+        Assert.isTrue(maxEntriesPerFramework > 0, "Max entries per framework must be positive!");
+        Assert.notNull(timeToLive, "Time to live must not be null!");
+        Assert.notNull(replayChunkDelay, "Replay chunk delay must not be null!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.embeddingModel = embeddingModel;
+        this.indexVersion = indexVersion;
+        this.similarityThreshold = similarityThreshold;
+        this.maxEntriesPerFramework = maxEntriesPerFramework;
+        this.timeToLive = timeToLive;
+        this.replayChunkDelay = replayChunkDelay;
+        this.persistenceFile = persistenceFile;
+        this.clock = Clock.systemUTC();
+
+        this.hits = meterRegistry.counter("docs.assistant.answer.cache", "result", "hit");
+        this.misses = meterRegistry.counter("docs.assistant.answer.cache", "result", "miss");
+        meterRegistry.gauge("docs.assistant.answer.cache.size", this, SemanticAnswerCache::size);
+    }
+
+    /**
+     * Looks up the answer to the most similar cached question. Embeds the question, so this call
+     * blocks and must not run on an event loop thread.
+     *
+     * @param framework the framework the question is about
+     * @param question  the question
+     * @return the lookup result, including the question embedding for a subsequent {@link #put}
+     */
+    public Lookup lookup(String framework, String question) {
+        float[] embedding;
+        try {
+            embedding = normalize(this.embeddingModel.embed(question));
+        } catch (RuntimeException e) {
+            logger.warn("Could not embed question for the answer cache", e);
+            this.misses.increment();
+            return new Lookup(null, null);
+        }
+
+        var partition = this.partitions.get(framework);
+        if (partition == null) {
+            this.misses.increment();
+            return new Lookup(embedding, null);
+        }
+
+        String version = this.indexVersion.current();
+        long expiredBefore = this.clock.millis() - this.timeToLive.toMillis();
+        Candidate best = null;
+        double bestSimilarity = this.similarityThreshold;
+        List<Long> stale = new ArrayList<>();
+
+        for (Candidate candidate : partition.candidates()) {
+            Entry entry = candidate.entry();
+            if (entry.createdAt() < expiredBefore || !entry.indexVersion().equals(version)) {
+                stale.add(candidate.id());
+                continue;
+            }
+            double similarity = dot(embedding, entry.embedding());
+            if (similarity >= bestSimilarity) {
+                bestSimilarity = similarity;
+                best = candidate;
+            }
+        }
+        if (!stale.isEmpty()) {
+            partition.remove(stale);
+        }
+        if (best != null) {
+            partition.touch(best.id());
+            logger.debug("Answer cache hit for '{}' with similarity {}", question, bestSimilarity);
+            this.hits.increment();
+            return new Lookup(embedding, best.entry().answer());
+        }
+
+        this.misses.increment();
+        return new Lookup(embedding, null);
+    }
+
+    /**
+     * Stores a freshly generated answer.
+     *
+     * @param framework the framework the question is about
+     * @param lookup    the result of the lookup that missed
+     * @param answer    the generated answer
+     */
+    public void put(String framework, Lookup lookup, String answer) {
+        if (lookup.embedding() == null || answer.isBlank()) {
+            return;
+        }
+        add(framework, new Entry(lookup.embedding(), answer, this.indexVersion.current(), this.clock.millis()));
+    }
+
+    /**
+     * Replays a cached answer as a stream of word-sized chunks.
+     *
+     * @param answer the cached answer
+     * @return the answer chunks
+     */
+    public Flux<String> replay(String answer) {
+        Flux<String> chunks = Flux.fromArray(answer.split("(?<=\\s)(?=\\S)"));
+        return this.replayChunkDelay.isZero() ? chunks : chunks.delayElements(this.replayChunkDelay);
+    }
+
+    /**
+     * Returns the number of cached answers across all frameworks.
+     *
+     * @return the number of cached answers
+     */
+    public int size() {
+        return this.partitions.values().stream()
+            .mapToInt(partition -> partition.candidates().size())
+            .sum();
+    }
+
+    /**
+     * Loads previously saved answers from the persistence file, if one is configured and exists.
+     * Answers for other index versions are skipped.
+     */
+    public void load() {
+        if (this.persistenceFile == null || !Files.exists(this.persistenceFile)) {
+            return;
+        }
+        String version = this.indexVersion.current();
+        int loaded = 0;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.persistenceFile)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                logger.warn("Ignoring answer cache file {} with unknown format", this.persistenceFile);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String framework = readString(in);
+                String entryVersion = readString(in);
+                long createdAt = in.readLong();
+                float[] embedding = new float[in.readInt()];
+                for (int d = 0; d < embedding.length; d++) {
+                    embedding[d] = in.readFloat();
+                }
+                String answer = readString(in);
+                if (entryVersion.equals(version)) {
+                    add(framework, new Entry(embedding, answer, entryVersion, createdAt));
+                    loaded++;
+                }
+            }
+            logger.info("Loaded {} cached answers from {}", loaded, this.persistenceFile);
+        } catch (IOException e) {
+            logger.warn("Could not load answer cache from {}", this.persistenceFile, e);
+        }
+    }
+
+    /**
+     * Saves the cached answers to the persistence file, if one is configured.
+     */
+    public void save() {
+        if (this.persistenceFile == null) {
+            return;
+        }
+        try {
+            Path parent = this.persistenceFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, "answers", ".tmp");
+            int count = 0;
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(FILE_MAGIC);
+                List<Map.Entry<String, Entry>> entries = snapshot();
+                out.writeInt(entries.size());
+                for (var cached : entries) {
+                    Entry entry = cached.getValue();
+                    writeString(out, cached.getKey());
+                    writeString(out, entry.indexVersion());
+                    out.writeLong(entry.createdAt());
+                    out.writeInt(entry.embedding().length);
+                    for (float value : entry.embedding()) {
+                        out.writeFloat(value);
+                    }
+                    writeString(out, entry.answer());
+                    count++;
+                }
+            }
+            Files.move(temp, this.persistenceFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Saved {} cached answers to {}", count, this.persistenceFile);
+        } catch (IOException e) {
+            logger.warn("Could not save answer cache to {}", this.persistenceFile, e);
+        }
+    }
+
+    private void add(String framework, Entry entry) {
+        this.partitions.computeIfAbsent(framework, key -> new Partition())
+            .put(this.nextId.incrementAndGet(), entry);
+    }
+
+    private List<Map.Entry<String, Entry>> snapshot() {
+        return this.partitions.entrySet().stream()
+            .flatMap(partition -> partition.getValue().candidates().stream()
+                .map(candidate -> Map.entry(partition.getKey(), candidate.entry())))
+            .toList();
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = Arrays.copyOf(vector, vector.length);
+        if (norm > 0) {
+            for (int i = 0; i < normalized.length; i++) {
+                normalized[i] /= (float) norm;
+            }
+        }
+        return normalized;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return 0;
+        }
+        double dot = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+    }
+}
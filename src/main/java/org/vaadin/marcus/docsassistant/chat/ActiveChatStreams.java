@@ -0,0 +1,87 @@
+package org.vaadin.marcus.docsassistant.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks the answer being streamed in each chat, so that a new message in a chat supersedes the
+ * answer still streaming there.
+ *
+ * <p>A superseded stream completes early for its subscriber and its upstream is cancelled, exactly
+ * as if the subscriber had gone. This happens synchronously when the new stream is subscribed to,
+ * so whatever the cancelled pipeline writes to chat memory is there before the new message reads it.
+ *
+ * <p>Streams that end early are counted as {@code docs.assistant.chat.streams.cancelled} with a
+ * {@code reason} tag of {@code client}, when the subscriber cancelled, or {@code superseded}.
+ */
+public class ActiveChatStreams {
+
+    private final ConcurrentMap<String, Sinks.One<Boolean>> streams = new ConcurrentHashMap<>();
+
+    private final Counter clientCancellations;
+    private final Counter supersessions;
+
+    /**
+     * Creates a new ActiveChatStreams.
+     *
+     * @param meterRegistry the registry to publish cancellation counts to
+     */
+    public ActiveChatStreams(MeterRegistry meterRegistry) {
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.clientCancellations = Counter.builder("docs.assistant.chat.streams.cancelled")
+            .description("Answer streams that ended before the answer was complete")
+            .tag("reason", "client")
+            .register(meterRegistry);
+        this.supersessions = Counter.builder("docs.assistant.chat.streams.cancelled")
+            .description("Answer streams that ended before the answer was complete")
+            .tag("reason", "superseded")
+            .register(meterRegistry);
+        meterRegistry.gauge("docs.assistant.chat.streams.active", this.streams, ConcurrentMap::size);
+    }
+
+    /**
+     * Streams an answer as the active stream of a chat, superseding the one streaming there before.
+     * The answer is not subscribed to before the previous stream has been cancelled.
+     *
+     * @param chatId the chat id
+     * @param answer the answer tokens
+     * @return the answer tokens, ending early if the stream is superseded
+     */
+    public Flux<String> track(String chatId, Flux<String> answer) {
+        Assert.notNull(chatId, "Chat id must not be null!");
+        Assert.notNull(answer, "Answer must not be null!");
+
+        return Flux.defer(() -> {
+            Sinks.One<Boolean> superseded = Sinks.one();
+            Sinks.One<Boolean> previous = this.streams.put(chatId, superseded);
+            if (previous != null && previous.tryEmitValue(true).isSuccess()) {
+                this.supersessions.increment();
+            }
+
+            return answer
+                .takeUntilOther(superseded.asMono())
+                .doOnCancel(this.clientCancellations::increment)
+                .doFinally(signal -> {
+                    // A stream that already ended can no longer be superseded
+                    superseded.tryEmitEmpty();
+                    this.streams.remove(chatId, superseded);
+                });
+        });
+    }
+
+    /**
+     * Returns the number of chats with an answer streaming.
+     *
+     * @return the number of active streams
+     */
+    public int size() {
+        return this.streams.size();
+    }
+}
@@ -0,0 +1,435 @@
+package org.vaadin.marcus.docsassistant.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.Assert;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many answers are generated at once, so that a burst of questions queues up instead of
+ * exhausting the model's rate limits and connections for everyone.
+ *
+ * <p>Answers beyond the limit wait in a first-come, first-served queue. As {@link ActiveChatStreams}
+ * lets each chat stream one answer at a time, every chat holds at most one place in the queue, so
+ * chats are served in turn. When the queue is full, or an answer has waited for the maximum wait,
+ * the busy response is sent instead, right away.
+ *
+ * <p>The limit can adapt to the model, additively increasing while answers succeed and
+ * multiplicatively decreasing when the model reports being rate limited (HTTP 429) or overloaded
+ * (HTTP 503), or the first token takes longer than the latency threshold. Only answers admitted
+ * after the last decrease can decrease the limit again, so one burst of failures decreases it once.
+ * An answer that fails for overload before its first token is replaced with the busy response.
+ *
+ * <p>Records {@code docs.assistant.chat.admission.wait}, the time answers waited to be admitted,
+ * gauges of the {@code queue} depth, {@code active} answers and current {@code limit}, and
+ * {@code docs.assistant.chat.admission.rejected} with a {@code reason} tag of {@code queue-full},
+ * {@code timeout} or {@code overloaded}.
+ */
+public class ChatAdmission {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueSize;
+    private final Duration maxWait;
+    private final boolean adaptive;
+    private final Duration latencyThreshold;
+    private final double backoffRatio;
+    private final String busyResponse;
+    private final Scheduler scheduler;
+
+    private final Timer waitTimer;
+    private final Counter queueFullRejections;
+    private final Counter timeoutRejections;
+    private final Counter overloadRejections;
+
+    // Guarded by this
+    private final Deque<Ticket> queue = new ArrayDeque<>();
+    private double limit;
+    private int active;
+    private long lastDecrease = System.nanoTime();
+
+    /**
+     * Creates a new ChatAdmission.
+     *
+     * @param initialLimit     the number of answers generated at once, before it adapts
+     * @param minLimit         the lowest the limit adapts to
+     * @param maxLimit         the highest the limit adapts to
+     * @param queueSize        the maximum number of answers waiting to be admitted
+     * @param maxWait          the maximum time an answer waits to be admitted
+     * @param adaptive         whether the limit adapts to rate limiting, overload and latency
+     * @param latencyThreshold the time to first token above which an answer counts as overloaded
+     * @param backoffRatio     the factor the limit is multiplied by on overload
+     * @param busyResponse     the response sent instead of an answer that was not admitted
+     * @param scheduler        the scheduler that admitted answers start on and wait timers fire on
+     * @param meterRegistry    the registry to publish admission metrics to
+     */
+    public ChatAdmission(int initialLimit, int minLimit, int maxLimit, int queueSize, Duration maxWait,
+                         boolean adaptive, Duration latencyThreshold, double backoffRatio, String busyResponse,
+                         Scheduler scheduler, MeterRegistry meterRegistry) {
+        Assert.isTrue(minLimit > 0, "Min limit must be positive!");
+        Assert.isTrue(minLimit <= initialLimit && initialLimit <= maxLimit,
+            "Initial limit must be between the min and max limit!");
+        Assert.isTrue(queueSize >= 0, "Queue size must not be negative!");
+        Assert.notNull(maxWait, "Max wait must not be null!");
+        Assert.isTrue(!maxWait.isNegative(), "Max wait must not be negative!");
+        Assert.notNull(latencyThreshold, "Latency threshold must not be null!");
+        Assert.isTrue(backoffRatio > 0 && backoffRatio < 1, "Backoff ratio must be between 0 and 1!");
+        Assert.hasText(busyResponse, "Busy response must not be empty!");
+        Assert.notNull(scheduler, "Scheduler must not be null!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.queueSize = queueSize;
+        this.maxWait = maxWait;
+        this.adaptive = adaptive;
+        this.latencyThreshold = latencyThreshold;
+        this.backoffRatio = backoffRatio;
+        this.busyResponse = busyResponse;
+        this.scheduler = scheduler;
+
+        this.waitTimer = Timer.builder("docs.assistant.chat.admission.wait")
+            .description("Time answers waited to be admitted")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        this.queueFullRejections = rejections("queue-full", meterRegistry);
+        this.timeoutRejections = rejections("timeout", meterRegistry);
+        this.overloadRejections = rejections("overloaded", meterRegistry);
+        Gauge.builder("docs.assistant.chat.admission.queue", this, ChatAdmission::queued)
+            .description("Answers waiting to be admitted")
+            .register(meterRegistry);
+        Gauge.builder("docs.assistant.chat.admission.active", this, ChatAdmission::active)
+            .description("Answers being generated")
+            .register(meterRegistry);
+        Gauge.builder("docs.assistant.chat.admission.limit", this, ChatAdmission::limit)
+            .description("Answers that may be generated at once")
+            .register(meterRegistry);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Generates an answer once it is admitted, or sends the busy response if it is not. Cancelling
+     * the returned stream gives up the answer's place in the queue or frees its slot.
+     *
+     * @param answer the answer tokens, subscribed to once admitted
+     * @return the answer tokens, or the busy response
+     */
+    public Flux<String> admit(Flux<String> answer) {
+        Assert.notNull(answer, "Answer must not be null!");
+
+        return Flux.defer(() -> {
+            Ticket ticket = new Ticket();
+            return Mono.<Boolean>create(sink -> enter(ticket, sink))
+                .flatMapMany(admitted -> admitted ? generate(ticket, answer) : Flux.just(this.busyResponse))
+                .doFinally(signal -> leave(ticket));
+        });
+    }
+
+    private Flux<String> generate(Ticket ticket, Flux<String> answer) {
+        return answer
+            .doOnNext(token -> {
+                if (ticket.firstTokenAt == 0) {
+                    ticket.firstTokenAt = System.nanoTime();
+                }
+            })
+            .onErrorResume(e -> {
+                if (!overloaded(e)) {
+                    return Flux.error(e);
+                }
+                ticket.overloaded = true;
+                if (ticket.firstTokenAt != 0) {
+                    return Flux.error(e);
+                }
+                this.overloadRejections.increment();
+                return Flux.just(this.busyResponse);
+            })
+            .doOnComplete(() -> ticket.completed = true);
+    }
+
+    private void enter(Ticket ticket, MonoSink<Boolean> sink) {
+        boolean admitted = false;
+        boolean rejected = false;
+        synchronized (this) {
+            ticket.sink = sink;
+            ticket.enqueuedAt = System.nanoTime();
+            if (this.queue.isEmpty() && this.active < (int) this.limit) {
+                admit(ticket);
+                admitted = true;
+            } else if (this.queue.size() < this.queueSize && !this.maxWait.isZero()) {
+                ticket.state = State.WAITING;
+                this.queue.add(ticket);
+                ticket.timer = this.scheduler.schedule(() -> expire(ticket), this.maxWait.toNanos(),
+                    TimeUnit.NANOSECONDS);
+            } else {
+                ticket.state = State.DONE;
+                rejected = true;
+            }
+        }
+
+        if (admitted) {
+            this.waitTimer.record(0, TimeUnit.NANOSECONDS);
+            sink.success(true);
+        } else if (rejected) {
+            this.queueFullRejections.increment();
+            sink.success(false);
+        }
+    }
+
+    private void expire(Ticket ticket) {
+        synchronized (this) {
+            if (ticket.state != State.WAITING) {
+                return;
+            }
+            this.queue.remove(ticket);
+            ticket.state = State.DONE;
+        }
+        this.timeoutRejections.increment();
+        ticket.sink.success(false);
+    }
+
+    private void leave(Ticket ticket) {
+        List<Ticket> admitted = new ArrayList<>();
+        synchronized (this) {
+            switch (ticket.state) {
+                case WAITING -> this.queue.remove(ticket);
+                case ADMITTED -> {
+                    this.active--;
+                    adapt(ticket);
+                }
+                default -> {
+                }
+            }
+            ticket.state = State.DONE;
+            while (!this.queue.isEmpty() && this.active < (int) this.limit) {
+                Ticket next = this.queue.poll();
+                admit(next);
+                admitted.add(next);
+            }
+        }
+
+        if (ticket.timer != null) {
+            ticket.timer.dispose();
+        }
+        for (Ticket next : admitted) {
+            next.timer.dispose();
+            this.waitTimer.record(next.admittedAt - next.enqueuedAt, TimeUnit.NANOSECONDS);
+            // Not on the thread that ended the previous answer, which may be a network thread
+            this.scheduler.schedule(() -> next.sink.success(true));
+        }
+    }
+
+    // Called with the lock held
+    private void admit(Ticket ticket) {
+        ticket.state = State.ADMITTED;
+        ticket.admittedAt = System.nanoTime();
+        this.active++;
+    }
+
+    // Called with the lock held
+    private void adapt(Ticket ticket) {
+        if (!this.adaptive) {
+            return;
+        }
+        boolean slow = ticket.firstTokenAt != 0
+            && ticket.firstTokenAt - ticket.admittedAt > this.latencyThreshold.toNanos();
+        if (ticket.overloaded || slow) {
+            if (ticket.admittedAt > this.lastDecrease) {
+                this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+                this.lastDecrease = System.nanoTime();
+            }
+        } else if (ticket.completed && this.active + 1 >= this.limit / 2) {
+            // Only grows while the limit is actually used
+            this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+        }
+    }
+
+    /**
+     * Returns whether an error, or one of its causes, means that the model is rate limited or
+     * overloaded. Blocking calls report the status in the message of Spring AI's exceptions.
+     */
+    static boolean overloaded(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            int status = switch (e) {
+                case WebClientResponseException response -> response.getStatusCode().value();
+                case RestClientResponseException response -> response.getStatusCode().value();
+                case TransientAiException ai -> status(ai.getMessage());
+                case NonTransientAiException ai -> status(ai.getMessage());
+                default -> 0;
+            };
+            if (status == HttpStatus.TOO_MANY_REQUESTS.value() || status == HttpStatus.SERVICE_UNAVAILABLE.value()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int status(String message) {
+        if (message == null || message.length() < 3) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(message.substring(0, 3));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the number of answers waiting to be admitted.
+     *
+     * @return the queue depth
+     */
+    public synchronized int queued() {
+        return this.queue.size();
+    }
+
+    /**
+     * Returns the number of answers being generated.
+     *
+     * @return the active answers
+     */
+    public synchronized int active() {
+        return this.active;
+    }
+
+    /**
+     * Returns the number of answers that may be generated at once.
+     *
+     * @return the current limit
+     */
+    public synchronized int limit() {
+        return (int) this.limit;
+    }
+
+    private static Counter rejections(String reason, MeterRegistry meterRegistry) {
+        return Counter.builder("docs.assistant.chat.admission.rejected")
+            .description("Answers that were sent the busy response instead")
+            .tag("reason", reason)
+            .register(meterRegistry);
+    }
+
+    private enum State {
+        NEW, WAITING, ADMITTED, DONE
+    }
+
+    /**
+     * The admission of one answer. The state is guarded by the ChatAdmission's lock, the outcome is
+     * written by the answer's own signals.
+     */
+    private static final class Ticket {
+
+        private State state = State.NEW;
+        private MonoSink<Boolean> sink;
+        private Disposable timer;
+        private long enqueuedAt;
+        private long admittedAt;
+        private volatile long firstTokenAt;
+        private volatile boolean overloaded;
+        private volatile boolean completed;
+    }
+
+    /**
+     * Builder for creating ChatAdmission instances.
+     */
+    public static final class Builder {
+        private int initialLimit = 32;
+        private int minLimit = 4;
+        private int maxLimit = 128;
+        private int queueSize = 256;
+        private Duration maxWait = Duration.ofSeconds(10);
+        private boolean adaptive = true;
+        private Duration latencyThreshold = Duration.ofSeconds(5);
+        private double backoffRatio = 0.75;
+        private String busyResponse = "I'm getting a lot of questions right now. Please try again in a moment.";
+        private Scheduler scheduler = Schedulers.boundedElastic();
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Builder() {
+        }
+
+        public Builder initialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        public Builder minLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        public Builder maxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        public Builder queueSize(int queueSize) {
+            this.queueSize = queueSize;
+            return this;
+        }
+
+        public Builder maxWait(Duration maxWait) {
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        public Builder adaptive(boolean adaptive) {
+            this.adaptive = adaptive;
+            return this;
+        }
+
+        public Builder latencyThreshold(Duration latencyThreshold) {
+            this.latencyThreshold = latencyThreshold;
+            return this;
+        }
+
+        public Builder backoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        public Builder busyResponse(String busyResponse) {
+            this.busyResponse = busyResponse;
+            return this;
+        }
+
+        public Builder scheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public ChatAdmission build() {
+            return new ChatAdmission(this.initialLimit, this.minLimit, this.maxLimit, this.queueSize, this.maxWait,
+                this.adaptive, this.latencyThreshold, this.backoffRatio, this.busyResponse, this.scheduler,
+                this.meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package org.vaadin.marcus.docsassistant.chat;
+
+import io.micrometer.context.ContextSnapshot;
+import io.micrometer.context.ContextSnapshotFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.TimeGauge;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * A {@link ChatModel} decorator that cuts the latency tail of the model by hedging: when a request has
+ * not started answering after a delay, a second, identical request is sent, and whichever starts
+ * first is used while the other is cancelled. A streamed request has started with its first chunk, a
+ * blocking one once it has completed.
+ *
+ * <p>The delay is a percentile of the latencies the primary model showed recently, separately for
+ * streamed and blocking requests, kept between a minimum and a maximum delay. The maximum is used
+ * until enough latencies have been seen. The second request goes to the primary model again, or to a
+ * fallback model, for example on another endpoint or a different model name.
+ *
+ * <p>Hedging is limited by a budget: every request earns a fraction of a hedge, and a hedge is only
+ * sent when a whole one has been earned, so at most that fraction of extra requests is made. If the
+ * primary request fails, its error is passed on as without hedging, while a second request that fails
+ * before starting is ignored in favour of the primary one.
+ *
+ * <p>Records {@code docs.assistant.model.hedges}, tagged by {@code type} ({@code call} or
+ * {@code stream}) and {@code outcome}: {@code primary-won} or {@code hedge-won} for hedged requests,
+ * {@code over-budget} for requests that were slow but not hedged. The current delay is published as
+ * {@code docs.assistant.model.hedge.delay}, also tagged by {@code type}.
+ *
+ * <p>Blocking requests are made on virtual threads of their own, since the caller is often a worker
+ * of a bounded pool, which would deadlock if it waited for requests queued on that same pool.
+ * Cancelling a request interrupts its thread.
+ */
+public class HedgingChatModel implements ChatModel, AutoCloseable {
+
+    private static final int MIN_SAMPLES = 20;
+    private static final int MAX_CREDITS = 10;
+
+    private final ChatModel primary;
+    private final ChatModel fallback;
+    @Nullable
+    private final String fallbackModel;
+    private final double percentile;
+    private final Duration minDelay;
+    private final Duration maxDelay;
+    private final double budget;
+    private final Scheduler scheduler = Schedulers.fromExecutorService(
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("hedged-call-", 0).factory()), "hedged-call");
+    private final ContextSnapshotFactory snapshots = ContextSnapshotFactory.builder().build();
+
+    private final Hedges calls;
+    private final Hedges streams;
+
+    // Guarded by this
+    private double credits;
+
+    /**
+     * Creates a new HedgingChatModel.
+     *
+     * @param primary       the model to send requests to
+     * @param fallback      the model to send second requests to, the primary model if null
+     * @param fallbackModel the model name that second requests ask for, or null to keep the request's
+     * @param percentile    the percentile of recent latencies after which a second request is sent
+     * @param minDelay      the shortest delay before a second request
+     * @param maxDelay      the longest delay before a second request
+     * @param sampleSize    the number of recent latencies the percentile is taken over
+     * @param budget        the maximum fraction of extra requests
+     * @param meterRegistry the registry to publish hedging metrics to
+     */
+    public HedgingChatModel(ChatModel primary, @Nullable ChatModel fallback, @Nullable String fallbackModel,
+                            double percentile, Duration minDelay, Duration maxDelay, int sampleSize, double budget,
+                            MeterRegistry meterRegistry) {
+        Assert.notNull(primary, "Primary model must not be null!");
+        Assert.isTrue(percentile > 0 && percentile <= 1, "Percentile must be between 0 and 1!");
+        Assert.notNull(minDelay, "Min delay must not be null!");
+        Assert.notNull(maxDelay, "Max delay must not be null!");
+        Assert.isTrue(!minDelay.isNegative() && minDelay.compareTo(maxDelay) <= 0,
+            "Min delay must not be negative or longer than the max delay!");
+        Assert.isTrue(sampleSize >= MIN_SAMPLES, "Sample size must be at least " + MIN_SAMPLES + "!");
+        Assert.isTrue(budget >= 0 && budget <= 1, "Budget must be between 0 and 1!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.primary = primary;
+        this.fallback = fallback != null ? fallback : primary;
+        this.fallbackModel = fallbackModel;
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.budget = budget;
+
+        this.calls = new Hedges("call", sampleSize, meterRegistry);
+        this.streams = new Hedges("stream", sampleSize, meterRegistry);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        if (!deposit()) {
+            return this.calls.timed(() -> this.primary.call(prompt));
+        }
+
+        ContextSnapshot snapshot = this.snapshots.captureAll();
+        try {
+            return hedge(this.calls,
+                Mono.fromCallable(snapshot.wrap(() -> this.primary.call(prompt))).subscribeOn(this.scheduler).flux(),
+                () -> Mono.fromCallable(snapshot.wrap(() -> this.fallback.call(hedgePrompt(prompt))))
+                    .subscribeOn(this.scheduler)
+                    .flux())
+                .blockLast();
+        } catch (RuntimeException e) {
+            // Blocking was interrupted, for example by a cancelled advisor, which the caller should see
+            if (Exceptions.unwrap(e) instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            if (!deposit()) {
+                return this.streams.timed(this.primary.stream(prompt));
+            }
+            return hedge(this.streams, this.primary.stream(prompt), () -> this.fallback.stream(hedgePrompt(prompt)));
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return this.primary.getDefaultOptions();
+    }
+
+    @Override
+    public void close() {
+        this.scheduler.dispose();
+    }
+
+    private Flux<ChatResponse> hedge(Hedges hedges, Flux<ChatResponse> primaryResponse,
+                                     Supplier<Flux<ChatResponse>> hedgeResponse) {
+        long start = System.nanoTime();
+        AtomicBoolean primaryStarted = new AtomicBoolean();
+        AtomicBoolean hedged = new AtomicBoolean();
+
+        Flux<ChatResponse> first = primaryResponse
+            .doOnNext(response -> {
+                if (primaryStarted.compareAndSet(false, true)) {
+                    hedges.record(System.nanoTime() - start);
+                    if (hedged.get()) {
+                        hedges.primaryWins.increment();
+                    }
+                }
+            })
+            .doOnCancel(() -> {
+                // Lost to the hedge: the latency is at least this long, which keeps the tail in the samples
+                if (hedged.get() && !primaryStarted.get()) {
+                    hedges.record(System.nanoTime() - start);
+                }
+            });
+
+        Flux<ChatResponse> second = Mono.delay(delay(hedges))
+            .flatMapMany(tick -> {
+                if (!withdraw()) {
+                    hedges.overBudget.increment();
+                    return Flux.never();
+                }
+                hedged.set(true);
+                AtomicBoolean started = new AtomicBoolean();
+                return hedgeResponse.get()
+                    .doOnNext(response -> {
+                        if (started.compareAndSet(false, true) && !primaryStarted.get()) {
+                            hedges.hedgeWins.increment();
+                        }
+                    })
+                    // Only an error before the first chunk leaves the primary request to answer
+                    .onErrorResume(e -> started.get() ? Flux.error(e) : Flux.never());
+            });
+
+        return Flux.firstWithSignal(first, second);
+    }
+
+    /**
+     * Returns the delay after which a request is hedged.
+     */
+    private Duration delay(Hedges hedges) {
+        long latency = hedges.percentile(this.percentile);
+        if (latency < 0) {
+            return this.maxDelay;
+        }
+        return Duration.ofNanos(Math.clamp(latency, this.minDelay.toNanos(), this.maxDelay.toNanos()));
+    }
+
+    /**
+     * Earns a request its fraction of a hedge, and returns whether a hedge could be afforded.
+     */
+    private synchronized boolean deposit() {
+        this.credits = Math.min(MAX_CREDITS, this.credits + this.budget);
+        return this.credits >= 1;
+    }
+
+    private synchronized boolean withdraw() {
+        if (this.credits < 1) {
+            return false;
+        }
+        this.credits--;
+        return true;
+    }
+
+    private Prompt hedgePrompt(Prompt prompt) {
+        // The request's options name the primary model, which takes precedence over the fallback's default
+        if (this.fallbackModel == null || !(prompt.getOptions() instanceof OpenAiChatOptions options)) {
+            return prompt;
+        }
+        OpenAiChatOptions hedgeOptions = options.copy();
+        hedgeOptions.setModel(this.fallbackModel);
+        return new Prompt(prompt.getInstructions(), hedgeOptions);
+    }
+
+    /**
+     * The recent latencies and hedge counts of one type of request.
+     */
+    private final class Hedges {
+
+        private final Counter primaryWins;
+        private final Counter hedgeWins;
+        private final Counter overBudget;
+
+        // Guarded by this
+        private final long[] samples;
+        private int count;
+        private int next;
+
+        private Hedges(String type, int sampleSize, MeterRegistry meterRegistry) {
+            this.samples = new long[sampleSize];
+            this.primaryWins = hedges(type, "primary-won", meterRegistry);
+            this.hedgeWins = hedges(type, "hedge-won", meterRegistry);
+            this.overBudget = hedges(type, "over-budget", meterRegistry);
+            TimeGauge.builder("docs.assistant.model.hedge.delay", this, TimeUnit.NANOSECONDS,
+                    hedges -> delay(hedges).toNanos())
+                .description("Time after which a model request is hedged")
+                .tag("type", type)
+                .register(meterRegistry);
+        }
+
+        private synchronized void record(long latency) {
+            this.samples[this.next] = latency;
+            this.next = (this.next + 1) % this.samples.length;
+            this.count = Math.min(this.count + 1, this.samples.length);
+        }
+
+        /**
+         * Returns a percentile of the recent latencies, or -1 if too few have been seen.
+         */
+        private synchronized long percentile(double percentile) {
+            if (this.count < MIN_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(this.samples, this.count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(percentile * sorted.length) - 1];
+        }
+
+        private ChatResponse timed(Supplier<ChatResponse> call) {
+            long start = System.nanoTime();
+            ChatResponse response = call.get();
+            record(System.nanoTime() - start);
+            return response;
+        }
+
+        private Flux<ChatResponse> timed(Flux<ChatResponse> stream) {
+            long start = System.nanoTime();
+            AtomicBoolean started = new AtomicBoolean();
+            return stream.doOnNext(response -> {
+                if (started.compareAndSet(false, true)) {
+                    record(System.nanoTime() - start);
+                }
+            });
+        }
+
+        private static Counter hedges(String type, String outcome, MeterRegistry meterRegistry) {
+            return Counter.builder("docs.assistant.model.hedges")
+                .description("Model requests that were slow enough to hedge")
+                .tags("type", type, "outcome", outcome)
+                .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Builder for creating HedgingChatModel instances.
+     */
+    public static final class Builder {
+        private ChatModel primary;
+        private ChatModel fallback;
+        private String fallbackModel;
+        private double percentile = 0.95;
+        private Duration minDelay = Duration.ofMillis(250);
+        private Duration maxDelay = Duration.ofSeconds(5);
+        private int sampleSize = 256;
+        private double budget = 0.05;
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Builder() {
+        }
+
+        public Builder primary(ChatModel primary) {
+            this.primary = primary;
+            return this;
+        }
+
+        public Builder fallback(ChatModel fallback) {
+            this.fallback = fallback;
+            return this;
+        }
+
+        public Builder fallbackModel(String fallbackModel) {
+            this.fallbackModel = fallbackModel;
+            return this;
+        }
+
+        public Builder percentile(double percentile) {
+            this.percentile = percentile;
+            return this;
+        }
+
+        public Builder minDelay(Duration minDelay) {
+            this.minDelay = minDelay;
+            return this;
+        }
+
+        public Builder maxDelay(Duration maxDelay) {
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        public Builder sampleSize(int sampleSize) {
+            this.sampleSize = sampleSize;
+            return this;
+        }
+
+        public Builder budget(double budget) {
+            this.budget = budget;
+            return this;
+        }
+
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public HedgingChatModel build() {
+            return new HedgingChatModel(this.primary, this.fallback, this.fallbackModel, this.percentile,
+                this.minDelay, this.maxDelay, this.sampleSize, this.budget, this.meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package org.vaadin.marcus.docsassistant.chat;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.util.Assert;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches the tokens of a streamed answer into fewer, larger frames, so the browser receives and
+ * re-renders the Markdown a few times per second instead of once per model delta.
+ *
+ * <p>The first token is sent as soon as it arrives, so the time to first token does not change.
+ * After that, tokens are collected until the frame reaches its size or the window since the first
+ * collected token has passed. Where a frame boundary would hurt rendering, it is moved:
+ * <ul>
+ * <li>inside a code block, a frame ends at the last complete line, so a half line is not
+ * highlighted;</li>
+ * <li>a Mermaid block is held until it is closed, as a partial diagram cannot be rendered.</li>
+ * </ul>
+ * Held text is sent anyway once it reaches the maximum hold size, and all of it when the stream ends.
+ *
+ * <p>Tokens and frames per response are recorded as {@code docs.assistant.chat.frames} with a
+ * {@code stage} tag of {@code input} or {@code output}.
+ */
+public class TokenFrameCoalescer {
+
+    private final Duration window;
+    private final int frameSize;
+    private final int maxHoldSize;
+    private final Scheduler scheduler;
+
+    private final DistributionSummary inputFrames;
+    private final DistributionSummary outputFrames;
+
+    /**
+     * Creates a new TokenFrameCoalescer.
+     *
+     * @param window        the maximum time a token waits for more tokens to join its frame
+     * @param frameSize     the UTF-8 size in bytes at which a frame is sent without waiting
+     * @param maxHoldSize   the UTF-8 size in bytes up to which text is held back for a code or Mermaid block
+     * @param scheduler     the scheduler of the window timers
+     * @param meterRegistry the registry to publish frame counts to
+     */
+    public TokenFrameCoalescer(Duration window, int frameSize, int maxHoldSize, Scheduler scheduler,
+                               MeterRegistry meterRegistry) {
+        Assert.notNull(window, "Window must not be null!");
+        Assert.isTrue(!window.isNegative() && !window.isZero(), "Window must be positive!");
+        Assert.isTrue(frameSize > 0, "Frame size must be positive!");
+        Assert.isTrue(maxHoldSize >= frameSize, "Max hold size must not be smaller than the frame size!");
+        Assert.notNull(scheduler, "Scheduler must not be null!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.window = window;
+        this.frameSize = frameSize;
+        this.maxHoldSize = maxHoldSize;
+        this.scheduler = scheduler;
+
+        this.inputFrames = DistributionSummary.builder("docs.assistant.chat.frames")
+            .description("Messages per streamed response before and after coalescing")
+            .tag("stage", "input")
+            .register(meterRegistry);
+        this.outputFrames = DistributionSummary.builder("docs.assistant.chat.frames")
+            .description("Messages per streamed response before and after coalescing")
+            .tag("stage", "output")
+            .register(meterRegistry);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Coalesces the tokens of a response into frames.
+     *
+     * @param tokens the streamed tokens
+     * @return the streamed frames, which concatenate to the same text
+     */
+    public Flux<String> coalesce(Flux<String> tokens) {
+        return Flux.create(sink -> {
+            Frames frames = new Frames(sink);
+            Disposable upstream = tokens.subscribe(frames::token, frames::error, frames::complete);
+            sink.onDispose(() -> {
+                upstream.dispose();
+                frames.dispose();
+            });
+        }, FluxSink.OverflowStrategy.BUFFER);
+    }
+
+    /**
+     * The coalescing state of one response. Tokens arrive on the model's thread and window timers
+     * fire on the scheduler, so all methods synchronize on the instance.
+     */
+    private final class Frames {
+
+        private final FluxSink<String> sink;
+        private final StringBuilder pending = new StringBuilder();
+        // The current line of the whole response, to recognize code fences
+        private final StringBuilder line = new StringBuilder();
+        private int pendingSize;
+        private boolean inFence;
+        private boolean inMermaid;
+        // Where the open fence starts in the pending text, 0 if it started in a sent frame
+        private int fenceStart;
+        private boolean first = true;
+        private boolean done;
+        private int tokens;
+        private int frames;
+        private Disposable timer;
+
+        private Frames(FluxSink<String> sink) {
+            this.sink = sink;
+        }
+
+        synchronized void token(String token) {
+            if (done || token.isEmpty()) {
+                return;
+            }
+            tokens++;
+            if (first) {
+                first = false;
+                track(token, -token.length());
+                emit(token);
+                return;
+            }
+
+            int offset = pending.length();
+            pending.append(token);
+            pendingSize += utf8Size(token);
+            track(token, offset);
+            if (pendingSize >= frameSize) {
+                flush(false);
+            } else if (timer == null) {
+                timer = scheduler.schedule(this::windowElapsed, window.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        synchronized void complete() {
+            if (finish()) {
+                flush(true);
+                sink.complete();
+            }
+        }
+
+        synchronized void error(Throwable error) {
+            if (finish()) {
+                flush(true);
+                sink.error(error);
+            }
+        }
+
+        synchronized void dispose() {
+            finish();
+        }
+
+        private synchronized void windowElapsed() {
+            timer = null;
+            if (!done) {
+                flush(false);
+            }
+        }
+
+        private boolean finish() {
+            if (done) {
+                return false;
+            }
+            done = true;
+            if (timer != null) {
+                timer.dispose();
+                timer = null;
+            }
+            inputFrames.record(tokens);
+            outputFrames.record(frames + (pending.isEmpty() ? 0 : 1));
+            return true;
+        }
+
+        /**
+         * Sends the pending text, or the part of it that can be rendered well.
+         */
+        private void flush(boolean all) {
+            if (timer != null) {
+                timer.dispose();
+                timer = null;
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            int end = pending.length();
+            if (!all && pendingSize < maxHoldSize) {
+                if (inMermaid) {
+                    end = fenceStart;
+                } else if (inFence) {
+                    end = Math.max(fenceStart, pending.lastIndexOf("\n") + 1);
+                }
+            }
+            if (end == 0) {
+                return;
+            }
+
+            String frame = pending.substring(0, end);
+            pending.delete(0, end);
+            pendingSize -= utf8Size(frame);
+            fenceStart = Math.max(0, fenceStart - end);
+            emit(frame);
+        }
+
+        private void emit(String frame) {
+            frames++;
+            sink.next(frame);
+        }
+
+        /**
+         * Follows code fences through the text of a token that was appended at the given offset of
+         * the pending text.
+         */
+        private void track(String token, int offset) {
+            for (int i = 0; i < token.length(); i++) {
+                char c = token.charAt(i);
+                if (c != '\n') {
+                    line.append(c);
+                    continue;
+                }
+                String fence = line.toString().stripLeading();
+                if (fence.startsWith("```") || fence.startsWith("~~~")) {
+                    if (inFence) {
+                        inFence = false;
+                        inMermaid = false;
+                    } else {
+                        inFence = true;
+                        inMermaid = fence.substring(3).strip().startsWith("mermaid");
+                        fenceStart = Math.max(0, offset + i - line.length());
+                    }
+                }
+                line.setLength(0);
+            }
+        }
+    }
+
+    private static int utf8Size(CharSequence text) {
+        int size = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                size++;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                size += 4;
+                i++;
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Builder for creating TokenFrameCoalescer instances.
+     */
+    public static final class Builder {
+        private Duration window = Duration.ofMillis(30);
+        private int frameSize = 256;
+        private int maxHoldSize = 8 * 1024;
+        private Scheduler scheduler = Schedulers.parallel();
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Builder() {
+        }
+
+        public Builder window(Duration window) {
+            this.window = window;
+            return this;
+        }
+
+        public Builder frameSize(int frameSize) {
+            this.frameSize = frameSize;
+            return this;
+        }
+
+        public Builder maxHoldSize(int maxHoldSize) {
+            this.maxHoldSize = maxHoldSize;
+            return this;
+        }
+
+        public Builder scheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public TokenFrameCoalescer build() {
+            return new TokenFrameCoalescer(this.window, this.frameSize, this.maxHoldSize, this.scheduler,
+                this.meterRegistry);
+        }
+    }
+}
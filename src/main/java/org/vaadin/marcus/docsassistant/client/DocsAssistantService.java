@@ -1,27 +1,80 @@
 package org.vaadin.marcus.docsassistant.client;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.vaadin.flow.server.auth.AnonymousAllowed;
 import com.vaadin.hilla.BrowserCallable;
+import com.vaadin.hilla.exception.EndpointException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import jakarta.annotation.Nullable;
+import jakarta.annotation.PreDestroy;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.RetrievalAugmentationAdvisor;
 import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
 import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.ai.rag.generation.augmentation.ContextualQueryAugmenter;
+import org.springframework.ai.rag.generation.augmentation.QueryAugmenter;
+import org.springframework.ai.rag.postretrieval.ranking.DocumentRanker;
 import org.springframework.ai.rag.preretrieval.query.transformation.CompressionQueryTransformer;
+import org.springframework.ai.rag.preretrieval.query.transformation.QueryTransformer;
 import org.springframework.ai.rag.preretrieval.query.transformation.RewriteQueryTransformer;
+import org.springframework.ai.rag.retrieval.join.DocumentJoiner;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
 import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
+import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
 import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
 import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.support.ContextPropagatingTaskDecorator;
+import org.springframework.core.task.support.ExecutorServiceAdapter;
 import org.springframework.web.multipart.MultipartFile;
+import org.vaadin.marcus.docsassistant.DocsAssistantProperties;
 import org.vaadin.marcus.docsassistant.advisors.GuardRailAdvisor;
+import org.vaadin.marcus.docsassistant.advisors.GuardrailPreClassifier;
+import org.vaadin.marcus.docsassistant.cache.InFlightAnswers;
+import org.vaadin.marcus.docsassistant.cache.RetrievalCache;
+import org.vaadin.marcus.docsassistant.cache.SemanticAnswerCache;
+import org.vaadin.marcus.docsassistant.advisors.GuardrailVerdictCache;
+import org.vaadin.marcus.docsassistant.advisors.HistoryWindowAdvisor;
+import org.vaadin.marcus.docsassistant.advisors.InterruptibleAdvisor;
+import org.vaadin.marcus.docsassistant.advisors.PipelineMetricsAdvisor;
+import org.vaadin.marcus.docsassistant.attachments.AttachmentRejectedException;
+import org.vaadin.marcus.docsassistant.attachments.ChatAttachments;
+import org.vaadin.marcus.docsassistant.chat.ActiveChatStreams;
+import org.vaadin.marcus.docsassistant.chat.ChatAdmission;
 import org.vaadin.marcus.docsassistant.chat.ChatService;
+import org.vaadin.marcus.docsassistant.chat.TokenFrameCoalescer;
+import org.vaadin.marcus.docsassistant.rag.AttachmentDocumentRetriever;
+import org.vaadin.marcus.docsassistant.rag.ChatModelDocumentRanker;
+import org.vaadin.marcus.docsassistant.rag.CompressingRewriteQueryTransformer;
+import org.vaadin.marcus.docsassistant.rag.ContextPackingDocumentJoiner;
+import org.vaadin.marcus.docsassistant.rag.HybridDocumentRetriever;
+import org.vaadin.marcus.docsassistant.rag.TimedDocumentRetriever;
+import org.vaadin.marcus.docsassistant.rag.TimedQueryTransformer;
+import org.vaadin.marcus.docsassistant.vectorstore.HnswVectorStore;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_RETRIEVE_SIZE_KEY;
@@ -35,6 +88,10 @@ public class DocsAssistantService implements ChatService<DocsAssistantService.Ch
     public record ChatOptions(String framework) {
     }
 
+    // The frameworks with their own docs. The framework comes from the client and keys advisors and
+    // caches and tags metrics, so anything else is answered as a general question
+    private static final Set<String> FRAMEWORKS = Set.of("flow", "hilla");
+
     private static final String SYSTEM_MESSAGE = """
         You are Koda, an AI assistant specialized in Vaadin development.
         Answer the user's questions regarding the {framework} framework.
@@ -47,7 +104,7 @@ public class DocsAssistantService implements ChatService<DocsAssistantService.Ch
         When working with Hilla, views should always be built in React.
         """;
 
-    private static final String GUARDRAIL_ACCEPTANCE_CRITERIA = """
+    static final String GUARDRAIL_ACCEPTANCE_CRITERIA = """
         Questions should be related to one or more of the following topics:
         1. Vaadin framework and its components
         2. Java development, including core Java, Java EE, or Spring Framework
@@ -62,6 +119,9 @@ public class DocsAssistantService implements ChatService<DocsAssistantService.Ch
         "Java development, or web development with Java frameworks. Could you please ask a question " +
         "related to these topics?";
 
+    private static final String BUSY_RESPONSE = "I'm answering a lot of questions right now. " +
+        "Please try again in a moment.";
+
     private static final String CONTEXT_PROMPT = """
         Context information is below.
         
@@ -83,89 +143,435 @@ public class DocsAssistantService implements ChatService<DocsAssistantService.Ch
         """;
 
     private final ChatClient chatClient;
-    private final ChatClient.Builder builder;
     private final VectorStore vectorStore;
     private final ChatMemory chatMemory;
+    private final EmbeddingModel embeddingModel;
+    @Nullable
+    private final ChatAttachments attachments;
+    @Nullable
+    private final SemanticAnswerCache answerCache;
+    @Nullable
+    private final RetrievalCache retrievalCache;
+    @Nullable
+    private final HistoryWindowAdvisor historyWindowAdvisor;
+    private final int historyRetrieveSize;
+    private final List<QueryTransformer> queryTransformers;
+    private final QueryAugmenter queryAugmenter;
+    private final DocsAssistantProperties.Retrieval retrieval;
+    @Nullable
+    private final DocumentRanker documentRanker;
+    @Nullable
+    private final DocumentJoiner documentJoiner;
+    @Nullable
+    private final InFlightAnswers inFlightAnswers;
+    @Nullable
+    private final TokenFrameCoalescer frameCoalescer;
+    private final ActiveChatStreams activeStreams;
+    @Nullable
+    private final ChatAdmission admission;
+    private final MeterRegistry meterRegistry;
+    private final SimpleAsyncTaskExecutor ragTaskExecutor;
+    private final Scheduler ragScheduler;
+    // The RAG pipeline only differs by the framework filter, so one advisor is built per framework
+    private final Cache<String, InterruptibleAdvisor> ragAdvisors = Caffeine.newBuilder()
+        .maximumSize(16)
+        .build();
+    private final Cache<String, DocumentRetriever> docsRetrievers = Caffeine.newBuilder()
+        .maximumSize(16)
+        .build();
 
     public DocsAssistantService(
         ChatClient.Builder builder,
         VectorStore vectorStore,
-        ChatMemory chatMemory) {
-        this.builder = builder;
+        ChatMemory chatMemory,
+        EmbeddingModel embeddingModel,
+        @Nullable ChatAttachments attachments,
+        @Nullable SemanticAnswerCache answerCache,
+        @Nullable RetrievalCache retrievalCache,
+        DocsAssistantProperties properties,
+        MeterRegistry meterRegistry) {
         this.vectorStore = vectorStore;
         this.chatMemory = chatMemory;
+        this.embeddingModel = embeddingModel;
+        this.attachments = attachments;
+        this.answerCache = answerCache;
+        this.retrievalCache = retrievalCache;
+
+        var verdictCacheProperties = properties.guardrail().cache();
+        var verdictCache = verdictCacheProperties.enabled()
+            ? new GuardrailVerdictCache(verdictCacheProperties.maximumSize(), verdictCacheProperties.timeToLive(),
+                verdictCacheProperties.maxHistoryMessages(), meterRegistry)
+            : null;
+
+        var preClassifier = properties.guardrail().preClassifier().enabled()
+            ? preClassifier(properties.guardrail().preClassifier(), embeddingModel)
+            : null;
+
+        var queryTransformation = properties.queryTransformation();
+        queryTransformers = switch (queryTransformation.mode()) {
+            case SINGLE_CALL -> List.of(CompressingRewriteQueryTransformer.builder()
+                .chatClientBuilder(builder.build().mutate())
+                .maximumSize(queryTransformation.maximumSize())
+                .timeToLive(queryTransformation.timeToLive())
+                .meterRegistry(meterRegistry)
+                .build());
+            case CHAINED -> List.of(
+                new TimedQueryTransformer(CompressionQueryTransformer.builder()
+                    .chatClientBuilder(builder.build().mutate())
+                    .build(), "compression", meterRegistry),
+                new TimedQueryTransformer(RewriteQueryTransformer.builder()
+                    .chatClientBuilder(builder.build().mutate())
+                    .build(), "rewrite", meterRegistry));
+        };
+
+        queryAugmenter = ContextualQueryAugmenter.builder()
+            .allowEmptyContext(true)
+            .promptTemplate(new PromptTemplate(CONTEXT_PROMPT))
+            .emptyContextPromptTemplate(new PromptTemplate(NO_CONTEXT_PROMPT))
+            .build();
+
+        retrieval = properties.retrieval();
+        documentRanker = switch (retrieval.reranker()) {
+            case NONE -> null;
+            case CHAT_MODEL -> new ChatModelDocumentRanker(builder.build().mutate(), retrieval.rerankExcerptLength());
+        };
+        var packing = retrieval.packing();
+        documentJoiner = packing.enabled()
+            ? ContextPackingDocumentJoiner.builder()
+                .tokenBudget(packing.tokenBudget())
+                .duplicateThreshold(packing.duplicateThreshold())
+                .sourceKey(packing.sourceKey())
+                .meterRegistry(meterRegistry)
+                .build()
+            : null;
+        inFlightAnswers = properties.singleFlight().enabled() ? new InFlightAnswers(meterRegistry) : null;
+        var streaming = properties.streaming();
+        frameCoalescer = streaming.coalesce()
+            ? TokenFrameCoalescer.builder()
+                .window(streaming.window())
+                .frameSize((int) streaming.frameSize().toBytes())
+                .maxHoldSize((int) streaming.maxHoldSize().toBytes())
+                .meterRegistry(meterRegistry)
+                .build()
+            : null;
+        activeStreams = new ActiveChatStreams(meterRegistry);
+        var admissionProperties = properties.admission();
+        admission = admissionProperties.enabled()
+            ? ChatAdmission.builder()
+                .initialLimit(admissionProperties.initialLimit())
+                .minLimit(admissionProperties.minLimit())
+                .maxLimit(admissionProperties.maxLimit())
+                .queueSize(admissionProperties.queueSize())
+                .maxWait(admissionProperties.maxWait())
+                .adaptive(admissionProperties.adaptive())
+                .latencyThreshold(admissionProperties.latencyThreshold())
+                .busyResponse(BUSY_RESPONSE)
+                .meterRegistry(meterRegistry)
+                .build()
+            : null;
+        this.meterRegistry = meterRegistry;
+
+        // Shared by all RAG advisors, which would otherwise each start their own thread pool. Retrieval
+        // blocks, so it runs on virtual threads; admission bounds how many run at once
+        ragTaskExecutor = new SimpleAsyncTaskExecutor("ai-advisor-");
+        ragTaskExecutor.setVirtualThreads(true);
+        ragTaskExecutor.setTaskDecorator(new ContextPropagatingTaskDecorator());
+        // The blocking before step of the RAG advisors runs there too. An executor service, unlike a
+        // plain executor, lets the scheduler interrupt the step when the answer is cancelled
+        ragScheduler = Schedulers.fromExecutorService(new ExecutorServiceAdapter(ragTaskExecutor), "ai-advisor");
+
+        var history = properties.history();
+        historyRetrieveSize = history.retrieveSize();
+        historyWindowAdvisor = history.windowed()
+            ? HistoryWindowAdvisor.builder()
+                .chatClientBuilder(builder.build().mutate())
+                .chatMemory(chatMemory)
+                .tokenBudget(history.tokenBudget())
+                .maxSummaryWords(history.maxSummaryWords())
+                .meterRegistry(meterRegistry)
+                .build()
+            : null;
+
+        List<Advisor> advisors = new ArrayList<>();
+        advisors.add(new PipelineMetricsAdvisor(meterRegistry));
+        advisors.add(new MessageChatMemoryAdvisor(chatMemory));
+        if (historyWindowAdvisor != null) {
+            advisors.add(historyWindowAdvisor);
+        }
+        advisors.add(new SimpleLoggerAdvisor());
+        advisors.add(guardrail(builder, properties.guardrail())
+            .verdictCache(verdictCache)
+            .preClassifier(preClassifier)
+            .meterRegistry(meterRegistry)
+            .build());
 
         chatClient = builder
             .defaultSystem(SYSTEM_MESSAGE)
-            .defaultAdvisors(
-                new MessageChatMemoryAdvisor(chatMemory),
-                new SimpleLoggerAdvisor(),
-                GuardRailAdvisor.builder()
-                    .chatClientBuilder(builder.build().mutate())
-                    .acceptanceCriteria(GUARDRAIL_ACCEPTANCE_CRITERIA)
-                    .failureResponse(GUARDRAIL_FAILURE_RESPONSE)
-                    .build()
-            )
+            .defaultAdvisors(advisors)
             .build();
     }
 
     @Override
     public Flux<String> stream(String chatId, String userMessage, @Nullable ChatOptions chatOptions) {
-        String framework = chatOptions != null ? chatOptions.framework() : "";
+        // A new message supersedes the answer still streaming in the chat before its history is read
+        Flux<String> tokens = activeStreams.track(chatId,
+            Flux.defer(() -> streamTokens(chatId, userMessage, chatOptions)));
+        return frameCoalescer != null ? frameCoalescer.coalesce(tokens) : tokens;
+    }
+
+    private Flux<String> streamTokens(String chatId, String userMessage, @Nullable ChatOptions chatOptions) {
+        String framework = framework(chatOptions);
+
+        // Only first-turn questions are shared or answered from the cache, follow-ups depend on the
+        // conversation and answers in chats with attachments on the attachments
+        if (!chatMemory.get(chatId, 1).isEmpty() || attachments != null && attachments.contains(chatId)) {
+            return generate(chatId, userMessage, framework);
+        }
+        if (inFlightAnswers == null) {
+            return firstTurn(chatId, userMessage, framework);
+        }
+
+        // The leader's chat memory is written by the pipeline, a follower remembers the shared answer itself
+        return inFlightAnswers.share(framework, userMessage, () -> firstTurn(chatId, userMessage, framework),
+            answer -> remember(chatId, userMessage, answer));
+    }
+
+    private Flux<String> firstTurn(String chatId, String userMessage, String framework) {
+        if (answerCache == null) {
+            return generate(chatId, userMessage, framework);
+        }
+
+        return Mono.fromCallable(() -> answerCache.lookup(framework, userMessage))
+            .subscribeOn(Schedulers.boundedElastic())
+            .flatMapMany(lookup -> {
+                if (lookup.hit()) {
+                    return remember(chatId, userMessage, answerCache.replay(lookup.answer()));
+                }
+
+                StringBuilder answer = new StringBuilder();
+                return generate(chatId, userMessage, framework)
+                    .doOnNext(answer::append)
+                    .doOnComplete(() -> {
+                        // Rejected questions are not worth caching, nor are busy responses
+                        if (!GUARDRAIL_FAILURE_RESPONSE.contentEquals(answer) && !BUSY_RESPONSE.contentEquals(answer)) {
+                            answerCache.put(framework, lookup, answer.toString());
+                        }
+                    });
+            });
+    }
+
+    /**
+     * Remembers a question and the answer streamed outside the pipeline in chat memory. Like the
+     * pipeline, an interrupted answer is remembered as far as it was streamed.
+     */
+    private Flux<String> remember(String chatId, String userMessage, Flux<String> answer) {
+        return Flux.defer(() -> {
+            StringBuffer text = new StringBuffer();
+            return answer
+                .doOnNext(text::append)
+                .doOnComplete(() -> {
+                    // Like the pipeline, which does not run for an answer that was not admitted
+                    if (!BUSY_RESPONSE.contentEquals(text)) {
+                        chatMemory.add(chatId,
+                            List.of(new UserMessage(userMessage), new AssistantMessage(text.toString())));
+                    }
+                })
+                .doOnCancel(() -> chatMemory.add(chatId, text.isEmpty()
+                    ? List.of(new UserMessage(userMessage))
+                    : List.of(new UserMessage(userMessage), new AssistantMessage(text.toString()))));
+        });
+    }
+
+    private Flux<String> generate(String chatId, String userMessage, String framework) {
+        // Only answers that run the pipeline are admitted, cached and shared answers do not call the model
+        Flux<String> tokens = Flux.defer(() -> pipeline(chatId, userMessage, framework));
+        return admission != null ? admission.admit(tokens) : tokens;
+    }
 
+    private Flux<String> pipeline(String chatId, String userMessage, String framework) {
+        StringBuffer answer = new StringBuffer();
         return chatClient.prompt()
             .system(s -> s.param("framework", framework))
             .user(userMessage)
+            // Report token usage for the metrics; only for the answer, blocking calls reject the option
+            .options(OpenAiChatOptions.builder().streamUsage(true).build())
             .advisors(a -> {
                 a.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId);
-                a.param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 20);
+                a.param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, historyRetrieveSize);
             })
-            .advisors(RetrievalAugmentationAdvisor.builder()
-                .queryTransformers(
-                    CompressionQueryTransformer.builder()
-                        .chatClientBuilder(builder.build().mutate())
-                        .build(),
-                    RewriteQueryTransformer.builder()
-                        .chatClientBuilder(builder.build().mutate())
-                        .build()
-                )
-                .documentRetriever(VectorStoreDocumentRetriever.builder()
-                    .vectorStore(vectorStore)
-                    .similarityThreshold(0.6)
-                    .topK(10) // TODO: we should add a rerank step when that's supported.
-                    .filterExpression(new FilterExpressionBuilder()
-                        // Always include the given framework and an empty string to also include general docs
-                        .in("framework", framework, "")
-                        .build())
-                    .build())
-                .queryAugmenter(ContextualQueryAugmenter.builder()
-                    .allowEmptyContext(true)
-                    .promptTemplate(new PromptTemplate(CONTEXT_PROMPT))
-                    .emptyContextPromptTemplate(new PromptTemplate(NO_CONTEXT_PROMPT))
-                    .build())
-                .build())
+            .advisors(ragAdvisor(chatId, framework))
             .stream()
-            .content();
+            .content()
+            .doOnNext(answer::append)
+            .doOnCancel(() -> rememberInterrupted(chatId, answer));
+    }
+
+    /**
+     * The memory advisor remembers the question when the pipeline starts but the answer only when it
+     * completes. When the pipeline is cancelled, the answer is remembered as far as it was streamed,
+     * so the chat memory holds what the user saw. A question cancelled before its first token stays
+     * unanswered.
+     */
+    private void rememberInterrupted(String chatId, CharSequence answer) {
+        if (answer.isEmpty()) {
+            return;
+        }
+        // A conversation summary may have been stored after the question
+        var last = chatMemory.get(chatId, 2).stream()
+            .filter(message -> message.getMessageType() != MessageType.SYSTEM)
+            .reduce((first, second) -> second);
+        if (last.isPresent() && last.get().getMessageType() == MessageType.USER) {
+            chatMemory.add(chatId, new AssistantMessage(answer.toString()));
+        }
+    }
+
+    private InterruptibleAdvisor ragAdvisor(String chatId, String framework) {
+        if (attachments == null || !attachments.contains(chatId)) {
+            return ragAdvisors.get(framework, f -> createRagAdvisor(docsRetriever(f)));
+        }
+
+        // Chats with attachments also retrieve from their own index, so their advisor is not shared
+        return createRagAdvisor(new AttachmentDocumentRetriever(docsRetriever(framework), attachments, chatId,
+            embeddingModel, ragTaskExecutor, Tags.of("framework", framework.isBlank() ? "none" : framework),
+            meterRegistry));
+    }
+
+    private InterruptibleAdvisor createRagAdvisor(DocumentRetriever documentRetriever) {
+        // Cancelling a request interrupts query transformation, which blocks on the model
+        return new InterruptibleAdvisor(RetrievalAugmentationAdvisor.builder()
+            .queryTransformers(queryTransformers)
+            .documentRetriever(documentRetriever)
+            .documentJoiner(documentJoiner)
+            .queryAugmenter(queryAugmenter)
+            .taskExecutor(ragTaskExecutor)
+            .scheduler(ragScheduler)
+            .build());
+    }
+
+    private DocumentRetriever docsRetriever(String framework) {
+        return docsRetrievers.get(framework, f -> retrievalCache != null
+            ? retrievalCache.wrap(createDocumentRetriever(f), f, retrieval.topK(), retrieval.similarityThreshold())
+            : createDocumentRetriever(f));
+    }
+
+    private DocumentRetriever createDocumentRetriever(String framework) {
+        // Always include the given framework and an empty string to also include general docs
+        Filter.Expression filter = new FilterExpressionBuilder()
+            .in("framework", framework, "")
+            .build();
+        Tags tags = Tags.of("framework", framework.isBlank() ? "none" : framework);
+        // Keyword search needs the replica, so without it retrieval is vector-only. The replica holds
+        // exactly the chunks of docs ingestion, see VectorStoreReplicator
+        boolean hybrid = retrieval.hybrid() && vectorStore instanceof HnswVectorStore;
+        var vectorRetriever = VectorStoreDocumentRetriever.builder()
+            .vectorStore(vectorStore)
+            .similarityThreshold(retrieval.similarityThreshold())
+            .topK(hybrid ? retrieval.candidates() : retrieval.topK())
+            .filterExpression(filter)
+            .build();
+        if (!hybrid) {
+            return new TimedDocumentRetriever(vectorRetriever, "vector", tags, meterRegistry);
+        }
+
+        // Keyword search runs against the replica, which holds the same chunks as the vector index
+        var replica = (HnswVectorStore) vectorStore;
+        return HybridDocumentRetriever.builder()
+            .vectorRetriever(vectorRetriever)
+            .lexicalRetriever(query -> replica.keywordSearch(SearchRequest.builder()
+                .query(query.text())
+                .topK(retrieval.candidates())
+                .filterExpression(filter)
+                .build()))
+            .rrfK(retrieval.rrfK())
+            .topK(retrieval.topK())
+            .documentRanker(documentRanker)
+            .executor(ragTaskExecutor)
+            .tags(tags)
+            .meterRegistry(meterRegistry)
+            .build();
+    }
+
+    /**
+     * Returns the framework of the options if it is a known one, otherwise an empty string.
+     */
+    static String framework(@Nullable ChatOptions chatOptions) {
+        String framework = chatOptions != null && chatOptions.framework() != null
+            ? chatOptions.framework().strip().toLowerCase(Locale.ROOT)
+            : "";
+        return FRAMEWORKS.contains(framework) ? framework : "";
+    }
+
+    /**
+     * Returns a builder of the guardrail as configured, before its verdict cache and pre-classifier
+     * are set. Shared with the {@link GuardrailEvaluationRunner}, so it evaluates the same guardrail.
+     */
+    static GuardRailAdvisor.Builder guardrail(ChatClient.Builder builder,
+                                              DocsAssistantProperties.Guardrail properties) {
+        return GuardRailAdvisor.builder()
+            .chatClientBuilder(builder.build().mutate())
+            .acceptanceCriteria(GUARDRAIL_ACCEPTANCE_CRITERIA)
+            .failureResponse(GUARDRAIL_FAILURE_RESPONSE)
+            .speculative(properties.speculative())
+            .timeout(properties.timeout())
+            .fallbackPolicy(properties.fallback());
+    }
+
+    /**
+     * Returns the guardrail pre-classifier as configured, whether or not it is enabled.
+     */
+    static GuardrailPreClassifier preClassifier(DocsAssistantProperties.PreClassifier properties,
+                                                EmbeddingModel embeddingModel) {
+        return GuardrailPreClassifier.builder()
+            .acceptThreshold(properties.acceptThreshold())
+            .embeddingModel(embeddingModel)
+            .exampleQuestions(properties.exampleQuestions())
+            .similarityThreshold(properties.similarityThreshold())
+            .build();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        ragTaskExecutor.close();
     }
 
     @Override
     public List<Message> getHistory(String chatId) {
-        return List.of();
+        return chatMemory.get(chatId, Integer.MAX_VALUE).stream()
+            .filter(message -> message.getMessageType() == MessageType.USER
+                || message.getMessageType() == MessageType.ASSISTANT)
+            .map(message -> new Message(message.getMessageType().getValue(), message.getText(), null))
+            .toList();
     }
 
     @Override
     public void closeChat(String chatId) {
         chatMemory.clear(chatId);
+        chatMemory.clear(HistoryWindowAdvisor.summaryConversationId(chatId));
+        if (attachments != null) {
+            attachments.clear(chatId);
+        }
     }
 
-    // Attachments are not yet used
     @Override
     public String uploadAttachment(String chatId, MultipartFile multipartFile) {
-        return "";
+        // Attachments are not used when they are disabled
+        if (attachments == null) {
+            return "";
+        }
+        String fileName = multipartFile.getOriginalFilename() != null ? multipartFile.getOriginalFilename() : "";
+        try (InputStream content = multipartFile.getInputStream()) {
+            return attachments.add(chatId, fileName, multipartFile.getSize(), content);
+        } catch (AttachmentRejectedException e) {
+            throw new EndpointException(e.getMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read attachment " + fileName, e);
+        }
     }
 
     @Override
     public void removeAttachment(String chatId, String attachmentId) {
-
+        if (attachments != null) {
+            attachments.remove(chatId, attachmentId);
+        }
     }
 }
@@ -0,0 +1,134 @@
+package org.vaadin.marcus.docsassistant.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.vaadin.marcus.docsassistant.DocsAssistantProperties;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Offline evaluation of the guardrail pre-classifier. Replays a labelled question file through the
+ * pre-classifier and the LLM guardrail and logs how often they agree and how much guardrail latency
+ * the pre-classifier would have saved.
+ *
+ * <p>Each line of the file is either a question or {@code ACCEPTABLE<TAB>question} /
+ * {@code UNACCEPTABLE<TAB>question}. Blank lines and lines starting with {@code #} are ignored.
+ */
+@Component
+@ConditionalOnProperty("docs-assistant.guardrail.pre-classifier.evaluation-file")
+class GuardrailEvaluationRunner implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(GuardrailEvaluationRunner.class);
+
+    private record LabelledQuestion(@Nullable Boolean acceptable, String question) {
+    }
+
+    private final ChatClient.Builder builder;
+    private final EmbeddingModel embeddingModel;
+    private final DocsAssistantProperties.Guardrail properties;
+
+    GuardrailEvaluationRunner(ChatClient.Builder builder, EmbeddingModel embeddingModel,
+                              DocsAssistantProperties properties) {
+        this.builder = builder;
+        this.embeddingModel = embeddingModel;
+        this.properties = properties.guardrail();
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        Path file = properties.preClassifier().evaluationFile();
+        List<LabelledQuestion> questions = read(file);
+
+        // Configured as in the chat service, but the guardrail has no verdict cache or pre-classifier of
+        // its own, so every verdict comes from the model
+        var guardrail = DocsAssistantService.guardrail(builder, properties).build();
+        var preClassifier = DocsAssistantService.preClassifier(properties.preClassifier(), embeddingModel);
+
+        int preAccepted = 0;
+        int agreements = 0;
+        int labelled = 0;
+        int modelMatchesLabel = 0;
+        int tieredMatchesLabel = 0;
+        long preClassifierNanos = 0;
+        long modelNanos = 0;
+        long savedNanos = 0;
+        List<String> falseAccepts = new ArrayList<>();
+
+        for (LabelledQuestion labelledQuestion : questions) {
+            String question = labelledQuestion.question();
+
+            long start = System.nanoTime();
+            boolean accepted = preClassifier.acceptsLexically(question)
+                || Boolean.TRUE.equals(preClassifier.acceptsSemantically(question).block());
+            preClassifierNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            boolean modelVerdict = Boolean.TRUE.equals(guardrail.evaluate(question, List.of()).block());
+            long modelLatency = System.nanoTime() - start;
+            modelNanos += modelLatency;
+
+            if (accepted) {
+                preAccepted++;
+                savedNanos += modelLatency;
+                if (modelVerdict) {
+                    agreements++;
+                } else {
+                    falseAccepts.add(question);
+                }
+            }
+
+            if (labelledQuestion.acceptable() != null) {
+                labelled++;
+                boolean tieredVerdict = accepted || modelVerdict;
+                modelMatchesLabel += modelVerdict == labelledQuestion.acceptable() ? 1 : 0;
+                tieredMatchesLabel += tieredVerdict == labelledQuestion.acceptable() ? 1 : 0;
+            }
+        }
+
+        int total = questions.size();
+        logger.info("Guardrail pre-classifier evaluation of {} questions from {}", total, file);
+        logger.info("Accepted locally: {} ({}%), agreeing with the LLM: {}, false accepts: {}",
+            preAccepted, percent(preAccepted, total), agreements, falseAccepts.size());
+        falseAccepts.forEach(question -> logger.info("  false accept: {}", question));
+        if (labelled > 0) {
+            logger.info("Agreement with labels: LLM only {}%, pre-classifier + LLM {}%",
+                percent(modelMatchesLabel, labelled), percent(tieredMatchesLabel, labelled));
+        }
+        logger.info("Mean latency: pre-classifier {} µs, LLM guardrail {} ms; guardrail time saved: {} ms",
+            total == 0 ? 0 : preClassifierNanos / total / 1_000,
+            total == 0 ? 0 : modelNanos / total / 1_000_000,
+            savedNanos / 1_000_000);
+    }
+
+    private static List<LabelledQuestion> read(Path file) throws IOException {
+        List<LabelledQuestion> questions = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            int tab = line.indexOf('\t');
+            String label = tab < 0 ? "" : line.substring(0, tab).trim();
+            if (label.equalsIgnoreCase("ACCEPTABLE") || label.equalsIgnoreCase("UNACCEPTABLE")) {
+                questions.add(new LabelledQuestion(label.equalsIgnoreCase("ACCEPTABLE"), line.substring(tab + 1).trim()));
+            } else {
+                questions.add(new LabelledQuestion(null, line.trim()));
+            }
+        }
+        return questions;
+    }
+
+    private static long percent(int count, int total) {
+        return total == 0 ? 0 : Math.round(100.0 * count / total);
+    }
+}
@@ -0,0 +1,183 @@
+package org.vaadin.marcus.docsassistant.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.vaadin.marcus.docsassistant.DocsAssistantProperties;
+import org.vaadin.marcus.docsassistant.rag.ChatModelDocumentRanker;
+import org.vaadin.marcus.docsassistant.rag.HybridDocumentRetriever;
+import org.vaadin.marcus.docsassistant.vectorstore.HnswVectorStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Offline relevance and latency benchmark of document retrieval. Replays a question file through
+ * vector, keyword, hybrid and (if configured) reranked hybrid retrieval and logs how often an
+ * expected document is found, its mean reciprocal rank and the mean latency of each.
+ *
+ * <p>Each line of the file is {@code expected<TAB>question}, optionally followed by
+ * {@code <TAB>framework}. {@code expected} is one or more {@code |}-separated values; a document is
+ * a match if its id equals one of them or one of its metadata values contains one of them, such as
+ * a docs path. Blank lines and lines starting with {@code #} are ignored.
+ */
+@Component
+@ConditionalOnProperty("docs-assistant.retrieval.evaluation-file")
+class RetrievalEvaluationRunner implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetrievalEvaluationRunner.class);
+
+    private record ExpectedQuestion(List<String> expected, String question, @Nullable String framework) {
+    }
+
+    private final ChatClient.Builder builder;
+    private final VectorStore vectorStore;
+    private final DocsAssistantProperties.Retrieval properties;
+
+    RetrievalEvaluationRunner(ChatClient.Builder builder, VectorStore vectorStore,
+                              DocsAssistantProperties properties) {
+        this.builder = builder;
+        this.vectorStore = vectorStore;
+        this.properties = properties.retrieval();
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        Path file = properties.evaluationFile();
+        List<ExpectedQuestion> questions = read(file);
+        if (!(vectorStore instanceof HnswVectorStore replica)) {
+            logger.warn("Retrieval evaluation needs the vector store replica for keyword search, skipping");
+            return;
+        }
+
+        Map<String, Function<Filter.Expression, DocumentRetriever>> variants = new LinkedHashMap<>();
+        variants.put("vector", filter -> vectorRetriever(properties.topK(), filter));
+        variants.put("keyword", filter -> keywordRetriever(replica, properties.topK(), filter));
+        variants.put("hybrid", filter -> hybridRetriever(replica, filter, false));
+        if (properties.reranker() == DocsAssistantProperties.Retrieval.Reranker.CHAT_MODEL) {
+            variants.put("hybrid+rerank", filter -> hybridRetriever(replica, filter, true));
+        }
+
+        logger.info("Retrieval evaluation of {} questions from {} at top {}", questions.size(), file,
+            properties.topK());
+        for (var variant : variants.entrySet()) {
+            int found = 0;
+            double reciprocalRanks = 0;
+            long nanos = 0;
+            List<String> misses = new ArrayList<>();
+            for (ExpectedQuestion question : questions) {
+                DocumentRetriever retriever = variant.getValue().apply(filter(question.framework()));
+                long start = System.nanoTime();
+                List<Document> documents = retriever.retrieve(new Query(question.question()));
+                nanos += System.nanoTime() - start;
+
+                int rank = rankOfExpected(documents, question.expected());
+                if (rank > 0) {
+                    found++;
+                    reciprocalRanks += 1.0 / rank;
+                } else {
+                    misses.add(question.question());
+                }
+            }
+            int total = questions.size();
+            logger.info("{}: found {} ({}%), MRR {}, mean latency {} ms", variant.getKey(), found,
+                percent(found, total), total == 0 ? 0 : String.format("%.3f", reciprocalRanks / total),
+                total == 0 ? 0 : nanos / total / 1_000_000);
+            misses.forEach(question -> logger.info("  {} miss: {}", variant.getKey(), question));
+        }
+    }
+
+    private DocumentRetriever vectorRetriever(int topK, @Nullable Filter.Expression filter) {
+        return VectorStoreDocumentRetriever.builder()
+            .vectorStore(vectorStore)
+            .similarityThreshold(properties.similarityThreshold())
+            .topK(topK)
+            .filterExpression(filter)
+            .build();
+    }
+
+    private DocumentRetriever keywordRetriever(HnswVectorStore replica, int topK, @Nullable Filter.Expression filter) {
+        return query -> replica.keywordSearch(SearchRequest.builder()
+            .query(query.text())
+            .topK(topK)
+            .filterExpression(filter)
+            .build());
+    }
+
+    private DocumentRetriever hybridRetriever(HnswVectorStore replica, @Nullable Filter.Expression filter,
+                                              boolean rerank) {
+        return HybridDocumentRetriever.builder()
+            .vectorRetriever(vectorRetriever(properties.candidates(), filter))
+            .lexicalRetriever(keywordRetriever(replica, properties.candidates(), filter))
+            .rrfK(properties.rrfK())
+            .topK(properties.topK())
+            .documentRanker(rerank
+                ? new ChatModelDocumentRanker(builder.build().mutate(), properties.rerankExcerptLength())
+                : null)
+            // Keep benchmark runs out of the application metrics
+            .meterRegistry(new SimpleMeterRegistry())
+            .build();
+    }
+
+    @Nullable
+    private static Filter.Expression filter(@Nullable String framework) {
+        return framework == null ? null : new FilterExpressionBuilder().in("framework", framework, "").build();
+    }
+
+    private static int rankOfExpected(List<Document> documents, List<String> expected) {
+        for (int i = 0; i < documents.size(); i++) {
+            Document document = documents.get(i);
+            for (String value : expected) {
+                if (value.equals(document.getId()) || document.getMetadata().values().stream()
+                    .anyMatch(metadataValue -> String.valueOf(metadataValue).contains(value))) {
+                    return i + 1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static List<ExpectedQuestion> read(Path file) throws IOException {
+        List<ExpectedQuestion> questions = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split("\t");
+            if (columns.length < 2) {
+                logger.warn("Skipping retrieval evaluation line without expected documents: {}", line);
+                continue;
+            }
+            List<String> expected = Arrays.stream(columns[0].split("\\|")).map(String::trim)
+                .filter(value -> !value.isEmpty()).toList();
+            String framework = columns.length > 2 && !columns[2].isBlank() ? columns[2].trim() : null;
+            questions.add(new ExpectedQuestion(expected, columns[1].trim(), framework));
+        }
+        return questions;
+    }
+
+    private static long percent(int count, int total) {
+        return total == 0 ? 0 : Math.round(100.0 * count / total);
+    }
+}
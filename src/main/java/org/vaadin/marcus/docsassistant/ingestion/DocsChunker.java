@@ -0,0 +1,292 @@
+package org.vaadin.marcus.docsassistant.ingestion;
+
+import org.springframework.ai.document.Document;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cuts AsciiDoc and Markdown docs pages into chunks for the vector store.
+ *
+ * <p>A page is split into its sections, and sections longer than the chunk size are split at
+ * paragraphs, then at lines. Headings inside listings and code fences, comments and document
+ * attributes are skipped. Each chunk starts with the page title and section heading, so that it can
+ * be found and understood on its own.
+ *
+ * <p>Chunks carry the page title and section heading, the page's path relative to the docs root as
+ * {@code source}, and its {@code framework}: the first directory of that path that names a framework,
+ * or an empty string for docs that apply to all frameworks, matching the framework filter of
+ * retrieval.
+ *
+ * <p>The id of a chunk is derived from a SHA-256 hash of its text and metadata, so a chunk keeps its
+ * id as long as it is unchanged, even if the sections before it change, and any change gives it a new
+ * one.
+ */
+public class DocsChunker {
+
+    /**
+     * The metadata key of the framework a chunk applies to.
+     */
+    public static final String FRAMEWORK = "framework";
+
+    /**
+     * The metadata key of the page a chunk was cut from.
+     */
+    public static final String SOURCE = "source";
+
+    /**
+     * The metadata key of the title of the page a chunk was cut from.
+     */
+    public static final String TITLE = "title";
+
+    /**
+     * The metadata key of the section heading of a chunk.
+     */
+    public static final String SECTION = "section";
+
+    private static final Pattern ASCIIDOC_HEADING = Pattern.compile("^(={1,6})\\s+(\\S.*)$");
+    private static final Pattern MARKDOWN_HEADING = Pattern.compile("^(#{1,6})\\s+(\\S.*?)(\\s+#+)?\\s*$");
+    private static final Pattern ASCIIDOC_DELIMITER = Pattern.compile("^(-{4,}|\\.{4,}|\\+{4,}|/{4,})$");
+    private static final Pattern MARKDOWN_FENCE = Pattern.compile("^(```|~~~).*$");
+    private static final Pattern ASCIIDOC_ATTRIBUTE = Pattern.compile("^:!?[\\w-]+!?:.*$");
+    private static final Pattern FRONT_MATTER_TITLE = Pattern.compile("^title:\\s*[\"']?(.*?)[\"']?\\s*$");
+
+    private final int chunkSize;
+    private final Set<String> frameworks;
+
+    private record Section(String heading, String text) {
+    }
+
+    private record Page(String title, List<Section> sections) {
+    }
+
+    /**
+     * Creates a new DocsChunker.
+     *
+     * @param chunkSize  the maximum length in characters of a chunk, not counting its title line
+     * @param frameworks the directory names that mark the docs of a framework, such as {@code flow}
+     */
+    public DocsChunker(int chunkSize, List<String> frameworks) {
+        Assert.isTrue(chunkSize > 0, "Chunk size must be positive!");
+        Assert.notNull(frameworks, "Frameworks must not be null!");
+        this.chunkSize = chunkSize;
+        this.frameworks = Set.copyOf(frameworks);
+    }
+
+    /**
+     * Returns whether a file is a docs page this chunker reads.
+     *
+     * @param file the file
+     * @return whether it is an AsciiDoc or Markdown file
+     */
+    public boolean accepts(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".adoc") || name.endsWith(".asciidoc") || name.endsWith(".md");
+    }
+
+    /**
+     * Cuts a docs page into chunks.
+     *
+     * @param root the root of the docs, which the source of the chunks is relative to
+     * @param file the page
+     * @return the chunks of the page, without duplicates, in the order they appear on the page
+     * @throws IOException if the page cannot be read
+     */
+    public List<Document> chunk(Path root, Path file) throws IOException {
+        Path relative = root.relativize(file);
+        String source = relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+        String framework = framework(relative);
+        boolean markdown = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".md");
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Page page = parse(lines, markdown, fileTitle(relative));
+
+        Map<String, Document> chunks = new LinkedHashMap<>();
+        for (Section section : page.sections()) {
+            String header = section.heading().isEmpty() ? page.title() : page.title() + ": " + section.heading();
+            for (String part : split(section.text())) {
+                String text = header + "\n\n" + part;
+                Map<String, Object> metadata = Map.of(
+                    FRAMEWORK, framework,
+                    SOURCE, source,
+                    TITLE, page.title(),
+                    SECTION, section.heading());
+                String id = id(text, metadata);
+                chunks.putIfAbsent(id, Document.builder().id(id).text(text).metadata(metadata).build());
+            }
+        }
+        return List.copyOf(chunks.values());
+    }
+
+    private String framework(Path relative) {
+        for (int i = 0; i < relative.getNameCount() - 1; i++) {
+            String directory = relative.getName(i).toString().toLowerCase(Locale.ROOT);
+            if (this.frameworks.contains(directory)) {
+                return directory;
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Splits a page into sections at its headings, and picks up its title from the front matter or
+     * the level one heading on the way.
+     */
+    private static Page parse(List<String> lines, boolean markdown, String title) {
+        List<Section> sections = new ArrayList<>();
+        String heading = "";
+        StringBuilder text = new StringBuilder();
+        String delimiter = null;
+        int start = 0;
+
+        if (!lines.isEmpty() && lines.getFirst().strip().equals("---")) {
+            for (int i = 1; i < lines.size(); i++) {
+                if (lines.get(i).strip().equals("---")) {
+                    start = i + 1;
+                    break;
+                }
+                Matcher matcher = FRONT_MATTER_TITLE.matcher(lines.get(i).strip());
+                if (matcher.matches() && !matcher.group(1).isBlank()) {
+                    title = matcher.group(1);
+                }
+            }
+        }
+
+        for (int i = start; i < lines.size(); i++) {
+            String line = lines.get(i);
+            String stripped = line.strip();
+
+            if (delimiter != null) {
+                // Comment blocks are dropped, listings and code fences kept as they are
+                if (!delimiter.startsWith("/")) {
+                    text.append(line).append('\n');
+                }
+                if (stripped.equals(delimiter)) {
+                    delimiter = null;
+                }
+                continue;
+            }
+            Matcher block = (markdown ? MARKDOWN_FENCE : ASCIIDOC_DELIMITER).matcher(stripped);
+            if (block.matches()) {
+                delimiter = markdown ? block.group(1) : stripped;
+                if (!delimiter.startsWith("/")) {
+                    text.append(line).append('\n');
+                }
+                continue;
+            }
+            if (!markdown && ((stripped.startsWith("//") && !stripped.startsWith("///"))
+                || ASCIIDOC_ATTRIBUTE.matcher(stripped).matches())) {
+                continue;
+            }
+
+            Matcher matcher = (markdown ? MARKDOWN_HEADING : ASCIIDOC_HEADING).matcher(line);
+            if (matcher.matches()) {
+                if (matcher.group(1).length() == 1) {
+                    title = matcher.group(2).strip();
+                    continue;
+                }
+                addSection(sections, heading, text);
+                heading = matcher.group(2).strip();
+                text.setLength(0);
+                continue;
+            }
+            text.append(line).append('\n');
+        }
+        addSection(sections, heading, text);
+        return new Page(title, sections);
+    }
+
+    private static void addSection(List<Section> sections, String heading, StringBuilder text) {
+        String body = text.toString().strip();
+        if (!body.isEmpty()) {
+            sections.add(new Section(heading, body));
+        }
+    }
+
+    /**
+     * Splits the text of a section into parts of at most the chunk size, at paragraphs where
+     * possible, then at lines, and only within a line if a line is longer than a chunk.
+     */
+    private List<String> split(String text) {
+        List<String> parts = new ArrayList<>();
+        StringBuilder part = new StringBuilder();
+        for (String paragraph : text.split("\\n\\s*\\n")) {
+            for (String piece : pieces(paragraph.strip())) {
+                if (!part.isEmpty() && part.length() + 2 + piece.length() > this.chunkSize) {
+                    parts.add(part.toString());
+                    part.setLength(0);
+                }
+                if (!part.isEmpty()) {
+                    part.append(piece.startsWith("\n") ? "\n" : "\n\n");
+                }
+                part.append(piece.startsWith("\n") ? piece.substring(1) : piece);
+            }
+        }
+        if (!part.isEmpty()) {
+            parts.add(part.toString());
+        }
+        return parts;
+    }
+
+    /**
+     * Returns a paragraph as a whole if it fits in a chunk, otherwise cut into lines and lines into
+     * chunk-sized pieces. Pieces that continue a paragraph start with a line break.
+     */
+    private List<String> pieces(String paragraph) {
+        if (paragraph.length() <= this.chunkSize) {
+            return List.of(paragraph);
+        }
+        List<String> pieces = new ArrayList<>();
+        for (String line : paragraph.split("\\n")) {
+            for (int offset = 0; offset < line.length(); offset += this.chunkSize) {
+                String piece = line.substring(offset, Math.min(line.length(), offset + this.chunkSize));
+                pieces.add(pieces.isEmpty() ? piece : "\n" + piece);
+            }
+        }
+        return pieces;
+    }
+
+    private static String fileTitle(Path relative) {
+        String name = relative.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        String title = extension > 0 ? name.substring(0, extension) : name;
+        if (title.equals("index") && relative.getNameCount() > 1) {
+            title = relative.getName(relative.getNameCount() - 2).toString();
+        }
+        return title.replace('-', ' ');
+    }
+
+    private static String id(String text, Map<String, Object> metadata) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String key : List.of(FRAMEWORK, SOURCE, TITLE, SECTION)) {
+                digest.update(String.valueOf(metadata.get(key)).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            byte[] hash = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+            long mostSignificant = 0;
+            long leastSignificant = 0;
+            for (int i = 0; i < 8; i++) {
+                mostSignificant = (mostSignificant << 8) | (hash[i] & 0xff);
+                leastSignificant = (leastSignificant << 8) | (hash[i + 8] & 0xff);
+            }
+            return new UUID(mostSignificant, leastSignificant).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package org.vaadin.marcus.docsassistant.ingestion;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Ingests a local checkout of the docs into a vector store, embedding only what changed since the
+ * last run.
+ *
+ * <p>The docs are cut into chunks by a {@link DocsChunker}, whose chunk ids are content hashes. A
+ * {@link IngestionCheckpoint} file records the ids in the store, so a chunk that is already there is
+ * skipped, and only new and changed chunks are embedded and upserted. Chunks that are no longer in
+ * the docs are tombstoned in the checkpoint, and deleted from the store once all upserts are done, so
+ * that a page being updated never drops out of retrieval; a tombstone is only cleared once the store
+ * confirms the delete, and otherwise retried on the next run.
+ *
+ * <p>Chunks are upserted in batches, each of which the store embeds in one request, with a limited
+ * number of batches in flight and a limit on the batch requests started per second, to stay within the
+ * rate limits of the embedding API. The checkpoint is saved periodically during a run and when it
+ * ends, also when it fails, so a run that is interrupted resumes with the batches that were not
+ * stored yet.
+ *
+ * <p>Records the chunks of a run as {@code docs.assistant.ingestion.chunks}, tagged by {@code outcome}
+ * ({@code embedded}, {@code unchanged} or {@code deleted}); the time of each batch request as
+ * {@code docs.assistant.ingestion.batch}, tagged by {@code operation} ({@code add} or {@code delete});
+ * and the chunks per second of each run as {@code docs.assistant.ingestion.rate}.
+ */
+public class DocsIngestionPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocsIngestionPipeline.class);
+
+    private final VectorStore vectorStore;
+    private final DocsChunker chunker;
+    private final Path checkpointFile;
+    private final int batchSize;
+    private final int parallelism;
+    private final double requestsPerSecond;
+    private final Duration checkpointInterval;
+    private final Counter embedded;
+    private final Counter unchanged;
+    private final Counter deleted;
+    private final Timer addTimer;
+    private final Timer deleteTimer;
+    private final DistributionSummary rates;
+
+    /**
+     * The outcome of an ingestion run.
+     *
+     * @param pages        the docs pages read
+     * @param chunks       the chunks cut from the pages
+     * @param embedded     the chunks that were new or changed, and were embedded and upserted
+     * @param unchanged    the chunks that were already in the store
+     * @param deleted      the chunks that were deleted from the store
+     * @param duration     the time the run took
+     * @param indexVersion a version derived from the ids of all chunks, which changes with any chunk
+     */
+    public record Result(int pages, int chunks, int embedded, int unchanged, int deleted, Duration duration,
+                         String indexVersion) {
+
+        /**
+         * Returns whether the run changed the vector store.
+         */
+        public boolean changed() {
+            return this.embedded > 0 || this.deleted > 0;
+        }
+
+        /**
+         * Returns the chunks processed per second, whether they were embedded or not.
+         */
+        public double chunksPerSecond() {
+            return this.chunks / Math.max(this.duration.toNanos() / 1e9, 1e-9);
+        }
+    }
+
+    /**
+     * Creates a new DocsIngestionPipeline.
+     *
+     * @param vectorStore        the store to ingest into, which embeds the chunks
+     * @param chunker            cuts the docs pages into chunks
+     * @param checkpointFile     the file recording the chunks in the store between runs
+     * @param batchSize          the number of chunks embedded and upserted in one request
+     * @param parallelism        the number of batch requests in flight at once
+     * @param requestsPerSecond  the most batch requests started per second, zero or less for no limit
+     * @param checkpointInterval how often the checkpoint is saved during a run
+     * @param meterRegistry      the registry to publish ingestion metrics to
+     */
+    public DocsIngestionPipeline(VectorStore vectorStore, DocsChunker chunker, Path checkpointFile, int batchSize,
+                                 int parallelism, double requestsPerSecond, Duration checkpointInterval,
+                                 MeterRegistry meterRegistry) {
+        Assert.notNull(vectorStore, "VectorStore must not be null!");
+        Assert.notNull(chunker, "Chunker must not be null!");
+        Assert.notNull(checkpointFile, "Checkpoint file must not be null!");
+        Assert.isTrue(batchSize > 0, "Batch size must be positive!");
+        Assert.isTrue(parallelism > 0, "Parallelism must be positive!");
+        Assert.notNull(checkpointInterval, "Checkpoint interval must not be null!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.vectorStore = vectorStore;
+        this.chunker = chunker;
+        this.checkpointFile = checkpointFile;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+        this.requestsPerSecond = requestsPerSecond;
+        this.checkpointInterval = checkpointInterval;
+        this.embedded = chunkCounter("embedded", meterRegistry);
+        this.unchanged = chunkCounter("unchanged", meterRegistry);
+        this.deleted = chunkCounter("deleted", meterRegistry);
+        this.addTimer = batchTimer("add", meterRegistry);
+        this.deleteTimer = batchTimer("delete", meterRegistry);
+        this.rates = DistributionSummary.builder("docs.assistant.ingestion.rate")
+            .description("Chunks per second at which the docs were ingested")
+            .baseUnit("chunks/s")
+            .register(meterRegistry);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Ingests the docs in a directory, embedding and upserting the chunks that changed since the last
+     * run and deleting the chunks that are gone.
+     *
+     * @param docsDirectory the root of the docs checkout
+     * @return the outcome of the run
+     * @throws IOException if the docs or the checkpoint cannot be read, or the checkpoint cannot be
+     *                     saved
+     */
+    public Result ingest(Path docsDirectory) throws IOException {
+        Assert.isTrue(Files.isDirectory(docsDirectory), "Docs directory " + docsDirectory + " does not exist!");
+        long start = System.nanoTime();
+        IngestionCheckpoint checkpoint = new IngestionCheckpoint(this.checkpointFile);
+        checkpoint.load();
+
+        List<Path> pages = pages(docsDirectory);
+        Map<String, Document> chunks = chunks(docsDirectory, pages);
+
+        List<Document> changed = chunks.values().stream()
+            .filter(chunk -> !checkpoint.isLive(chunk.getId()))
+            .toList();
+        Set<String> knownSources = checkpoint.liveSources();
+        checkpoint.tombstone(checkpoint.live().stream().filter(id -> !chunks.containsKey(id)).toList());
+        // A chunk whose delete is still pending from an earlier run may be back in the docs, it is
+        // upserted again and must not be deleted after that
+        List<String> removed = checkpoint.tombstones().stream().filter(id -> !chunks.containsKey(id)).toList();
+        long changedPages = changed.stream().map(chunk -> chunk.getMetadata().get(DocsChunker.SOURCE)).distinct()
+            .filter(knownSources::contains).count();
+        logger.info("Ingesting {} docs pages from {}: {} chunks, {} new or changed in {} known pages, {} to delete",
+            pages.size(), docsDirectory, chunks.size(), changed.size(), changedPages, removed.size());
+
+        try {
+            inBatches(changed, this.addTimer, this.vectorStore::add, checkpoint::markLive, checkpoint);
+            inBatches(removed, this.deleteTimer, this.vectorStore::delete, checkpoint::remove, checkpoint);
+        } finally {
+            checkpoint.save();
+        }
+
+        Duration duration = Duration.ofNanos(System.nanoTime() - start);
+        Result result = new Result(pages.size(), chunks.size(), changed.size(), chunks.size() - changed.size(),
+            removed.size(), duration, indexVersion(chunks.keySet()));
+        this.embedded.increment(result.embedded());
+        this.unchanged.increment(result.unchanged());
+        this.deleted.increment(result.deleted());
+        this.rates.record(result.chunksPerSecond());
+        logger.info("Ingested {} docs pages in {} ms: {} chunks, {} embedded, {} unchanged, {} deleted, {} chunks/s",
+            result.pages(), duration.toMillis(), result.chunks(), result.embedded(), result.unchanged(),
+            result.deleted(), Math.round(result.chunksPerSecond()));
+        return result;
+    }
+
+    /**
+     * Cuts the docs in a directory into chunks, the same ones {@link #ingest(Path)} stores, without
+     * touching the vector store.
+     *
+     * @param docsDirectory the root of the docs checkout
+     * @return all chunks of the docs, without duplicates
+     * @throws IOException if the docs cannot be read
+     */
+    public List<Document> chunks(Path docsDirectory) throws IOException {
+        Assert.isTrue(Files.isDirectory(docsDirectory), "Docs directory " + docsDirectory + " does not exist!");
+        return List.copyOf(chunks(docsDirectory, pages(docsDirectory)).values());
+    }
+
+    private Map<String, Document> chunks(Path docsDirectory, List<Path> pages) throws IOException {
+        Map<String, Document> chunks = new LinkedHashMap<>();
+        for (Path page : pages) {
+            try {
+                for (Document chunk : this.chunker.chunk(docsDirectory, page)) {
+                    chunks.putIfAbsent(chunk.getId(), chunk);
+                }
+            } catch (CharacterCodingException e) {
+                logger.warn("Skipping docs page {} that is not UTF-8 text", page);
+            }
+        }
+        return chunks;
+    }
+
+    private List<Path> pages(Path docsDirectory) throws IOException {
+        try (Stream<Path> files = Files.walk(docsDirectory)) {
+            return files
+                .filter(file -> Files.isRegularFile(file) && this.chunker.accepts(file))
+                .filter(file -> !hidden(docsDirectory.relativize(file)))
+                .sorted()
+                .toList();
+        }
+    }
+
+    private static boolean hidden(Path relative) {
+        for (Path name : relative) {
+            if (name.toString().startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends the items to the store in batches, with a limited number in flight and a limited rate, and
+     * records each batch in the checkpoint when the store has accepted it. Stops at the first batch
+     * that fails, and cancels the batches in flight.
+     */
+    private <T> void inBatches(List<T> items, Timer timer, Consumer<List<T>> request, Consumer<List<T>> onStored,
+                               IngestionCheckpoint checkpoint) throws IOException {
+        if (items.isEmpty()) {
+            return;
+        }
+        RateLimiter rateLimiter = new RateLimiter(this.requestsPerSecond);
+        ExecutorService executor = Executors.newFixedThreadPool(this.parallelism,
+            Thread.ofVirtual().name("docs-ingestion-", 0).factory());
+        CompletionService<List<T>> completions = new ExecutorCompletionService<>(executor);
+        try {
+            List<List<T>> batches = new ArrayList<>();
+            for (int from = 0; from < items.size(); from += this.batchSize) {
+                batches.add(items.subList(from, Math.min(items.size(), from + this.batchSize)));
+            }
+            for (List<T> batch : batches) {
+                completions.submit(() -> {
+                    rateLimiter.acquire();
+                    timer.record(() -> request.accept(batch));
+                    return batch;
+                });
+            }
+
+            long lastSave = System.nanoTime();
+            for (int i = 0; i < batches.size(); i++) {
+                onStored.accept(completions.take().get());
+                if (System.nanoTime() - lastSave >= this.checkpointInterval.toNanos()) {
+                    checkpoint.save();
+                    lastSave = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while ingesting the docs");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String indexVersion(Set<String> ids) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ids.stream().sorted().forEach(id -> digest.update(id.getBytes(StandardCharsets.UTF_8)));
+            return HexFormat.of().formatHex(digest.digest(), 0, 6);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static Counter chunkCounter(String outcome, MeterRegistry meterRegistry) {
+        return Counter.builder("docs.assistant.ingestion.chunks")
+            .description("Chunks of the docs processed by ingestion")
+            .tag("outcome", outcome)
+            .register(meterRegistry);
+    }
+
+    private static Timer batchTimer(String operation, MeterRegistry meterRegistry) {
+        return Timer.builder("docs.assistant.ingestion.batch")
+            .description("Time of a batch request of docs ingestion to the vector store")
+            .tag("operation", operation)
+            .register(meterRegistry);
+    }
+
+    /**
+     * Spaces out the start of requests evenly to stay within a number of requests per second.
+     */
+    private static final class RateLimiter {
+
+        private final long intervalNanos;
+        private long next = System.nanoTime();
+
+        RateLimiter(double requestsPerSecond) {
+            this.intervalNanos = requestsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond) : 0;
+        }
+
+        void acquire() throws InterruptedException {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long slot = Math.max(now, this.next);
+                this.next = slot + this.intervalNanos;
+                wait = slot - now;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    public static final class Builder {
+        private VectorStore vectorStore;
+        private DocsChunker chunker = new DocsChunker(1500, List.of("flow", "hilla"));
+        private Path checkpointFile = Path.of("data/ingestion-checkpoint");
+        private int batchSize = 100;
+        private int parallelism = 4;
+        private double requestsPerSecond = 5;
+        private Duration checkpointInterval = Duration.ofSeconds(10);
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Builder() {
+        }
+
+        public Builder vectorStore(VectorStore vectorStore) {
+            this.vectorStore = vectorStore;
+            return this;
+        }
+
+        public Builder chunker(DocsChunker chunker) {
+            this.chunker = chunker;
+            return this;
+        }
+
+        public Builder checkpointFile(Path checkpointFile) {
+            this.checkpointFile = checkpointFile;
+            return this;
+        }
+
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public Builder requestsPerSecond(double requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        public Builder checkpointInterval(Duration checkpointInterval) {
+            this.checkpointInterval = checkpointInterval;
+            return this;
+        }
+
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public DocsIngestionPipeline build() {
+            return new DocsIngestionPipeline(this.vectorStore, this.chunker, this.checkpointFile, this.batchSize,
+                this.parallelism, this.requestsPerSecond, this.checkpointInterval, this.meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.vaadin.marcus.docsassistant.ingestion;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.vaadin.marcus.docsassistant.DocsAssistantProperties;
+import org.vaadin.marcus.docsassistant.cache.DocsIndexVersion;
+import org.vaadin.marcus.docsassistant.vectorstore.HnswVectorStore;
+import org.vaadin.marcus.docsassistant.vectorstore.VectorStoreReplicator;
+
+import java.io.IOException;
+
+/**
+ * Ingests a docs checkout into the primary vector store on startup. Afterwards the index version is
+ * set to the version of the ingested docs, which invalidates cached answers and retrieval results
+ * when the docs changed, and the replica, if enabled, is synced with all chunks of the docs, so it
+ * holds exactly what the primary store holds.
+ *
+ * <p>Runs after the application context has started, before the application reports itself ready, so
+ * the first fill of the replica neither blocks bean creation nor happens behind a ready instance.
+ */
+@Component
+@ConditionalOnProperty("docs-assistant.ingestion.docs-directory")
+class DocsIngestionRunner implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocsIngestionRunner.class);
+
+    private final ObjectProvider<VectorStore> vectorStores;
+    private final ObjectProvider<VectorStoreReplicator> replicator;
+    private final DocsIndexVersion indexVersion;
+    private final DocsAssistantProperties.Ingestion properties;
+    private final MeterRegistry meterRegistry;
+
+    DocsIngestionRunner(ObjectProvider<VectorStore> vectorStores, ObjectProvider<VectorStoreReplicator> replicator,
+                        DocsIndexVersion indexVersion, DocsAssistantProperties properties,
+                        MeterRegistry meterRegistry) {
+        this.vectorStores = vectorStores;
+        this.replicator = replicator;
+        this.indexVersion = indexVersion;
+        this.properties = properties.ingestion();
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException {
+        VectorStore primary = vectorStores.orderedStream()
+            .filter(vectorStore -> !(vectorStore instanceof HnswVectorStore))
+            .findFirst()
+            .orElse(null);
+        if (primary == null) {
+            logger.warn("Docs ingestion needs a primary vector store, skipping");
+            return;
+        }
+
+        DocsIngestionPipeline pipeline = DocsIngestionPipeline.builder()
+            .vectorStore(primary)
+            .chunker(new DocsChunker(properties.chunkSize(), properties.frameworks()))
+            .checkpointFile(properties.checkpointFile())
+            .batchSize(properties.batchSize())
+            .parallelism(properties.parallelism())
+            .requestsPerSecond(properties.requestsPerSecond())
+            .checkpointInterval(properties.checkpointInterval())
+            .meterRegistry(meterRegistry)
+            .build();
+        DocsIngestionPipeline.Result result = pipeline.ingest(properties.docsDirectory());
+
+        indexVersion.update(result.indexVersion());
+        VectorStoreReplicator replica = replicator.getIfAvailable();
+        if (replica != null) {
+            // Also when nothing changed, the replica may not have caught up with an earlier run
+            replica.sync(pipeline.chunks(properties.docsDirectory()));
+        }
+    }
+}
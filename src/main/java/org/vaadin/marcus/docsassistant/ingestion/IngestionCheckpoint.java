@@ -0,0 +1,154 @@
+package org.vaadin.marcus.docsassistant.ingestion;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The chunks that are in the vector store, by id, as far as ingestion knows. A chunk is either live
+ * or tombstoned: removed from the docs, but possibly still in the store until its delete is
+ * confirmed.
+ *
+ * <p>Saved to a file, replacing it atomically, so that a run that is interrupted resumes where it was
+ * last saved, and the next run only embeds the chunks that changed since.
+ */
+class IngestionCheckpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestionCheckpoint.class);
+
+    private static final int FILE_MAGIC = 0x44494331; // "DIC1"
+
+    private record Entry(String source, boolean tombstone) {
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    IngestionCheckpoint(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the checkpoint file, if there is one.
+     */
+    synchronized void load() throws IOException {
+        this.entries.clear();
+        if (!Files.exists(this.file)) {
+            return;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Unknown format of ingestion checkpoint " + this.file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String id = readString(in);
+                String source = readString(in);
+                this.entries.put(id, new Entry(source, in.readBoolean()));
+            }
+        }
+        logger.info("Loaded ingestion checkpoint {} with {} chunks", this.file, this.entries.size());
+    }
+
+    /**
+     * Saves the checkpoint to its file.
+     */
+    synchronized void save() throws IOException {
+        Path parent = this.file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, "ingestion", ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(this.entries.size());
+            for (var entry : this.entries.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue().source());
+                out.writeBoolean(entry.getValue().tombstone());
+            }
+        }
+        Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    synchronized boolean isLive(String id) {
+        Entry entry = this.entries.get(id);
+        return entry != null && !entry.tombstone();
+    }
+
+    synchronized List<String> live() {
+        return ids(false);
+    }
+
+    synchronized List<String> tombstones() {
+        return ids(true);
+    }
+
+    synchronized Set<String> liveSources() {
+        return this.entries.values().stream()
+            .filter(entry -> !entry.tombstone())
+            .map(Entry::source)
+            .collect(Collectors.toSet());
+    }
+
+    /**
+     * Records chunks as stored in the vector store.
+     */
+    synchronized void markLive(Collection<Document> chunks) {
+        for (Document chunk : chunks) {
+            Object source = chunk.getMetadata().get(DocsChunker.SOURCE);
+            this.entries.put(chunk.getId(), new Entry(source != null ? source.toString() : "", false));
+        }
+    }
+
+    /**
+     * Records chunks as removed from the docs, to be deleted from the vector store.
+     */
+    synchronized void tombstone(Collection<String> ids) {
+        for (String id : ids) {
+            this.entries.computeIfPresent(id, (key, entry) -> new Entry(entry.source(), true));
+        }
+    }
+
+    /**
+     * Forgets chunks whose delete from the vector store was confirmed.
+     */
+    synchronized void remove(Collection<String> ids) {
+        ids.forEach(this.entries::remove);
+    }
+
+    private List<String> ids(boolean tombstone) {
+        List<String> ids = new ArrayList<>();
+        this.entries.forEach((id, entry) -> {
+            if (entry.tombstone() == tombstone) {
+                ids.add(id);
+            }
+        });
+        return ids;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,334 @@
+package org.vaadin.marcus.docsassistant.memory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link ChatMemory} with bounded memory use, replacing Spring AI's unbounded in-memory store.
+ *
+ * <p>Each conversation keeps at most a fixed number of messages, dropping the oldest first. Across
+ * conversations, the number of conversations and the retained bytes are capped by evicting the
+ * least recently used conversations, and conversations that have been idle for longer than the idle
+ * timeout are swept in the background, since abandoned browser tabs never close their chat.
+ *
+ * <p>Message text is kept as UTF-8, and deflated when it is long enough for that to pay off. Only
+ * the type and text of user, assistant and system messages are retained. Appends to different
+ * conversations only contend when their ids hash to the same lock stripe.
+ */
+public class BoundedChatMemory implements ChatMemory, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BoundedChatMemory.class);
+
+    private static final int LOCK_STRIPES = 64;
+    // Rough per-message and per-conversation object overhead, so byte accounting is not just payload
+    private static final int MESSAGE_OVERHEAD_BYTES = 48;
+    private static final int CONVERSATION_OVERHEAD_BYTES = 160;
+
+    private record StoredMessage(MessageType type, byte[] text, boolean deflated, int length) {
+
+        long retainedBytes() {
+            return MESSAGE_OVERHEAD_BYTES + this.text.length;
+        }
+    }
+
+    private record EvictionCandidate(String conversationId, Conversation conversation, long lastAccess) {
+    }
+
+    private static final class Conversation {
+        private final ArrayDeque<StoredMessage> messages = new ArrayDeque<>();
+        private long bytes = CONVERSATION_OVERHEAD_BYTES;
+        private volatile long lastAccess;
+    }
+
+    private final int maxMessagesPerConversation;
+    private final int maxConversations;
+    private final long maxBytes;
+    private final Duration idleTimeout;
+    private final int compressionThreshold;
+    private final Clock clock;
+
+    private final Map<String, Conversation> conversations = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final ScheduledExecutorService sweeper;
+
+    private final Counter idleEvictions;
+    private final Counter capacityEvictions;
+
+    /**
+     * Creates a new BoundedChatMemory and starts its idle sweeper.
+     *
+     * @param maxMessagesPerConversation the maximum number of messages kept per conversation
+     * @param maxConversations           the maximum number of conversations kept
+     * @param maxBytes                   the approximate maximum number of bytes retained across conversations
+     * @param idleTimeout                how long a conversation is kept after it was last read or written
+     * @param compressionThreshold       the UTF-8 length in bytes from which message text is deflated
+     * @param meterRegistry              the registry to publish conversation and byte gauges to
+     */
+    public BoundedChatMemory(int maxMessagesPerConversation, int maxConversations, long maxBytes,
+                             Duration idleTimeout, int compressionThreshold, MeterRegistry meterRegistry) {
+        Assert.isTrue(maxMessagesPerConversation > 0, "Max messages per conversation must be positive!");
+        Assert.isTrue(maxConversations > 0, "Max conversations must be positive!");
+        Assert.isTrue(maxBytes > 0, "Max bytes must be positive!");
+        Assert.notNull(idleTimeout, "Idle timeout must not be null!");
+        Assert.isTrue(!idleTimeout.isNegative() && !idleTimeout.isZero(), "Idle timeout must be positive!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.maxMessagesPerConversation = maxMessagesPerConversation;
+        this.maxConversations = maxConversations;
+        this.maxBytes = maxBytes;
+        this.idleTimeout = idleTimeout;
+        this.compressionThreshold = compressionThreshold;
+        this.clock = Clock.systemUTC();
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new Object();
+        }
+
+        Gauge.builder("docs.assistant.chat.memory.conversations", this.conversations, Map::size)
+            .register(meterRegistry);
+        Gauge.builder("docs.assistant.chat.memory.bytes", this.retainedBytes, AtomicLong::get)
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        this.idleEvictions = meterRegistry.counter("docs.assistant.chat.memory.evictions", "reason", "idle");
+        this.capacityEvictions = meterRegistry.counter("docs.assistant.chat.memory.evictions", "reason", "capacity");
+
+        long sweepMillis = Math.max(1_000, idleTimeout.toMillis() / 4);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-memory-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper.scheduleWithFixedDelay(this::evictIdle, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        List<StoredMessage> encoded = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            if (message.getMessageType() == MessageType.USER
+                || message.getMessageType() == MessageType.ASSISTANT
+                || message.getMessageType() == MessageType.SYSTEM) {
+                encoded.add(encode(message));
+            }
+        }
+        if (encoded.isEmpty()) {
+            return;
+        }
+
+        synchronized (lock(conversationId)) {
+            Conversation conversation = this.conversations.computeIfAbsent(conversationId, id -> {
+                this.retainedBytes.addAndGet(CONVERSATION_OVERHEAD_BYTES);
+                return new Conversation();
+            });
+            long delta = 0;
+            for (StoredMessage message : encoded) {
+                conversation.messages.addLast(message);
+                delta += message.retainedBytes();
+            }
+            while (conversation.messages.size() > this.maxMessagesPerConversation) {
+                delta -= conversation.messages.removeFirst().retainedBytes();
+            }
+            conversation.bytes += delta;
+            conversation.lastAccess = this.clock.millis();
+            this.retainedBytes.addAndGet(delta);
+        }
+
+        if (this.conversations.size() > this.maxConversations || this.retainedBytes.get() > this.maxBytes) {
+            evictToCapacity();
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        List<StoredMessage> stored;
+        synchronized (lock(conversationId)) {
+            Conversation conversation = this.conversations.get(conversationId);
+            if (conversation == null || lastN <= 0) {
+                return List.of();
+            }
+            conversation.lastAccess = this.clock.millis();
+            int skip = Math.max(0, conversation.messages.size() - lastN);
+            stored = conversation.messages.stream().skip(skip).toList();
+        }
+        return stored.stream().map(BoundedChatMemory::decode).toList();
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        synchronized (lock(conversationId)) {
+            Conversation conversation = this.conversations.remove(conversationId);
+            if (conversation != null) {
+                this.retainedBytes.addAndGet(-conversation.bytes);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of conversations currently kept.
+     *
+     * @return the number of conversations
+     */
+    public int conversationCount() {
+        return this.conversations.size();
+    }
+
+    /**
+     * Returns the approximate number of bytes retained by all conversations.
+     *
+     * @return the retained bytes
+     */
+    public long retainedBytes() {
+        return this.retainedBytes.get();
+    }
+
+    @Override
+    public void close() {
+        this.sweeper.shutdownNow();
+    }
+
+    void evictIdle() {
+        long idleBefore = this.clock.millis() - this.idleTimeout.toMillis();
+        int evicted = 0;
+        for (var entry : this.conversations.entrySet()) {
+            if (entry.getValue().lastAccess < idleBefore && evict(entry.getKey(), entry.getValue(), idleBefore)) {
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            this.idleEvictions.increment(evicted);
+            logger.debug("Evicted {} idle conversations", evicted);
+        }
+    }
+
+    /**
+     * Evicts the least recently used conversations until both caps are met, with some headroom so
+     * that a burst of new conversations does not trigger a scan on every append.
+     */
+    private synchronized void evictToCapacity() {
+        int conversationTarget = (int) (this.maxConversations * 0.9);
+        long byteTarget = (long) (this.maxBytes * 0.9);
+        if (this.conversations.size() <= this.maxConversations && this.retainedBytes.get() <= this.maxBytes) {
+            return;
+        }
+
+        // Snapshot the access times, they keep changing while sorting
+        var byAge = this.conversations.entrySet().stream()
+            .map(entry -> new EvictionCandidate(entry.getKey(), entry.getValue(), entry.getValue().lastAccess))
+            .sorted(Comparator.comparingLong(EvictionCandidate::lastAccess))
+            .toList();
+        int evicted = 0;
+        for (var candidate : byAge) {
+            if (this.conversations.size() <= conversationTarget && this.retainedBytes.get() <= byteTarget) {
+                break;
+            }
+            if (evict(candidate.conversationId(), candidate.conversation(), Long.MAX_VALUE)) {
+                evicted++;
+            }
+        }
+        this.capacityEvictions.increment(evicted);
+        logger.debug("Evicted {} conversations to stay within capacity", evicted);
+    }
+
+    /**
+     * Evicts a conversation unless it was replaced, or accessed at or after the given time. The
+     * access time is checked again under the lock, since a reply may have been appended after the
+     * caller last read it.
+     */
+    private boolean evict(String conversationId, Conversation conversation, long accessedBefore) {
+        synchronized (lock(conversationId)) {
+            if (conversation.lastAccess < accessedBefore && this.conversations.remove(conversationId, conversation)) {
+                this.retainedBytes.addAndGet(-conversation.bytes);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private Object lock(String conversationId) {
+        return this.locks[Math.floorMod(conversationId.hashCode(), LOCK_STRIPES)];
+    }
+
+    private StoredMessage encode(Message message) {
+        String text = message.getText() != null ? message.getText() : "";
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length >= this.compressionThreshold) {
+            byte[] deflated = deflate(utf8);
+            if (deflated.length < utf8.length) {
+                return new StoredMessage(message.getMessageType(), deflated, true, utf8.length);
+            }
+        }
+        return new StoredMessage(message.getMessageType(), utf8, false, utf8.length);
+    }
+
+    private static Message decode(StoredMessage message) {
+        byte[] utf8 = message.deflated() ? inflate(message.text(), message.length()) : message.text();
+        String text = new String(utf8, StandardCharsets.UTF_8);
+        return switch (message.type()) {
+            case USER -> new UserMessage(text);
+            case ASSISTANT -> new AssistantMessage(text);
+            default -> new SystemMessage(text);
+        };
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            var out = new ByteArrayOutputStream(input.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] input, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            byte[] output = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                offset += inflater.inflate(output, offset, length - offset);
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt chat message", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,682 @@
+package org.vaadin.marcus.docsassistant.memory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * A durable {@link ChatMemory} backed by an append-only log of segment files, so conversations
+ * survive restarts and redeploys.
+ *
+ * <p>Every message is appended as a checksummed record to the active segment, and an in-memory index
+ * keeps the position of the most recent messages of each conversation. Reading the last N messages
+ * reads exactly those N records, never a whole file. Appends go to the page cache and are flushed to
+ * disk in batches every fsync interval, so a crash loses at most that interval of messages. Clearing
+ * a conversation appends a tombstone.
+ *
+ * <p>Sealed segments whose live data drops below half of their size are compacted in the background
+ * by copying their live records to the active segment and deleting them. Conversations that have not
+ * been written to for longer than the retention period are dropped. On startup the index is rebuilt
+ * by scanning the segments. A torn record at the end of the active segment, the last one, is
+ * truncated. Sealed segments were completely written before the next one was started, so a record
+ * that fails its checksum there is corrupt rather than torn: it is skipped by its length and logged,
+ * and the records after it are still recovered.
+ *
+ * <p>Record layout: payload length, CRC32C of the payload, then the payload: kind, sequence number,
+ * timestamp, conversation id and, for messages, the message type and UTF-8 text.
+ */
+public class SegmentLogChatMemory implements ChatMemory, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentLogChatMemory.class);
+
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final byte KIND_MESSAGE = 1;
+    private static final byte KIND_CLEAR = 2;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private record Record(byte kind, long sequence, long timestamp, String conversationId,
+                          MessageType type, String text) {
+    }
+
+    private record Entry(long segmentId, int offset, int length, long sequence) {
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final AtomicLong liveBytes = new AtomicLong();
+        private volatile FileChannel channel;
+        private volatile long size;
+        private boolean closed;
+
+        private Segment(long id, Path path, FileChannel channel, long size) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        /**
+         * Replaces a channel that was closed by an interrupt with a new one, unless another thread
+         * already did or the segment itself was closed.
+         */
+        private synchronized FileChannel reopen(FileChannel closedChannel) throws IOException {
+            if (this.closed) {
+                throw new ClosedChannelException();
+            }
+            if (this.channel == closedChannel) {
+                this.channel = FileChannel.open(this.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return this.channel;
+        }
+
+        private synchronized void close() throws IOException {
+            this.closed = true;
+            this.channel.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChannelOperation<T> {
+        T apply(FileChannel channel) throws IOException;
+    }
+
+    private static final class Conversation {
+        private final List<Entry> entries = new ArrayList<>();
+        private long clearedBefore = -1;
+        private long lastWrite;
+    }
+
+    private final Path directory;
+    private final int maxMessagesPerConversation;
+    private final long segmentSize;
+    private final Duration retention;
+    private final Clock clock;
+
+    private final Map<String, Conversation> conversations = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    // Appends are serialized, and the index is only modified while holding this lock
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // Readers hold the read lock while resolving and reading positions, compaction deletes under the write lock
+    private final ReentrantReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final ScheduledExecutorService scheduler;
+
+    private volatile Segment active;
+    private volatile boolean dirty;
+
+    private final Counter compactions;
+
+    /**
+     * Opens or creates a log, rebuilds the index from it and starts the background flusher and compactor.
+     *
+     * @param directory                  the directory holding the segment files
+     * @param maxMessagesPerConversation the maximum number of messages kept per conversation
+     * @param segmentSize                the size after which a new segment is started
+     * @param fsyncInterval              how often appended records are flushed to disk
+     * @param compactionInterval         how often sealed segments are checked for compaction
+     * @param retention                  how long a conversation is kept after its last message
+     * @param meterRegistry              the registry to publish segment and conversation metrics to
+     * @throws IOException if the log cannot be opened
+     */
+    public SegmentLogChatMemory(Path directory, int maxMessagesPerConversation, long segmentSize,
+                                Duration fsyncInterval, Duration compactionInterval, Duration retention,
+                                MeterRegistry meterRegistry) throws IOException {
+        Assert.notNull(directory, "Directory must not be null!");
+        Assert.isTrue(maxMessagesPerConversation > 0, "Max messages per conversation must be positive!");
+        Assert.isTrue(segmentSize > 0 && segmentSize < Integer.MAX_VALUE, "Segment size must be positive and below 2 GB!");
+        Assert.notNull(fsyncInterval, "Fsync interval must not be null!");
+        Assert.notNull(compactionInterval, "Compaction interval must not be null!");
+        Assert.notNull(retention, "Retention must not be null!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.directory = directory;
+        this.maxMessagesPerConversation = maxMessagesPerConversation;
+        this.segmentSize = segmentSize;
+        this.retention = retention;
+        this.clock = Clock.systemUTC();
+
+        Files.createDirectories(directory);
+        recover();
+
+        Gauge.builder("docs.assistant.chat.log.conversations", this.conversations, Map::size)
+            .register(meterRegistry);
+        Gauge.builder("docs.assistant.chat.log.segments", this.segments, Map::size)
+            .register(meterRegistry);
+        Gauge.builder("docs.assistant.chat.log.bytes", this, SegmentLogChatMemory::diskBytes)
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        this.compactions = meterRegistry.counter("docs.assistant.chat.log.compactions");
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flushQuietly,
+            fsyncInterval.toMillis(), fsyncInterval.toMillis(), TimeUnit.MILLISECONDS);
+        this.scheduler.scheduleWithFixedDelay(this::compactQuietly,
+            compactionInterval.toMillis(), compactionInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        long now = this.clock.millis();
+        List<Record> records = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            if (message.getMessageType() == MessageType.USER
+                || message.getMessageType() == MessageType.ASSISTANT
+                || message.getMessageType() == MessageType.SYSTEM) {
+                records.add(new Record(KIND_MESSAGE, 0, now, conversationId, message.getMessageType(),
+                    message.getText() != null ? message.getText() : ""));
+            }
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+
+        this.appendLock.lock();
+        try {
+            Conversation conversation = this.conversations.computeIfAbsent(conversationId, id -> new Conversation());
+            List<Entry> appended = new ArrayList<>(records.size());
+            for (Record record : records) {
+                long sequence = this.nextSequence.getAndIncrement();
+                ByteBuffer encoded = encode(new Record(record.kind(), sequence, now, conversationId,
+                    record.type(), record.text()));
+                appended.add(append(encoded, sequence));
+            }
+            synchronized (conversation) {
+                conversation.entries.addAll(appended);
+                conversation.lastWrite = now;
+                trim(conversation);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not append to chat log", e);
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        Conversation conversation = this.conversations.get(conversationId);
+        if (conversation == null || lastN <= 0) {
+            return List.of();
+        }
+
+        this.segmentsLock.readLock().lock();
+        try {
+            List<Entry> entries;
+            synchronized (conversation) {
+                int from = Math.max(0, conversation.entries.size() - lastN);
+                entries = List.copyOf(conversation.entries.subList(from, conversation.entries.size()));
+            }
+            List<Message> messages = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                Record record = read(entry);
+                messages.add(switch (record.type()) {
+                    case USER -> new UserMessage(record.text());
+                    case ASSISTANT -> new AssistantMessage(record.text());
+                    default -> new SystemMessage(record.text());
+                });
+            }
+            return messages;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read from chat log", e);
+        } finally {
+            this.segmentsLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        this.appendLock.lock();
+        try {
+            Conversation conversation = this.conversations.remove(conversationId);
+            if (conversation == null) {
+                return;
+            }
+            long sequence = this.nextSequence.getAndIncrement();
+            append(encode(new Record(KIND_CLEAR, sequence, this.clock.millis(), conversationId,
+                MessageType.USER, "")), sequence);
+            synchronized (conversation) {
+                conversation.entries.forEach(this::release);
+                conversation.entries.clear();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not append to chat log", e);
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    /**
+     * Flushes appended records to disk.
+     *
+     * @throws IOException if the active segment cannot be flushed
+     */
+    public void flush() throws IOException {
+        if (this.dirty) {
+            this.dirty = false;
+            Segment segment = this.active;
+            io(segment, channel -> {
+                channel.force(false);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Drops conversations past their retention and compacts sealed segments that are mostly dead.
+     *
+     * @throws IOException if a segment cannot be read or deleted
+     */
+    public synchronized void compact() throws IOException {
+        long expiredBefore = this.clock.millis() - this.retention.toMillis();
+        this.appendLock.lock();
+        try {
+            for (var conversation : this.conversations.entrySet()) {
+                if (conversation.getValue().lastWrite < expiredBefore) {
+                    this.conversations.remove(conversation.getKey());
+                    synchronized (conversation.getValue()) {
+                        conversation.getValue().entries.forEach(this::release);
+                    }
+                }
+            }
+        } finally {
+            this.appendLock.unlock();
+        }
+
+        for (Segment segment : List.copyOf(this.segments.values())) {
+            if (segment != this.active && segment.liveBytes.get() * 2 < segment.size) {
+                compact(segment);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.scheduler.shutdownNow();
+        this.appendLock.lock();
+        try {
+            flush();
+            for (Segment segment : this.segments.values()) {
+                segment.close();
+            }
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    private long diskBytes() {
+        return this.segments.values().stream().mapToLong(segment -> segment.size).sum();
+    }
+
+    /**
+     * Copies the live records and the still relevant tombstones of a sealed segment to the active
+     * segment, then deletes it. Copies keep their sequence numbers, so recovery restores the original
+     * message order regardless of which segment a record ends up in.
+     */
+    private void compact(Segment segment) throws IOException {
+        boolean olderSegmentsExist = this.segments.firstKey() < segment.id;
+        ByteBuffer contents = ByteBuffer.allocate((int) segment.size);
+        while (contents.hasRemaining()) {
+            if (io(segment, channel -> channel.read(contents, contents.position())) < 0) {
+                throw new IOException("Unexpected end of chat log segment " + segment.path);
+            }
+        }
+        contents.flip();
+
+        int copied = 0;
+        while (contents.remaining() >= RECORD_HEADER_BYTES) {
+            int offset = contents.position();
+            int length = contents.getInt();
+            contents.getInt();
+            ByteBuffer payload = contents.slice(contents.position(), length);
+            contents.position(contents.position() + length);
+            Record record = decode(payload);
+
+            this.appendLock.lock();
+            try {
+                if (record.kind() == KIND_CLEAR) {
+                    // A tombstone must outlive every record it hides
+                    if (olderSegmentsExist) {
+                        append(encode(record), record.sequence());
+                        copied++;
+                    }
+                    continue;
+                }
+                Conversation conversation = this.conversations.get(record.conversationId());
+                if (conversation == null) {
+                    continue;
+                }
+                synchronized (conversation) {
+                    for (int i = 0; i < conversation.entries.size(); i++) {
+                        Entry entry = conversation.entries.get(i);
+                        if (entry.segmentId() == segment.id && entry.offset() == offset) {
+                            Entry moved = append(encode(record), record.sequence());
+                            conversation.entries.set(i, moved);
+                            copied++;
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                this.appendLock.unlock();
+            }
+        }
+
+        // The copies must be durable before the originals disappear
+        this.appendLock.lock();
+        try {
+            this.dirty = true;
+            flush();
+        } finally {
+            this.appendLock.unlock();
+        }
+
+        this.segmentsLock.writeLock().lock();
+        try {
+            this.segments.remove(segment.id);
+            segment.close();
+            Files.deleteIfExists(segment.path);
+        } finally {
+            this.segmentsLock.writeLock().unlock();
+        }
+        this.compactions.increment();
+        logger.debug("Compacted chat log segment {}, copying {} records", segment.id, copied);
+    }
+
+    private Entry append(ByteBuffer record, long sequence) throws IOException {
+        Segment segment = this.active;
+        if (segment.size + record.remaining() > this.segmentSize && segment.size > 0) {
+            segment = roll();
+        }
+        int offset = (int) segment.size;
+        int length = record.remaining();
+        Segment target = segment;
+        while (record.hasRemaining()) {
+            io(target, channel -> channel.write(record, target.size + record.position()));
+        }
+        segment.size += length;
+        segment.liveBytes.addAndGet(length);
+        this.dirty = true;
+        return new Entry(segment.id, offset, length, sequence);
+    }
+
+    private Segment roll() throws IOException {
+        Segment previous = this.active;
+        io(previous, channel -> {
+            channel.force(false);
+            return null;
+        });
+        Segment next = openSegment(previous.id + 1);
+        this.segments.put(next.id, next);
+        this.active = next;
+        return next;
+    }
+
+    private void trim(Conversation conversation) {
+        int excess = conversation.entries.size() - this.maxMessagesPerConversation;
+        if (excess > 0) {
+            List<Entry> dropped = conversation.entries.subList(0, excess);
+            dropped.forEach(this::release);
+            dropped.clear();
+        }
+    }
+
+    private void release(Entry entry) {
+        Segment segment = this.segments.get(entry.segmentId());
+        if (segment != null) {
+            segment.liveBytes.addAndGet(-entry.length());
+        }
+    }
+
+    private Record read(Entry entry) throws IOException {
+        Segment segment = this.segments.get(entry.segmentId());
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length());
+        long position = entry.offset();
+        while (buffer.hasRemaining()) {
+            if (io(segment, channel -> channel.read(buffer, position + buffer.position())) < 0) {
+                throw new IOException("Unexpected end of chat log segment " + segment.path);
+            }
+        }
+        buffer.flip();
+        buffer.position(RECORD_HEADER_BYTES);
+        return decode(buffer.slice());
+    }
+
+    /**
+     * Rebuilds the index from the segment files. Records are ordered by sequence number, and a
+     * tombstone hides all earlier records of its conversation.
+     */
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(this.directory)) {
+            files = list.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                    && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                .sorted()
+                .toList();
+        }
+
+        long maxSequence = -1;
+        int records = 0;
+        int skipped = 0;
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            boolean last = i == files.size() - 1;
+            String name = file.getFileName().toString();
+            long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = openSegment(id);
+            this.segments.put(id, segment);
+
+            ByteBuffer contents = ByteBuffer.allocate((int) segment.size);
+            segment.channel.read(contents, 0);
+            contents.flip();
+            int valid = 0;
+            while (contents.remaining() >= RECORD_HEADER_BYTES) {
+                int start = contents.position();
+                int length = contents.getInt();
+                int checksum = contents.getInt();
+                if (length < 0 || length > contents.remaining()) {
+                    break;
+                }
+                ByteBuffer payload = contents.slice(contents.position(), length);
+                contents.position(contents.position() + length);
+                if (crc(payload) != checksum) {
+                    if (last) {
+                        break;
+                    }
+                    // Sealed segments were fully written, so this is a corrupt record, not a torn one
+                    logger.warn("Skipping corrupt record at offset {} of chat log segment {}", start, file);
+                    skipped++;
+                    valid = contents.position();
+                    continue;
+                }
+                Record record = decode(payload);
+                Conversation conversation = this.conversations.computeIfAbsent(record.conversationId(), key -> new Conversation());
+                if (record.kind() == KIND_CLEAR) {
+                    conversation.clearedBefore = Math.max(conversation.clearedBefore, record.sequence());
+                } else {
+                    insertInOrder(conversation.entries,
+                        new Entry(id, start, RECORD_HEADER_BYTES + length, record.sequence()));
+                    conversation.lastWrite = Math.max(conversation.lastWrite, record.timestamp());
+                }
+                maxSequence = Math.max(maxSequence, record.sequence());
+                valid = contents.position();
+                records++;
+            }
+            if (valid < segment.size) {
+                if (last) {
+                    logger.warn("Truncating torn chat log segment {} from {} to {} bytes", file, segment.size, valid);
+                    segment.channel.truncate(valid);
+                    segment.size = valid;
+                } else {
+                    // Without a valid length the rest cannot be framed, but it is kept for inspection
+                    logger.error("Could not read chat log segment {} past offset {} of {} bytes", file, valid,
+                        segment.size);
+                }
+            }
+        }
+
+        long expiredBefore = this.clock.millis() - this.retention.toMillis();
+        var iterator = this.conversations.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Conversation conversation = iterator.next().getValue();
+            long clearedBefore = conversation.clearedBefore;
+            conversation.entries.removeIf(entry -> entry.sequence() < clearedBefore);
+            if (conversation.entries.isEmpty() || conversation.lastWrite < expiredBefore) {
+                iterator.remove();
+                continue;
+            }
+            int excess = conversation.entries.size() - this.maxMessagesPerConversation;
+            if (excess > 0) {
+                conversation.entries.subList(0, excess).clear();
+            }
+            for (Entry entry : conversation.entries) {
+                this.segments.get(entry.segmentId()).liveBytes.addAndGet(entry.length());
+            }
+        }
+        this.nextSequence.set(maxSequence + 1);
+
+        if (this.segments.isEmpty()) {
+            this.segments.put(0L, openSegment(0));
+        }
+        this.active = this.segments.lastEntry().getValue();
+        logger.info("Recovered {} conversations from {} records in {} chat log segments, skipping {} corrupt records",
+            this.conversations.size(), records, this.segments.size(), skipped);
+    }
+
+    /**
+     * Runs an I/O operation on the channel of a segment. Interrupting a thread during channel I/O
+     * closes the channel for every thread, and chat memory is routinely called from threads that are
+     * interrupted when an answer is cancelled. The interrupted caller fails, other callers go on with
+     * a reopened channel.
+     */
+    private static <T> T io(Segment segment, ChannelOperation<T> operation) throws IOException {
+        FileChannel channel = segment.channel;
+        while (true) {
+            try {
+                return operation.apply(channel);
+            } catch (ClosedChannelException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                channel = segment.reopen(channel);
+            }
+        }
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        Path path = this.directory.resolve("%s%016d%s".formatted(SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        return new Segment(id, path, channel, channel.size());
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            this.dirty = true;
+            logger.warn("Could not flush chat log", e);
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Chat log compaction failed", e);
+        }
+    }
+
+    private static void insertInOrder(List<Entry> entries, Entry entry) {
+        int index = entries.size();
+        while (index > 0 && entries.get(index - 1).sequence() > entry.sequence()) {
+            index--;
+        }
+        entries.add(index, entry);
+    }
+
+    private static ByteBuffer encode(Record record) {
+        byte[] id = record.conversationId().getBytes(StandardCharsets.UTF_8);
+        byte[] text = record.text().getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 8 + 8 + 2 + id.length + 1 + 4 + text.length;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + length);
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.put(record.kind());
+        buffer.putLong(record.sequence());
+        buffer.putLong(record.timestamp());
+        buffer.putShort((short) id.length);
+        buffer.put(id);
+        buffer.put(switch (record.type()) {
+            case USER -> (byte) 'U';
+            case ASSISTANT -> (byte) 'A';
+            default -> (byte) 'S';
+        });
+        buffer.putInt(text.length);
+        buffer.put(text);
+        buffer.putInt(4, crc(buffer.slice(RECORD_HEADER_BYTES, length)));
+        return buffer.flip();
+    }
+
+    private static Record decode(ByteBuffer payload) {
+        byte kind = payload.get();
+        long sequence = payload.getLong();
+        long timestamp = payload.getLong();
+        byte[] id = new byte[payload.getShort() & 0xFFFF];
+        payload.get(id);
+        MessageType type = switch (payload.get()) {
+            case 'U' -> MessageType.USER;
+            case 'A' -> MessageType.ASSISTANT;
+            default -> MessageType.SYSTEM;
+        };
+        byte[] text = new byte[payload.getInt()];
+        payload.get(text);
+        return new Record(kind, sequence, timestamp, new String(id, StandardCharsets.UTF_8), type,
+            new String(text, StandardCharsets.UTF_8));
+    }
+
+    private static int crc(ByteBuffer payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+}
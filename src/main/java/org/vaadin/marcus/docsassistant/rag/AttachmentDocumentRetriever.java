@@ -0,0 +1,104 @@
+package org.vaadin.marcus.docsassistant.rag;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.util.Assert;
+import org.vaadin.marcus.docsassistant.attachments.ChatAttachments;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link DocumentRetriever} that retrieves from the attachments of a chat as well as from the docs.
+ *
+ * <p>The docs are retrieved on the executor while the attachments are searched on the calling
+ * thread. The query is embedded first, so that the docs retriever finds its embedding in the
+ * embedding cache instead of requesting it a second time.
+ *
+ * <p>The scores of the two retrievers are not comparable, so the results are interleaved by rank,
+ * attachments first, and scored {@code 1 / (k + rank)} like in reciprocal-rank fusion.
+ *
+ * <p>The attachment search is timed as {@code docs.assistant.rag.retrieval} with a {@code stage} tag
+ * of {@code attachments}, plus any extra tags.
+ */
+public class AttachmentDocumentRetriever implements DocumentRetriever {
+
+    private static final int RRF_K = 60;
+
+    private final DocumentRetriever docsRetriever;
+    private final ChatAttachments attachments;
+    private final String chatId;
+    private final EmbeddingModel embeddingModel;
+    private final Executor executor;
+    private final Timer attachmentsTimer;
+
+    /**
+     * Creates a new AttachmentDocumentRetriever.
+     *
+     * @param docsRetriever  the retriever of the docs
+     * @param attachments    the attachments to search
+     * @param chatId         the chat whose attachments are searched
+     * @param embeddingModel embeds the query, the same model the docs retriever embeds it with
+     * @param executor       runs the docs retriever while the attachments are searched
+     * @param tags           extra tags of the attachment search timing
+     * @param meterRegistry  the registry to publish the attachment search timing to
+     */
+    public AttachmentDocumentRetriever(DocumentRetriever docsRetriever, ChatAttachments attachments, String chatId,
+                                       EmbeddingModel embeddingModel, Executor executor, Tags tags,
+                                       MeterRegistry meterRegistry) {
+        Assert.notNull(docsRetriever, "Docs retriever must not be null!");
+        Assert.notNull(attachments, "Attachments must not be null!");
+        Assert.hasText(chatId, "Chat id must not be empty!");
+        Assert.notNull(embeddingModel, "EmbeddingModel must not be null!");
+        Assert.notNull(executor, "Executor must not be null!");
+        Assert.notNull(tags, "Tags must not be null!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.docsRetriever = docsRetriever;
+        this.attachments = attachments;
+        this.chatId = chatId;
+        this.embeddingModel = embeddingModel;
+        this.executor = executor;
+        this.attachmentsTimer = Timer.builder(HybridDocumentRetriever.TIMER_NAME)
+            .description("Time spent on document retrieval")
+            .tags(tags)
+            .tag("stage", "attachments")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        Assert.notNull(query, "Query must not be null!");
+        float[] embedding = this.embeddingModel.embed(query.text());
+
+        CompletableFuture<List<Document>> docs = CompletableFuture.supplyAsync(
+            () -> this.docsRetriever.retrieve(query), this.executor);
+        List<Document> attached = this.attachmentsTimer.record(() -> this.attachments.search(this.chatId, embedding));
+        try {
+            return interleave(attached, docs.join());
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    private static List<Document> interleave(List<Document> attached, List<Document> docs) {
+        List<Document> interleaved = new ArrayList<>(attached.size() + docs.size());
+        for (int rank = 0; rank < Math.max(attached.size(), docs.size()); rank++) {
+            for (List<Document> ranked : List.of(attached, docs)) {
+                if (rank < ranked.size()) {
+                    interleaved.add(ranked.get(rank).mutate().score(1.0 / (RRF_K + rank + 1)).build());
+                }
+            }
+        }
+        return interleaved;
+    }
+}
@@ -0,0 +1,102 @@
+package org.vaadin.marcus.docsassistant.rag;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.postretrieval.ranking.DocumentRanker;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link DocumentRanker} that asks a chat model to order the candidates by relevance in a single
+ * listwise call.
+ *
+ * <p>Each candidate is shown to the model as a numbered excerpt. Candidates the model leaves out keep
+ * their original order after the ones it ranked, so a partial or malformed answer degrades to the
+ * fused order instead of losing documents.
+ */
+public class ChatModelDocumentRanker implements DocumentRanker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatModelDocumentRanker.class);
+
+    private static final Pattern NUMBER = Pattern.compile("\\d+");
+
+    private static final String RANK_PROMPT = """
+        Rank the numbered documentation excerpts below by how useful they are for answering the
+        query. Reply with the numbers of the excerpts, most useful first, separated by commas.
+        Leave out excerpts that do not help answer the query. Reply with the numbers only.
+
+        Query:
+        {query}
+
+        Excerpts:
+        {excerpts}
+        """;
+
+    private final ChatClient chatClient;
+    private final int maxExcerptLength;
+
+    /**
+     * Creates a new ChatModelDocumentRanker.
+     *
+     * @param chatClientBuilder the builder for the client used to rank documents
+     * @param maxExcerptLength  the number of characters of each document shown to the model
+     */
+    public ChatModelDocumentRanker(ChatClient.Builder chatClientBuilder, int maxExcerptLength) {
+        Assert.notNull(chatClientBuilder, "ChatClient.Builder must not be null!");
+        Assert.isTrue(maxExcerptLength > 0, "Max excerpt length must be positive!");
+        this.chatClient = chatClientBuilder.build();
+        this.maxExcerptLength = maxExcerptLength;
+    }
+
+    @Override
+    public List<Document> rank(Query query, List<Document> documents) {
+        StringBuilder excerpts = new StringBuilder();
+        for (int i = 0; i < documents.size(); i++) {
+            String text = documents.get(i).getText() == null ? "" : documents.get(i).getText();
+            excerpts.append('[').append(i + 1).append("] ")
+                .append(text.substring(0, Math.min(text.length(), this.maxExcerptLength)).replace('\n', ' '))
+                .append('\n');
+        }
+
+        String answer;
+        try {
+            answer = this.chatClient.prompt()
+                .user(user -> user.text(RANK_PROMPT)
+                    .param("query", query.text())
+                    .param("excerpts", excerpts.toString()))
+                .options(ChatOptions.builder().temperature(0.0).build())
+                .call()
+                .content();
+        } catch (RuntimeException e) {
+            logger.warn("Could not rerank documents, keeping the fused order", e);
+            return documents;
+        }
+
+        Set<Integer> order = new LinkedHashSet<>();
+        Matcher matcher = NUMBER.matcher(answer == null ? "" : answer);
+        while (matcher.find()) {
+            int index = Integer.parseInt(matcher.group()) - 1;
+            if (index >= 0 && index < documents.size()) {
+                order.add(index);
+            }
+        }
+        List<Document> ranked = new ArrayList<>(documents.size());
+        order.forEach(index -> ranked.add(documents.get(index)));
+        for (int i = 0; i < documents.size(); i++) {
+            if (!order.contains(i)) {
+                ranked.add(documents.get(i));
+            }
+        }
+        return ranked;
+    }
+}
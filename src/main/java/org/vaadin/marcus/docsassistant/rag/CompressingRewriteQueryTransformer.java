@@ -0,0 +1,221 @@
+package org.vaadin.marcus.docsassistant.rag;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.preretrieval.query.transformation.QueryTransformer;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A {@link QueryTransformer} that turns a follow-up query into a standalone, search-optimized query
+ * with at most one model call.
+ *
+ * <p>On the first turn there is no history to compress, so the query is only rewritten. With history,
+ * compression and rewriting are done by the same prompt instead of two chained transformers. Results
+ * can be memoized, so repeated questions with the same history skip the model entirely.
+ *
+ * <p>Each transformation is timed as {@code docs.assistant.rag.query.transformation} with a
+ * {@code mode} tag of {@code single-call} and a {@code stage} tag of {@code rewrite},
+ * {@code compress-rewrite} or {@code memoized}. The chained transformers are timed under the same
+ * name by {@link TimedQueryTransformer}.
+ */
+public class CompressingRewriteQueryTransformer implements QueryTransformer {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompressingRewriteQueryTransformer.class);
+
+    static final String TIMER_NAME = "docs.assistant.rag.query.transformation";
+
+    private static final String REWRITE_PROMPT = """
+        Given a user query, rewrite it to provide better results when querying a {target}.
+        Remove any irrelevant information, and ensure the query is concise and specific.
+
+        Original query:
+        {query}
+
+        Rewritten query:
+        """;
+
+    private static final String COMPRESS_AND_REWRITE_PROMPT = """
+        Given the following conversation history and a follow-up query, rewrite the follow-up
+        into a standalone query that provides good results when querying a {target}.
+        Incorporate the context from the history that the follow-up depends on, remove any
+        irrelevant information, and ensure the query is concise, specific and keeps the user's intent.
+
+        Conversation history:
+        {history}
+
+        Follow-up query:
+        {query}
+
+        Standalone query:
+        """;
+
+    private record CacheKey(String history, String query) {
+    }
+
+    private final ChatClient chatClient;
+    private final String targetSearchSystem;
+    private final Cache<CacheKey, String> rewrites;
+
+    private final Timer rewriteTimer;
+    private final Timer compressRewriteTimer;
+    private final Timer memoizedTimer;
+
+    /**
+     * Creates a new CompressingRewriteQueryTransformer.
+     *
+     * @param chatClientBuilder  the builder for the client used to transform queries
+     * @param targetSearchSystem the kind of system the transformed query is optimized for
+     * @param maximumSize        the maximum number of memoized transformations, 0 to disable memoization
+     * @param timeToLive         how long a memoized transformation is reused
+     * @param meterRegistry      the registry to publish timings to
+     */
+    public CompressingRewriteQueryTransformer(ChatClient.Builder chatClientBuilder, String targetSearchSystem,
+                                              long maximumSize, Duration timeToLive, MeterRegistry meterRegistry) {
+        Assert.notNull(chatClientBuilder, "ChatClient.Builder must not be null!");
+        Assert.hasText(targetSearchSystem, "Target search system must not be empty!");
+        Assert.isTrue(maximumSize >= 0, "Maximum size must not be negative!");
+        Assert.notNull(timeToLive, "Time to live must not be null!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.chatClient = chatClientBuilder.build();
+        this.targetSearchSystem = targetSearchSystem;
+        this.rewrites = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive)
+            .recordStats()
+            .build();
+
+        this.rewriteTimer = timer(meterRegistry, "rewrite");
+        this.compressRewriteTimer = timer(meterRegistry, "compress-rewrite");
+        this.memoizedTimer = timer(meterRegistry, "memoized");
+        CaffeineCacheMetrics.monitor(meterRegistry, this.rewrites, "docs.assistant.rag.query.rewrites");
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public Query transform(Query query) {
+        Assert.notNull(query, "query cannot be null");
+
+        long start = System.nanoTime();
+        String history = formatConversationHistory(query.history());
+        var key = new CacheKey(history, query.text().strip());
+
+        String memoized = this.rewrites.getIfPresent(key);
+        if (memoized != null) {
+            this.memoizedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return query.mutate().text(memoized).build();
+        }
+
+        String transformed;
+        if (history.isEmpty()) {
+            logger.debug("Rewriting query to optimize for querying a {}", this.targetSearchSystem);
+            transformed = this.chatClient.prompt()
+                .user(user -> user.text(REWRITE_PROMPT)
+                    .param("target", this.targetSearchSystem)
+                    .param("query", query.text()))
+                .options(ChatOptions.builder().temperature(0.0).build())
+                .call()
+                .content();
+            this.rewriteTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        } else {
+            logger.debug("Compressing history and rewriting follow-up query in a single call");
+            transformed = this.chatClient.prompt()
+                .user(user -> user.text(COMPRESS_AND_REWRITE_PROMPT)
+                    .param("target", this.targetSearchSystem)
+                    .param("history", history)
+                    .param("query", query.text()))
+                .options(ChatOptions.builder().temperature(0.0).build())
+                .call()
+                .content();
+            this.compressRewriteTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        if (!StringUtils.hasText(transformed)) {
+            logger.warn("Query transformation result is null/empty. Returning the input query unchanged.");
+            return query;
+        }
+
+        transformed = transformed.strip();
+        this.rewrites.put(key, transformed);
+        return query.mutate().text(transformed).build();
+    }
+
+    private static String formatConversationHistory(List<Message> history) {
+        return history.stream()
+            .filter(message -> message.getMessageType() == MessageType.USER
+                || message.getMessageType() == MessageType.ASSISTANT)
+            .map(message -> "%s: %s".formatted(message.getMessageType(), message.getText()))
+            .collect(Collectors.joining("\n"));
+    }
+
+    private static Timer timer(MeterRegistry meterRegistry, String stage) {
+        return Timer.builder(TIMER_NAME)
+            .tag("mode", "single-call")
+            .tag("stage", stage)
+            .register(meterRegistry);
+    }
+
+    /**
+     * Builder for creating CompressingRewriteQueryTransformer instances.
+     */
+    public static final class Builder {
+        private ChatClient.Builder chatClientBuilder;
+        private String targetSearchSystem = "vector store";
+        private long maximumSize = 1000;
+        private Duration timeToLive = Duration.ofHours(1);
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Builder() {
+        }
+
+        public Builder chatClientBuilder(ChatClient.Builder chatClientBuilder) {
+            this.chatClientBuilder = chatClientBuilder;
+            return this;
+        }
+
+        public Builder targetSearchSystem(String targetSearchSystem) {
+            this.targetSearchSystem = targetSearchSystem;
+            return this;
+        }
+
+        public Builder maximumSize(long maximumSize) {
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        public Builder timeToLive(Duration timeToLive) {
+            this.timeToLive = timeToLive;
+            return this;
+        }
+
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public CompressingRewriteQueryTransformer build() {
+            return new CompressingRewriteQueryTransformer(this.chatClientBuilder, this.targetSearchSystem,
+                this.maximumSize, this.timeToLive, this.meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package org.vaadin.marcus.docsassistant.rag;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.join.DocumentJoiner;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link DocumentJoiner} that packs the retrieved documents into a compact context.
+ *
+ * <p>Documents retrieved for all queries are joined and deduplicated by id, then in three steps:
+ * <ol>
+ * <li>near-duplicates are dropped, keeping the higher-scoring one. Similarity is the Jaccard
+ * similarity of word shingles, estimated with MinHash signatures;</li>
+ * <li>chunks from the same source are merged into one document in the order they were retrieved,
+ * and text a chunk repeats from the end of the previous one is left out;</li>
+ * <li>the merged documents are added best-first while their estimated tokens fit the budget.</li>
+ * </ol>
+ *
+ * <p>The estimated tokens before and after packing are recorded as
+ * {@code docs.assistant.rag.context.tokens} with a {@code stage} tag of {@code input} or
+ * {@code output}, and dropped duplicates are counted as {@code docs.assistant.rag.context.duplicates}.
+ */
+public class ContextPackingDocumentJoiner implements DocumentJoiner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContextPackingDocumentJoiner.class);
+
+    private static final Pattern WORD = Pattern.compile("[^\\p{L}\\p{N}_@.$]+");
+    private static final int SHINGLE_SIZE = 5;
+    private static final int SIGNATURE_SIZE = 64;
+    private static final int MIN_OVERLAP_CHARS = 20;
+
+    private record Candidate(Document document, double score, int rank, long[] signature) {
+    }
+
+    private final int tokenBudget;
+    private final double duplicateThreshold;
+    private final String sourceKey;
+    private final TokenCountEstimator tokenCountEstimator;
+
+    private final DistributionSummary inputTokens;
+    private final DistributionSummary outputTokens;
+    private final Counter duplicates;
+
+    /**
+     * Creates a new ContextPackingDocumentJoiner.
+     *
+     * @param tokenBudget        the maximum estimated number of context tokens
+     * @param duplicateThreshold the estimated shingle similarity at or above which chunks are duplicates
+     * @param sourceKey          the metadata key identifying the page a chunk was cut from
+     * @param meterRegistry      the registry to publish token counts to
+     */
+    public ContextPackingDocumentJoiner(int tokenBudget, double duplicateThreshold, String sourceKey,
+                                        MeterRegistry meterRegistry) {
+        Assert.isTrue(tokenBudget > 0, "Token budget must be positive!");
+        Assert.isTrue(duplicateThreshold > 0 && duplicateThreshold <= 1, "Duplicate threshold must be in (0, 1]!");
+        Assert.hasText(sourceKey, "Source key must not be empty!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.tokenBudget = tokenBudget;
+        this.duplicateThreshold = duplicateThreshold;
+        this.sourceKey = sourceKey;
+        this.tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+        this.inputTokens = DistributionSummary.builder("docs.assistant.rag.context.tokens")
+            .description("Estimated tokens of the retrieved documents before and after context packing")
+            .baseUnit("tokens")
+            .tag("stage", "input")
+            .register(meterRegistry);
+        this.outputTokens = DistributionSummary.builder("docs.assistant.rag.context.tokens")
+            .description("Estimated tokens of the retrieved documents before and after context packing")
+            .baseUnit("tokens")
+            .tag("stage", "output")
+            .register(meterRegistry);
+        this.duplicates = Counter.builder("docs.assistant.rag.context.duplicates")
+            .description("Retrieved chunks dropped as near-duplicates of higher-scoring chunks")
+            .register(meterRegistry);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public List<Document> join(Map<Query, List<List<Document>>> documentsForQuery) {
+        Assert.notNull(documentsForQuery, "Documents for query must not be null!");
+
+        // Join all result lists, keeping the first occurrence of each id
+        Map<String, Document> joined = new LinkedHashMap<>();
+        documentsForQuery.values().stream()
+            .flatMap(List::stream)
+            .flatMap(List::stream)
+            .forEach(document -> joined.putIfAbsent(document.getId(), document));
+        if (joined.isEmpty()) {
+            return List.of();
+        }
+
+        int input = 0;
+        List<Candidate> candidates = new ArrayList<>(joined.size());
+        for (Document document : joined.values()) {
+            input += estimate(document.getText());
+            candidates.add(new Candidate(document, document.getScore() != null ? document.getScore() : 0,
+                candidates.size(), signature(document.getText())));
+        }
+
+        List<Candidate> unique = deduplicate(candidates);
+        List<Document> packed = pack(merge(unique));
+
+        int output = packed.stream().mapToInt(document -> estimate(document.getText())).sum();
+        this.inputTokens.record(input);
+        this.outputTokens.record(output);
+        logger.debug("Packed {} documents ({} tokens) into {} documents ({} tokens)",
+            joined.size(), input, packed.size(), output);
+        return packed;
+    }
+
+    private List<Candidate> deduplicate(List<Candidate> candidates) {
+        List<Candidate> byScore = new ArrayList<>(candidates);
+        byScore.sort(Comparator.comparingDouble(Candidate::score).reversed().thenComparingInt(Candidate::rank));
+        List<Candidate> kept = new ArrayList<>(byScore.size());
+        for (Candidate candidate : byScore) {
+            boolean duplicate = kept.stream()
+                .anyMatch(other -> similarity(candidate.signature(), other.signature()) >= this.duplicateThreshold);
+            if (duplicate) {
+                this.duplicates.increment();
+            } else {
+                kept.add(candidate);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Merges chunks from the same source into one document, ordered by their retrieval rank, which
+     * keeps chunks of a page in the order the retriever found them. The merged document takes the
+     * best score of its chunks.
+     */
+    private List<Candidate> merge(List<Candidate> candidates) {
+        Map<Object, List<Candidate>> bySource = new LinkedHashMap<>();
+        for (Candidate candidate : candidates) {
+            Object source = candidate.document().getMetadata().get(this.sourceKey);
+            bySource.computeIfAbsent(source != null ? source : candidate.document().getId(), key -> new ArrayList<>())
+                .add(candidate);
+        }
+
+        List<Candidate> merged = new ArrayList<>(bySource.size());
+        for (List<Candidate> group : bySource.values()) {
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            group.sort(Comparator.comparingInt(Candidate::rank));
+            StringBuilder text = new StringBuilder(Objects.requireNonNullElse(group.get(0).document().getText(), ""));
+            double score = group.get(0).score();
+            for (Candidate chunk : group.subList(1, group.size())) {
+                String next = Objects.requireNonNullElse(chunk.document().getText(), "");
+                int overlap = overlap(text, next);
+                text.append(overlap > 0 ? "" : "\n\n").append(next, overlap, next.length());
+                score = Math.max(score, chunk.score());
+            }
+            Document first = group.get(0).document();
+            merged.add(new Candidate(Document.builder()
+                .id(first.getId())
+                .text(text.toString())
+                .metadata(first.getMetadata())
+                .score(score)
+                .build(), score, group.get(0).rank(), group.get(0).signature()));
+        }
+        merged.sort(Comparator.comparingDouble(Candidate::score).reversed().thenComparingInt(Candidate::rank));
+        return merged;
+    }
+
+    private List<Document> pack(List<Candidate> candidates) {
+        List<Document> packed = new ArrayList<>(candidates.size());
+        int used = 0;
+        for (Candidate candidate : candidates) {
+            int tokens = estimate(candidate.document().getText());
+            // Skip a document that does not fit, a smaller one further down may still fit
+            if (used + tokens <= this.tokenBudget) {
+                packed.add(candidate.document());
+                used += tokens;
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Returns the length of the longest prefix of {@code next} that {@code text} ends with, if it is
+     * long enough not to be a coincidence.
+     */
+    private static int overlap(CharSequence text, String next) {
+        String previous = text.toString();
+        int max = Math.min(previous.length(), next.length());
+        for (int length = max; length >= MIN_OVERLAP_CHARS; length--) {
+            if (previous.regionMatches(previous.length() - length, next, 0, length)) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    private int estimate(String text) {
+        return text == null || text.isEmpty() ? 0 : this.tokenCountEstimator.estimate(text);
+    }
+
+    /**
+     * Computes a MinHash signature of the word shingles of a text: for each of the hash functions,
+     * the minimum hash over all shingles.
+     */
+    static long[] signature(String text) {
+        long[] signature = new long[SIGNATURE_SIZE];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        String[] words = WORD.split(text == null ? "" : text.toLowerCase(Locale.ROOT).strip());
+        int shingles = Math.max(1, words.length - SHINGLE_SIZE + 1);
+        for (int i = 0; i < shingles; i++) {
+            long shingle = 0x9e3779b97f4a7c15L;
+            for (int j = i; j < Math.min(words.length, i + SHINGLE_SIZE); j++) {
+                shingle = mix(shingle ^ words[j].hashCode());
+            }
+            for (int k = 0; k < SIGNATURE_SIZE; k++) {
+                long hash = mix(shingle + k * 0xbf58476d1ce4e5b9L);
+                if (hash < signature[k]) {
+                    signature[k] = hash;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Estimates the Jaccard similarity of two shingle sets as the share of matching MinHash values.
+     */
+    static double similarity(long[] a, long[] b) {
+        int matches = 0;
+        for (int k = 0; k < SIGNATURE_SIZE; k++) {
+            if (a[k] == b[k]) {
+                matches++;
+            }
+        }
+        return (double) matches / SIGNATURE_SIZE;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Builder for creating ContextPackingDocumentJoiner instances.
+     */
+    public static final class Builder {
+        private int tokenBudget = 3000;
+        private double duplicateThreshold = 0.8;
+        private String sourceKey = "source";
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Builder() {
+        }
+
+        public Builder tokenBudget(int tokenBudget) {
+            this.tokenBudget = tokenBudget;
+            return this;
+        }
+
+        public Builder duplicateThreshold(double duplicateThreshold) {
+            this.duplicateThreshold = duplicateThreshold;
+            return this;
+        }
+
+        public Builder sourceKey(String sourceKey) {
+            this.sourceKey = sourceKey;
+            return this;
+        }
+
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public ContextPackingDocumentJoiner build() {
+            return new ContextPackingDocumentJoiner(this.tokenBudget, this.duplicateThreshold, this.sourceKey,
+                this.meterRegistry);
+        }
+    }
+}
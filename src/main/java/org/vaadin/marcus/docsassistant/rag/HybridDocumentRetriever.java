@@ -0,0 +1,219 @@
+package org.vaadin.marcus.docsassistant.rag;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.postretrieval.ranking.DocumentRanker;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A {@link DocumentRetriever} that combines dense vector retrieval with lexical retrieval, so exact
+ * API names such as {@code setItems} or {@code @BrowserCallable} are found even when their
+ * embeddings are not close to the query.
+ *
+ * <p>Both retrievers run in parallel and their results are fused with reciprocal-rank fusion: a
+ * document scores {@code 1 / (k + rank)} in each list it appears in. An optional
+ * {@link DocumentRanker} then reorders the fused candidates before they are cut down to
+ * {@code topK}.
+ *
+ * <p>Each stage is timed as {@code docs.assistant.rag.retrieval} with a {@code stage} tag of
+ * {@code vector}, {@code lexical}, {@code rerank} or {@code total}, plus any extra tags such as the
+ * framework the retriever filters on.
+ */
+public class HybridDocumentRetriever implements DocumentRetriever {
+
+    static final String TIMER_NAME = "docs.assistant.rag.retrieval";
+
+    private final DocumentRetriever vectorRetriever;
+    private final DocumentRetriever lexicalRetriever;
+    private final int rrfK;
+    private final int topK;
+    @Nullable
+    private final DocumentRanker documentRanker;
+    private final Executor executor;
+
+    private final Timer vectorTimer;
+    private final Timer lexicalTimer;
+    private final Timer rerankTimer;
+    private final Timer totalTimer;
+
+    /**
+     * Creates a new HybridDocumentRetriever.
+     *
+     * @param vectorRetriever  the dense retriever
+     * @param lexicalRetriever the lexical retriever
+     * @param rrfK             the rank offset of reciprocal-rank fusion, higher values flatten the rank weights
+     * @param topK             the number of documents returned
+     * @param documentRanker   reorders the fused candidates, or null to keep the fused order
+     * @param executor         runs the lexical retriever while the vector retriever runs on the calling thread
+     * @param tags             extra tags of the stage timings
+     * @param meterRegistry    the registry to publish stage timings to
+     */
+    public HybridDocumentRetriever(DocumentRetriever vectorRetriever, DocumentRetriever lexicalRetriever, int rrfK,
+                                   int topK, @Nullable DocumentRanker documentRanker, Executor executor,
+                                   Tags tags, MeterRegistry meterRegistry) {
+        Assert.notNull(vectorRetriever, "Vector retriever must not be null!");
+        Assert.notNull(lexicalRetriever, "Lexical retriever must not be null!");
+        Assert.isTrue(rrfK >= 0, "RRF k must not be negative!");
+        Assert.isTrue(topK > 0, "TopK must be positive!");
+        Assert.notNull(executor, "Executor must not be null!");
+        Assert.notNull(tags, "Tags must not be null!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.vectorRetriever = vectorRetriever;
+        this.lexicalRetriever = lexicalRetriever;
+        this.rrfK = rrfK;
+        this.topK = topK;
+        this.documentRanker = documentRanker;
+        this.executor = executor;
+
+        this.vectorTimer = timer("vector", tags, meterRegistry);
+        this.lexicalTimer = timer("lexical", tags, meterRegistry);
+        this.rerankTimer = timer("rerank", tags, meterRegistry);
+        this.totalTimer = timer("total", tags, meterRegistry);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        Assert.notNull(query, "Query must not be null!");
+        return this.totalTimer.record(() -> {
+            // The lexical index is in process, so it is cheap to fork; the vector retriever stays on
+            // the calling thread, which the RAG advisor already runs on its own executor
+            CompletableFuture<List<Document>> lexical = CompletableFuture.supplyAsync(
+                () -> this.lexicalTimer.record(() -> this.lexicalRetriever.retrieve(query)), this.executor);
+            List<Document> vector = this.vectorTimer.record(() -> this.vectorRetriever.retrieve(query));
+
+            List<Document> candidates;
+            try {
+                candidates = fuse(vector, lexical.join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+
+            if (this.documentRanker != null && candidates.size() > 1) {
+                List<Document> fused = candidates;
+                candidates = this.rerankTimer.record(() -> this.documentRanker.rank(query, fused));
+            }
+            return candidates.size() > this.topK ? List.copyOf(candidates.subList(0, this.topK)) : candidates;
+        });
+    }
+
+    /**
+     * Fuses ranked lists with reciprocal-rank fusion. The fused score replaces the document score.
+     */
+    List<Document> fuse(List<Document> vector, List<Document> lexical) {
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (List<Document> ranked : List.of(vector, lexical)) {
+            for (int rank = 0; rank < ranked.size(); rank++) {
+                Document document = ranked.get(rank);
+                documents.putIfAbsent(document.getId(), document);
+                scores.merge(document.getId(), 1.0 / (this.rrfK + rank + 1), Double::sum);
+            }
+        }
+
+        List<Document> fused = new ArrayList<>(documents.size());
+        scores.entrySet().stream()
+            .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+            .forEach(entry -> {
+                Document document = documents.get(entry.getKey());
+                fused.add(Document.builder()
+                    .id(document.getId())
+                    .text(document.getText())
+                    .metadata(document.getMetadata())
+                    .score(entry.getValue())
+                    .build());
+            });
+        return fused;
+    }
+
+    private static Timer timer(String stage, Tags tags, MeterRegistry meterRegistry) {
+        return Timer.builder(TIMER_NAME)
+            .description("Time spent on document retrieval")
+            .tags(tags)
+            .tag("stage", stage)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    /**
+     * Builder for creating HybridDocumentRetriever instances.
+     */
+    public static final class Builder {
+        private DocumentRetriever vectorRetriever;
+        private DocumentRetriever lexicalRetriever;
+        private int rrfK = 60;
+        private int topK = 10;
+        @Nullable
+        private DocumentRanker documentRanker;
+        private Executor executor = ForkJoinPool.commonPool();
+        private Tags tags = Tags.empty();
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Builder() {
+        }
+
+        public Builder vectorRetriever(DocumentRetriever vectorRetriever) {
+            this.vectorRetriever = vectorRetriever;
+            return this;
+        }
+
+        public Builder lexicalRetriever(DocumentRetriever lexicalRetriever) {
+            this.lexicalRetriever = lexicalRetriever;
+            return this;
+        }
+
+        public Builder rrfK(int rrfK) {
+            this.rrfK = rrfK;
+            return this;
+        }
+
+        public Builder topK(int topK) {
+            this.topK = topK;
+            return this;
+        }
+
+        public Builder documentRanker(@Nullable DocumentRanker documentRanker) {
+            this.documentRanker = documentRanker;
+            return this;
+        }
+
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder tags(Tags tags) {
+            this.tags = tags;
+            return this;
+        }
+
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public HybridDocumentRetriever build() {
+            return new HybridDocumentRetriever(this.vectorRetriever, this.lexicalRetriever, this.rrfK, this.topK,
+                this.documentRanker, this.executor, this.tags, this.meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.vaadin.marcus.docsassistant.rag;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.util.Assert;
+
+import java.util.List;
+
+/**
+ * A {@link DocumentRetriever} decorator that times each retrieval under the same name as the
+ * stages of {@link HybridDocumentRetriever}, so vector-only retrieval can be compared with it.
+ */
+public class TimedDocumentRetriever implements DocumentRetriever {
+
+    private final DocumentRetriever delegate;
+    private final Timer timer;
+
+    /**
+     * Creates a new TimedDocumentRetriever.
+     *
+     * @param delegate      the retriever to time
+     * @param stage         the stage tag to record timings under
+     * @param tags          extra tags of the timings
+     * @param meterRegistry the registry to publish timings to
+     */
+    public TimedDocumentRetriever(DocumentRetriever delegate, String stage, Tags tags, MeterRegistry meterRegistry) {
+        Assert.notNull(delegate, "Delegate must not be null!");
+        Assert.hasText(stage, "Stage must not be empty!");
+        Assert.notNull(tags, "Tags must not be null!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.delegate = delegate;
+        this.timer = Timer.builder(HybridDocumentRetriever.TIMER_NAME)
+            .description("Time spent on document retrieval")
+            .tags(tags)
+            .tag("stage", stage)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        return this.timer.record(() -> this.delegate.retrieve(query));
+    }
+}
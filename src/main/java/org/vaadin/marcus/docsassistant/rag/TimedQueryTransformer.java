@@ -0,0 +1,41 @@
+package org.vaadin.marcus.docsassistant.rag;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.preretrieval.query.transformation.QueryTransformer;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link QueryTransformer} decorator that times each transformation of the chained query
+ * transformers, so they can be compared with {@link CompressingRewriteQueryTransformer}.
+ */
+public class TimedQueryTransformer implements QueryTransformer {
+
+    private final QueryTransformer delegate;
+    private final Timer timer;
+
+    /**
+     * Creates a new TimedQueryTransformer.
+     *
+     * @param delegate      the transformer to time
+     * @param stage         the stage tag to record timings under
+     * @param meterRegistry the registry to publish timings to
+     */
+    public TimedQueryTransformer(QueryTransformer delegate, String stage, MeterRegistry meterRegistry) {
+        Assert.notNull(delegate, "Delegate must not be null!");
+        Assert.hasText(stage, "Stage must not be empty!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.delegate = delegate;
+        this.timer = Timer.builder(CompressingRewriteQueryTransformer.TIMER_NAME)
+            .tag("mode", "chained")
+            .tag("stage", stage)
+            .register(meterRegistry);
+    }
+
+    @Override
+    public Query transform(Query query) {
+        return this.timer.record(() -> this.delegate.transform(query));
+    }
+}
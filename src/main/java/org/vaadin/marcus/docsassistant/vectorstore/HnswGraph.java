@@ -0,0 +1,405 @@
+package org.vaadin.marcus.docsassistant.vectorstore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * A hierarchical navigable small world graph over normalized vectors held in a
+ * {@link MappedVectorStorage}, scored by dot product (cosine similarity).
+ *
+ * <p>Follows Malkov and Yashunin: each node is assigned a random top layer, inserted by a greedy
+ * descent through the upper layers followed by a beam search on its own layers, and linked to
+ * neighbors chosen with the diversity heuristic. Nodes are addressed locally and map to storage rows.
+ * Not thread-safe: callers must serialize inserts against searches.
+ */
+final class HnswGraph {
+
+    /**
+     * Search hits, best first.
+     */
+    record Hits(int[] rows, float[] scores, int size) {
+    }
+
+    private final MappedVectorStorage storage;
+    private final int maxConnections;
+    private final int maxConnectionsLayer0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    private int[] rows = new int[64];
+    // links[node][layer] holds the neighbor count followed by the neighbors
+    private int[][][] links = new int[64][][];
+    private int size;
+    private int entryPoint = -1;
+    private int maxLayer = -1;
+
+    HnswGraph(MappedVectorStorage storage, int maxConnections, int efConstruction) {
+        this.storage = storage;
+        this.maxConnections = maxConnections;
+        this.maxConnectionsLayer0 = maxConnections * 2;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(maxConnections);
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Inserts the vector stored at the given row.
+     */
+    void insert(int row) {
+        int layer = (int) (-Math.log(1 - this.random.nextDouble()) * this.levelMultiplier);
+        int node = addNode(row, layer);
+        if (this.entryPoint < 0) {
+            this.entryPoint = node;
+            this.maxLayer = layer;
+            return;
+        }
+
+        float[] vector = this.storage.get(row);
+        int current = this.entryPoint;
+        for (int l = this.maxLayer; l > layer; l--) {
+            current = greedy(vector, current, l);
+        }
+        for (int l = Math.min(layer, this.maxLayer); l >= 0; l--) {
+            ScoreHeap candidates = searchLayer(vector, current, this.efConstruction, l, null);
+            int[] neighbors = selectNeighbors(vector, candidates.sortedNodes(), this.maxConnections);
+            int[] own = this.links[node][l];
+            own[0] = neighbors.length;
+            System.arraycopy(neighbors, 0, own, 1, neighbors.length);
+            for (int neighbor : neighbors) {
+                link(neighbor, node, l);
+            }
+            current = candidates.best();
+        }
+        if (layer > this.maxLayer) {
+            this.maxLayer = layer;
+            this.entryPoint = node;
+        }
+    }
+
+    /**
+     * Finds the nearest stored vectors.
+     *
+     * @param query     the normalized query vector
+     * @param ef        the beam width, at least the number of hits wanted
+     * @param acceptRow which rows may be returned; rejected rows are still traversed
+     * @return up to {@code ef} hits, best first
+     */
+    Hits search(float[] query, int ef, IntPredicate acceptRow) {
+        if (this.entryPoint < 0) {
+            return new Hits(new int[0], new float[0], 0);
+        }
+        int current = this.entryPoint;
+        for (int l = this.maxLayer; l > 0; l--) {
+            current = greedy(query, current, l);
+        }
+        ScoreHeap results = searchLayer(query, current, ef, 0, acceptRow);
+        int[] nodes = results.sortedNodes();
+        float[] scores = results.sortedScores();
+        int[] hitRows = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            hitRows[i] = this.rows[nodes[i]];
+        }
+        return new Hits(hitRows, scores, nodes.length);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(this.size);
+        out.writeInt(this.entryPoint);
+        out.writeInt(this.maxLayer);
+        for (int node = 0; node < this.size; node++) {
+            out.writeInt(this.rows[node]);
+            out.writeByte(this.links[node].length);
+            for (int[] layer : this.links[node]) {
+                out.writeByte(layer[0]);
+                for (int i = 1; i <= layer[0]; i++) {
+                    out.writeInt(layer[i]);
+                }
+            }
+        }
+    }
+
+    void read(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        this.entryPoint = in.readInt();
+        this.maxLayer = in.readInt();
+        this.rows = new int[Math.max(64, count)];
+        this.links = new int[Math.max(64, count)][][];
+        for (int node = 0; node < count; node++) {
+            this.rows[node] = in.readInt();
+            int layers = in.readUnsignedByte();
+            this.links[node] = new int[layers][];
+            for (int l = 0; l < layers; l++) {
+                int[] layer = new int[(l == 0 ? this.maxConnectionsLayer0 : this.maxConnections) + 1];
+                layer[0] = in.readUnsignedByte();
+                for (int i = 1; i <= layer[0]; i++) {
+                    layer[i] = in.readInt();
+                }
+                this.links[node][l] = layer;
+            }
+        }
+        this.size = count;
+    }
+
+    private int addNode(int row, int layer) {
+        if (this.size == this.rows.length) {
+            this.rows = Arrays.copyOf(this.rows, this.size * 2);
+            this.links = Arrays.copyOf(this.links, this.size * 2);
+        }
+        int node = this.size++;
+        this.rows[node] = row;
+        this.links[node] = new int[layer + 1][];
+        for (int l = 0; l <= layer; l++) {
+            this.links[node][l] = new int[(l == 0 ? this.maxConnectionsLayer0 : this.maxConnections) + 1];
+        }
+        return node;
+    }
+
+    /**
+     * Adds a link from {@code from} to {@code to}, pruning the neighbors of {@code from} with the
+     * selection heuristic when it has too many.
+     */
+    private void link(int from, int to, int layer) {
+        int[] neighbors = this.links[from][layer];
+        int capacity = neighbors.length - 1;
+        if (neighbors[0] < capacity) {
+            neighbors[++neighbors[0]] = to;
+            return;
+        }
+        float[] vector = this.storage.get(this.rows[from]);
+        int[] candidates = Arrays.copyOfRange(neighbors, 1, capacity + 2);
+        candidates[capacity] = to;
+        float[] scores = new float[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            scores[i] = score(vector, candidates[i]);
+        }
+        int[] selected = selectNeighbors(vector, sortByScore(candidates, scores), capacity);
+        neighbors[0] = selected.length;
+        System.arraycopy(selected, 0, neighbors, 1, selected.length);
+    }
+
+    /**
+     * Selects up to {@code max} neighbors from candidates sorted best first, preferring candidates
+     * that are closer to the vector than to any neighbor selected so far, then filling up with the
+     * best of the rest.
+     */
+    private int[] selectNeighbors(float[] vector, int[] candidates, int max) {
+        List<float[]> selectedVectors = new ArrayList<>(max);
+        int[] selected = new int[Math.min(max, candidates.length)];
+        boolean[] taken = new boolean[candidates.length];
+        int count = 0;
+        for (int i = 0; i < candidates.length && count < selected.length; i++) {
+            float[] candidate = this.storage.get(this.rows[candidates[i]]);
+            float toVector = dot(candidate, vector);
+            boolean diverse = true;
+            for (float[] neighbor : selectedVectors) {
+                if (dot(candidate, neighbor) > toVector) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[count++] = candidates[i];
+                selectedVectors.add(candidate);
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < candidates.length && count < selected.length; i++) {
+            if (!taken[i]) {
+                selected[count++] = candidates[i];
+            }
+        }
+        return selected;
+    }
+
+    private int greedy(float[] query, int start, int layer) {
+        int current = start;
+        float best = score(query, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbors = this.links[current][layer];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                float score = score(query, neighbors[i]);
+                if (score > best) {
+                    best = score;
+                    current = neighbors[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    private ScoreHeap searchLayer(float[] query, int start, int ef, int layer, IntPredicate acceptRow) {
+        BitSet visited = new BitSet(this.size);
+        ScoreHeap candidates = new ScoreHeap(ef * 2, true);
+        ScoreHeap results = new ScoreHeap(ef, false);
+
+        float startScore = score(query, start);
+        visited.set(start);
+        candidates.push(start, startScore);
+        if (acceptRow == null || acceptRow.test(this.rows[start])) {
+            results.push(start, startScore);
+        }
+
+        while (candidates.size() > 0) {
+            float candidateScore = candidates.topScore();
+            if (results.size() >= ef && candidateScore < results.topScore()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            int[] neighbors = this.links[candidate][layer];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int neighbor = neighbors[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float score = score(query, neighbor);
+                if (results.size() < ef || score > results.topScore()) {
+                    candidates.push(neighbor, score);
+                    if (acceptRow == null || acceptRow.test(this.rows[neighbor])) {
+                        results.push(neighbor, score);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private float score(float[] query, int node) {
+        return this.storage.dot(this.rows[node], query);
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static int[] sortByScore(int[] nodes, float[] scores) {
+        Integer[] order = new Integer[nodes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+        int[] sorted = new int[nodes.length];
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = nodes[order[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * A binary heap of nodes keyed by score, either best-first or worst-first.
+     */
+    private static final class ScoreHeap {
+        private int[] nodes;
+        private float[] scores;
+        private int size;
+        private final boolean bestFirst;
+
+        ScoreHeap(int capacity, boolean bestFirst) {
+            this.nodes = new int[Math.max(capacity, 4)];
+            this.scores = new float[this.nodes.length];
+            this.bestFirst = bestFirst;
+        }
+
+        int size() {
+            return this.size;
+        }
+
+        float topScore() {
+            return this.scores[0];
+        }
+
+        void push(int node, float score) {
+            if (this.size == this.nodes.length) {
+                this.nodes = Arrays.copyOf(this.nodes, this.size * 2);
+                this.scores = Arrays.copyOf(this.scores, this.size * 2);
+            }
+            int i = this.size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(score, this.scores[parent])) {
+                    break;
+                }
+                this.nodes[i] = this.nodes[parent];
+                this.scores[i] = this.scores[parent];
+                i = parent;
+            }
+            this.nodes[i] = node;
+            this.scores[i] = score;
+        }
+
+        int pop() {
+            int top = this.nodes[0];
+            int lastNode = this.nodes[--this.size];
+            float lastScore = this.scores[this.size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= this.size) {
+                    break;
+                }
+                if (child + 1 < this.size && before(this.scores[child + 1], this.scores[child])) {
+                    child++;
+                }
+                if (!before(this.scores[child], lastScore)) {
+                    break;
+                }
+                this.nodes[i] = this.nodes[child];
+                this.scores[i] = this.scores[child];
+                i = child;
+            }
+            this.nodes[i] = lastNode;
+            this.scores[i] = lastScore;
+            return top;
+        }
+
+        int best() {
+            int best = 0;
+            for (int i = 1; i < this.size; i++) {
+                if (this.scores[i] > this.scores[best]) {
+                    best = i;
+                }
+            }
+            return this.nodes[best];
+        }
+
+        int[] sortedNodes() {
+            return sortByScore(Arrays.copyOf(this.nodes, this.size), Arrays.copyOf(this.scores, this.size));
+        }
+
+        float[] sortedScores() {
+            float[] sorted = Arrays.copyOf(this.scores, this.size);
+            Arrays.sort(sorted);
+            for (int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+                float swap = sorted[i];
+                sorted[i] = sorted[j];
+                sorted[j] = swap;
+            }
+            return sorted;
+        }
+
+        private boolean before(float a, float b) {
+            return this.bestFirst ? a > b : a < b;
+        }
+    }
+}
@@ -0,0 +1,634 @@
+package org.vaadin.marcus.docsassistant.vectorstore;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * An in-process {@link VectorStore} backed by HNSW graphs, used as a local replica of the primary
+ * vector store so retrieval does not go over the network.
+ *
+ * <p>Vectors are normalized and kept off-heap in a memory-mapped file. Documents are partitioned by
+ * a metadata key, {@code framework} by default, with one graph per partition, so equality and
+ * {@code in} filters on that key are answered by searching only the matching graphs instead of
+ * filtering results. Other filters fall back to an exact scan. Deleted and replaced documents are
+ * tombstoned and skipped in results. A BM25 index over the same documents backs
+ * {@link #keywordSearch(SearchRequest)} for lexical retrieval.
+ *
+ * <p>The index is saved with {@link #snapshot()} and restored on construction, so a restart does not
+ * need to re-embed the corpus. Once more than half of the rows are tombstones, a snapshot first
+ * compacts the store: the vector file, graphs and keyword index are rebuilt from the live documents
+ * and their stored vectors, without embedding anything again.
+ */
+public class HnswVectorStore implements VectorStore, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HnswVectorStore.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x484E5331; // "HNS1"
+    private static final String VECTORS_FILE = "vectors.bin";
+    private static final String COMPACTED_VECTORS_FILE = "vectors.compacted.bin";
+    private static final String INDEX_FILE = "index.bin";
+
+    private record Entry(String id, String text, Map<String, Object> metadata, String partition) {
+    }
+
+    private record Hit(int row, float score) {
+    }
+
+    private final EmbeddingModel embeddingModel;
+    private final Path directory;
+    private final String partitionKey;
+    private final int maxConnections;
+    private final int efConstruction;
+    private final int efSearch;
+    private MappedVectorStorage storage;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExpressionParser expressionParser = new SpelExpressionParser();
+    private final SimpleVectorStoreFilterExpressionConverter filterConverter = new SimpleVectorStoreFilterExpressionConverter();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Integer> rowsById = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private final Map<String, HnswGraph> partitions = new HashMap<>();
+    private LexicalIndex lexicalIndex = new LexicalIndex();
+    // Incremented by every write, so a compaction built under the read lock can tell it is stale
+    private long modifications;
+
+    private final Timer partitionedSearches;
+    private final Timer scanSearches;
+    private final Timer keywordSearches;
+
+    /**
+     * Opens the store in the given directory, loading the last snapshot if there is one.
+     *
+     * @param embeddingModel the model used to embed documents and queries
+     * @param directory      the directory holding the vector file and the snapshot
+     * @param dimensions     the number of dimensions of the embeddings
+     * @param partitionKey   the metadata key documents are partitioned by
+     * @param maxConnections the number of neighbors per node on the upper layers, twice that on the bottom layer
+     * @param efConstruction the beam width used while inserting
+     * @param efSearch       the minimum beam width used while searching
+     * @param meterRegistry  the registry to publish search timings and the document count to
+     * @throws IOException if the store cannot be opened
+     */
+    public HnswVectorStore(EmbeddingModel embeddingModel, Path directory, int dimensions, String partitionKey,
+                           int maxConnections, int efConstruction, int efSearch,
+                           MeterRegistry meterRegistry) throws IOException {
+        Assert.notNull(embeddingModel, "EmbeddingModel must not be null!");
+        Assert.notNull(directory, "Directory must not be null!");
+        Assert.hasText(partitionKey, "Partition key must not be empty!");
+        Assert.isTrue(maxConnections > 1 && maxConnections <= 64, "Max connections must be between 2 and 64!");
+        Assert.isTrue(efConstruction > 0 && efSearch > 0, "Beam widths must be positive!");
+        Assert.notNull(meterRegistry, "MeterRegistry must not be null!");
+
+        this.embeddingModel = embeddingModel;
+        this.directory = directory;
+        this.partitionKey = partitionKey;
+        this.maxConnections = maxConnections;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.storage = new MappedVectorStorage(directory.resolve(VECTORS_FILE), dimensions);
+        load();
+
+        this.partitionedSearches = Timer.builder("docs.assistant.vectorstore.search")
+            .tag("mode", "partitioned")
+            .register(meterRegistry);
+        this.scanSearches = Timer.builder("docs.assistant.vectorstore.search")
+            .tag("mode", "scan")
+            .register(meterRegistry);
+        this.keywordSearches = Timer.builder("docs.assistant.vectorstore.search")
+            .tag("mode", "keyword")
+            .register(meterRegistry);
+        Gauge.builder("docs.assistant.vectorstore.documents", this, HnswVectorStore::size)
+            .register(meterRegistry);
+    }
+
+    @Override
+    public String getName() {
+        return "HnswVectorStore";
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        List<float[]> embeddings = this.embeddingModel.embed(documents.stream()
+            .map(document -> document.getFormattedContent(MetadataMode.EMBED))
+            .toList());
+
+        this.lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                Integer previous = this.rowsById.get(document.getId());
+                if (previous != null) {
+                    this.deleted.set(previous);
+                    this.lexicalIndex.remove(previous, this.entries.get(previous).text());
+                }
+                Entry entry = new Entry(document.getId(), Objects.requireNonNullElse(document.getText(), ""),
+                    Map.copyOf(document.getMetadata()), partitionOf(document.getMetadata()));
+                int row = this.storage.append(normalize(embeddings.get(i)));
+                this.entries.add(entry);
+                this.rowsById.put(entry.id(), row);
+                this.partitions.computeIfAbsent(entry.partition(), key -> newGraph()).insert(row);
+                this.lexicalIndex.add(row, entry.text());
+            }
+            this.modifications++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not add documents to the vector index", e);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        this.lock.writeLock().lock();
+        try {
+            for (String id : idList) {
+                Integer row = this.rowsById.remove(id);
+                if (row != null) {
+                    this.deleted.set(row);
+                    this.lexicalIndex.remove(row, this.entries.get(row).text());
+                }
+            }
+            this.modifications++;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        Predicate<Map<String, Object>> predicate = metadataPredicate(filterExpression);
+        this.lock.writeLock().lock();
+        try {
+            for (int row = 0; row < this.entries.size(); row++) {
+                if (!this.deleted.get(row) && predicate.test(this.entries.get(row).metadata())) {
+                    this.deleted.set(row);
+                    this.lexicalIndex.remove(row, this.entries.get(row).text());
+                    this.rowsById.remove(this.entries.get(row).id());
+                }
+            }
+            this.modifications++;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        float[] query = normalize(this.embeddingModel.embed(request.getQuery()));
+        Set<String> targetPartitions = partitionsOf(request.getFilterExpression());
+
+        long start = System.nanoTime();
+        List<Hit> hits;
+        this.lock.readLock().lock();
+        try {
+            hits = targetPartitions != null
+                ? searchPartitions(query, targetPartitions, request.getTopK())
+                : scan(query, metadataPredicate(request.getFilterExpression()), request.getTopK());
+            List<Document> documents = hits.stream()
+                .filter(hit -> hit.score() >= request.getSimilarityThreshold())
+                .limit(request.getTopK())
+                .map(hit -> toDocument(hit.row(), hit.score(), true))
+                .toList();
+            (targetPartitions != null ? this.partitionedSearches : this.scanSearches)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return documents;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the documents that best match the words and identifiers of the query, ranked by BM25.
+     * Scores are not comparable to similarity scores, so the similarity threshold of the request is
+     * ignored.
+     *
+     * @param request the search request
+     * @return the matching documents, best first
+     */
+    public List<Document> keywordSearch(SearchRequest request) {
+        Set<String> targetPartitions = partitionsOf(request.getFilterExpression());
+        Predicate<Map<String, Object>> predicate = targetPartitions == null
+            ? metadataPredicate(request.getFilterExpression())
+            : null;
+
+        long start = System.nanoTime();
+        this.lock.readLock().lock();
+        try {
+            LexicalIndex.Hits hits = this.lexicalIndex.search(request.getQuery(), request.getTopK(), row -> {
+                if (this.deleted.get(row)) {
+                    return false;
+                }
+                Entry entry = this.entries.get(row);
+                return predicate == null ? targetPartitions.contains(entry.partition()) : predicate.test(entry.metadata());
+            });
+            List<Document> documents = new ArrayList<>(hits.size());
+            for (int i = 0; i < hits.size(); i++) {
+                documents.add(toDocument(hits.rows()[i], hits.scores()[i], false));
+            }
+            this.keywordSearches.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return documents;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ids of the live documents with a fingerprint of their content and metadata, for
+     * comparison with the primary store.
+     *
+     * @return content fingerprints keyed by document id
+     */
+    public Map<String, Integer> fingerprints() {
+        this.lock.readLock().lock();
+        try {
+            Map<String, Integer> fingerprints = new HashMap<>();
+            this.rowsById.forEach((id, row) -> fingerprints.put(id, fingerprint(this.entries.get(row))));
+            return fingerprints;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Computes the fingerprint {@link #fingerprints()} reports for a document.
+     *
+     * @param document the document
+     * @return the fingerprint of its content and metadata
+     */
+    public static int fingerprint(Document document) {
+        return Objects.hash(document.getText(), document.getMetadata());
+    }
+
+    /**
+     * Returns the number of live documents.
+     *
+     * @return the number of documents
+     */
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.rowsById.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of rows, including those of deleted and replaced documents.
+     *
+     * @return the number of rows
+     */
+    public int rows() {
+        this.lock.readLock().lock();
+        try {
+            return this.entries.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the documents and graphs to the snapshot file, so they can be loaded on the next start,
+     * after compacting the store if more than half of its rows are dead.
+     *
+     * @throws IOException if the store cannot be compacted or the snapshot cannot be written
+     */
+    public void snapshot() throws IOException {
+        int rows = rows();
+        if (rows > 0 && (rows - size()) * 2 > rows) {
+            compact();
+        }
+        this.lock.readLock().lock();
+        try {
+            this.storage.flush();
+            Path temp = Files.createTempFile(this.directory, "index", ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(this.entries.size());
+                for (int row = 0; row < this.entries.size(); row++) {
+                    Entry entry = this.entries.get(row);
+                    out.writeBoolean(this.deleted.get(row));
+                    out.writeUTF(entry.id());
+                    writeString(out, entry.text());
+                    writeString(out, this.objectMapper.writeValueAsString(entry.metadata()));
+                }
+                out.writeInt(this.partitions.size());
+                for (var partition : this.partitions.entrySet()) {
+                    out.writeUTF(partition.getKey());
+                    partition.getValue().write(out);
+                }
+            }
+            Files.move(temp, this.directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Saved vector index snapshot with {} documents", this.rowsById.size());
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.storage.close();
+    }
+
+    /**
+     * Rebuilds the store from its live documents: their vectors are copied to a new vector file, and
+     * graphs and keyword index are rebuilt over the new rows. The rebuild runs under the read lock, so
+     * searches continue, and is swapped in under the write lock, unless the store was written to in
+     * the meantime, in which case it is dropped and left for the next snapshot.
+     */
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        Path compactedFile = this.directory.resolve(COMPACTED_VECTORS_FILE);
+        Files.deleteIfExists(compactedFile);
+        MappedVectorStorage compacted = new MappedVectorStorage(compactedFile, this.storage.dimensions());
+        List<Entry> liveEntries = new ArrayList<>();
+        Map<String, Integer> liveRows = new HashMap<>();
+        Map<String, HnswGraph> graphs = new HashMap<>();
+        LexicalIndex lexical = new LexicalIndex();
+        long version;
+        int previousRows;
+
+        this.lock.readLock().lock();
+        try {
+            version = this.modifications;
+            previousRows = this.entries.size();
+            for (int row = 0; row < this.entries.size(); row++) {
+                if (this.deleted.get(row)) {
+                    continue;
+                }
+                Entry entry = this.entries.get(row);
+                int newRow = compacted.append(this.storage.get(row));
+                liveEntries.add(entry);
+                liveRows.put(entry.id(), newRow);
+                graphs.computeIfAbsent(entry.partition(),
+                    key -> new HnswGraph(compacted, this.maxConnections, this.efConstruction)).insert(newRow);
+                lexical.add(newRow, entry.text());
+            }
+        } catch (IOException | RuntimeException e) {
+            compacted.close();
+            Files.deleteIfExists(compactedFile);
+            throw e;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            if (version != this.modifications) {
+                compacted.close();
+                Files.deleteIfExists(compactedFile);
+                logger.info("Vector index changed while compacting, compacting on the next snapshot");
+                return;
+            }
+            // The old snapshot does not match the new vector file. Without a snapshot the store starts
+            // empty, and is filled again by the next sync, if it stops before the next one is written
+            compacted.flush();
+            Files.deleteIfExists(this.directory.resolve(INDEX_FILE));
+            this.storage.close();
+            Files.move(compactedFile, this.directory.resolve(VECTORS_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            this.storage = compacted;
+            this.entries.clear();
+            this.entries.addAll(liveEntries);
+            this.rowsById.clear();
+            this.rowsById.putAll(liveRows);
+            this.deleted.clear();
+            this.partitions.clear();
+            this.partitions.putAll(graphs);
+            this.lexicalIndex = lexical;
+            this.modifications++;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        logger.info("Compacted vector index from {} to {} rows in {} ms", previousRows, liveEntries.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void load() throws IOException {
+        Path index = this.directory.resolve(INDEX_FILE);
+        if (!Files.exists(index)) {
+            this.storage.truncate(0);
+            return;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                logger.warn("Ignoring vector index snapshot {} with unknown format", index);
+                this.storage.truncate(0);
+                return;
+            }
+            int count = in.readInt();
+            if (count > this.storage.size()) {
+                logger.warn("Ignoring vector index snapshot {} with more documents than stored vectors", index);
+                this.storage.truncate(0);
+                return;
+            }
+            for (int row = 0; row < count; row++) {
+                boolean isDeleted = in.readBoolean();
+                String id = in.readUTF();
+                String text = readString(in);
+                Map<String, Object> metadata = this.objectMapper.readValue(readString(in), new TypeReference<>() {
+                });
+                this.entries.add(new Entry(id, text, metadata, partitionOf(metadata)));
+                if (isDeleted) {
+                    this.deleted.set(row);
+                } else {
+                    this.rowsById.put(id, row);
+                    this.lexicalIndex.add(row, text);
+                }
+            }
+            int partitionCount = in.readInt();
+            for (int i = 0; i < partitionCount; i++) {
+                String partition = in.readUTF();
+                HnswGraph graph = newGraph();
+                graph.read(in);
+                this.partitions.put(partition, graph);
+            }
+            // Vectors appended after the snapshot have no graph nodes
+            this.storage.truncate(count);
+            logger.info("Loaded vector index snapshot with {} documents in {} partitions",
+                this.rowsById.size(), this.partitions.size());
+        }
+    }
+
+    private List<Hit> searchPartitions(float[] query, Set<String> targetPartitions, int topK) {
+        int ef = Math.max(this.efSearch, topK);
+        List<Hit> hits = new ArrayList<>();
+        for (String partition : targetPartitions) {
+            HnswGraph graph = this.partitions.get(partition);
+            if (graph == null) {
+                continue;
+            }
+            HnswGraph.Hits partitionHits = graph.search(query, ef, row -> !this.deleted.get(row));
+            for (int i = 0; i < partitionHits.size(); i++) {
+                hits.add(new Hit(partitionHits.rows()[i], partitionHits.scores()[i]));
+            }
+        }
+        hits.sort(Comparator.comparingDouble(Hit::score).reversed());
+        return hits;
+    }
+
+    private List<Hit> scan(float[] query, Predicate<Map<String, Object>> predicate, int topK) {
+        List<Hit> hits = new ArrayList<>();
+        for (int row = 0; row < this.entries.size(); row++) {
+            if (!this.deleted.get(row) && predicate.test(this.entries.get(row).metadata())) {
+                hits.add(new Hit(row, this.storage.dot(row, query)));
+            }
+        }
+        hits.sort(Comparator.comparingDouble(Hit::score).reversed());
+        return hits.size() > topK ? hits.subList(0, topK) : hits;
+    }
+
+    /**
+     * Resolves the partitions a filter is restricted to: none for no filter, the values of an
+     * equality or {@code in} filter on the partition key, or the union of such filters joined by
+     * {@code or}.
+     *
+     * @return the partitions to search, or null if the filter needs a scan
+     */
+    @Nullable
+    private Set<String> partitionsOf(@Nullable Filter.Expression expression) {
+        if (expression == null) {
+            this.lock.readLock().lock();
+            try {
+                return Set.copyOf(this.partitions.keySet());
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+        Set<String> result = new LinkedHashSet<>();
+        return collectPartitions(expression, result) ? result : null;
+    }
+
+    private boolean collectPartitions(Filter.Expression expression, Set<String> result) {
+        switch (expression.type()) {
+            case OR -> {
+                return expression.left() instanceof Filter.Expression left && collectPartitions(left, result)
+                    && expression.right() instanceof Filter.Expression right && collectPartitions(right, result);
+            }
+            case EQ, IN -> {
+                if (!(expression.left() instanceof Filter.Key key) || !this.partitionKey.equals(key.key())
+                    || !(expression.right() instanceof Filter.Value value)) {
+                    return false;
+                }
+                if (value.value() instanceof List<?> values) {
+                    values.forEach(v -> result.add(String.valueOf(v)));
+                } else {
+                    result.add(String.valueOf(value.value()));
+                }
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private Predicate<Map<String, Object>> metadataPredicate(@Nullable Filter.Expression expression) {
+        if (expression == null) {
+            return metadata -> true;
+        }
+        Expression spel = this.expressionParser.parseExpression(this.filterConverter.convertExpression(expression));
+        return metadata -> {
+            var context = new StandardEvaluationContext();
+            context.setVariable("metadata", metadata);
+            return Boolean.TRUE.equals(spel.getValue(context, Boolean.class));
+        };
+    }
+
+    private Document toDocument(int row, float score, boolean similarity) {
+        Entry entry = this.entries.get(row);
+        Map<String, Object> metadata = new HashMap<>(entry.metadata());
+        if (similarity) {
+            metadata.put("distance", 1 - score);
+        }
+        return Document.builder()
+            .id(entry.id())
+            .text(entry.text())
+            .metadata(metadata)
+            .score((double) score)
+            .build();
+    }
+
+    private String partitionOf(Map<String, Object> metadata) {
+        Object value = metadata.get(this.partitionKey);
+        return value == null ? "" : value.toString();
+    }
+
+    private HnswGraph newGraph() {
+        return new HnswGraph(this.storage, this.maxConnections, this.efConstruction);
+    }
+
+    private static int fingerprint(Entry entry) {
+        return Objects.hash(entry.text(), entry.metadata());
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = norm > 0 ? (float) (vector[i] / norm) : 0;
+        }
+        return normalized;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+    }
+}
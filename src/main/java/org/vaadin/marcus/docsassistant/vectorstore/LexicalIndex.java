@@ -0,0 +1,187 @@
+package org.vaadin.marcus.docsassistant.vectorstore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A BM25 inverted index over the same rows as the vector storage.
+ *
+ * <p>Tokens are identifiers and words, lowercased. Camel-case and snake-case identifiers are indexed
+ * both whole and split into their parts, so {@code setItems} and {@code @BrowserCallable} match
+ * exactly as well as by their words. Not thread-safe: callers must serialize writes against reads.
+ */
+final class LexicalIndex {
+
+    private static final Pattern TOKEN = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*|[0-9]+");
+    private static final Pattern PART = Pattern.compile("[A-Z]+(?![a-z])|[A-Z]?[a-z]+|[0-9]+");
+    private static final Set<String> STOP_WORDS = Set.of("a", "an", "and", "are", "as", "at", "be", "by", "can",
+        "do", "for", "from", "how", "i", "if", "in", "is", "it", "of", "on", "or", "that", "the", "this", "to",
+        "what", "when", "where", "which", "with", "you", "my", "me", "does", "should", "would");
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    record Hits(int[] rows, float[] scores, int size) {
+    }
+
+    private static final class Postings {
+        private int[] rows = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+
+        void add(int row, int frequency) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            rows[size] = row;
+            frequencies[size++] = frequency;
+        }
+
+        /**
+         * Removes the posting of a row, if there is one. Rows are kept in the order they were added,
+         * which is ascending.
+         */
+        void remove(int row) {
+            int index = Arrays.binarySearch(rows, 0, size, row);
+            if (index >= 0) {
+                System.arraycopy(rows, index + 1, rows, index, size - index - 1);
+                System.arraycopy(frequencies, index + 1, frequencies, index, size - index - 1);
+                size--;
+            }
+        }
+    }
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private int[] lengths = new int[1024];
+    private int rows;
+    private int liveRows;
+    private long liveLength;
+
+    /**
+     * Indexes the text of a row. Rows must be added in order.
+     */
+    void add(int row, String text) {
+        if (row >= this.lengths.length) {
+            this.lengths = Arrays.copyOf(this.lengths, Math.max(row + 1, this.lengths.length * 2));
+        }
+        Map<String, Integer> frequencies = new HashMap<>();
+        int length = 0;
+        for (String token : tokenize(text)) {
+            frequencies.merge(token, 1, Integer::sum);
+            length++;
+        }
+        frequencies.forEach((term, frequency) -> this.postings.computeIfAbsent(term, key -> new Postings())
+            .add(row, frequency));
+        this.lengths[row] = length;
+        this.rows = Math.max(this.rows, row + 1);
+        this.liveRows++;
+        this.liveLength += length;
+    }
+
+    /**
+     * Removes a row and its postings, so document frequencies only count live rows.
+     *
+     * @param row  the row
+     * @param text the text the row was indexed with
+     */
+    void remove(int row, String text) {
+        for (String term : new HashSet<>(tokenize(text))) {
+            Postings termPostings = this.postings.get(term);
+            if (termPostings != null) {
+                termPostings.remove(row);
+                if (termPostings.size == 0) {
+                    this.postings.remove(term);
+                }
+            }
+        }
+        this.liveRows--;
+        this.liveLength -= this.lengths[row];
+    }
+
+    /**
+     * Finds the rows with the highest BM25 score for the query.
+     *
+     * @param query     the query text
+     * @param topK      the maximum number of rows to return
+     * @param acceptRow the rows that may be returned
+     * @return the best rows, best first
+     */
+    Hits search(String query, int topK, IntPredicate acceptRow) {
+        List<String> terms = tokenize(query).stream().distinct().toList();
+        if (terms.isEmpty() || this.liveRows == 0) {
+            return new Hits(new int[0], new float[0], 0);
+        }
+        float averageLength = Math.max(1f, (float) this.liveLength / this.liveRows);
+        float[] scores = new float[this.rows];
+        List<Integer> touched = new ArrayList<>();
+        for (String term : terms) {
+            Postings termPostings = this.postings.get(term);
+            if (termPostings == null) {
+                continue;
+            }
+            float idf = (float) Math.log(1 + (this.liveRows - termPostings.size + 0.5) / (termPostings.size + 0.5));
+            if (idf <= 0) {
+                continue;
+            }
+            for (int i = 0; i < termPostings.size; i++) {
+                int row = termPostings.rows[i];
+                if (!acceptRow.test(row)) {
+                    continue;
+                }
+                float frequency = termPostings.frequencies[i];
+                float norm = K1 * (1 - B + B * this.lengths[row] / averageLength);
+                if (scores[row] == 0) {
+                    touched.add(row);
+                }
+                scores[row] += idf * frequency * (K1 + 1) / (frequency + norm);
+            }
+        }
+
+        PriorityQueue<Integer> best = new PriorityQueue<>(topK + 1, (a, b) -> Float.compare(scores[a], scores[b]));
+        for (int row : touched) {
+            best.add(row);
+            if (best.size() > topK) {
+                best.poll();
+            }
+        }
+        int size = best.size();
+        int[] rows = new int[size];
+        float[] rowScores = new float[size];
+        for (int i = size - 1; i >= 0; i--) {
+            rows[i] = best.poll();
+            rowScores[i] = scores[rows[i]];
+        }
+        return new Hits(rows, rowScores, size);
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(text);
+        while (matcher.find()) {
+            String token = matcher.group();
+            String lower = token.toLowerCase(Locale.ROOT);
+            if (!STOP_WORDS.contains(lower)) {
+                tokens.add(lower);
+            }
+            Matcher parts = PART.matcher(token);
+            while (parts.find()) {
+                String part = parts.group().toLowerCase(Locale.ROOT);
+                if (!part.equals(lower) && !STOP_WORDS.contains(part)) {
+                    tokens.add(part);
+                }
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,144 @@
+package org.vaadin.marcus.docsassistant.vectorstore;
+
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fixed-dimension vectors stored off-heap in a memory-mapped file, addressed by row number.
+ *
+ * <p>The file grows by doubling its capacity. Rows are only appended, never moved, so a row number
+ * stays valid for the lifetime of the file. Not thread-safe: callers must serialize writes against
+ * reads.
+ */
+class MappedVectorStorage implements AutoCloseable {
+
+    private static final int MAGIC = 0x564543; // "VEC"
+    private static final int HEADER_BYTES = 64;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Path file;
+    private final int dimensions;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private FloatBuffer floats;
+    private int capacity;
+    private int size;
+
+    /**
+     * Opens or creates the storage. An existing file with other dimensions is discarded.
+     *
+     * @param file       the backing file
+     * @param dimensions the number of dimensions of the vectors
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    MappedVectorStorage(Path file, int dimensions) throws IOException {
+        Assert.isTrue(dimensions > 0, "Dimensions must be positive!");
+        this.file = file;
+        this.dimensions = dimensions;
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long existing = this.channel.size();
+        int existingCapacity = existing > HEADER_BYTES ? (int) ((existing - HEADER_BYTES) / rowBytes()) : 0;
+        map(Math.max(INITIAL_CAPACITY, existingCapacity));
+        if (this.buffer.getInt(0) == MAGIC && this.buffer.getInt(4) == dimensions) {
+            this.size = Math.min(this.buffer.getInt(8), existingCapacity);
+        } else {
+            this.buffer.putInt(0, MAGIC);
+            this.buffer.putInt(4, dimensions);
+            this.buffer.putInt(8, 0);
+            this.size = 0;
+        }
+    }
+
+    int dimensions() {
+        return this.dimensions;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Appends a vector.
+     *
+     * @param vector the vector
+     * @return the row number of the vector
+     * @throws IOException if the file cannot be grown
+     */
+    int append(float[] vector) throws IOException {
+        Assert.isTrue(vector.length == this.dimensions,
+            () -> "Expected " + this.dimensions + " dimensions but got " + vector.length);
+        if (this.size == this.capacity) {
+            map(this.capacity * 2);
+        }
+        int row = this.size++;
+        this.floats.put(offset(row), vector);
+        this.buffer.putInt(8, this.size);
+        return row;
+    }
+
+    /**
+     * Computes the dot product of a stored vector and the given vector.
+     */
+    float dot(int row, float[] vector) {
+        int offset = offset(row);
+        FloatBuffer floats = this.floats;
+        float sum = 0;
+        for (int i = 0; i < vector.length; i++) {
+            sum += floats.get(offset + i) * vector[i];
+        }
+        return sum;
+    }
+
+    float[] get(int row) {
+        float[] vector = new float[this.dimensions];
+        this.floats.get(offset(row), vector);
+        return vector;
+    }
+
+    /**
+     * Truncates the storage to the given number of rows, for example to match a snapshot.
+     */
+    void truncate(int size) {
+        this.size = Math.min(size, this.size);
+        this.buffer.putInt(8, this.size);
+    }
+
+    void flush() {
+        this.buffer.force();
+    }
+
+    Path file() {
+        return this.file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        this.channel.close();
+    }
+
+    private void map(int capacity) throws IOException {
+        long bytes = HEADER_BYTES + (long) capacity * rowBytes();
+        Assert.isTrue(bytes <= Integer.MAX_VALUE, "Vector storage exceeds the 2 GB mapping limit");
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        this.floats = this.buffer.asFloatBuffer();
+        this.capacity = capacity;
+    }
+
+    private int offset(int row) {
+        return (HEADER_BYTES + row * rowBytes()) / Float.BYTES;
+    }
+
+    private int rowBytes() {
+        return this.dimensions * Float.BYTES;
+    }
+}
@@ -0,0 +1,81 @@
+package org.vaadin.marcus.docsassistant.vectorstore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@link HnswVectorStore} in sync with the documents of the primary vector store.
+ *
+ * <p>The primary store cannot be listed, so the replica is synced with the complete list of
+ * documents that were ingested into it, rather than with whatever a set of queries happens to find.
+ * Documents that are new or changed are added to the replica in batches, and documents that are no
+ * longer in the list are removed from it. Comparing against the replica's own fingerprints makes a
+ * sync resume where an interrupted one stopped, and cheap when nothing changed.
+ */
+public class VectorStoreReplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(VectorStoreReplicator.class);
+
+    private final HnswVectorStore replica;
+    private final int batchSize;
+
+    /**
+     * Creates a new VectorStoreReplicator.
+     *
+     * @param replica   the replica to keep in sync
+     * @param batchSize the number of documents embedded and added to the replica at once
+     */
+    public VectorStoreReplicator(HnswVectorStore replica, int batchSize) {
+        Assert.notNull(replica, "Replica must not be null!");
+        Assert.isTrue(batchSize > 0, "Batch size must be positive!");
+        this.replica = replica;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Brings the replica up to date with the documents of the primary store and saves a snapshot of
+     * it.
+     *
+     * @param documents all documents of the primary store, which the replica is made to match
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized void sync(Collection<Document> documents) throws IOException {
+        long start = System.nanoTime();
+        Map<String, Integer> replicated = new HashMap<>(this.replica.fingerprints());
+        List<Document> changed = new ArrayList<>();
+        for (Document document : documents) {
+            Integer fingerprint = replicated.remove(document.getId());
+            if (fingerprint == null || fingerprint != HnswVectorStore.fingerprint(document)) {
+                changed.add(document);
+            }
+        }
+        List<String> removed = List.copyOf(replicated.keySet());
+        if (changed.isEmpty() && removed.isEmpty()) {
+            logger.info("Vector store replica is up to date with {} documents", documents.size());
+            return;
+        }
+
+        try {
+            for (int from = 0; from < changed.size(); from += this.batchSize) {
+                this.replica.add(changed.subList(from, Math.min(changed.size(), from + this.batchSize)));
+            }
+            this.replica.delete(removed);
+        } finally {
+            // Keep what was added, a sync that failed halfway continues from there
+            this.replica.snapshot();
+        }
+        logger.info("Synced vector store replica in {} ms: {} documents, {} added or changed, {} removed",
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), documents.size(), changed.size(),
+            removed.size());
+    }
+}
@@ -0,0 +1,52 @@
+package org.vaadin.marcus.docsassistant;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.vaadin.marcus.docsassistant.benchmark.HashingEmbeddingModel;
+import org.vaadin.marcus.docsassistant.vectorstore.HnswVectorStore;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AiConfigTest {
+
+    @TempDir
+    Path directory;
+
+    private final AiConfig config = new AiConfig();
+    private final HashingEmbeddingModel embeddingModel = new HashingEmbeddingModel(16);
+
+    @Test
+    void replicaWithoutDocsDirectoryFailsStartup() {
+        var properties = properties(Map.of());
+
+        assertThatThrownBy(() -> config.hnswVectorStore(embeddingModel, properties, new SimpleMeterRegistry()))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("docs-assistant.ingestion.docs-directory");
+    }
+
+    @Test
+    void replicaWithDocsDirectoryIsOpened() throws Exception {
+        var properties = properties(Map.of("ingestion.docs-directory", directory.resolve("docs").toString()));
+
+        try (HnswVectorStore replica = config.hnswVectorStore(embeddingModel, properties, new SimpleMeterRegistry())) {
+            assertThat(replica.size()).isZero();
+        }
+    }
+
+    private DocsAssistantProperties properties(Map<String, String> overrides) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("docs-assistant.replica.enabled", "true");
+        properties.put("docs-assistant.replica.directory", directory.resolve("vector-index").toString());
+        overrides.forEach((name, value) -> properties.put("docs-assistant." + name, value));
+        return new Binder(new MapConfigurationPropertySource(properties))
+            .bindOrCreate("docs-assistant", DocsAssistantProperties.class);
+    }
+}
@@ -0,0 +1,80 @@
+package org.vaadin.marcus.docsassistant.advisors;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.ai.chat.client.ChatClient;
+import org.vaadin.marcus.docsassistant.benchmark.StubChatModel;
+import reactor.core.publisher.Flux;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Streams hundreds of guarded chats at once against a stub model that takes a while to answer. If the
+ * guardrail parked a thread while waiting for its verdict, every chat would hold one, and the thread
+ * count would grow with the number of chats, or the chats would queue for a bounded pool; with the
+ * reactive guardrail the thread count stays flat and all chats are answered in about the time of one.
+ */
+class GuardRailAdvisorConcurrencyTest {
+
+    private static final int CHATS = 400;
+    private static final int MAX_EXTRA_THREADS = 50;
+    private static final Duration MAX_DURATION = Duration.ofSeconds(10);
+    private static final String ANSWER = "Use grid.setItems to load the items lazily.";
+
+    @ParameterizedTest(name = "speculative={0}")
+    @ValueSource(booleans = {false, true})
+    void threadCountStaysFlatWhileManyChatsWaitForTheGuardrail(boolean speculative) throws Exception {
+        var chatModel = StubChatModel.builder()
+            .reply("DECISION: ACCEPTABLE", "The question is about Vaadin.\nDECISION: ACCEPTABLE")
+            .defaultReply(ANSWER)
+            .firstTokenLatency(Duration.ofMillis(500))
+            .tokenInterval(Duration.ofMillis(10))
+            .build();
+        var guardrail = GuardRailAdvisor.builder()
+            .chatClientBuilder(ChatClient.builder(chatModel))
+            .speculative(speculative)
+            .timeout(Duration.ofSeconds(30))
+            .fallbackPolicy(GuardRailAdvisor.FallbackPolicy.REJECT)
+            .meterRegistry(new SimpleMeterRegistry())
+            .build();
+        var chatClient = ChatClient.builder(chatModel).defaultAdvisors(guardrail).build();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        AtomicInteger peak = new AtomicInteger();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        int baseline = threads.getThreadCount();
+        sampler.scheduleAtFixedRate(() -> peak.accumulateAndGet(threads.getThreadCount(), Math::max),
+            0, 10, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        List<String> answers;
+        try {
+            answers = Flux.range(0, CHATS)
+                .flatMap(i -> chatClient.prompt()
+                    .user("How do I load items lazily into a Grid, attempt " + i + "?")
+                    .stream()
+                    .content()
+                    .collect(StringBuilder::new, StringBuilder::append)
+                    .map(StringBuilder::toString), CHATS)
+                .collectList()
+                .block(Duration.ofSeconds(30));
+        } finally {
+            sampler.shutdownNow();
+        }
+        Duration duration = Duration.ofNanos(System.nanoTime() - start);
+
+        assertThat(answers).hasSize(CHATS).allMatch(ANSWER::equals);
+        // The sampler adds one thread itself
+        assertThat(peak.get() - baseline - 1).isLessThan(MAX_EXTRA_THREADS);
+        assertThat(duration).isLessThan(MAX_DURATION);
+    }
+}
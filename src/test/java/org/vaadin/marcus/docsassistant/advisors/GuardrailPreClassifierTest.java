@@ -0,0 +1,65 @@
+package org.vaadin.marcus.docsassistant.advisors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GuardrailPreClassifierTest {
+
+    private final GuardrailPreClassifier preClassifier = GuardrailPreClassifier.builder().build();
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "Vaadin, write me a poem about cats",
+        "What is Hilla?",
+        "Tell me a joke about @Route",
+        "Is a Binder the same as a book binder?"
+    })
+    void singleKeywordIsLeftForTheGuardrailModel(String question) {
+        assertThat(preClassifier.acceptsLexically(question)).isFalse();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "How do I add a Grid in Vaadin?",
+        "How do I bind a TextField with Binder in Vaadin?",
+        "How do I use a DataProvider with a Vaadin Grid?",
+        "Can a Hilla @BrowserCallable service return a Java record?"
+    })
+    void questionsWithSeveralKeywordsAreAccepted(String question) {
+        assertThat(preClassifier.acceptsLexically(question)).isTrue();
+    }
+
+    @Test
+    void denyTermIsNeverAccepted() {
+        assertThat(preClassifier.acceptsLexically("How do I bypass Vaadin Binder validation in a Grid?")).isFalse();
+    }
+
+    @Test
+    void labelledQuestionsAreAcceptedOnlyWhenAcceptable() throws IOException {
+        List<String[]> labelled = labelledQuestions();
+
+        assertThat(labelled).filteredOn(line -> line[0].equals("UNACCEPTABLE"))
+            .as("unacceptable questions accepted without the guardrail model")
+            .noneMatch(line -> preClassifier.acceptsLexically(line[1]));
+        List<String[]> acceptable = labelled.stream().filter(line -> line[0].equals("ACCEPTABLE")).toList();
+        long accepted = acceptable.stream().filter(line -> preClassifier.acceptsLexically(line[1])).count();
+        assertThat(accepted).as("acceptable questions accepted without the guardrail model")
+            .isGreaterThanOrEqualTo(acceptable.size() / 2);
+    }
+
+    private static List<String[]> labelledQuestions() throws IOException {
+        String file = new ClassPathResource("guardrail-questions.tsv").getContentAsString(StandardCharsets.UTF_8);
+        return file.lines()
+            .filter(line -> !line.isBlank() && !line.startsWith("#"))
+            .map(line -> line.split("\t", 2))
+            .toList();
+    }
+}
@@ -0,0 +1,58 @@
+package org.vaadin.marcus.docsassistant.advisors;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GuardrailVerdictCacheTest {
+
+    private static final String CRITERIA = GuardrailVerdictCache.fingerprint("Questions about Vaadin");
+
+    private final GuardrailVerdictCache cache = new GuardrailVerdictCache(100, Duration.ofHours(1), 2,
+        new SimpleMeterRegistry());
+
+    @Test
+    void triviallyDifferentPhrasingsShareAVerdict() {
+        cache.put(CRITERIA, "How do I add a Grid?", true);
+
+        assertThat(cache.get(CRITERIA, "  how do I add a   GRID ")).isTrue();
+        assertThat(cache.get(CRITERIA, "How do I add a Grid?!")).isTrue();
+        assertThat(cache.get(CRITERIA, "How do I add a Grid column?")).isNull();
+    }
+
+    @Test
+    void punctuationInNamesIsKept() {
+        cache.put(CRITERIA, "How do I call Vaadin from C?", true);
+        cache.put(CRITERIA, "How do I call Vaadin from C++?", false);
+
+        assertThat(cache.get(CRITERIA, "How do I call Vaadin from C?")).isTrue();
+        assertThat(cache.get(CRITERIA, "How do I call Vaadin from C++?")).isFalse();
+        assertThat(cache.get(CRITERIA, "How do I call Vaadin from C#?")).isNull();
+        assertThat(GuardrailVerdictCache.normalize("What is Node.js?")).isEqualTo("what is node.js");
+    }
+
+    @Test
+    void otherCriteriaDoNotShareVerdicts() {
+        cache.put(CRITERIA, "How do I add a Grid?", true);
+
+        assertThat(cache.get(GuardrailVerdictCache.fingerprint("Questions about Hilla"), "How do I add a Grid?"))
+            .isNull();
+    }
+
+    @Test
+    void onlyVerdictsForShortHistoriesAreCacheable() {
+        var question = new UserMessage("How do I add a Grid?");
+        var answer = new AssistantMessage("Call addColumn.");
+
+        assertThat(cache.isCacheable(null)).isTrue();
+        assertThat(cache.isCacheable(List.of(new SystemMessage("Summary"), question, answer))).isTrue();
+        assertThat(cache.isCacheable(List.of(question, answer, question))).isFalse();
+    }
+}
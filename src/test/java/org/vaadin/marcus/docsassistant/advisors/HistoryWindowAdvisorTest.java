@@ -0,0 +1,143 @@
+package org.vaadin.marcus.docsassistant.advisors;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.util.unit.DataSize;
+import org.vaadin.marcus.docsassistant.benchmark.StubChatModel;
+import org.vaadin.marcus.docsassistant.memory.BoundedChatMemory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
+
+class HistoryWindowAdvisorTest {
+
+    private static final String CHAT_ID = "chat";
+    private static final String SUMMARY = "The user asked about Grid columns.";
+
+    private final List<Prompt> answerPrompts = new CopyOnWriteArrayList<>();
+    private final StubChatModel chatModel = new StubChatModel(Map.of("CURRENT SUMMARY", SUMMARY), "ANSWER",
+        Duration.ZERO, Duration.ZERO) {
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            if (!prompt.getContents().contains("CURRENT SUMMARY")) {
+                answerPrompts.add(prompt);
+            }
+            return super.call(prompt);
+        }
+    };
+    private final BoundedChatMemory chatMemory = new BoundedChatMemory(100, 100, DataSize.ofMegabytes(1).toBytes(),
+        Duration.ofHours(1), 1024, new SimpleMeterRegistry());
+
+    @AfterEach
+    void tearDown() {
+        chatMemory.close();
+    }
+
+    @Test
+    void summaryIsKeptWithTheConversation() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            chatMemory.add(CHAT_ID, List.of(new UserMessage("Question %d about columns. ".formatted(i).repeat(20)),
+                new AssistantMessage("Answer %d about columns. ".formatted(i).repeat(20))));
+        }
+
+        ask(advisor(), "First question");
+        awaitStoredSummary();
+
+        // A new advisor knows nothing but the chat memory, like after a restart or a long pause
+        answerPrompts.clear();
+        ask(advisor(), "Second question");
+
+        List<Message> sent = answerPrompts.getLast().getInstructions();
+        assertThat(sent).filteredOn(message -> message.getMessageType() == MessageType.SYSTEM)
+            .extracting(Message::getText)
+            .singleElement()
+            .satisfies(text -> assertThat(text).endsWith(SUMMARY));
+        assertThat(sent.getLast().getText()).isEqualTo("Second question");
+    }
+
+    @Test
+    void storedSummariesAreNotPartOfTheWindow() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            chatMemory.add(CHAT_ID, List.of(new UserMessage("Question %d about columns. ".formatted(i).repeat(20)),
+                new AssistantMessage("Answer %d about columns. ".formatted(i).repeat(20))));
+        }
+        ask(advisor(), "First question");
+        awaitStoredSummary();
+        ask(advisor(), "Second question");
+
+        // Only the latest summary is sent, once
+        assertThat(answerPrompts.getLast().getInstructions())
+            .filteredOn(message -> message.getMessageType() == MessageType.SYSTEM
+                && message.getText().endsWith(SUMMARY))
+            .hasSize(1);
+    }
+
+    @Test
+    void longChatKeepsItsRetrieveSizeOfRealMessages() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            chatMemory.add(CHAT_ID, List.of(new UserMessage("Question %d about columns. ".formatted(i).repeat(20)),
+                new AssistantMessage("Answer %d about columns. ".formatted(i).repeat(20))));
+        }
+        for (int i = 0; i < 2; i++) {
+            chatMemory.add(CHAT_ID, List.of(new UserMessage("Short question " + i),
+                new AssistantMessage("Short answer " + i)));
+        }
+        ask(advisor(), "First question");
+        awaitStoredSummary();
+        assertThat(chatMemory.get(CHAT_ID, Integer.MAX_VALUE))
+            .noneMatch(message -> message.getMessageType() == MessageType.SYSTEM);
+
+        ask(advisor(), "Second question", 6);
+
+        List<Message> sent = answerPrompts.getLast().getInstructions();
+        assertThat(sent.getFirst().getText()).endsWith(SUMMARY);
+        assertThat(sent.subList(1, sent.size() - 1)).extracting(Message::getText).containsExactly(
+            "Short question 0", "Short answer 0", "Short question 1", "Short answer 1", "First question", "ANSWER");
+    }
+
+    private HistoryWindowAdvisor advisor() {
+        return HistoryWindowAdvisor.builder()
+            .chatClientBuilder(ChatClient.builder(chatModel))
+            .chatMemory(chatMemory)
+            .tokenBudget(300)
+            .meterRegistry(new SimpleMeterRegistry())
+            .build();
+    }
+
+    private void ask(HistoryWindowAdvisor advisor, String question) {
+        ask(advisor, question, 100);
+    }
+
+    private void ask(HistoryWindowAdvisor advisor, String question, int retrieveSize) {
+        ChatClient.builder(chatModel)
+            .defaultAdvisors(new MessageChatMemoryAdvisor(chatMemory, CHAT_ID, retrieveSize), advisor)
+            .build()
+            .prompt()
+            .user(question)
+            .advisors(advisors -> advisors.param(CHAT_MEMORY_CONVERSATION_ID_KEY, CHAT_ID))
+            .call()
+            .content();
+    }
+
+    private void awaitStoredSummary() throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (chatMemory.get(HistoryWindowAdvisor.summaryConversationId(CHAT_ID), 1).isEmpty()) {
+            assertThat(System.nanoTime()).as("summary stored in time").isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.vaadin.marcus.docsassistant.advisors;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.vaadin.marcus.docsassistant.benchmark.StubChatModel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PipelineMetricsAdvisorTest {
+
+    @Test
+    void frameworkTagHasFixedValues() {
+        assertThat(PipelineMetricsAdvisor.framework(request("flow"))).isEqualTo("flow");
+        assertThat(PipelineMetricsAdvisor.framework(request("hilla"))).isEqualTo("hilla");
+        assertThat(PipelineMetricsAdvisor.framework(request(""))).isEqualTo("none");
+        assertThat(PipelineMetricsAdvisor.framework(request(null))).isEqualTo("none");
+        assertThat(PipelineMetricsAdvisor.framework(request("flow-" + System.nanoTime()))).isEqualTo("other");
+    }
+
+    private static AdvisedRequest request(String framework) {
+        Map<String, Object> systemParams = new HashMap<>();
+        if (framework != null) {
+            systemParams.put("framework", framework);
+        }
+        return AdvisedRequest.builder()
+            .chatModel(StubChatModel.builder().build())
+            .userText("How do I use Grid?")
+            .systemParams(systemParams)
+            .build();
+    }
+}
@@ -0,0 +1,90 @@
+package org.vaadin.marcus.docsassistant.benchmark;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * A deterministic {@link EmbeddingModel} that hashes the words of a text into a normalized vector.
+ * Texts sharing words end up close to each other, which is enough structure for retrieval tests
+ * and benchmarks without calling a model.
+ */
+public class HashingEmbeddingModel implements EmbeddingModel {
+
+    private static final Pattern WORD = Pattern.compile("[^\\p{L}\\p{N}_@]+");
+
+    private final int dimensions;
+
+    /**
+     * Creates a new HashingEmbeddingModel.
+     *
+     * @param dimensions the number of dimensions of the embeddings
+     */
+    public HashingEmbeddingModel(int dimensions) {
+        Assert.isTrue(dimensions > 1, "Dimensions must be greater than one!");
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            embeddings.add(new Embedding(embed(texts.get(i)), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[this.dimensions];
+        for (String word : WORD.split(text.toLowerCase(Locale.ROOT))) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            int hash = mix(word.hashCode());
+            vector[Math.floorMod(hash, this.dimensions)] += (hash & 0x40000000) == 0 ? 1 : -1;
+        }
+
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            vector[0] = 1;
+            return vector;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return this.dimensions;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,146 @@
+package org.vaadin.marcus.docsassistant.benchmark;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * A deterministic {@link ChatModel} that answers with canned replies, so tests and benchmarks
+ * exercise the pipeline around the model instead of the model.
+ *
+ * <p>The reply is the one of the first rule whose marker occurs in the prompt, or the default reply.
+ * Streamed replies are split into word tokens; the first token arrives after the first-token latency
+ * and each token after the token interval.
+ */
+public class StubChatModel implements ChatModel {
+
+    private static final Pattern TOKEN_BOUNDARY = Pattern.compile("(?<=\\s)");
+
+    private final Map<String, String> replies;
+    private final String defaultReply;
+    private final Duration firstTokenLatency;
+    private final Duration tokenInterval;
+
+    /**
+     * Creates a new StubChatModel.
+     *
+     * @param replies           replies by a marker the prompt must contain, checked in order
+     * @param defaultReply      the reply to prompts that match no marker
+     * @param firstTokenLatency the delay before the first token
+     * @param tokenInterval     the delay before each token
+     */
+    public StubChatModel(Map<String, String> replies, String defaultReply, Duration firstTokenLatency,
+                         Duration tokenInterval) {
+        Assert.notNull(replies, "Replies must not be null!");
+        Assert.notNull(defaultReply, "Default reply must not be null!");
+        Assert.isTrue(firstTokenLatency != null && !firstTokenLatency.isNegative(),
+            "First token latency must not be negative!");
+        Assert.isTrue(tokenInterval != null && !tokenInterval.isNegative(), "Token interval must not be negative!");
+
+        this.replies = new LinkedHashMap<>(replies);
+        this.defaultReply = defaultReply;
+        this.firstTokenLatency = firstTokenLatency;
+        this.tokenInterval = tokenInterval;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        String reply = reply(prompt);
+        Duration latency = this.firstTokenLatency.plus(this.tokenInterval.multipliedBy(tokens(reply).size()));
+        if (!latency.isZero()) {
+            LockSupport.parkNanos(latency.toNanos());
+        }
+        return response(reply);
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            Flux<ChatResponse> tokens = Flux.fromIterable(tokens(reply(prompt))).map(StubChatModel::response);
+            if (!this.tokenInterval.isZero()) {
+                tokens = tokens.delayElements(this.tokenInterval);
+            }
+            return this.firstTokenLatency.isZero() ? tokens : tokens.delaySubscription(this.firstTokenLatency);
+        });
+    }
+
+    private String reply(Prompt prompt) {
+        String text = prompt.getInstructions().stream()
+            .map(Message::getText)
+            .collect(Collectors.joining("\n"));
+        return this.replies.entrySet().stream()
+            .filter(rule -> text.contains(rule.getKey()))
+            .map(Map.Entry::getValue)
+            .findFirst()
+            .orElse(this.defaultReply);
+    }
+
+    private static List<String> tokens(String reply) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : TOKEN_BOUNDARY.split(reply)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private static ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    /**
+     * Builder for creating StubChatModel instances.
+     */
+    public static final class Builder {
+        private final Map<String, String> replies = new LinkedHashMap<>();
+        private String defaultReply = "";
+        private Duration firstTokenLatency = Duration.ZERO;
+        private Duration tokenInterval = Duration.ZERO;
+
+        private Builder() {
+        }
+
+        public Builder reply(String marker, String reply) {
+            this.replies.put(marker, reply);
+            return this;
+        }
+
+        public Builder defaultReply(String defaultReply) {
+            this.defaultReply = defaultReply;
+            return this;
+        }
+
+        public Builder firstTokenLatency(Duration firstTokenLatency) {
+            this.firstTokenLatency = firstTokenLatency;
+            return this;
+        }
+
+        public Builder tokenInterval(Duration tokenInterval) {
+            this.tokenInterval = tokenInterval;
+            return this;
+        }
+
+        public StubChatModel build() {
+            return new StubChatModel(this.replies, this.defaultReply, this.firstTokenLatency, this.tokenInterval);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.vaadin.marcus.docsassistant.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.vaadin.marcus.docsassistant.benchmark.HashingEmbeddingModel;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CachingEmbeddingModelTest {
+
+    private static final int DIMENSIONS = 64;
+
+    private final AtomicInteger embeddedTexts = new AtomicInteger();
+    private CachingEmbeddingModel model;
+
+    @BeforeEach
+    void setUp(@TempDir Path directory) throws IOException {
+        var delegate = new HashingEmbeddingModel(DIMENSIONS) {
+            @Override
+            public EmbeddingResponse call(EmbeddingRequest request) {
+                embeddedTexts.addAndGet(request.getInstructions().size());
+                return super.call(request);
+            }
+        };
+        model = new CachingEmbeddingModel(delegate, "test-model",
+            new MappedEmbeddingStore(directory.resolve("cache.bin"), DIMENSIONS, 16), new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        model.close();
+    }
+
+    @Test
+    void queriesAreEmbeddedOnce() {
+        float[] first = model.embed("How do I use a Grid?");
+        float[] second = model.embed("How do I use a Grid?");
+
+        assertThat(second).isEqualTo(first);
+        assertThat(embeddedTexts).hasValue(1);
+    }
+
+    @Test
+    void documentBatchesBypassTheCache() {
+        model.embed("How do I use a Grid?");
+        List<String> chunks = List.of("Grid shows tabular data.", "Binder binds fields.", "How do I use a Grid?");
+
+        model.embed(chunks);
+        model.embed(chunks);
+        model.embed("Binder binds fields.");
+
+        // The query was cached before and stays cached, the chunks were never stored
+        assertThat(embeddedTexts).hasValue(1 + 3 + 3 + 1);
+        model.embed("How do I use a Grid?");
+        assertThat(embeddedTexts).hasValue(8);
+    }
+}
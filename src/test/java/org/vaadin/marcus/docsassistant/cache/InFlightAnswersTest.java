@@ -0,0 +1,133 @@
+package org.vaadin.marcus.docsassistant.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InFlightAnswersTest {
+
+    private static final String QUESTION = "How do I add a Grid?";
+
+    private final InFlightAnswers answers = new InFlightAnswers(new SimpleMeterRegistry());
+    private final AtomicInteger leaders = new AtomicInteger();
+    private final AtomicInteger followers = new AtomicInteger();
+    private final AtomicInteger cancelled = new AtomicInteger();
+    private Sinks.Many<String> upstream;
+
+    @Test
+    void followerJoiningMidStreamIsSentTheTokensSoFar() {
+        Request leader = request("flow", QUESTION);
+        upstream.tryEmitNext("Use ");
+        upstream.tryEmitNext("addColumn ");
+
+        Request follower = request("flow", "  how do I add a  grid? ");
+        assertThat(follower.tokens).containsExactly("Use ", "addColumn ");
+        upstream.tryEmitNext("on the Grid.");
+        upstream.tryEmitComplete();
+
+        assertThat(leader.tokens).containsExactly("Use ", "addColumn ", "on the Grid.");
+        assertThat(follower.tokens).containsExactly("Use ", "addColumn ", "on the Grid.");
+        assertThat(leader.completed).isTrue();
+        assertThat(follower.completed).isTrue();
+        assertThat(leaders).hasValue(1);
+        assertThat(followers).hasValue(1);
+        assertThat(answers.size()).isZero();
+    }
+
+    @Test
+    void questionsAboutOtherFrameworksAreNotShared() {
+        request("flow", QUESTION);
+        request("hilla", QUESTION);
+
+        assertThat(leaders).hasValue(2);
+        assertThat(followers).hasValue(0);
+        assertThat(answers.size()).isEqualTo(2);
+    }
+
+    @Test
+    void answerKeepsRunningWhileAFollowerStays() {
+        Request leader = request("flow", QUESTION);
+        Request follower = request("flow", QUESTION);
+        upstream.tryEmitNext("Use ");
+
+        leader.subscription.dispose();
+        assertThat(cancelled).hasValue(0);
+        assertThat(answers.size()).isEqualTo(1);
+
+        upstream.tryEmitNext("addColumn.");
+        upstream.tryEmitComplete();
+        assertThat(follower.tokens).containsExactly("Use ", "addColumn.");
+        assertThat(follower.completed).isTrue();
+        assertThat(answers.size()).isZero();
+    }
+
+    @Test
+    void answerIsCancelledWhenTheLastRequestLeaves() {
+        Request leader = request("flow", QUESTION);
+        Request follower = request("flow", QUESTION);
+        upstream.tryEmitNext("Use ");
+
+        leader.subscription.dispose();
+        follower.subscription.dispose();
+        assertThat(cancelled).hasValue(1);
+        assertThat(answers.size()).isZero();
+
+        // The next request for the question starts a new answer
+        Request next = request("flow", QUESTION);
+        assertThat(leaders).hasValue(2);
+        upstream.tryEmitNext("Call addColumn.");
+        upstream.tryEmitComplete();
+        assertThat(next.tokens).containsExactly("Call addColumn.");
+    }
+
+    @Test
+    void failedAnswerIsRemoved() {
+        Request leader = request("flow", QUESTION);
+        Request follower = request("flow", QUESTION);
+
+        upstream.tryEmitError(new IllegalStateException("Model unavailable"));
+        assertThat(leader.error.get()).isInstanceOf(IllegalStateException.class);
+        assertThat(follower.error.get()).isInstanceOf(IllegalStateException.class);
+        assertThat(answers.size()).isZero();
+
+        request("flow", QUESTION);
+        assertThat(leaders).hasValue(2);
+        assertThat(answers.size()).isEqualTo(1);
+    }
+
+    /**
+     * Subscribes a request for a question. A leader's answer streams what the test emits to
+     * {@link #upstream}.
+     */
+    private Request request(String framework, String question) {
+        Request request = new Request();
+        request.subscription = answers.share(framework, question,
+                () -> {
+                    leaders.incrementAndGet();
+                    upstream = Sinks.many().unicast().onBackpressureBuffer();
+                    return upstream.asFlux().doOnCancel(cancelled::incrementAndGet);
+                },
+                answer -> {
+                    followers.incrementAndGet();
+                    return answer;
+                })
+            .subscribe(request.tokens::add, request.error::set, () -> request.completed = true);
+        return request;
+    }
+
+    private static final class Request {
+
+        final List<String> tokens = new CopyOnWriteArrayList<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        volatile boolean completed;
+        Disposable subscription;
+    }
+}
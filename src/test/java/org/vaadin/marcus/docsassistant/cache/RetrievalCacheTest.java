@@ -0,0 +1,118 @@
+package org.vaadin.marcus.docsassistant.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RetrievalCacheTest {
+
+    private static final List<Document> DOCUMENTS = List.of(new Document("Use Grid.addColumn to add a column."));
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DocsIndexVersion indexVersion = new DocsIndexVersion("1");
+    private final RetrievalCache cache = new RetrievalCache(indexVersion, 100, Duration.ofHours(1), meterRegistry);
+    private final AtomicInteger retrievals = new AtomicInteger();
+
+    @Test
+    void concurrentIdenticalQueriesShareOneRetrieval() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        DocumentRetriever retriever = cache.wrap(query -> {
+            retrievals.incrementAndGet();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return DOCUMENTS;
+        }, "flow", 4, 0.7);
+
+        int callers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<List<Document>>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                String text = i % 2 == 0 ? "grid add column" : "  Grid   add COLUMN ";
+                results.add(executor.submit(() -> retriever.retrieve(new Query(text))));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (lookups("coalesced") < callers - 1 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            for (Future<List<Document>> result : results) {
+                assertThat(result.get(10, TimeUnit.SECONDS)).isEqualTo(DOCUMENTS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(retrievals).hasValue(1);
+        assertThat(lookups("miss")).isEqualTo(1);
+        assertThat(lookups("coalesced")).isEqualTo(callers - 1);
+    }
+
+    @Test
+    void newIndexVersionMissesTheCache() {
+        DocumentRetriever retriever = cache.wrap(counting(), "flow", 4, 0.7);
+
+        retriever.retrieve(new Query("grid add column"));
+        retriever.retrieve(new Query("grid add column"));
+        assertThat(retrievals).hasValue(1);
+        assertThat(lookups("hit")).isEqualTo(1);
+
+        indexVersion.update("2");
+        retriever.retrieve(new Query("grid add column"));
+        assertThat(retrievals).hasValue(2);
+        assertThat(lookups("miss")).isEqualTo(2);
+    }
+
+    @Test
+    void retrieversOfOtherFrameworksDoNotShareResults() {
+        cache.wrap(counting(), "flow", 4, 0.7).retrieve(new Query("grid add column"));
+        cache.wrap(counting(), "hilla", 4, 0.7).retrieve(new Query("grid add column"));
+        assertThat(retrievals).hasValue(2);
+    }
+
+    @Test
+    void failedRetrievalIsNotCached() {
+        AtomicInteger failures = new AtomicInteger(1);
+        DocumentRetriever retriever = cache.wrap(query -> {
+            retrievals.incrementAndGet();
+            if (failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("Vector store unavailable");
+            }
+            return DOCUMENTS;
+        }, "flow", 4, 0.7);
+
+        assertThatThrownBy(() -> retriever.retrieve(new Query("grid add column")))
+            .isInstanceOf(IllegalStateException.class);
+        assertThat(retriever.retrieve(new Query("grid add column"))).isEqualTo(DOCUMENTS);
+        assertThat(retrievals).hasValue(2);
+    }
+
+    private DocumentRetriever counting() {
+        return query -> {
+            retrievals.incrementAndGet();
+            return DOCUMENTS;
+        };
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.counter("docs.assistant.rag.retrieval.cache", "result", result).count();
+    }
+}
@@ -0,0 +1,129 @@
+package org.vaadin.marcus.docsassistant.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.vaadin.marcus.docsassistant.benchmark.HashingEmbeddingModel;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SemanticAnswerCacheTest {
+
+    // Questions with fixed embeddings: a paraphrase at cosine similarity 0.99, a related question at 0.8
+    private static final String GRID = "How do I add a column to a Grid?";
+    private static final String GRID_PARAPHRASE = "How can I add a Grid column?";
+    private static final String GRID_RELATED = "How do I sort a Grid column?";
+    private static final String BUTTON = "How do I style a Button?";
+    private static final String FORM = "How do I validate a form?";
+    private static final Map<String, float[]> EMBEDDINGS = Map.of(
+        GRID, new float[] {1, 0, 0, 0},
+        GRID_PARAPHRASE, new float[] {0.99f, (float) Math.sqrt(1 - 0.99 * 0.99), 0, 0},
+        GRID_RELATED, new float[] {0.8f, 0.6f, 0, 0},
+        BUTTON, new float[] {0, 0, 1, 0},
+        FORM, new float[] {0, 0, 0, 1});
+
+    @TempDir
+    Path directory;
+
+    private final HashingEmbeddingModel embeddingModel = new HashingEmbeddingModel(4) {
+        @Override
+        public float[] embed(String text) {
+            return EMBEDDINGS.get(text).clone();
+        }
+    };
+    private final DocsIndexVersion indexVersion = new DocsIndexVersion("1");
+
+    @Test
+    void similarQuestionHitsAndLessSimilarOneMisses() {
+        SemanticAnswerCache cache = cache(10, Duration.ofHours(1), null);
+        put(cache, "flow", GRID, "Call addColumn.");
+
+        assertThat(cache.lookup("flow", GRID).answer()).isEqualTo("Call addColumn.");
+        assertThat(cache.lookup("flow", GRID_PARAPHRASE).answer()).isEqualTo("Call addColumn.");
+        assertThat(cache.lookup("flow", GRID_RELATED).hit()).isFalse();
+        assertThat(cache.lookup("flow", BUTTON).hit()).isFalse();
+    }
+
+    @Test
+    void answersArePartitionedByFramework() {
+        SemanticAnswerCache cache = cache(10, Duration.ofHours(1), null);
+        put(cache, "flow", GRID, "Call addColumn.");
+        put(cache, "hilla", GRID, "Add a GridColumn.");
+
+        assertThat(cache.lookup("flow", GRID).answer()).isEqualTo("Call addColumn.");
+        assertThat(cache.lookup("hilla", GRID).answer()).isEqualTo("Add a GridColumn.");
+        assertThat(cache.lookup("other", GRID).hit()).isFalse();
+    }
+
+    @Test
+    void leastRecentlyUsedAnswerIsEvicted() {
+        SemanticAnswerCache cache = cache(2, Duration.ofHours(1), null);
+        put(cache, "flow", GRID, "Call addColumn.");
+        put(cache, "flow", BUTTON, "Add a theme variant.");
+        assertThat(cache.lookup("flow", GRID).hit()).isTrue();
+
+        put(cache, "flow", FORM, "Use a Binder.");
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.lookup("flow", BUTTON).hit()).isFalse();
+        assertThat(cache.lookup("flow", GRID).hit()).isTrue();
+        assertThat(cache.lookup("flow", FORM).hit()).isTrue();
+    }
+
+    @Test
+    void expiredAnswerIsDropped() throws InterruptedException {
+        SemanticAnswerCache cache = cache(10, Duration.ofMillis(200), null);
+        put(cache, "flow", GRID, "Call addColumn.");
+        assertThat(cache.lookup("flow", GRID).hit()).isTrue();
+
+        Thread.sleep(300);
+        assertThat(cache.lookup("flow", GRID).hit()).isFalse();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void answersOfAnotherIndexVersionAreDropped() {
+        SemanticAnswerCache cache = cache(10, Duration.ofHours(1), null);
+        put(cache, "flow", GRID, "Call addColumn.");
+
+        indexVersion.update("2");
+        assertThat(cache.lookup("flow", GRID).hit()).isFalse();
+        assertThat(cache.size()).isZero();
+
+        put(cache, "flow", GRID, "Call addColumn on the Grid.");
+        assertThat(cache.lookup("flow", GRID).answer()).isEqualTo("Call addColumn on the Grid.");
+    }
+
+    @Test
+    void savedAnswersOfTheCurrentIndexVersionAreLoaded() {
+        Path file = directory.resolve("cache/answers.bin");
+        SemanticAnswerCache cache = cache(10, Duration.ofHours(1), file);
+        put(cache, "flow", GRID, "Call addColumn – ünïcödé.");
+        put(cache, "hilla", BUTTON, "Add a theme variant.");
+        cache.save();
+
+        SemanticAnswerCache loaded = cache(10, Duration.ofHours(1), file);
+        loaded.load();
+        assertThat(loaded.size()).isEqualTo(2);
+        assertThat(loaded.lookup("flow", GRID_PARAPHRASE).answer()).isEqualTo("Call addColumn – ünïcödé.");
+        assertThat(loaded.lookup("hilla", BUTTON).answer()).isEqualTo("Add a theme variant.");
+        assertThat(loaded.lookup("flow", BUTTON).hit()).isFalse();
+
+        indexVersion.update("2");
+        SemanticAnswerCache reindexed = cache(10, Duration.ofHours(1), file);
+        reindexed.load();
+        assertThat(reindexed.size()).isZero();
+    }
+
+    private SemanticAnswerCache cache(int maxEntriesPerFramework, Duration timeToLive, Path persistenceFile) {
+        return new SemanticAnswerCache(embeddingModel, indexVersion, 0.95, maxEntriesPerFramework, timeToLive,
+            Duration.ZERO, persistenceFile, new SimpleMeterRegistry());
+    }
+
+    private static void put(SemanticAnswerCache cache, String framework, String question, String answer) {
+        cache.put(framework, cache.lookup(framework, question), answer);
+    }
+}
@@ -0,0 +1,189 @@
+package org.vaadin.marcus.docsassistant.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatAdmissionTest {
+
+    private static final String BUSY = "busy";
+    private static final Duration MAX_WAIT = Duration.ofSeconds(10);
+
+    private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void tearDown() {
+        scheduler.dispose();
+    }
+
+    @Test
+    void fullQueueGetsTheBusyResponse() {
+        ChatAdmission admission = admission(1, 1);
+        Answer first = Answer.start(admission);
+        Answer queued = Answer.start(admission);
+        assertThat(admission.active()).isEqualTo(1);
+        assertThat(admission.queued()).isEqualTo(1);
+
+        StepVerifier.create(admission.admit(Flux.just("never")))
+            .expectNext(BUSY)
+            .verifyComplete();
+        assertThat(rejected("queue-full")).isEqualTo(1);
+
+        first.complete();
+        assertThat(queued.subscribed).isTrue();
+        queued.complete();
+        assertThat(queued.frames).containsExactly("answer");
+        assertThat(admission.active()).isZero();
+    }
+
+    @Test
+    void answerWaitingForTheMaxWaitGetsTheBusyResponse() {
+        ChatAdmission admission = admission(1, 1);
+        Answer first = Answer.start(admission);
+        Answer queued = Answer.start(admission);
+
+        scheduler.advanceTimeBy(MAX_WAIT.minusMillis(1));
+        assertThat(queued.frames).isEmpty();
+        scheduler.advanceTimeBy(Duration.ofMillis(1));
+        assertThat(queued.frames).containsExactly(BUSY);
+        assertThat(queued.subscribed).isFalse();
+        assertThat(admission.queued()).isZero();
+        assertThat(rejected("timeout")).isEqualTo(1);
+
+        first.complete();
+        assertThat(admission.active()).isZero();
+    }
+
+    @Test
+    void cancelledWaitingAnswerGivesUpItsPlace() {
+        ChatAdmission admission = admission(1, 1);
+        Answer first = Answer.start(admission);
+        Answer queued = Answer.start(admission);
+
+        queued.subscription.dispose();
+        assertThat(admission.queued()).isZero();
+        assertThat(admission.active()).isEqualTo(1);
+
+        first.complete();
+        assertThat(queued.subscribed).isFalse();
+        assertThat(admission.active()).isZero();
+
+        // The wait timer of the cancelled answer was disposed, it does not fire later
+        scheduler.advanceTimeBy(MAX_WAIT);
+        assertThat(queued.frames).isEmpty();
+        assertThat(rejected("timeout")).isZero();
+
+        Answer next = Answer.start(admission);
+        assertThat(next.subscribed).isTrue();
+        assertThat(admission.active()).isEqualTo(1);
+        next.complete();
+        assertThat(admission.active()).isZero();
+    }
+
+    @Test
+    void rateLimitBeforeTheFirstTokenGetsTheBusyResponseAndShrinksTheLimit() {
+        ChatAdmission admission = admission(4, 1);
+
+        StepVerifier.create(admission.admit(Flux.error(tooManyRequests())))
+            .expectNext(BUSY)
+            .verifyComplete();
+        assertThat(admission.limit()).isEqualTo(3);
+        assertThat(admission.active()).isZero();
+        assertThat(rejected("overloaded")).isEqualTo(1);
+    }
+
+    @Test
+    void rateLimitAfterTheFirstTokenIsPropagated() {
+        ChatAdmission admission = admission(4, 1);
+
+        StepVerifier.create(admission.admit(Flux.just("partial").concatWith(Flux.error(tooManyRequests()))))
+            .expectNext("partial")
+            .verifyError(WebClientResponseException.TooManyRequests.class);
+        assertThat(admission.limit()).isEqualTo(3);
+        assertThat(admission.active()).isZero();
+        assertThat(rejected("overloaded")).isZero();
+    }
+
+    @Test
+    void limitGrowsOnlyWhileItIsUsed() {
+        ChatAdmission admission = admission(4, 1);
+
+        // One answer at a time uses a quarter of the limit
+        for (int i = 0; i < 20; i++) {
+            Answer.start(admission).complete();
+        }
+        assertThat(admission.limit()).isEqualTo(4);
+
+        // Answers that use the whole limit grow it by a bit more than one per three rounds
+        for (int round = 0; round < 3; round++) {
+            List<Answer> answers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                answers.add(Answer.start(admission));
+            }
+            assertThat(admission.queued()).isZero();
+            answers.forEach(Answer::complete);
+        }
+        assertThat(admission.limit()).isEqualTo(5);
+        assertThat(admission.active()).isZero();
+    }
+
+    private ChatAdmission admission(int limit, int queueSize) {
+        return ChatAdmission.builder()
+            .initialLimit(limit)
+            .minLimit(1)
+            .maxLimit(8)
+            .queueSize(queueSize)
+            .maxWait(MAX_WAIT)
+            .latencyThreshold(Duration.ofHours(1))
+            .busyResponse(BUSY)
+            .scheduler(scheduler)
+            .meterRegistry(meterRegistry)
+            .build();
+    }
+
+    private double rejected(String reason) {
+        return meterRegistry.counter("docs.assistant.chat.admission.rejected", "reason", reason).count();
+    }
+
+    private static WebClientResponseException tooManyRequests() {
+        return WebClientResponseException.create(429, "Too Many Requests", HttpHeaders.EMPTY, new byte[0], null);
+    }
+
+    /**
+     * An answer that streams one token once admitted and completes when the test says so.
+     */
+    private static final class Answer {
+
+        final List<String> frames = new CopyOnWriteArrayList<>();
+        final Sinks.Many<String> tokens = Sinks.many().unicast().onBackpressureBuffer();
+        Disposable subscription;
+        boolean subscribed;
+
+        static Answer start(ChatAdmission admission) {
+            Answer answer = new Answer();
+            answer.subscription = admission.admit(answer.tokens.asFlux().doOnSubscribe(s -> answer.subscribed = true))
+                .subscribe(answer.frames::add);
+            return answer;
+        }
+
+        void complete() {
+            tokens.tryEmitNext("answer");
+            tokens.tryEmitComplete();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.vaadin.marcus.docsassistant.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.vaadin.marcus.docsassistant.benchmark.StubChatModel;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HedgingChatModelTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration DELAY = Duration.ofMillis(50);
+    private static final Duration SLOW = Duration.ofSeconds(2);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private HedgingChatModel model;
+
+    @AfterEach
+    void tearDown() {
+        if (model != null) {
+            model.close();
+        }
+    }
+
+    @Test
+    void hedgeThatStartsFirstWinsAndCancelsThePrimary() {
+        var primary = new LatencyModel("primary", SLOW);
+        var hedge = new LatencyModel("hedge", Duration.ZERO);
+        model = hedging(primary, hedge, DELAY, DELAY, 1);
+
+        assertThat(answer()).isEqualTo("hedge");
+        assertThat(primary.cancelled).hasValue(1);
+        assertThat(hedges("hedge-won")).isEqualTo(1);
+        assertThat(hedges("primary-won")).isZero();
+    }
+
+    @Test
+    void primaryThatStartsFirstWinsAfterAHedgeWasSent() {
+        var primary = new LatencyModel("primary", Duration.ofMillis(300));
+        var hedge = new LatencyModel("hedge", SLOW);
+        model = hedging(primary, hedge, DELAY, DELAY, 1);
+
+        assertThat(answer()).isEqualTo("primary");
+        assertThat(hedge.subscribed).hasValue(1);
+        assertThat(hedge.cancelled).hasValue(1);
+        assertThat(hedges("primary-won")).isEqualTo(1);
+        assertThat(hedges("hedge-won")).isZero();
+    }
+
+    @Test
+    void hedgeFailingBeforeItsFirstChunkLeavesThePrimaryToAnswer() {
+        var primary = new LatencyModel("primary", Duration.ofMillis(300));
+        var hedge = new LatencyModel("hedge", Duration.ZERO) {
+            @Override
+            public Flux<ChatResponse> stream(Prompt prompt) {
+                subscribed.incrementAndGet();
+                return Flux.error(new IllegalStateException("Fallback unavailable"));
+            }
+        };
+        model = hedging(primary, hedge, DELAY, DELAY, 1);
+
+        assertThat(answer()).isEqualTo("primary");
+        assertThat(hedge.subscribed).hasValue(1);
+        assertThat(hedges("primary-won")).isEqualTo(1);
+    }
+
+    @Test
+    void budgetLimitsTheHedges() {
+        var primary = new LatencyModel("primary", Duration.ofMillis(200));
+        var hedge = new LatencyModel("hedge", Duration.ZERO);
+        model = hedging(primary, hedge, DELAY, DELAY, 0.25);
+
+        for (int i = 0; i < 8; i++) {
+            answer();
+        }
+        assertThat(hedge.subscribed).hasValue(2);
+        assertThat(hedges("hedge-won")).isEqualTo(2);
+        assertThat(primary.subscribed).hasValue(8);
+    }
+
+    @Test
+    void maxDelayAppliesUntilEnoughLatenciesAreSeen() {
+        var primary = new LatencyModel("primary", Duration.ofMillis(100));
+        var hedge = new LatencyModel("hedge", Duration.ZERO);
+        Duration maxDelay = Duration.ofSeconds(1);
+        model = hedging(primary, hedge, Duration.ofMillis(10), maxDelay, 1);
+        assertThat(delay()).isEqualTo(maxDelay);
+
+        // Slower than the percentile delay would be, but faster than the max delay
+        assertThat(answer()).isEqualTo("primary");
+        assertThat(hedge.subscribed).hasValue(0);
+
+        for (int i = 1; i < 20; i++) {
+            answer();
+        }
+        assertThat(hedge.subscribed).hasValue(0);
+        assertThat(delay()).isLessThan(maxDelay).isGreaterThanOrEqualTo(Duration.ofMillis(100));
+
+        primary.latency = SLOW;
+        assertThat(answer()).isEqualTo("hedge");
+        assertThat(hedge.subscribed).hasValue(1);
+    }
+
+    private HedgingChatModel hedging(LatencyModel primary, LatencyModel hedge, Duration minDelay, Duration maxDelay,
+                                     double budget) {
+        return HedgingChatModel.builder()
+            .primary(primary)
+            .fallback(hedge)
+            .minDelay(minDelay)
+            .maxDelay(maxDelay)
+            .sampleSize(20)
+            .budget(budget)
+            .meterRegistry(meterRegistry)
+            .build();
+    }
+
+    private String answer() {
+        return model.stream(new Prompt("How do I add a column to a Grid?"))
+            .map(response -> response.getResult().getOutput().getText())
+            .reduce(String::concat)
+            .block(TIMEOUT);
+    }
+
+    private double hedges(String outcome) {
+        return meterRegistry.counter("docs.assistant.model.hedges", "type", "stream", "outcome", outcome).count();
+    }
+
+    private Duration delay() {
+        double nanos = meterRegistry.get("docs.assistant.model.hedge.delay").tag("type", "stream").timeGauge()
+            .value(TimeUnit.NANOSECONDS);
+        return Duration.ofNanos((long) nanos);
+    }
+
+    /**
+     * A stub model with a first-token latency that can change between requests, which counts the
+     * streams it was asked for and that were cancelled.
+     */
+    private static class LatencyModel extends StubChatModel {
+
+        final AtomicInteger subscribed = new AtomicInteger();
+        final AtomicInteger cancelled = new AtomicInteger();
+        volatile Duration latency;
+
+        LatencyModel(String reply, Duration latency) {
+            super(Map.of(), reply, Duration.ZERO, Duration.ZERO);
+            this.latency = latency;
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            return super.stream(prompt)
+                .delaySubscription(latency)
+                .doOnSubscribe(subscription -> subscribed.incrementAndGet())
+                .doOnCancel(cancelled::incrementAndGet);
+        }
+    }
+}
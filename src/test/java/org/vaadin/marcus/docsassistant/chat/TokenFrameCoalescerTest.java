@@ -0,0 +1,157 @@
+package org.vaadin.marcus.docsassistant.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import reactor.core.publisher.Sinks;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenFrameCoalescerTest {
+
+    private static final Duration WINDOW = Duration.ofMillis(30);
+    private static final int FRAME_SIZE = 16;
+
+    private static final String ANSWER = """
+        Add a column to the Grid:
+
+        ```java
+        Grid<Person> grid = new Grid<>(Person.class);
+        grid.addColumn(Person::getName).setHeader("Name");
+        ```
+
+        The request travels like this 🚀:
+
+        ```mermaid
+        graph TD
+          A[Browser] --> B[Server]
+          B --> C[Database]
+        ```
+
+        Done – the column shows the names, ünïcödé included.
+        """;
+
+    private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+    private final TokenFrameCoalescer coalescer = TokenFrameCoalescer.builder()
+        .window(WINDOW)
+        .frameSize(FRAME_SIZE)
+        .maxHoldSize(8 * 1024)
+        .scheduler(scheduler)
+        .meterRegistry(new SimpleMeterRegistry())
+        .build();
+
+    private final Sinks.Many<String> tokens = Sinks.many().unicast().onBackpressureBuffer();
+    private final List<String> frames = new CopyOnWriteArrayList<>();
+    private boolean completed;
+
+    @AfterEach
+    void tearDown() {
+        scheduler.dispose();
+    }
+
+    @Test
+    void firstTokenIsSentRightAway() {
+        subscribe();
+        tokens.tryEmitNext("Add");
+        assertThat(frames).containsExactly("Add");
+
+        tokens.tryEmitNext(" a");
+        tokens.tryEmitNext(" column");
+        assertThat(frames).containsExactly("Add");
+        scheduler.advanceTimeBy(WINDOW);
+        assertThat(frames).containsExactly("Add", " a column");
+    }
+
+    @Test
+    void frameIsSentOnceItReachesItsSize() {
+        subscribe();
+        tokens.tryEmitNext("Add");
+        tokens.tryEmitNext(" a column to");
+        tokens.tryEmitNext(" the Grid");
+        assertThat(frames).containsExactly("Add", " a column to the Grid");
+    }
+
+    @Test
+    void tailIsSentWhenTheAnswerEnds() {
+        subscribe();
+        tokens.tryEmitNext("Add");
+        tokens.tryEmitNext(" a");
+        tokens.tryEmitNext(" column");
+        tokens.tryEmitComplete();
+
+        assertThat(frames).containsExactly("Add", " a column");
+        assertThat(completed).isTrue();
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10})
+    void framesConcatenateToTheAnswerAndDoNotSplitBlocks(long seed) {
+        subscribe();
+        Random random = new Random(seed);
+        List<String> split = split(ANSWER, random);
+        for (String token : split) {
+            tokens.tryEmitNext(token);
+            if (random.nextInt(4) == 0) {
+                scheduler.advanceTimeBy(WINDOW);
+            }
+        }
+        tokens.tryEmitComplete();
+
+        assertThat(frames.getFirst()).isEqualTo(split.getFirst());
+        assertThat(String.join("", frames)).isEqualTo(ANSWER);
+        assertThat(completed).isTrue();
+
+        List<Integer> boundaries = boundaries();
+        int code = ANSWER.indexOf("```java\n") + "```java\n".length();
+        int codeEnd = ANSWER.indexOf("```\n", code) + "```\n".length();
+        assertThat(boundaries).filteredOn(boundary -> boundary > code && boundary < codeEnd)
+            .as("frame ends inside the code block")
+            .allSatisfy(boundary -> assertThat(ANSWER.charAt(boundary - 1)).isEqualTo('\n'));
+        int mermaid = ANSWER.indexOf("```mermaid\n") + "```mermaid\n".length();
+        int mermaidEnd = ANSWER.indexOf("```\n", mermaid) + "```\n".length();
+        assertThat(boundaries).as("frame ends inside the Mermaid block")
+            .noneMatch(boundary -> boundary >= mermaid && boundary < mermaidEnd);
+    }
+
+    private void subscribe() {
+        coalescer.coalesce(tokens.asFlux()).subscribe(frames::add, e -> { }, () -> completed = true);
+    }
+
+    /**
+     * Returns the offsets in the answer at which frames end.
+     */
+    private List<Integer> boundaries() {
+        List<Integer> boundaries = new ArrayList<>();
+        int offset = 0;
+        for (String frame : frames) {
+            offset += frame.length();
+            boundaries.add(offset);
+        }
+        return boundaries;
+    }
+
+    /**
+     * Splits text into tokens of one to eight characters, as a model streams them.
+     */
+    private static List<String> split(String text, Random random) {
+        List<String> tokens = new ArrayList<>();
+        for (int start = 0; start < text.length(); ) {
+            int end = Math.min(text.length(), start + 1 + random.nextInt(8));
+            if (Character.isHighSurrogate(text.charAt(end - 1)) && end < text.length()) {
+                end++;
+            }
+            tokens.add(text.substring(start, end));
+            start = end;
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,260 @@
+package org.vaadin.marcus.docsassistant.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.ai.retry.RetryUtils;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestClient;
+import org.vaadin.marcus.docsassistant.DocsAssistantProperties;
+import org.vaadin.marcus.docsassistant.DocsAssistantProperties.Memory.Store;
+import org.vaadin.marcus.docsassistant.benchmark.HashingEmbeddingModel;
+import org.vaadin.marcus.docsassistant.client.DocsAssistantService.ChatOptions;
+import org.vaadin.marcus.docsassistant.load.StubOpenAiServer;
+import org.vaadin.marcus.docsassistant.memory.BoundedChatMemory;
+import org.vaadin.marcus.docsassistant.memory.SegmentLogChatMemory;
+import reactor.core.Disposable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+/**
+ * Runs chats against a {@link StubOpenAiServer} and checks that an answer that is cancelled or
+ * superseded stops the model call of the stage it is in, and is remembered once as far as it was
+ * streamed. Runs against both chat memory stores, as the threads of cancelled stages are
+ * interrupted while they may be remembering the chat.
+ */
+class DocsAssistantServiceCancellationTest {
+
+    private static final int DIMENSIONS = 64;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration STAGE_SETTLE_TIME = Duration.ofMillis(300);
+
+    // Markers of the stub's reply rules, which tell the model calls of the stages apart
+    private static final String GUARDRAIL = "You are a guardrail system";
+    private static final String REWRITE = "Rewritten query:";
+    private static final String FOLLOW_UP_REWRITE = "Standalone query:";
+    private static final String ANSWER = "";
+
+    private static final String CHAT_ID = "chat";
+    private static final String OTHER_CHAT_ID = "other-chat";
+    private static final ChatOptions OPTIONS = new ChatOptions("flow");
+    private static final String QUESTION = "How do I add a column to a Grid?";
+    private static final String FOLLOW_UP = "And how do I make it sortable?";
+    private static final String REPLY = "Call addColumn on the Grid with a value provider for the column, "
+        + "then set a header and a width on the column it returns, and repeat this for every other property "
+        + "of the bean that the Grid should show.";
+
+    @TempDir
+    Path directory;
+
+    private StubOpenAiServer stub;
+    private OpenAiChatModel chatModel;
+    private HashingEmbeddingModel embeddingModel;
+    private SimpleVectorStore vectorStore;
+    private ChatMemory chatMemory;
+    private DocsAssistantService service;
+
+    static Stream<Arguments> storesAndStages() {
+        return Stream.of(Store.values())
+            .flatMap(store -> Stream.of(GUARDRAIL, REWRITE, ANSWER).map(stage -> Arguments.of(store, stage)));
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Map<String, String> replies = new LinkedHashMap<>();
+        replies.put(GUARDRAIL, "The question is about Vaadin development.\nDECISION: ACCEPTABLE");
+        replies.put(REWRITE, "grid add column");
+        replies.put(FOLLOW_UP_REWRITE, "grid sortable column");
+        stub = new StubOpenAiServer(replies, REPLY, Duration.ofSeconds(1), 0, Duration.ZERO, Duration.ofMillis(10),
+            Duration.ZERO, 0, DIMENSIONS);
+
+        // Like the application, with the JDK client for blocking calls and the default retries
+        var openAiApi = OpenAiApi.builder()
+            .baseUrl(stub.baseUrl())
+            .apiKey("stub")
+            .restClientBuilder(RestClient.builder().requestFactory(new JdkClientHttpRequestFactory()))
+            .build();
+        chatModel = OpenAiChatModel.builder()
+            .openAiApi(openAiApi)
+            .defaultOptions(OpenAiChatOptions.builder().model("gpt-4o-mini").temperature(0.0).build())
+            .retryTemplate(RetryUtils.DEFAULT_RETRY_TEMPLATE)
+            .build();
+
+        embeddingModel = new HashingEmbeddingModel(DIMENSIONS);
+        vectorStore = SimpleVectorStore.builder(embeddingModel).build();
+        vectorStore.add(List.of(
+            new Document("Use Grid.addColumn to add a column to a Grid.", Map.of("framework", "flow")),
+            new Document("Columns of a Grid are sortable with setSortable(true).", Map.of("framework", "flow"))));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (service != null) {
+            service.shutdown();
+        }
+        if (chatMemory instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+        stub.close();
+    }
+
+    @ParameterizedTest
+    @MethodSource("storesAndStages")
+    void cancelledAnswerStopsTheModelCallOfItsStage(Store store, String stage) throws Exception {
+        start(store);
+        List<String> frames = new CopyOnWriteArrayList<>();
+        Disposable answer = service.stream(CHAT_ID, QUESTION, OPTIONS).subscribe(frames::add);
+        awaitStage(stage, frames);
+
+        answer.dispose();
+        await(() -> stub.running() == 0);
+
+        assertThat(stub.abortedReplies()).containsOnly(entry(stage, 1L));
+        List<Message> history = chatMemory.get(CHAT_ID, 100);
+        if (stage.equals(ANSWER)) {
+            assertThat(history).extracting(Message::getMessageType)
+                .containsExactly(MessageType.USER, MessageType.ASSISTANT);
+            assertPartialAnswer(history.get(1).getText(), frames);
+        } else {
+            assertThat(history).extracting(Message::getMessageType).containsExactly(MessageType.USER);
+        }
+        assertThat(history.getFirst().getText()).isEqualTo(QUESTION);
+        assertOtherChatIsRemembered();
+    }
+
+    @ParameterizedTest
+    @MethodSource("storesAndStages")
+    void supersededAnswerStopsTheModelCallOfItsStage(Store store, String stage) throws Exception {
+        start(store);
+        List<String> frames = new CopyOnWriteArrayList<>();
+        AtomicBoolean ended = new AtomicBoolean();
+        service.stream(CHAT_ID, QUESTION, OPTIONS).subscribe(frames::add, e -> ended.set(true), () -> ended.set(true));
+        awaitStage(stage, frames);
+
+        String followUpAnswer = String.join("", service.stream(CHAT_ID, FOLLOW_UP, OPTIONS)
+            .collectList()
+            .block(TIMEOUT));
+        assertThat(ended).isTrue();
+        assertThat(followUpAnswer).isEqualTo(REPLY);
+        await(() -> stub.running() == 0);
+
+        assertThat(stub.abortedReplies()).containsOnly(entry(stage, 1L));
+        List<Message> history = chatMemory.get(CHAT_ID, 100);
+        if (stage.equals(ANSWER)) {
+            assertThat(history).extracting(Message::getMessageType)
+                .containsExactly(MessageType.USER, MessageType.ASSISTANT, MessageType.USER, MessageType.ASSISTANT);
+            assertPartialAnswer(history.get(1).getText(), frames);
+        } else {
+            assertThat(history).extracting(Message::getMessageType)
+                .containsExactly(MessageType.USER, MessageType.USER, MessageType.ASSISTANT);
+        }
+        assertThat(history.getFirst().getText()).isEqualTo(QUESTION);
+        assertThat(history.get(history.size() - 2).getText()).isEqualTo(FOLLOW_UP);
+        assertThat(history.getLast().getText()).isEqualTo(REPLY);
+        assertOtherChatIsRemembered();
+    }
+
+    private void start(Store store) throws IOException {
+        chatMemory = switch (store) {
+            case IN_MEMORY -> new BoundedChatMemory(100, 100, DataSize.ofMegabytes(1).toBytes(), Duration.ofHours(1),
+                1024, new SimpleMeterRegistry());
+            case SEGMENT_LOG -> new SegmentLogChatMemory(directory, 100, DataSize.ofMegabytes(1).toBytes(),
+                Duration.ofSeconds(1), Duration.ofHours(1), Duration.ofDays(1), new SimpleMeterRegistry());
+        };
+        service = new DocsAssistantService(ChatClient.builder(chatModel), vectorStore, chatMemory, embeddingModel,
+            null, null, null, properties(), new SimpleMeterRegistry());
+    }
+
+    /**
+     * Asserts that the chat memory still works after the threads of the cancelled stages were
+     * interrupted: a new chat remembers its first turn and answers a follow-up with it.
+     */
+    private void assertOtherChatIsRemembered() {
+        assertThat(String.join("", service.stream(OTHER_CHAT_ID, QUESTION, OPTIONS).collectList().block(TIMEOUT)))
+            .isEqualTo(REPLY);
+        assertThat(String.join("", service.stream(OTHER_CHAT_ID, FOLLOW_UP, OPTIONS).collectList().block(TIMEOUT)))
+            .isEqualTo(REPLY);
+        assertThat(chatMemory.get(OTHER_CHAT_ID, 100)).extracting(Message::getText)
+            .containsExactly(QUESTION, REPLY, FOLLOW_UP, REPLY);
+    }
+
+    /**
+     * Waits until the answer is in a stage: until the stub serves the model call of the stage, and
+     * for the answer itself until the first tokens have arrived.
+     */
+    private void awaitStage(String stage, List<String> frames) throws InterruptedException {
+        await(() -> stub.running(stage) == 1);
+        if (stage.equals(ANSWER)) {
+            await(() -> !frames.isEmpty());
+        } else {
+            // The stub has the request, give the client a moment to receive the response headers
+            Thread.sleep(STAGE_SETTLE_TIME);
+        }
+    }
+
+    /**
+     * Asserts that the remembered answer starts with what was streamed to the user, which may lag
+     * behind by the frames still being coalesced, and was cut short.
+     */
+    private static void assertPartialAnswer(String remembered, List<String> frames) {
+        assertThat(remembered)
+            .startsWith(String.join("", frames))
+            .isNotEqualTo(REPLY);
+        assertThat(REPLY).startsWith(remembered);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition met in time").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Returns the application's properties, except that every question goes to the guardrail model.
+     */
+    private static DocsAssistantProperties properties() throws IOException {
+        Map<String, Object> properties = new HashMap<>();
+        PropertiesLoaderUtils.loadProperties(new ClassPathResource("application.properties")).forEach((key, value) -> {
+            if (key.toString().startsWith("docs-assistant.")) {
+                properties.put(key.toString(), value);
+            }
+        });
+        properties.put("docs-assistant.guardrail.pre-classifier.enabled", "false");
+        properties.put("docs-assistant.guardrail.cache.enabled", "false");
+        return new Binder(new MapConfigurationPropertySource(properties))
+            .bindOrCreate("docs-assistant", DocsAssistantProperties.class);
+    }
+}
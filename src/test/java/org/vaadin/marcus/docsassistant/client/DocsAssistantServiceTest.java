@@ -0,0 +1,24 @@
+package org.vaadin.marcus.docsassistant.client;
+
+import org.junit.jupiter.api.Test;
+import org.vaadin.marcus.docsassistant.client.DocsAssistantService.ChatOptions;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DocsAssistantServiceTest {
+
+    @Test
+    void knownFrameworksAreKept() {
+        assertThat(DocsAssistantService.framework(new ChatOptions("flow"))).isEqualTo("flow");
+        assertThat(DocsAssistantService.framework(new ChatOptions(" Hilla "))).isEqualTo("hilla");
+    }
+
+    @Test
+    void otherFrameworksAreAnsweredAsGeneralQuestions() {
+        assertThat(DocsAssistantService.framework(null)).isEmpty();
+        assertThat(DocsAssistantService.framework(new ChatOptions(null))).isEmpty();
+        assertThat(DocsAssistantService.framework(new ChatOptions(""))).isEmpty();
+        assertThat(DocsAssistantService.framework(new ChatOptions("react"))).isEmpty();
+        assertThat(DocsAssistantService.framework(new ChatOptions("flow-" + System.nanoTime()))).isEmpty();
+    }
+}
@@ -0,0 +1,194 @@
+package org.vaadin.marcus.docsassistant.ingestion;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.vaadin.marcus.docsassistant.benchmark.HashingEmbeddingModel;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DocsIngestionPipelineTest {
+
+    private static final int DIMENSIONS = 64;
+
+    @TempDir
+    Path directory;
+
+    private final AtomicInteger embeddedTexts = new AtomicInteger();
+    private final HashingEmbeddingModel embeddingModel = new HashingEmbeddingModel(DIMENSIONS) {
+        @Override
+        public float[] embed(Document document) {
+            embeddedTexts.incrementAndGet();
+            return super.embed(document);
+        }
+    };
+    private final FailingVectorStore vectorStore =
+        new FailingVectorStore(SimpleVectorStore.builder(embeddingModel).build());
+    private Path docs;
+    private DocsIngestionPipeline pipeline;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        docs = Files.createDirectories(directory.resolve("docs"));
+        pipeline = DocsIngestionPipeline.builder()
+            .vectorStore(vectorStore)
+            .chunker(new DocsChunker(200, List.of("flow", "hilla")))
+            .checkpointFile(directory.resolve("ingestion-checkpoint"))
+            .batchSize(1)
+            .parallelism(1)
+            .requestsPerSecond(0)
+            .checkpointInterval(Duration.ZERO)
+            .meterRegistry(new SimpleMeterRegistry())
+            .build();
+    }
+
+    @Test
+    void unchangedChunksAreNotEmbeddedAgain() throws IOException {
+        page("flow/grid.adoc", "Grid", "Columns", "Sorting", "Filtering");
+        page("hilla/form.adoc", "Form", "Binding", "Validation");
+        int chunks = pipeline.chunks(docs).size();
+
+        var first = pipeline.ingest(docs);
+        assertThat(first.embedded()).isEqualTo(chunks);
+        assertThat(embeddedTexts).hasValue(chunks);
+
+        var second = pipeline.ingest(docs);
+        assertThat(second.changed()).isFalse();
+        assertThat(second.unchanged()).isEqualTo(chunks);
+        assertThat(second.indexVersion()).isEqualTo(first.indexVersion());
+        assertThat(embeddedTexts).hasValue(chunks);
+
+        // Only the section that was rewritten is embedded, the one it replaces is deleted
+        page("flow/grid.adoc", "Grid", "Columns", "Sorting", "Lazy loading");
+        var third = pipeline.ingest(docs);
+        assertThat(third.embedded()).isEqualTo(1);
+        assertThat(third.deleted()).isEqualTo(1);
+        assertThat(third.indexVersion()).isNotEqualTo(first.indexVersion());
+        assertThat(embeddedTexts).hasValue(chunks + 1);
+        assertThat(storedIds()).isEqualTo(ids(pipeline.chunks(docs)));
+    }
+
+    @Test
+    void interruptedRunResumesWhereItStopped() throws IOException {
+        page("flow/grid.adoc", "Grid", "Columns", "Sorting", "Filtering", "Selection", "Editing");
+        int chunks = pipeline.chunks(docs).size();
+
+        vectorStore.addsBeforeFailure.set(2);
+        assertThatThrownBy(() -> pipeline.ingest(docs)).isInstanceOf(IllegalStateException.class);
+        assertThat(storedIds()).hasSize(2);
+
+        vectorStore.addsBeforeFailure.set(Integer.MAX_VALUE);
+        var resumed = pipeline.ingest(docs);
+        assertThat(resumed.embedded()).isEqualTo(chunks - 2);
+        assertThat(resumed.unchanged()).isEqualTo(2);
+        assertThat(embeddedTexts).hasValue(chunks);
+        assertThat(storedIds()).isEqualTo(ids(pipeline.chunks(docs)));
+    }
+
+    @Test
+    void chunkBackInTheDocsBeforeItsDeleteIsKept() throws IOException {
+        page("flow/grid.adoc", "Grid", "Columns", "Sorting");
+        page("flow/button.adoc", "Button", "Variants");
+        pipeline.ingest(docs);
+        Set<String> all = storedIds();
+
+        // The page is removed, but its chunks cannot be deleted
+        Path button = docs.resolve("flow/button.adoc");
+        Files.move(button, directory.resolve("button.adoc"));
+        vectorStore.failDeletes.set(true);
+        assertThatThrownBy(() -> pipeline.ingest(docs)).isInstanceOf(IllegalStateException.class);
+
+        // The page is back before the delete succeeded
+        Files.move(directory.resolve("button.adoc"), button);
+        vectorStore.failDeletes.set(false);
+        var result = pipeline.ingest(docs);
+        assertThat(result.deleted()).isZero();
+        assertThat(storedIds()).isEqualTo(all);
+
+        var next = pipeline.ingest(docs);
+        assertThat(next.changed()).isFalse();
+        assertThat(storedIds()).isEqualTo(all);
+    }
+
+    private void page(String path, String title, String... sections) throws IOException {
+        StringBuilder text = new StringBuilder("= ").append(title).append("\n\n");
+        for (String section : sections) {
+            text.append("== ").append(section).append("\n\n")
+                .append("How to use ").append(section.toLowerCase()).append(" with the ").append(title)
+                .append(" component.\n\n");
+        }
+        Path file = docs.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, text);
+    }
+
+    private Set<String> storedIds() {
+        return ids(vectorStore.similaritySearch(SearchRequest.builder()
+            .query("component")
+            .topK(1000)
+            .similarityThresholdAll()
+            .build()));
+    }
+
+    private static Set<String> ids(List<Document> documents) {
+        return documents.stream().map(Document::getId).collect(Collectors.toSet());
+    }
+
+    /**
+     * A vector store that fails adds after a number of them, or deletes, like a store that becomes
+     * unavailable during a run.
+     */
+    private static class FailingVectorStore implements VectorStore {
+
+        final AtomicInteger addsBeforeFailure = new AtomicInteger(Integer.MAX_VALUE);
+        final AtomicBoolean failDeletes = new AtomicBoolean();
+        private final VectorStore delegate;
+
+        FailingVectorStore(VectorStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void add(List<Document> documents) {
+            if (addsBeforeFailure.getAndDecrement() <= 0) {
+                throw new IllegalStateException("Vector store unavailable");
+            }
+            delegate.add(documents);
+        }
+
+        @Override
+        public void delete(List<String> ids) {
+            if (failDeletes.get()) {
+                throw new IllegalStateException("Vector store unavailable");
+            }
+            delegate.delete(ids);
+        }
+
+        @Override
+        public void delete(Filter.Expression filterExpression) {
+            delegate.delete(filterExpression);
+        }
+
+        @Override
+        public List<Document> similaritySearch(SearchRequest request) {
+            return delegate.similaritySearch(request);
+        }
+    }
+}
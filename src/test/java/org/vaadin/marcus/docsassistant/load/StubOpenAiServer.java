@@ -0,0 +1,409 @@
+package org.vaadin.marcus.docsassistant.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+import org.vaadin.marcus.docsassistant.benchmark.HashingEmbeddingModel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * A local server that speaks enough of the OpenAI API for the application to run against it:
+ * streamed and blocking chat completions and embeddings. Replies are canned and delayed like a
+ * hosted model would be, so a load test measures the application instead of the model.
+ *
+ * <p>A chat reply is the one of the first rule whose marker occurs in the messages, or the default
+ * reply. Streamed replies are sent as one server-sent event per word token: the first after the
+ * first-token latency, the others after the token interval. Embeddings come from a
+ * {@link HashingEmbeddingModel}, so they match a replica that was built with the same model.
+ *
+ * <p>The server records which requests were aborted by the client, and how many are still running,
+ * to check that cancelled chats stop their model calls. Chat completions are also counted by the
+ * marker of the rule they matched, which tells apart the calls of the stages of a chat. Like a hosted model, blocking replies send
+ * their headers only once the reply is ready. They start with whitespace, which JSON allows before a
+ * value, and send the rest a moment later, so writing fails if the client has hung up meanwhile.
+ *
+ * <p>Like a rate-limited account, the server can limit the chat completions it serves at once, and
+ * answers those beyond the limit with HTTP 429. Like an overloaded one, it can answer a random share
+ * of chat completions with a much longer first-token latency, the tail that hedged requests cut.
+ */
+public class StubOpenAiServer implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StubOpenAiServer.class);
+
+    private static final Pattern TOKEN_BOUNDARY = Pattern.compile("(?<=\\s)");
+    private static final Duration PROBE_DELAY = Duration.ofMillis(10);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, String> replies;
+    private final String defaultReply;
+    private final Duration firstTokenLatency;
+    private final double tailShare;
+    private final Duration tailLatency;
+    private final Duration tokenInterval;
+    private final Duration embeddingLatency;
+    private final int chatLimit;
+    private final HashingEmbeddingModel embeddingModel;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong completionIds = new AtomicLong();
+    private final Map<String, LongAdder> completed = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> aborted = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> rateLimited = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> abortedReplies = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> runningReplies = new ConcurrentHashMap<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger runningChats = new AtomicInteger();
+
+    /**
+     * Starts a server on a free local port.
+     *
+     * @param replies           replies by a marker the messages must contain, checked in order
+     * @param defaultReply      the reply to messages that match no marker
+     * @param firstTokenLatency the delay before the first streamed token, and before a blocking reply
+     * @param tailShare         the share of chat completions that are delayed by the tail latency instead
+     * @param tailLatency       the first-token latency of those chat completions
+     * @param tokenInterval     the delay between streamed tokens
+     * @param embeddingLatency  the delay of an embedding request
+     * @param chatLimit         the number of chat completions served at once, 0 for no limit
+     * @param dimensions        the number of dimensions of the embeddings
+     * @throws IOException if the server cannot be started
+     */
+    public StubOpenAiServer(Map<String, String> replies, String defaultReply, Duration firstTokenLatency,
+                            double tailShare, Duration tailLatency, Duration tokenInterval, Duration embeddingLatency, int chatLimit, int dimensions)
+        throws IOException {
+        Assert.notNull(replies, "Replies must not be null!");
+        Assert.notNull(defaultReply, "Default reply must not be null!");
+        Assert.notNull(firstTokenLatency, "First token latency must not be null!");
+        Assert.isTrue(tailShare >= 0 && tailShare <= 1, "Tail share must be between 0 and 1!");
+        Assert.notNull(tailLatency, "Tail latency must not be null!");
+        Assert.notNull(tokenInterval, "Token interval must not be null!");
+        Assert.notNull(embeddingLatency, "Embedding latency must not be null!");
+        Assert.isTrue(chatLimit >= 0, "Chat limit must not be negative!");
+
+        this.replies = new LinkedHashMap<>(replies);
+        this.defaultReply = defaultReply;
+        this.firstTokenLatency = firstTokenLatency;
+        this.tailShare = tailShare;
+        this.tailLatency = tailLatency;
+        this.tokenInterval = tokenInterval;
+        this.embeddingLatency = embeddingLatency;
+        this.chatLimit = chatLimit;
+        this.embeddingModel = new HashingEmbeddingModel(dimensions);
+
+        // A hosted model serves any number of concurrent streams, so every request gets a thread
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/v1/chat/completions", exchange -> handle(exchange, this::chatCompletion));
+        this.server.createContext("/v1/embeddings", exchange -> handle(exchange, this::embeddings));
+        this.server.start();
+    }
+
+    /**
+     * Returns the base URL to configure as {@code spring.ai.openai.base-url}.
+     */
+    public String baseUrl() {
+        return "http://localhost:" + this.server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the number of requests that were answered completely, by kind: {@code chat-stream},
+     * {@code chat} or {@code embeddings}.
+     */
+    public Map<String, Long> completed() {
+        return counts(this.completed);
+    }
+
+    /**
+     * Returns the number of requests the client went away from before they were answered, by kind.
+     */
+    public Map<String, Long> aborted() {
+        return counts(this.aborted);
+    }
+
+    /**
+     * Returns the number of requests that were answered with HTTP 429 because of the chat limit, by kind.
+     */
+    public Map<String, Long> rateLimited() {
+        return counts(this.rateLimited);
+    }
+
+    /**
+     * Returns the number of chat completions the client went away from before they were answered,
+     * by the marker of the rule they matched, or the empty string for the default reply.
+     */
+    public Map<String, Long> abortedReplies() {
+        return counts(this.abortedReplies);
+    }
+
+    /**
+     * Returns the number of requests being answered right now.
+     */
+    public int running() {
+        return this.running.get();
+    }
+
+    /**
+     * Returns the number of chat completions being answered right now that matched the rule of a
+     * marker.
+     *
+     * @param marker the marker of the rule, or the empty string for the default reply
+     */
+    public int running(String marker) {
+        AtomicInteger running = this.runningReplies.get(marker);
+        return running != null ? running.get() : 0;
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange, JsonNode request) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) {
+        this.running.incrementAndGet();
+        String kind = "unknown";
+        String marker = null;
+        boolean chat = false;
+        try (exchange) {
+            JsonNode request = this.objectMapper.readTree(exchange.getRequestBody());
+            kind = exchange.getRequestURI().getPath().endsWith("/embeddings") ? "embeddings"
+                : request.path("stream").asBoolean() ? "chat-stream" : "chat";
+            if (!kind.equals("embeddings")) {
+                marker = marker(request);
+                this.runningReplies.computeIfAbsent(marker, m -> new AtomicInteger()).incrementAndGet();
+            }
+            chat = !kind.equals("embeddings") && this.chatLimit > 0;
+            if (chat && this.runningChats.incrementAndGet() > this.chatLimit) {
+                tooManyRequests(exchange);
+                this.rateLimited.computeIfAbsent(kind, k -> new LongAdder()).increment();
+                return;
+            }
+            handler.handle(exchange, request);
+            this.completed.computeIfAbsent(kind, k -> new LongAdder()).increment();
+        } catch (IOException e) {
+            // The client went away, for example because it cancelled the stream
+            this.aborted.computeIfAbsent(kind, k -> new LongAdder()).increment();
+            if (marker != null) {
+                this.abortedReplies.computeIfAbsent(marker, m -> new LongAdder()).increment();
+            }
+            logger.debug("Stub OpenAI request aborted", e);
+        } catch (RuntimeException e) {
+            logger.warn("Stub OpenAI request failed", e);
+        } finally {
+            if (chat) {
+                this.runningChats.decrementAndGet();
+            }
+            if (marker != null) {
+                this.runningReplies.get(marker).decrementAndGet();
+            }
+            this.running.decrementAndGet();
+        }
+    }
+
+    private void tooManyRequests(HttpExchange exchange) throws IOException {
+        ObjectNode response = this.objectMapper.createObjectNode();
+        response.putObject("error")
+            .put("message", "Rate limit reached for requests")
+            .put("type", "requests")
+            .put("code", "rate_limit_exceeded");
+        byte[] body = this.objectMapper.writeValueAsBytes(response);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(429, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private void chatCompletion(HttpExchange exchange, JsonNode request) throws IOException {
+        String text = text(request);
+        String reply = this.replies.getOrDefault(marker(request), this.defaultReply);
+        List<String> tokens = tokens(reply);
+        String id = "chatcmpl-stub-" + this.completionIds.incrementAndGet();
+        String model = request.path("model").asText("stub");
+        int promptTokens = text.length() / 4;
+        Duration firstTokenLatency = ThreadLocalRandom.current().nextDouble() < this.tailShare
+            ? this.tailLatency
+            : this.firstTokenLatency;
+
+        if (!request.path("stream").asBoolean()) {
+            sleep(firstTokenLatency.plus(this.tokenInterval.multipliedBy(tokens.size())));
+            ObjectNode response = this.objectMapper.createObjectNode()
+                .put("id", id)
+                .put("object", "chat.completion")
+                .put("created", System.currentTimeMillis() / 1000)
+                .put("model", model);
+            ObjectNode choice = response.putArray("choices").addObject();
+            choice.put("index", 0).put("finish_reason", "stop");
+            choice.putObject("message").put("role", "assistant").put("content", reply);
+            usage(response, promptTokens, tokens.size());
+            reply(exchange, this.objectMapper.writeValueAsBytes(response));
+            return;
+        }
+
+        OutputStream body = begin(exchange, "text/event-stream");
+        sleep(firstTokenLatency);
+        for (int i = 0; i < tokens.size(); i++) {
+            if (i > 0) {
+                sleep(this.tokenInterval);
+            }
+            ObjectNode delta = chunk(id, model, i == 0 ? "assistant" : null, tokens.get(i), null);
+            event(body, this.objectMapper.writeValueAsString(delta));
+        }
+        event(body, this.objectMapper.writeValueAsString(chunk(id, model, null, null, "stop")));
+        if (request.path("stream_options").path("include_usage").asBoolean()) {
+            ObjectNode usage = chunk(id, model, null, null, null);
+            usage.putArray("choices");
+            usage(usage, promptTokens, tokens.size());
+            event(body, this.objectMapper.writeValueAsString(usage));
+        }
+        event(body, "[DONE]");
+    }
+
+    /**
+     * Returns the marker of the first rule that matches the messages of a chat completion, or the
+     * empty string if none does.
+     */
+    private String marker(JsonNode request) {
+        String text = text(request);
+        return this.replies.keySet().stream()
+            .filter(text::contains)
+            .findFirst()
+            .orElse("");
+    }
+
+    private static String text(JsonNode request) {
+        StringBuilder text = new StringBuilder();
+        request.path("messages").forEach(message -> text.append(message.path("content").asText()).append('\n'));
+        return text.toString();
+    }
+
+    private void embeddings(HttpExchange exchange, JsonNode request) throws IOException {
+        List<String> inputs = new ArrayList<>();
+        JsonNode input = request.path("input");
+        if (input.isArray()) {
+            input.forEach(value -> inputs.add(value.asText()));
+        } else {
+            inputs.add(input.asText());
+        }
+        sleep(this.embeddingLatency);
+
+        ObjectNode response = this.objectMapper.createObjectNode()
+            .put("object", "list")
+            .put("model", request.path("model").asText("stub"));
+        ArrayNode data = response.putArray("data");
+        int tokens = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            ObjectNode embedding = data.addObject().put("object", "embedding").put("index", i);
+            ArrayNode vector = embedding.putArray("embedding");
+            for (float value : this.embeddingModel.embed(inputs.get(i))) {
+                vector.add(value);
+            }
+            tokens += inputs.get(i).length() / 4;
+        }
+        response.putObject("usage").put("prompt_tokens", tokens).put("total_tokens", tokens);
+        reply(exchange, this.objectMapper.writeValueAsBytes(response));
+    }
+
+    private ObjectNode chunk(String id, String model, String role, String content, String finishReason) {
+        ObjectNode chunk = this.objectMapper.createObjectNode()
+            .put("id", id)
+            .put("object", "chat.completion.chunk")
+            .put("created", System.currentTimeMillis() / 1000)
+            .put("model", model);
+        ObjectNode choice = chunk.putArray("choices").addObject();
+        choice.put("index", 0).put("finish_reason", finishReason);
+        ObjectNode delta = choice.putObject("delta");
+        if (role != null) {
+            delta.put("role", role);
+        }
+        if (content != null) {
+            delta.put("content", content);
+        }
+        return chunk;
+    }
+
+    private static void usage(ObjectNode response, int promptTokens, int completionTokens) {
+        response.putObject("usage")
+            .put("prompt_tokens", promptTokens)
+            .put("completion_tokens", completionTokens)
+            .put("total_tokens", promptTokens + completionTokens);
+    }
+
+    private static void event(OutputStream body, String data) throws IOException {
+        body.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        body.flush();
+    }
+
+    private static OutputStream begin(HttpExchange exchange, String contentType) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, 0);
+        return exchange.getResponseBody();
+    }
+
+    /**
+     * Sends a blocking JSON reply in two writes, so that the second fails if the client has gone.
+     */
+    private static void reply(HttpExchange exchange, byte[] json) throws IOException {
+        OutputStream body = begin(exchange, "application/json");
+        body.write(' ');
+        body.flush();
+        sleep(PROBE_DELAY);
+        body.write(json);
+        body.flush();
+    }
+
+    private static Map<String, Long> counts(Map<String, LongAdder> counters) {
+        Map<String, Long> counts = new TreeMap<>();
+        counters.forEach((kind, count) -> counts.put(kind, count.sum()));
+        return counts;
+    }
+
+    private static List<String> tokens(String reply) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : TOKEN_BOUNDARY.split(reply)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private static void sleep(Duration duration) {
+        if (duration.isZero()) {
+            return;
+        }
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.vaadin.marcus.docsassistant.memory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BoundedChatMemoryTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private BoundedChatMemory memory;
+
+    @AfterEach
+    void tearDown() {
+        memory.close();
+    }
+
+    @Test
+    void conversationKeepsItsLatestMessages() {
+        memory = new BoundedChatMemory(3, 100, 1_000_000, Duration.ofHours(1), 1024, meterRegistry);
+        for (int i = 1; i <= 5; i++) {
+            memory.add("chat", List.of(new UserMessage("question " + i)));
+        }
+
+        assertThat(texts(memory.get("chat", 10))).containsExactly("question 3", "question 4", "question 5");
+        assertThat(texts(memory.get("chat", 2))).containsExactly("question 4", "question 5");
+
+        memory.clear("chat");
+        assertThat(memory.get("chat", 10)).isEmpty();
+        assertThat(memory.retainedBytes()).isZero();
+    }
+
+    @Test
+    void leastRecentlyUsedConversationsAreEvictedBeyondTheMaxConversations() throws InterruptedException {
+        memory = new BoundedChatMemory(100, 10, 1_000_000, Duration.ofHours(1), 1024, meterRegistry);
+        for (int i = 0; i < 10; i++) {
+            memory.add("chat-" + i, List.of(new UserMessage("question")));
+            Thread.sleep(2);
+        }
+        // Reading a conversation makes it recently used
+        memory.get("chat-0", 10);
+        Thread.sleep(2);
+
+        memory.add("chat-10", List.of(new UserMessage("question")));
+        assertThat(memory.conversationCount()).isEqualTo(9);
+        assertThat(memory.get("chat-1", 10)).isEmpty();
+        assertThat(memory.get("chat-2", 10)).isEmpty();
+        assertThat(memory.get("chat-0", 10)).hasSize(1);
+        assertThat(memory.get("chat-10", 10)).hasSize(1);
+        assertThat(evictions("capacity")).isEqualTo(2);
+    }
+
+    @Test
+    void leastRecentlyUsedConversationsAreEvictedBeyondTheMaxBytes() throws InterruptedException {
+        memory = new BoundedChatMemory(100, 100, 10_000, Duration.ofHours(1), Integer.MAX_VALUE, meterRegistry);
+        for (int i = 0; i < 10; i++) {
+            memory.add("chat-" + i, List.of(new UserMessage("x".repeat(2_000))));
+            assertThat(memory.retainedBytes()).isLessThanOrEqualTo(10_000);
+            Thread.sleep(2);
+        }
+
+        assertThat(memory.get("chat-9", 10)).hasSize(1);
+        assertThat(memory.get("chat-0", 10)).isEmpty();
+        assertThat(memory.conversationCount()).isLessThan(10);
+    }
+
+    @Test
+    void longMessagesAreDeflatedAndRestored() {
+        memory = new BoundedChatMemory(100, 100, 1_000_000, Duration.ofHours(1), 256, meterRegistry);
+        String answer = "Call `grid.addColumn(Person::getName)` to add a column – ünïcödé 🚀.\n".repeat(200);
+        String random = randomText(1_000);
+        memory.add("chat", List.of(new SystemMessage("summary"), new UserMessage(random),
+            new AssistantMessage(answer)));
+
+        List<Message> messages = memory.get("chat", 10);
+        assertThat(messages).extracting(Message::getMessageType)
+            .containsExactly(MessageType.SYSTEM, MessageType.USER, MessageType.ASSISTANT);
+        assertThat(texts(messages)).containsExactly("summary", random, answer);
+        // The repetitive answer is kept deflated, far below its UTF-8 size
+        assertThat(memory.retainedBytes()).isLessThan(answer.getBytes(StandardCharsets.UTF_8).length / 4);
+    }
+
+    @Test
+    void idleConversationsAreSwept() throws InterruptedException {
+        memory = new BoundedChatMemory(100, 100, 1_000_000, Duration.ofMillis(200), 1024, meterRegistry);
+        memory.add("idle", List.of(new UserMessage("question")));
+        memory.add("active", List.of(new UserMessage("question")));
+        Thread.sleep(300);
+        memory.get("active", 10);
+
+        memory.evictIdle();
+        assertThat(memory.get("idle", 10)).isEmpty();
+        assertThat(memory.get("active", 10)).hasSize(1);
+        assertThat(memory.conversationCount()).isEqualTo(1);
+        assertThat(evictions("idle")).isEqualTo(1);
+    }
+
+    private double evictions(String reason) {
+        return meterRegistry.counter("docs.assistant.chat.memory.evictions", "reason", reason).count();
+    }
+
+    private static String randomText(int length) {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('!' + random.nextInt(94)));
+        }
+        return text.toString();
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+}
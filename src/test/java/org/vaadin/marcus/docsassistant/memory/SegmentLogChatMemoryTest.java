@@ -0,0 +1,164 @@
+package org.vaadin.marcus.docsassistant.memory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentLogChatMemoryTest {
+
+    // Small enough that every message starts a new segment
+    private static final long SEGMENT_SIZE = 64;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void corruptRecordInSealedSegmentIsSkipped() throws IOException {
+        try (var memory = open()) {
+            for (String text : List.of("first", "second", "third")) {
+                memory.add("chat", List.of(new UserMessage(text)));
+            }
+        }
+        List<Path> segments = segments();
+        assertThat(segments).hasSize(3);
+        long size = Files.size(segments.getFirst());
+        flipByte(segments.getFirst(), size - 1);
+
+        try (var memory = open()) {
+            assertThat(texts(memory.get("chat", 10))).containsExactly("second", "third");
+        }
+        assertThat(Files.size(segments.getFirst())).isEqualTo(size);
+    }
+
+    @Test
+    void recordsAfterCorruptRecordInSealedSegmentAreRecovered() throws IOException {
+        try (var memory = open(1_000)) {
+            memory.add("chat", List.of(new UserMessage("first"), new UserMessage("second")));
+            // Does not fit the rest of the first segment, so it starts the second
+            memory.add("chat", List.of(new UserMessage("x".repeat(2_000))));
+        }
+        List<Path> segments = segments();
+        assertThat(segments).hasSize(2);
+        // The first record is 8 header bytes plus a payload, its last byte is part of the text "first"
+        flipByte(segments.getFirst(), recordLength(segments.getFirst()) - 1);
+
+        try (var memory = open(1_000)) {
+            List<String> texts = texts(memory.get("chat", 10));
+            assertThat(texts).hasSize(2);
+            assertThat(texts.getFirst()).isEqualTo("second");
+        }
+    }
+
+    @Test
+    void tornRecordAtEndOfActiveSegmentIsTruncated() throws IOException {
+        try (var memory = open()) {
+            memory.add("chat", List.of(new UserMessage("first")));
+            memory.add("chat", List.of(new UserMessage("second")));
+        }
+        Path active = segments().getLast();
+        long size = Files.size(active);
+        Files.write(active, new byte[] {0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (var memory = open()) {
+            assertThat(texts(memory.get("chat", 10))).containsExactly("first", "second");
+            assertThat(Files.size(active)).isEqualTo(size);
+            memory.add("chat", List.of(new UserMessage("third")));
+        }
+        try (var memory = open()) {
+            assertThat(texts(memory.get("chat", 10))).containsExactly("first", "second", "third");
+        }
+    }
+
+    @Test
+    void interruptedCallerDoesNotBreakOtherConversations() throws Exception {
+        try (var memory = open(1_000)) {
+            memory.add("other", List.of(new UserMessage("before")));
+
+            // Like a cancelled answer, whose thread is interrupted while it remembers the question
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread cancelled = new Thread(() -> {
+                Thread.currentThread().interrupt();
+                try {
+                    memory.add("cancelled", List.of(new UserMessage("question")));
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            cancelled.start();
+            cancelled.join();
+            assertThat(failure.get()).isInstanceOf(UncheckedIOException.class);
+
+            assertThat(texts(memory.get("other", 10))).containsExactly("before");
+            memory.add("other", List.of(new UserMessage("after")));
+            memory.add("cancelled", List.of(new UserMessage("again")));
+            assertThat(texts(memory.get("other", 10))).containsExactly("before", "after");
+            assertThat(texts(memory.get("cancelled", 10))).containsExactly("again");
+
+            Thread.currentThread().interrupt();
+            try {
+                assertThatThrownBy(() -> memory.get("other", 10)).isInstanceOf(UncheckedIOException.class);
+            } finally {
+                Thread.interrupted();
+            }
+            assertThat(texts(memory.get("other", 10))).containsExactly("before", "after");
+            memory.flush();
+        }
+        try (var memory = open(1_000)) {
+            assertThat(texts(memory.get("other", 10))).containsExactly("before", "after");
+            assertThat(texts(memory.get("cancelled", 10))).containsExactly("again");
+        }
+    }
+
+    private SegmentLogChatMemory open() throws IOException {
+        return open(SEGMENT_SIZE);
+    }
+
+    private SegmentLogChatMemory open(long segmentSize) throws IOException {
+        return new SegmentLogChatMemory(directory, 100, segmentSize, Duration.ofHours(1), Duration.ofHours(1),
+            Duration.ofDays(1), new SimpleMeterRegistry());
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static long recordLength(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, 0);
+            return 8 + length.flip().getInt();
+        }
+    }
+
+    private static void flipByte(Path file, long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer value = ByteBuffer.allocate(1);
+            channel.read(value, position);
+            value.put(0, (byte) (value.get(0) ^ 0xff));
+            channel.write(value.rewind(), position);
+        }
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+}
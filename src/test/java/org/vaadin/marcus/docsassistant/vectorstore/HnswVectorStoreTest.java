@@ -0,0 +1,110 @@
+package org.vaadin.marcus.docsassistant.vectorstore;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.vaadin.marcus.docsassistant.benchmark.HashingEmbeddingModel;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswVectorStoreTest {
+
+    private static final int DIMENSIONS = 64;
+
+    @TempDir
+    Path directory;
+
+    private HnswVectorStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = open();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Test
+    void snapshotCompactsMostlyDeadStore() throws IOException {
+        store.add(documents(0, 40));
+        store.delete(IntStream.range(0, 30).mapToObj(i -> "doc-" + i).toList());
+        // Replacing a document leaves a dead row too
+        store.add(List.of(document(35, "Topic 35 was rewritten: how to theme a Vaadin view.")));
+        assertThat(store.rows()).isEqualTo(41);
+
+        store.snapshot();
+        assertThat(store.rows()).isEqualTo(10);
+        assertThat(store.size()).isEqualTo(10);
+        assertThat(topHit("Topic 34: how to use component 34 in a Vaadin view.")).isEqualTo("doc-34");
+        assertThat(topHit("Topic 35 was rewritten: how to theme a Vaadin view.")).isEqualTo("doc-35");
+
+        store.close();
+        store = open();
+        assertThat(store.rows()).isEqualTo(10);
+        assertThat(topHit("Topic 37: how to use component 37 in a Vaadin view.")).isEqualTo("doc-37");
+    }
+
+    @Test
+    void snapshotKeepsMostlyLiveStore() throws IOException {
+        store.add(documents(0, 40));
+        store.delete(IntStream.range(0, 10).mapToObj(i -> "doc-" + i).toList());
+
+        store.snapshot();
+        assertThat(store.rows()).isEqualTo(40);
+        assertThat(store.size()).isEqualTo(30);
+    }
+
+    @Test
+    void deletedDocumentsDoNotCountForKeywordWeights() {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            documents.add(document(i, "The Grid component shows rows of data, part " + i + "."));
+        }
+        documents.add(document(10, "The Button component triggers an action."));
+        documents.add(document(11, "The TextField component takes text input."));
+        store.add(documents);
+        store.delete(IntStream.range(1, 10).mapToObj(i -> "doc-" + i).toList());
+
+        List<Document> hits = store.keywordSearch(SearchRequest.builder().query("grid").topK(5).build());
+        assertThat(hits).extracting(Document::getId).containsExactly("doc-0");
+        assertThat(hits.getFirst().getScore()).isPositive();
+    }
+
+    private String topHit(String query) {
+        return store.similaritySearch(SearchRequest.builder().query(query).topK(1).build()).getFirst().getId();
+    }
+
+    private HnswVectorStore open() throws IOException {
+        return new HnswVectorStore(new HashingEmbeddingModel(DIMENSIONS), directory, DIMENSIONS, "framework", 16,
+            100, 64, new SimpleMeterRegistry());
+    }
+
+    private static List<Document> documents(int from, int to) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            documents.add(document(i, "Topic %d: how to use component %d in a Vaadin view.".formatted(i, i)));
+        }
+        return documents;
+    }
+
+    private static Document document(int index, String text) {
+        return Document.builder()
+            .id("doc-" + index)
+            .text(text)
+            .metadata(Map.of("framework", index % 2 == 0 ? "flow" : "hilla"))
+            .build();
+    }
+}
@@ -0,0 +1,104 @@
+package org.vaadin.marcus.docsassistant.vectorstore;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.vaadin.marcus.docsassistant.benchmark.HashingEmbeddingModel;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VectorStoreReplicatorTest {
+
+    private static final int DIMENSIONS = 64;
+
+    @TempDir
+    Path directory;
+
+    private final AtomicInteger embeddedTexts = new AtomicInteger();
+    private HnswVectorStore replica;
+    private VectorStoreReplicator replicator;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        replica = open();
+        replicator = new VectorStoreReplicator(replica, 10);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        replica.close();
+    }
+
+    @Test
+    void replicaMatchesTheDocuments() throws IOException {
+        List<Document> documents = documents(25);
+        replicator.sync(documents);
+        assertThat(replica.fingerprints()).hasSize(25);
+        assertThat(embeddedTexts).hasValue(25);
+
+        // Unchanged documents are not embedded again
+        replicator.sync(documents);
+        assertThat(embeddedTexts).hasValue(25);
+
+        List<Document> updated = new ArrayList<>(documents.subList(1, 25));
+        updated.set(0, document(1, "Binder binds form fields to bean properties, now with validation."));
+        replicator.sync(updated);
+        assertThat(replica.fingerprints().keySet())
+            .hasSize(24)
+            .doesNotContain("doc-0");
+        assertThat(replica.fingerprints().get("doc-1")).isEqualTo(HnswVectorStore.fingerprint(updated.getFirst()));
+        assertThat(embeddedTexts).hasValue(26);
+    }
+
+    @Test
+    void syncedReplicaSurvivesRestart() throws IOException {
+        replicator.sync(documents(25));
+        replica.close();
+
+        replica = open();
+        replicator = new VectorStoreReplicator(replica, 10);
+        assertThat(replica.size()).isEqualTo(25);
+        replicator.sync(documents(25));
+        assertThat(embeddedTexts).hasValue(25);
+    }
+
+    private HnswVectorStore open() throws IOException {
+        var embeddingModel = new HashingEmbeddingModel(DIMENSIONS) {
+            @Override
+            public EmbeddingResponse call(EmbeddingRequest request) {
+                embeddedTexts.addAndGet(request.getInstructions().size());
+                return super.call(request);
+            }
+        };
+        return new HnswVectorStore(embeddingModel, directory, DIMENSIONS, "framework", 16, 100, 64,
+            new SimpleMeterRegistry());
+    }
+
+    private static List<Document> documents(int count) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            documents.add(document(i, "Topic %d: how to use component %d in a Vaadin view.".formatted(i, i)));
+        }
+        return documents;
+    }
+
+    private static Document document(int index, String text) {
+        return Document.builder()
+            .id("doc-" + index)
+            .text(text)
+            .metadata(Map.of("framework", index % 2 == 0 ? "flow" : "hilla"))
+            .build();
+    }
+}